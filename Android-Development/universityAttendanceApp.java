@@ -1,593 +1,9450 @@
-import java.io.Serializable;
-import java.time.LocalDate;
-import java.time.LocalTime;
-import java.time.format.DateTimeFormatter;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
-import java.util.UUID; // For unique IDs
-
-/**
- * Represents a user in the system (Student or Instructor).
- * Implements Serializable for potential use with data persistence.
- */
-class User implements Serializable {
-    private static final long serialVersionUID = 1L;
-
-    public enum Role {
-        STUDENT, INSTRUCTOR
-    }
-
-    private String userId;
-    private String username;
-    private String email;
-    private String passwordHash; // In a real app, store hash, not plain password
-    private Role role;
-    private String fullName;
-    private String studentId; // For students
-    private String facultyId; // For instructors
-
-    public User(String username, String email, String passwordHash, Role role, String fullName) {
-        this.userId = UUID.randomUUID().toString();
-        this.username = username;
-        this.email = email;
-        this.passwordHash = passwordHash;
-        this.role = role;
-        this.fullName = fullName;
-    }
-
-    // --- Getters ---
-    public String getUserId() { return userId; }
-    public String getUsername() { return username; }
-    public String getEmail() { return email; }
-    public String getPasswordHash() { return passwordHash; }
-    public Role getRole() { return role; }
-    public String getFullName() { return fullName; }
-    public String getStudentId() { return studentId; }
-    public String getFacultyId() { return facultyId; }
-
-    // --- Setters (for profile updates) ---
-    public void setUsername(String username) { this.username = username; }
-    public void setEmail(String email) { this.email = email; }
-    public void setPasswordHash(String passwordHash) { this.passwordHash = passwordHash; }
-    public void setFullName(String fullName) { this.fullName = fullName; }
-    public void setStudentId(String studentId) { this.studentId = studentId; }
-    public void setFacultyId(String facultyId) { this.facultyId = facultyId; }
-
-    @Override
-    public String toString() {
-        return "User{" +
-               "userId='" + userId.substring(0, 8) + '\'' +
-               ", username='" + username + '\'' +
-               ", email='" + email + '\'' +
-               ", role=" + role +
-               ", fullName='" + fullName + '\'' +
-               '}';
-    }
-}
-
-/**
- * Represents a university course.
- * Implements Serializable for potential use with data persistence.
- */
-class Course implements Serializable {
-    private static final long serialVersionUID = 1L;
-    private String courseId;
-    private String courseCode; // e.g., "CS101"
-    private String courseName; // e.g., "Introduction to Programming"
-    private String instructorId; // Link to User.userId of the instructor
-    private List<String> studentIds; // List of User.userIds enrolled in this course
-
-    public Course(String courseCode, String courseName, String instructorId) {
-        this.courseId = UUID.randomUUID().toString();
-        this.courseCode = courseCode;
-        this.courseName = courseName;
-        this.instructorId = instructorId;
-        this.studentIds = new ArrayList<>();
-    }
-
-    // --- Getters ---
-    public String getCourseId() { return courseId; }
-    public String getCourseCode() { return courseCode; }
-    public String getCourseName() { return courseName; }
-    public String getInstructorId() { return instructorId; }
-    public List<String> getStudentIds() { return studentIds; }
-
-    // --- Setters ---
-    public void setCourseCode(String courseCode) { this.courseCode = courseCode; }
-    public void setCourseName(String courseName) { this.courseName = courseName; }
-    public void setInstructorId(String instructorId) { this.instructorId = instructorId; }
-
-    public void addStudent(String studentId) {
-        if (!studentIds.contains(studentId)) {
-            studentIds.add(studentId);
-        }
-    }
-
-    public void removeStudent(String studentId) {
-        studentIds.remove(studentId);
-    }
-
-    @Override
-    public String toString() {
-        return "Course{" +
-               "courseCode='" + courseCode + '\'' +
-               ", courseName='" + courseName + '\'' +
-               ", instructorId='" + instructorId.substring(0, 8) + '\'' +
-               '}';
-    }
-}
-
-/**
- * Represents an attendance record for a student in a specific course on a given date.
- * Implements Serializable for potential use with data persistence.
- */
-class AttendanceRecord implements Serializable {
-    private static final long serialVersionUID = 1L;
-    private String recordId;
-    private String courseId;
-    private String studentId;
-    private LocalDate date;
-    private LocalTime timeMarked; // When attendance was marked
-    private boolean isPresent;
-
-    public AttendanceRecord(String courseId, String studentId, LocalDate date, LocalTime timeMarked, boolean isPresent) {
-        this.recordId = UUID.randomUUID().toString();
-        this.courseId = courseId;
-        this.studentId = studentId;
-        this.date = date;
-        this.timeMarked = timeMarked;
-        this.isPresent = isPresent;
-    }
-
-    // --- Getters ---
-    public String getRecordId() { return recordId; }
-    public String getCourseId() { return courseId; }
-    public String getStudentId() { return studentId; }
-    public LocalDate getDate() { return date; }
-    public LocalTime getTimeMarked() { return timeMarked; }
-    public boolean isPresent() { return isPresent; }
-
-    // --- Setters (for updating status if needed) ---
-    public void setPresent(boolean present) { isPresent = present; }
-
-    @Override
-    public String toString() {
-        DateTimeFormatter dateFormatter = DateTimeFormatter.ofPattern("yyyy-MM-dd");
-        DateTimeFormatter timeFormatter = DateTimeFormatter.ofPattern("HH:mm");
-        return "AttendanceRecord{" +
-               "courseId='" + courseId.substring(0, 8) + '\'' +
-               ", studentId='" + studentId.substring(0, 8) + '\'' +
-               ", date=" + date.format(dateFormatter) +
-               ", timeMarked=" + timeMarked.format(timeFormatter) +
-               ", isPresent=" + isPresent +
-               '}';
-    }
-}
-
-/**
- * Conceptual Authentication Manager.
- * In a real Android app, this would use Firebase Authentication or a custom backend.
- */
-class AuthenticationManager {
-    // In a real app, this would interact with a database (e.g., Firebase Firestore/Auth)
-    // private DatabaseManager dbManager; // Reference to your database manager
-
-    // For simulation, we'll use in-memory storage for users
-    private Map<String, User> registeredUsers = new HashMap<>();
-    private User currentUser = null; // Currently logged-in user
-
-    public AuthenticationManager(/*DatabaseManager dbManager*/) {
-        // this.dbManager = dbManager;
-        // Load users from DB on init
-        // For demo, add some dummy users
-        User instructor = new User("profsmith", "smith@university.edu", "pass123", User.Role.INSTRUCTOR, "Prof. John Smith");
-        instructor.setFacultyId("F001");
-        registeredUsers.put(instructor.getUserId(), instructor);
-
-        User student1 = new User("johndoe", "john@student.edu", "pass123", User.Role.STUDENT, "John Doe");
-        student1.setStudentId("S001");
-        registeredUsers.put(student1.getUserId(), student1);
-
-        User student2 = new User("janesmith", "jane@student.edu", "pass123", User.Role.STUDENT, "Jane Smith");
-        student2.setStudentId("S002");
-        registeredUsers.put(student2.getUserId(), student2);
-    }
-
-    /**
-     * Registers a new user.
-     * @param username
-     * @param email
-     * @param password
-     * @param role
-     * @param fullName
-     * @return The registered User object, or null if registration fails (e.g., username/email taken).
-     */
-    public User registerUser(String username, String email, String password, User.Role role, String fullName) {
-        // In a real app: check if username/email already exists in DB
-        // Hash the password before storing! (e.g., BCrypt)
-        for (User user : registeredUsers.values()) {
-            if (user.getUsername().equals(username) || user.getEmail().equals(email)) {
-                System.out.println("Registration failed: Username or email already exists.");
-                return null;
-            }
-        }
-
-        User newUser = new User(username, email, password /* HASHED PASSWORD */, role, fullName);
-        registeredUsers.put(newUser.getUserId(), newUser);
-        // dbManager.saveUser(newUser); // Save to database
-        System.out.println("User registered: " + newUser.getUsername());
-        return newUser;
-    }
-
-    /**
-     * Authenticates a user.
-     * @param usernameOrEmail
-     * @param password
-     * @return The authenticated User object, or null if authentication fails.
-     */
-    public User loginUser(String usernameOrEmail, String password) {
-        for (User user : registeredUsers.values()) {
-            if ((user.getUsername().equals(usernameOrEmail) || user.getEmail().equals(usernameOrEmail)) &&
-                user.getPasswordHash().equals(password) /* COMPARE HASHED PASSWORD */) {
-                currentUser = user;
-                System.out.println("User logged in: " + user.getUsername());
-                return user;
-            }
-        }
-        System.out.println("Login failed: Invalid credentials.");
-        return null;
-    }
-
-    /**
-     * Logs out the current user.
-     */
-    public void logoutUser() {
-        currentUser = null;
-        System.out.println("User logged out.");
-    }
-
-    /**
-     * Gets the currently logged-in user.
-     * @return The current User, or null if no one is logged in.
-     */
-    public User getCurrentUser() {
-        return currentUser;
-    }
-
-    /**
-     * Retrieves a user by their ID.
-     * @param userId
-     * @return User object or null.
-     */
-    public User getUserById(String userId) {
-        return registeredUsers.get(userId);
-    }
-}
-
-/**
- * Conceptual Database Manager.
- * This class would abstract the actual database operations (SQLite or Firebase).
- * In a real app, this would be an interface or an abstract class with concrete
- * implementations for SQLiteManager and FirebaseManager.
- */
-class DatabaseManager {
-    // This class would contain methods to interact with your chosen database.
-    // For Firebase:
-    // private FirebaseFirestore db;
-    // For SQLite:
-    // private SQLiteOpenHelper dbHelper;
-
-    public DatabaseManager(/* Android Context or Firebase App instance */) {
-        // Initialize FirebaseFirestore or SQLiteOpenHelper here
-    }
-
-    // --- User Operations ---
-    public void saveUser(User user) {
-        System.out.println("DB: Saving user: " + user.getUsername());
-        // Firebase: db.collection("users").document(user.getUserId()).set(user);
-        // SQLite: Insert into users table
-    }
-
-    public User getUser(String userId) {
-        System.out.println("DB: Fetching user: " + userId);
-        // Firebase: db.collection("users").document(userId).get().toObject(User.class);
-        // SQLite: Select from users table
-        return null; // Placeholder
-    }
-
-    public List<User> getAllUsersByRole(User.Role role) {
-        System.out.println("DB: Fetching all " + role + "s");
-        // Firebase: db.collection("users").whereEqualTo("role", role.name()).get().toObjects(User.class);
-        // SQLite: Select from users table where role = ?
-        return new ArrayList<>(); // Placeholder
-    }
-
-    // --- Course Operations ---
-    public void saveCourse(Course course) {
-        System.out.println("DB: Saving course: " + course.getCourseCode());
-        // Firebase: db.collection("courses").document(course.getCourseId()).set(course);
-        // SQLite: Insert into courses table
-    }
-
-    public Course getCourse(String courseId) {
-        System.out.println("DB: Fetching course: " + courseId);
-        // Firebase: db.collection("courses").document(courseId).get().toObject(Course.class);
-        // SQLite: Select from courses table
-        return null; // Placeholder
-    }
-
-    public List<Course> getCoursesByInstructor(String instructorId) {
-        System.out.println("DB: Fetching courses for instructor: " + instructorId);
-        // Firebase: db.collection("courses").whereEqualTo("instructorId", instructorId).get().toObjects(Course.class);
-        // SQLite: Select from courses table where instructorId = ?
-        return new ArrayList<>(); // Placeholder
-    }
-
-    public List<Course> getCoursesByStudent(String studentId) {
-        System.out.println("DB: Fetching courses for student: " + studentId);
-        // Firebase: db.collection("courses").whereArrayContains("studentIds", studentId).get().toObjects(Course.class);
-        // SQLite: Complex join or separate enrollment table
-        return new ArrayList<>(); // Placeholder
-    }
-
-    // --- Attendance Operations ---
-    public void saveAttendanceRecord(AttendanceRecord record) {
-        System.out.println("DB: Saving attendance record for " + record.getStudentId() + " on " + record.getDate());
-        // Firebase: db.collection("attendance").document(record.getRecordId()).set(record);
-        // SQLite: Insert into attendance table
-    }
-
-    public List<AttendanceRecord> getAttendanceForCourse(String courseId) {
-        System.out.println("DB: Fetching attendance for course: " + courseId);
-        // Firebase: db.collection("attendance").whereEqualTo("courseId", courseId).get().toObjects(AttendanceRecord.class);
-        // SQLite: Select from attendance table where courseId = ?
-        return new ArrayList<>(); // Placeholder
-    }
-
-    public List<AttendanceRecord> getAttendanceForStudentInCourse(String studentId, String courseId) {
-        System.out.println("DB: Fetching attendance for student " + studentId + " in course " + courseId);
-        // Firebase: db.collection("attendance").whereEqualTo("studentId", studentId).whereEqualTo("courseId", courseId).get().toObjects(AttendanceRecord.class);
-        // SQLite: Select from attendance table where studentId = ? AND courseId = ?
-        return new ArrayList<>(); // Placeholder
-    }
-
-    // Other CRUD methods (update, delete) for all models would also go here.
-}
-
-/**
- * Main application logic manager.
- * Orchestrates interactions between AuthenticationManager and DatabaseManager.
- */
-class UniversityAttendanceSystem {
-    private AuthenticationManager authManager;
-    private DatabaseManager dbManager;
-
-    public UniversityAttendanceSystem() {
-        this.dbManager = new DatabaseManager(); // Initialize DB connection
-        this.authManager = new AuthenticationManager(); // Pass dbManager if it loads users from DB
-        // For demo, we'll manually add some data to dbManager for testing
-        // In a real app, dbManager would load data from the actual database
-        addInitialDummyData();
-    }
-
-    private void addInitialDummyData() {
-        // Simulate adding users to the database via authManager's internal map
-        // In a real app, users would be loaded from dbManager.getAllUsers()
-        User instructor = authManager.getUserById("F001"); // Assuming F001 is set in AuthManager
-        if (instructor == null) {
-            instructor = authManager.registerUser("profsmith", "smith@university.edu", "pass123", User.Role.INSTRUCTOR, "Prof. John Smith");
-            if (instructor != null) instructor.setFacultyId("F001");
-        }
-
-        User student1 = authManager.getUserById("S001"); // Assuming S001 is set in AuthManager
-        if (student1 == null) {
-            student1 = authManager.registerUser("johndoe", "john@student.edu", "pass123", User.Role.STUDENT, "John Doe");
-            if (student1 != null) student1.setStudentId("S001");
-        }
-
-        User student2 = authManager.getUserById("S002"); // Assuming S002 is set in AuthManager
-        if (student2 == null) {
-            student2 = authManager.registerUser("janesmith", "jane@student.edu", "pass123", User.Role.STUDENT, "Jane Smith");
-            if (student2 != null) student2.setStudentId("S002");
-        }
-
-
-        if (instructor != null && student1 != null && student2 != null) {
-            // Simulate adding courses to the database
-            Course cs101 = new Course("CS101", "Intro to Programming", instructor.getUserId());
-            cs101.addStudent(student1.getUserId());
-            cs101.addStudent(student2.getUserId());
-            dbManager.saveCourse(cs101);
-
-            Course ma201 = new Course("MA201", "Calculus I", instructor.getUserId());
-            ma201.addStudent(student1.getUserId());
-            dbManager.saveCourse(ma201);
-
-            // Simulate marking attendance
-            dbManager.saveAttendanceRecord(new AttendanceRecord(cs101.getCourseId(), student1.getUserId(), LocalDate.now(), LocalTime.now(), true));
-            dbManager.saveAttendanceRecord(new AttendanceRecord(cs101.getCourseId(), student2.getUserId(), LocalDate.now(), LocalTime.now(), false));
-            dbManager.saveAttendanceRecord(new AttendanceRecord(cs101.getCourseId(), student1.getUserId(), LocalDate.now().minusDays(1), LocalTime.now().minusHours(1), true));
-        }
-    }
-
-    public AuthenticationManager getAuthManager() {
-        return authManager;
-    }
-
-    public DatabaseManager getDbManager() {
-        return dbManager;
-    }
-
-    // You would add high-level methods here that combine auth and db operations
-    // e.g., markStudentAttendance(currentUser, courseId, studentId, isPresent)
-    // e.g., getStudentCourses(currentUser.getUserId())
-}
-
-// --- Conceptual Android Activity/Fragment Integration ---
-/*
-// Example of how you might use these managers in an Android Activity/Fragment
-// This is NOT runnable code as it requires Android SDK, project setup, and actual database implementation.
-
-import android.os.Bundle;
-import androidx.appcompat.app.AppCompatActivity;
-import android.widget.Button;
-import android.widget.EditText;
-import android.widget.RadioGroup;
-import android.widget.RadioButton;
-import android.widget.Toast;
-import android.content.Intent;
-import android.view.View;
-
-// For Firebase integration, you'd need:
-// import com.google.firebase.FirebaseApp;
-// import com.google.firebase.auth.FirebaseAuth;
-// import com.google.firebase.firestore.FirebaseFirestore;
-
-public class LoginActivity extends AppCompatActivity {
-
-    private EditText etUsernameEmail, etPassword;
-    private Button btnLogin, btnRegister;
-    private UniversityAttendanceSystem appSystem; // Main system instance
-
-    @Override
-    protected void onCreate(Bundle savedInstanceState) {
-        super.onCreate(savedInstanceState);
-        setContentView(R.layout.activity_login); // Your login layout
-
-        // Initialize your main system
-        // In a real app, this might be a singleton or passed via Application class
-        appSystem = new UniversityAttendanceSystem();
-
-        etUsernameEmail = findViewById(R.id.etUsernameEmail);
-        etPassword = findViewById(R.id.etPassword);
-        btnLogin = findViewById(R.id.btnLogin);
-        btnRegister = findViewById(R.id.btnRegister);
-
-        btnLogin.setOnClickListener(new View.OnClickListener() {
-            @Override
-            public void onClick(View v) {
-                String usernameEmail = etUsernameEmail.getText().toString().trim();
-                String password = etPassword.getText().toString().trim();
-
-                User loggedInUser = appSystem.getAuthManager().loginUser(usernameEmail, password);
-                if (loggedInUser != null) {
-                    Toast.makeText(LoginActivity.this, "Login Successful!", Toast.LENGTH_SHORT).show();
-                    // Navigate to appropriate dashboard based on role
-                    Intent intent;
-                    if (loggedInUser.getRole() == User.Role.STUDENT) {
-                        intent = new Intent(LoginActivity.this, StudentDashboardActivity.class);
-                    } else {
-                        intent = new Intent(LoginActivity.this, InstructorDashboardActivity.class);
-                    }
-                    startActivity(intent);
-                    finish(); // Close login activity
-                } else {
-                    Toast.makeText(LoginActivity.this, "Login Failed: Invalid credentials.", Toast.LENGTH_LONG).show();
-                }
-            }
-        });
-
-        btnRegister.setOnClickListener(new View.OnClickListener() {
-            @Override
-            public void onClick(View v) {
-                // Navigate to registration activity
-                Intent intent = new Intent(LoginActivity.this, RegisterActivity.class);
-                startActivity(intent);
-            }
-        });
-    }
-}
-
-public class RegisterActivity extends AppCompatActivity {
-    private EditText etRegUsername, etRegEmail, etRegPassword, etRegFullName;
-    private RadioGroup rgRole;
-    private Button btnSubmitRegister;
-    private UniversityAttendanceSystem appSystem;
-
-    @Override
-    protected void onCreate(Bundle savedInstanceState) {
-        super.onCreate(savedInstanceState);
-        setContentView(R.layout.activity_register); // Your registration layout
-
-        appSystem = new UniversityAttendanceSystem(); // Or get from Application class
-
-        etRegUsername = findViewById(R.id.etRegUsername);
-        etRegEmail = findViewById(R.id.etRegEmail);
-        etRegPassword = findViewById(R.id.etRegPassword);
-        etRegFullName = findViewById(R.id.etRegFullName);
-        rgRole = findViewById(R.id.rgRole);
-        btnSubmitRegister = findViewById(R.id.btnSubmitRegister);
-
-        btnSubmitRegister.setOnClickListener(new View.OnClickListener() {
-            @Override
-            public void onClick(View v) {
-                String username = etRegUsername.getText().toString().trim();
-                String email = etRegEmail.getText().toString().trim();
-                String password = etRegPassword.getText().toString().trim();
-                String fullName = etRegFullName.getText().toString().trim();
-
-                int selectedRoleId = rgRole.getCheckedRadioButtonId();
-                User.Role role = null;
-                if (selectedRoleId == R.id.rbStudent) {
-                    role = User.Role.STUDENT;
-                } else if (selectedRoleId == R.id.rbInstructor) {
-                    role = User.Role.INSTRUCTOR;
-                }
-
-                if (username.isEmpty() || email.isEmpty() || password.isEmpty() || fullName.isEmpty() || role == null) {
-                    Toast.makeText(RegisterActivity.this, "Please fill all fields!", Toast.LENGTH_SHORT).show();
-                    return;
-                }
-
-                User newUser = appSystem.getAuthManager().registerUser(username, email, password, role, fullName);
-                if (newUser != null) {
-                    Toast.makeText(RegisterActivity.this, "Registration successful!", Toast.LENGTH_SHORT).show();
-                    finish(); // Go back to login
-                } else {
-                    Toast.makeText(RegisterActivity.this, "Registration failed. Try different username/email.", Toast.LENGTH_LONG).show();
-                }
-            }
-        });
-    }
-}
-
-// Conceptual Student Dashboard Activity
-public class StudentDashboardActivity extends AppCompatActivity {
-    // ... UI elements for displaying courses, marking attendance ...
-    // private UniversityAttendanceSystem appSystem;
-    // private User currentUser;
-
-    @Override
-    protected void onCreate(Bundle savedInstanceState) {
-        super.onCreate(savedInstanceState);
-        setContentView(R.layout.activity_student_dashboard);
-
-        // currentUser = appSystem.getAuthManager().getCurrentUser(); // Get logged in user
-
-        // Fetch courses for this student using appSystem.getDbManager().getCoursesByStudent(currentUser.getUserId());
-        // Display them in a RecyclerView
-        // Implement logic for marking attendance (e.g., button click marks present for today)
-    }
-}
-
-// Conceptual Instructor Dashboard Activity
-public class InstructorDashboardActivity extends AppCompatActivity {
-    // ... UI elements for managing courses, viewing student rosters, marking attendance ...
-    // private UniversityAttendanceSystem appSystem;
-    // private User currentUser;
-
-    @Override
-    protected void onCreate(Bundle savedInstanceState) {
-        super.onCreate(savedInstanceState);
-        setContentView(R.layout.activity_instructor_dashboard);
-
-        // currentUser = appSystem.getAuthManager().getCurrentUser(); // Get logged in user
-
-        // Fetch courses taught by this instructor using appSystem.getDbManager().getCoursesByInstructor(currentUser.getUserId());
-        // Display them in a RecyclerView
-        // Implement logic for viewing student attendance, adding/removing students from courses
-    }
-}
-*/
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URLDecoder;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.time.Clock;
+import java.time.DateTimeException;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.UUID; // For unique IDs
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import java.util.zip.CRC32;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanParameterInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Source of entity ids for User, Course and AttendanceRecord.
+ * Numeric generators hand out 64-bit ids that entities keep as a long and only render
+ * to a String when getXxxId() is first called; string generators (UUIDs) are rendered eagerly.
+ */
+interface IdGenerator {
+    boolean isNumeric();
+    long nextNumericId();
+    String nextStringId();
+}
+
+/**
+ * Random UUID ids, as used before time-ordered ids were introduced. Kept for compatibility.
+ */
+class UuidIdGenerator implements IdGenerator {
+    @Override
+    public boolean isNumeric() { return false; }
+
+    @Override
+    public long nextNumericId() {
+        throw new UnsupportedOperationException("UUID ids are not numeric");
+    }
+
+    @Override
+    public String nextStringId() {
+        return UUID.randomUUID().toString();
+    }
+}
+
+/**
+ * Snowflake-style 64-bit ids: 41 bits of milliseconds since 2020-01-01, a 10-bit node id and a
+ * 12-bit per-millisecond sequence. Ids from one node are strictly increasing (a burst of more than
+ * 4096 ids in a millisecond borrows from the next millisecond), so storage sees sequential inserts.
+ * Lock-free; no SecureRandom involved.
+ */
+class TimeOrderedIdGenerator implements IdGenerator {
+    private static final long EPOCH_MILLIS = 1577836800000L; // 2020-01-01T00:00:00Z
+    private static final int NODE_BITS = 10;
+    private static final int SEQUENCE_BITS = 12;
+
+    private final long node;
+    private final AtomicLong lastState = new AtomicLong(); // (millis << SEQUENCE_BITS) | sequence
+
+    public TimeOrderedIdGenerator(int nodeId) {
+        if (nodeId < 0 || nodeId >= (1 << NODE_BITS)) {
+            throw new IllegalArgumentException("nodeId must be in [0, " + (1 << NODE_BITS) + ")");
+        }
+        this.node = nodeId;
+    }
+
+    @Override
+    public boolean isNumeric() { return true; }
+
+    @Override
+    public long nextNumericId() {
+        while (true) {
+            long previous = lastState.get();
+            long now = System.currentTimeMillis() - EPOCH_MILLIS;
+            long next = now > (previous >>> SEQUENCE_BITS) ? now << SEQUENCE_BITS : previous + 1;
+            if (lastState.compareAndSet(previous, next)) {
+                long millis = next >>> SEQUENCE_BITS;
+                long sequence = next & ((1L << SEQUENCE_BITS) - 1);
+                return (millis << (NODE_BITS + SEQUENCE_BITS)) | (node << SEQUENCE_BITS) | sequence;
+            }
+        }
+    }
+
+    @Override
+    public String nextStringId() {
+        return IdGenerators.render(nextNumericId());
+    }
+}
+
+/**
+ * Holds the process-wide IdGenerator and the String forms of numeric ids.
+ */
+final class IdGenerators {
+    private static volatile IdGenerator current = new TimeOrderedIdGenerator(0);
+
+    private IdGenerators() {}
+
+    public static IdGenerator get() { return current; }
+    public static void set(IdGenerator generator) { current = generator; }
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    /**
+     * Renders a numeric id as 16 lower-case hex digits, so string order matches numeric (time) order.
+     */
+    static String render(long id) {
+        char[] chars = new char[16];
+        for (int i = 15; i >= 0; i--) {
+            chars[i] = HEX[(int) (id & 0xF)];
+            id >>>= 4;
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Short form for logs and toString(): the first 8 characters of a UUID, or the low 8 hex
+     * digits (node + sequence) of a time-ordered id, whose high digits are shared by ids of the same moment.
+     */
+    static String abbreviate(String id) {
+        if (id == null) return null;
+        if (id.length() == 16) return id.substring(8);
+        return id.length() <= 8 ? id : id.substring(0, 8);
+    }
+
+    static String abbreviate(long id) {
+        return render(id).substring(8);
+    }
+}
+
+/**
+ * Log-linear latency histogram in the style of HdrHistogram. Values up to 16ns are exact; above
+ * that, each power of two is split into 16 sub-buckets, which keeps every value within about 6%.
+ * Values above about 18 minutes are clamped to the top bucket.
+ *
+ * record() is lock-free and allocation-free. The counts are striped by thread, so concurrent
+ * threads mostly update different arrays, and the stripes are only summed when a snapshot is taken.
+ */
+final class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_EXPONENT = 40; // 2^40 ns
+    static final long HIGHEST_TRACKABLE = (1L << MAX_EXPONENT) - 1;
+    static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+    // A power of two of at least twice the cores, capped because each stripe is BUCKETS longs (~4.7 KB)
+    private static final int STRIPES = Math.min(8, Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1) << 1);
+
+    private final AtomicLongArray[] stripes = new AtomicLongArray[STRIPES];
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    LatencyHistogram() {
+        for (int i = 0; i < STRIPES; i++) stripes[i] = new AtomicLongArray(BUCKETS);
+    }
+
+    public void record(long nanos) {
+        long value = Math.min(Math.max(nanos, 0), HIGHEST_TRACKABLE);
+        stripes[stripe()].incrementAndGet(bucketOf(value));
+        sum.add(value);
+        max.accumulate(value);
+    }
+
+    /**
+     * Sums the stripes. Concurrent records may or may not be included.
+     */
+    public Snapshot snapshot() {
+        long[] counts = new long[BUCKETS];
+        for (AtomicLongArray stripe : stripes) {
+            for (int i = 0; i < BUCKETS; i++) counts[i] += stripe.get(i);
+        }
+        return new Snapshot(counts, sum.sum(), max.get());
+    }
+
+    static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) return (int) value;
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+    }
+
+    // Largest value that lands in the bucket
+    static long highestInBucket(int bucket) {
+        if (bucket < SUB_BUCKETS) return bucket;
+        int shift = bucket / SUB_BUCKETS - 1;
+        return ((long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift) + (1L << shift) - 1;
+    }
+
+    // Thread ids are stable and never allocate; the multiply spreads consecutive ids across stripes
+    private static int stripe() {
+        return (int) ((Thread.currentThread().getId() * 0x9E3779B97F4A7C15L) >>> 32) & (STRIPES - 1);
+    }
+
+    /**
+     * Point-in-time copy of a histogram.
+     */
+    static final class Snapshot {
+        private final long[] counts;
+        private final long count;
+        private final long sum;
+        private final long max;
+
+        Snapshot(long[] counts, long sum, long max) {
+            this.counts = counts;
+            long total = 0;
+            for (long c : counts) total += c;
+            this.count = total;
+            this.sum = sum;
+            this.max = max;
+        }
+
+        public long getCount() { return count; }
+        public long getMaxNanos() { return max; }
+        public double getMeanNanos() { return count == 0 ? 0 : (double) sum / count; }
+
+        /**
+         * @param percentile 0 to 100, e.g. 99.9.
+         * @return The upper bound of the bucket holding that percentile, or 0 if nothing was recorded.
+         */
+        public long getNanosAtPercentile(double percentile) {
+            if (count == 0) return 0;
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) return Math.min(highestInBucket(i), max);
+            }
+            return max;
+        }
+    }
+}
+
+/**
+ * Times one kind of operation into a LatencyHistogram. Operations at or above the slow threshold
+ * are also emitted as a SlowOperationEvent when a JFR recording has that event enabled.
+ *
+ * Usage: {@code long start = System.nanoTime(); try { ... } finally { timer.record(start); }}
+ */
+final class OperationTimer {
+    private final String name;
+    private final long slowNanos;
+    private final LatencyHistogram histogram = new LatencyHistogram();
+
+    OperationTimer(String name, long slowNanos) {
+        this.name = name;
+        this.slowNanos = slowNanos;
+    }
+
+    /**
+     * Records the time since start, a System.nanoTime() reading.
+     */
+    public void record(long start) {
+        long nanos = System.nanoTime() - start;
+        histogram.record(nanos);
+        if (nanos >= slowNanos) SlowOperationEvent.emit(name, nanos);
+    }
+
+    public String getName() { return name; }
+    public long getSlowThresholdNanos() { return slowNanos; }
+    public LatencyHistogram.Snapshot snapshot() { return histogram.snapshot(); }
+}
+
+/**
+ * JFR event for an instrumented operation slower than its timer's threshold. Enabled by default,
+ * so {@code -XX:StartFlightRecording} or {@code jcmd <pid> JFR.start} picks it up without a custom settings file.
+ */
+@Name("university.SlowOperation")
+@Label("Slow Operation")
+@Category("University Attendance")
+@Description("An instrumented operation that took at least its slow threshold")
+@StackTrace(false)
+class SlowOperationEvent extends Event {
+    @Label("Operation")
+    String operation;
+
+    // Not "duration": JFR reserves that for the event's own begin/end span, which isn't used here
+    @Label("Elapsed")
+    @Timespan(Timespan.NANOSECONDS)
+    long elapsed;
+
+    static void emit(String operation, long nanos) {
+        SlowOperationEvent event = new SlowOperationEvent();
+        if (!event.isEnabled()) return;
+        event.operation = operation;
+        event.elapsed = nanos;
+        event.commit();
+    }
+}
+
+/**
+ * Named counters and operation timers. Components look their metrics up once, when they are built,
+ * and keep the handles, so the hot paths never touch the registry's maps.
+ * The registry can be read as a text dump (dump()) or over JMX (registerMBean()).
+ */
+class MetricsRegistry {
+    static final long DEFAULT_SLOW_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    static final String DEFAULT_OBJECT_NAME = "university.attendance:type=Metrics";
+
+    private final long defaultSlowNanos;
+    private final ConcurrentMap<String, LongAdder> counters = new ConcurrentSkipListMap<>();
+    private final ConcurrentMap<String, OperationTimer> timers = new ConcurrentSkipListMap<>();
+
+    public MetricsRegistry() {
+        this(DEFAULT_SLOW_NANOS);
+    }
+
+    /**
+     * @param defaultSlowNanos Slow threshold for timers created without their own.
+     */
+    public MetricsRegistry(long defaultSlowNanos) {
+        this.defaultSlowNanos = defaultSlowNanos;
+    }
+
+    /**
+     * @return The counter with that name, created on first use.
+     */
+    public LongAdder counter(String name) {
+        return counters.computeIfAbsent(name, n -> new LongAdder());
+    }
+
+    public OperationTimer timer(String name) {
+        return timer(name, defaultSlowNanos);
+    }
+
+    /**
+     * @return The timer with that name, created on first use. An existing timer keeps its threshold.
+     */
+    public OperationTimer timer(String name, long slowNanos) {
+        return timers.computeIfAbsent(name, n -> new OperationTimer(n, slowNanos));
+    }
+
+    public Map<String, LongAdder> getCounters() { return Collections.unmodifiableMap(counters); }
+    public Map<String, OperationTimer> getTimers() { return Collections.unmodifiableMap(timers); }
+
+    /**
+     * Text view: one line per counter, then one line per timer with its count and latency
+     * percentiles in microseconds. Timers that never ran are left out.
+     */
+    public String dump() {
+        StringBuilder out = new StringBuilder();
+        for (Map.Entry<String, LongAdder> counter : counters.entrySet()) {
+            out.append(counter.getKey()).append(' ').append(counter.getValue().sum()).append('\n');
+        }
+        for (OperationTimer timer : timers.values()) {
+            LatencyHistogram.Snapshot s = timer.snapshot();
+            if (s.getCount() == 0) continue;
+            out.append(String.format(Locale.ROOT, "%s count=%d mean=%.1fus p50=%.1fus p90=%.1fus p99=%.1fus p999=%.1fus max=%.1fus%n",
+                    timer.getName(), s.getCount(), s.getMeanNanos() / 1e3, s.getNanosAtPercentile(50) / 1e3, s.getNanosAtPercentile(90) / 1e3,
+                    s.getNanosAtPercentile(99) / 1e3, s.getNanosAtPercentile(99.9) / 1e3, s.getMaxNanos() / 1e3));
+        }
+        return out.toString();
+    }
+
+    /**
+     * Publishes the registry on the platform MBean server, replacing anything already registered under the name.
+     * @return false if JMX is unavailable or the name is invalid; the registry keeps working either way.
+     */
+    public boolean registerMBean(String objectName) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(objectName);
+            if (server.isRegistered(name)) server.unregisterMBean(name);
+            server.registerMBean(new View(), name);
+            return true;
+        } catch (JMException e) {
+            System.err.println("Metrics: JMX registration failed: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * JMX view. Attributes are read-only and computed on each read: every counter under its own name,
+     * and per timer "<name>.count" plus "<name>.mean", ".p50", ".p90", ".p99", ".p999" and ".max" in microseconds.
+     * The "dump" operation returns the text view.
+     */
+    private final class View implements DynamicMBean {
+        private static final String DUMP = "dump";
+
+        @Override
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+            LongAdder counter = counters.get(attribute);
+            if (counter != null) return counter.sum();
+            int dot = attribute.lastIndexOf('.');
+            OperationTimer timer = dot < 0 ? null : timers.get(attribute.substring(0, dot));
+            if (timer == null) throw new AttributeNotFoundException(attribute);
+            LatencyHistogram.Snapshot s = timer.snapshot();
+            switch (attribute.substring(dot + 1)) {
+                case "count": return s.getCount();
+                case "mean": return s.getMeanNanos() / 1e3;
+                case "p50": return s.getNanosAtPercentile(50) / 1e3;
+                case "p90": return s.getNanosAtPercentile(90) / 1e3;
+                case "p99": return s.getNanosAtPercentile(99) / 1e3;
+                case "p999": return s.getNanosAtPercentile(99.9) / 1e3;
+                case "max": return s.getMaxNanos() / 1e3;
+                default: throw new AttributeNotFoundException(attribute);
+            }
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] attributes) {
+            AttributeList list = new AttributeList();
+            for (String attribute : attributes) {
+                try {
+                    list.add(new Attribute(attribute, getAttribute(attribute)));
+                } catch (AttributeNotFoundException e) {
+                    // Left out, as the JMX contract asks
+                }
+            }
+            return list;
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+            throw new AttributeNotFoundException("Metrics are read-only: " + attribute.getName());
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        @Override
+        public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+            if (DUMP.equals(actionName)) return dump();
+            throw new ReflectionException(new NoSuchMethodException(actionName));
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            List<MBeanAttributeInfo> attributes = new ArrayList<>();
+            for (String name : counters.keySet()) {
+                attributes.add(new MBeanAttributeInfo(name, "long", "Counter", true, false, false));
+            }
+            for (String name : timers.keySet()) {
+                attributes.add(new MBeanAttributeInfo(name + ".count", "long", "Operations timed", true, false, false));
+                for (String stat : new String[] {"mean", "p50", "p90", "p99", "p999", "max"}) {
+                    attributes.add(new MBeanAttributeInfo(name + "." + stat, "double", "Latency (us)", true, false, false));
+                }
+            }
+            MBeanOperationInfo dump = new MBeanOperationInfo(DUMP, "Text dump of every metric", new MBeanParameterInfo[0],
+                    "java.lang.String", MBeanOperationInfo.INFO);
+            return new MBeanInfo(MetricsRegistry.class.getName(), "Attendance system counters and latency histograms",
+                    attributes.toArray(new MBeanAttributeInfo[0]), null, new MBeanOperationInfo[] {dump}, null);
+        }
+    }
+}
+
+/**
+ * Holds the process-wide MetricsRegistry. Swap it before building the components that should report
+ * to a different one (e.g., one per test); components already built keep the registry they started with.
+ */
+final class Metrics {
+    private static volatile MetricsRegistry current = new MetricsRegistry();
+
+    private Metrics() {}
+
+    public static MetricsRegistry get() { return current; }
+    public static void set(MetricsRegistry registry) { current = registry; }
+}
+
+/**
+ * Represents a user in the system (Student or Instructor).
+ * Implements Serializable for potential use with data persistence.
+ */
+class User implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    public enum Role {
+        STUDENT, INSTRUCTOR
+    }
+
+    private String userId; // Rendered lazily from userIdBits when the id is numeric
+    private long userIdBits;
+    private String username;
+    private String email;
+    private String passwordHash; // PasswordHasher output (legacy stores may still hold plaintext)
+    private Role role;
+    private String fullName;
+    private String studentId; // For students
+    private String facultyId; // For instructors
+    private transient ProfileListener profileListener; // Keeps lookup indexes in step with profile edits
+
+    /**
+     * Notified before a username or email change is applied, so that lookup indexes
+     * keyed by those fields can follow the profile. A listener may veto the change
+     * by throwing an IllegalArgumentException (e.g., the new value is already taken).
+     */
+    interface ProfileListener {
+        void onUsernameChange(User user, String oldUsername, String newUsername);
+        void onEmailChange(User user, String oldEmail, String newEmail);
+    }
+
+    public User(String username, String email, String passwordHash, Role role, String fullName) {
+        this(null, username, email, passwordHash, role, fullName);
+        IdGenerator ids = IdGenerators.get();
+        if (ids.isNumeric()) userIdBits = ids.nextNumericId(); else userId = ids.nextStringId();
+    }
+
+    // Used when restoring a persisted user with a numeric id, which stays unrendered
+    User(long userIdBits, String username, String email, String passwordHash, Role role, String fullName) {
+        this(null, username, email, passwordHash, role, fullName);
+        this.userIdBits = userIdBits;
+    }
+
+    // Copy of a user's current state (without listeners), e.g. for a snapshot version
+    User(User other) {
+        this(other.userId, other.username, other.email, other.passwordHash, other.role, other.fullName);
+        this.userIdBits = other.userIdBits;
+        this.studentId = other.studentId;
+        this.facultyId = other.facultyId;
+    }
+
+    // Used when restoring a persisted user, keeping its original id
+    User(String userId, String username, String email, String passwordHash, Role role, String fullName) {
+        this.userId = userId;
+        this.username = username;
+        this.email = email;
+        this.passwordHash = passwordHash;
+        this.role = role;
+        this.fullName = fullName;
+    }
+
+    // --- Getters ---
+    public String getUserId() {
+        if (userId == null) userId = IdGenerators.render(userIdBits);
+        return userId;
+    }
+    public String getUsername() { return username; }
+    public String getEmail() { return email; }
+    public String getPasswordHash() { return passwordHash; }
+    public Role getRole() { return role; }
+    public String getFullName() { return fullName; }
+    public String getStudentId() { return studentId; }
+    public String getFacultyId() { return facultyId; }
+    long getUserIdBits() { return userIdBits; } // 0 unless the id is numeric
+
+    // --- Setters (for profile updates) ---
+    public void setUsername(String username) {
+        if (profileListener != null) profileListener.onUsernameChange(this, this.username, username);
+        this.username = username;
+    }
+    public void setEmail(String email) {
+        if (profileListener != null) profileListener.onEmailChange(this, this.email, email);
+        this.email = email;
+    }
+    public void setPasswordHash(String passwordHash) { this.passwordHash = passwordHash; }
+    public void setFullName(String fullName) { this.fullName = fullName; }
+    public void setStudentId(String studentId) { this.studentId = studentId; }
+    public void setFacultyId(String facultyId) { this.facultyId = facultyId; }
+
+    void setProfileListener(ProfileListener profileListener) { this.profileListener = profileListener; }
+
+    @Override
+    public String toString() {
+        return "User{" +
+               "userId='" + (userId != null ? IdGenerators.abbreviate(userId) : IdGenerators.abbreviate(userIdBits)) + '\'' +
+               ", username='" + username + '\'' +
+               ", email='" + email + '\'' +
+               ", role=" + role +
+               ", fullName='" + fullName + '\'' +
+               '}';
+    }
+}
+
+/**
+ * Represents a university course.
+ * Implements Serializable for potential use with data persistence.
+ */
+class Course implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private String courseId; // Rendered lazily from courseIdBits when the id is numeric
+    private long courseIdBits;
+    private String courseCode; // e.g., "CS101"
+    private String courseName; // e.g., "Introduction to Programming"
+    private String instructorId; // Link to User.userId of the instructor
+    private volatile Set<String> studentIds; // User.userIds enrolled in this course; hash lookups, enrollment order kept for display
+    private transient volatile RosterListener rosterListener; // Keeps student/instructor -> course indexes in step
+    // Once a store holds the course, edits run under the store's lock and replace the roster set
+    // instead of changing it, so readers can iterate getStudentIds() without any lock
+    private transient volatile Object storeLock;
+    private transient volatile boolean shared;
+
+    /**
+     * Told about each roster or instructor change just before the course applies it, under the
+     * store's lock; throwing leaves that change unapplied.
+     */
+    interface RosterListener {
+        void onStudentAdded(Course course, String studentId);
+        void onStudentRemoved(Course course, String studentId);
+        void onInstructorChange(Course course, String oldInstructorId, String newInstructorId);
+        // Called once the edit is complete and the store's lock is released
+        default void afterChange(Course course) { }
+    }
+
+    public Course(String courseCode, String courseName, String instructorId) {
+        this(null, courseCode, courseName, instructorId);
+        IdGenerator ids = IdGenerators.get();
+        if (ids.isNumeric()) courseIdBits = ids.nextNumericId(); else courseId = ids.nextStringId();
+    }
+
+    // Used when restoring a persisted course with a numeric id, which stays unrendered
+    Course(long courseIdBits, String courseCode, String courseName, String instructorId) {
+        this(null, courseCode, courseName, instructorId);
+        this.courseIdBits = courseIdBits;
+    }
+
+    // Copy of a course's current state and roster (without listeners), e.g. for a snapshot version
+    Course(Course other) {
+        this(other.courseId, other.courseCode, other.courseName, other.instructorId);
+        this.courseIdBits = other.courseIdBits;
+        this.studentIds.addAll(other.studentIds);
+    }
+
+    // Used when restoring a persisted course, keeping its original id
+    Course(String courseId, String courseCode, String courseName, String instructorId) {
+        this.courseId = courseId;
+        this.courseCode = courseCode;
+        this.courseName = courseName;
+        this.instructorId = instructorId;
+        this.studentIds = new LinkedHashSet<>();
+    }
+
+    // --- Getters ---
+    public String getCourseId() {
+        if (courseId == null) courseId = IdGenerators.render(courseIdBits);
+        return courseId;
+    }
+    public String getCourseCode() { return courseCode; }
+    public String getCourseName() { return courseName; }
+    public String getInstructorId() { return instructorId; }
+    public Set<String> getStudentIds() { return Collections.unmodifiableSet(studentIds); }
+    public boolean isEnrolled(String studentId) { return studentIds.contains(studentId); }
+    long getCourseIdBits() { return courseIdBits; } // 0 unless the id is numeric
+
+    // --- Setters ---
+    public void setCourseCode(String courseCode) { this.courseCode = courseCode; }
+    public void setCourseName(String courseName) { this.courseName = courseName; }
+    public void setInstructorId(String instructorId) {
+        RosterListener listener;
+        synchronized (lock()) {
+            listener = rosterListener;
+            if (listener != null) listener.onInstructorChange(this, this.instructorId, instructorId);
+            this.instructorId = instructorId;
+        }
+        if (listener != null) listener.afterChange(this);
+    }
+
+    /**
+     * @param storeLock The lock the store guards its indexes with; roster edits take it. Null when detaching.
+     */
+    void setRosterListener(RosterListener rosterListener, Object storeLock) {
+        // Called under the store's own lock, so no other lock is taken here. Shared first: a course
+        // one store has published is never again edited in place.
+        if (storeLock != null) shared = true;
+        this.storeLock = storeLock;
+        this.rosterListener = rosterListener;
+    }
+
+    public void addStudent(String studentId) {
+        addStudents(Collections.singletonList(studentId));
+    }
+
+    public void removeStudent(String studentId) {
+        removeStudents(Collections.singletonList(studentId));
+    }
+
+    /**
+     * Enrolls many students at once; students already enrolled are skipped.
+     * @return The number of students newly enrolled.
+     */
+    public int addStudents(Collection<String> studentIds) {
+        RosterListener listener;
+        List<String> added = new ArrayList<>();
+        synchronized (lock()) {
+            listener = rosterListener;
+            Set<String> roster = editableRoster();
+            for (String studentId : studentIds) {
+                if (roster.add(studentId)) added.add(studentId);
+            }
+            int accepted = 0;
+            try {
+                if (listener != null) {
+                    for (; accepted < added.size(); accepted++) listener.onStudentAdded(this, added.get(accepted));
+                }
+            } finally {
+                // The roster is a copy whenever there is a listener, so a refused student is simply left out
+                roster.removeAll(added.subList(listener != null ? accepted : added.size(), added.size()));
+                this.studentIds = roster;
+            }
+        }
+        if (listener != null && !added.isEmpty()) listener.afterChange(this);
+        return added.size();
+    }
+
+    /**
+     * Drops many students at once; students not enrolled are ignored.
+     * @return The number of students removed.
+     */
+    public int removeStudents(Collection<String> studentIds) {
+        RosterListener listener;
+        List<String> removed = new ArrayList<>();
+        synchronized (lock()) {
+            listener = rosterListener;
+            Set<String> roster = editableRoster();
+            for (String studentId : studentIds) {
+                if (roster.remove(studentId)) removed.add(studentId);
+            }
+            int accepted = 0;
+            try {
+                if (listener != null) {
+                    for (; accepted < removed.size(); accepted++) listener.onStudentRemoved(this, removed.get(accepted));
+                }
+            } finally {
+                roster.addAll(removed.subList(listener != null ? accepted : removed.size(), removed.size()));
+                this.studentIds = roster;
+            }
+        }
+        if (listener != null && !removed.isEmpty()) listener.afterChange(this);
+        return removed.size();
+    }
+
+    private Object lock() {
+        Object lock = storeLock;
+        return lock != null ? lock : this;
+    }
+
+    // A course no store has seen is edited in place; a shared one gets a copy, swapped in afterwards
+    private Set<String> editableRoster() {
+        return shared ? new LinkedHashSet<>(studentIds) : studentIds;
+    }
+
+    @Override
+    public String toString() {
+        return "Course{" +
+               "courseCode='" + courseCode + '\'' +
+               ", courseName='" + courseName + '\'' +
+               ", instructorId='" + IdGenerators.abbreviate(instructorId) + '\'' +
+               '}';
+    }
+}
+
+/**
+ * Represents an attendance record for a student in a specific course on a given date.
+ * Implements Serializable for potential use with data persistence.
+ */
+class AttendanceRecord implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private String recordId; // Rendered lazily: from recordIdBits when numeric, else the natural id
+    private long recordIdBits;
+    private String courseId;
+    private String studentId;
+    private LocalDate date;
+    private LocalTime timeMarked; // When attendance was marked
+    private boolean isPresent;
+    private transient PresenceListener presenceListener; // Lets the owning store follow setPresent
+
+    /**
+     * Notified after setPresent changes a record, so the store holding it can write the change through.
+     */
+    interface PresenceListener {
+        void onPresenceChange(AttendanceRecord record, boolean isPresent);
+    }
+
+    public AttendanceRecord(String courseId, String studentId, LocalDate date, LocalTime timeMarked, boolean isPresent) {
+        this(null, courseId, studentId, date, timeMarked, isPresent);
+        IdGenerator ids = IdGenerators.get();
+        if (ids.isNumeric()) recordIdBits = ids.nextNumericId(); else recordId = ids.nextStringId();
+    }
+
+    // Used when restoring a persisted record with a numeric id, which stays unrendered
+    AttendanceRecord(long recordIdBits, String courseId, String studentId, LocalDate date, LocalTime timeMarked, boolean isPresent) {
+        this(null, courseId, studentId, date, timeMarked, isPresent);
+        this.recordIdBits = recordIdBits;
+    }
+
+    // Used when restoring a persisted record, keeping its original id. A null id stands for
+    // the natural (course/student/date) id, rendered only if asked for.
+    AttendanceRecord(String recordId, String courseId, String studentId, LocalDate date, LocalTime timeMarked, boolean isPresent) {
+        this.recordId = recordId;
+        this.courseId = courseId;
+        this.studentId = studentId;
+        this.date = date;
+        this.timeMarked = timeMarked;
+        this.isPresent = isPresent;
+    }
+
+    // --- Getters ---
+    public String getRecordId() {
+        if (recordId == null) {
+            recordId = recordIdBits != 0 ? IdGenerators.render(recordIdBits) : naturalId(courseId, studentId, date);
+        }
+        return recordId;
+    }
+    public String getCourseId() { return courseId; }
+    public String getStudentId() { return studentId; }
+    public LocalDate getDate() { return date; }
+    public LocalTime getTimeMarked() { return timeMarked; }
+    public boolean isPresent() { return isPresent; }
+    long getRecordIdBits() { return recordIdBits; } // 0 unless the id is numeric
+    String getStoredRecordId() { return recordIdBits != 0 ? null : recordId; } // null for a natural id not yet rendered
+
+    // --- Setters (for updating status if needed) ---
+    public void setPresent(boolean present) {
+        boolean wasPresent = isPresent;
+        isPresent = present;
+        if (presenceListener != null) {
+            try {
+                presenceListener.onPresenceChange(this, present);
+            } catch (RuntimeException e) {
+                isPresent = wasPresent; // the store refused the flip
+                throw e;
+            }
+        }
+    }
+
+    void setPresenceListener(PresenceListener presenceListener) { this.presenceListener = presenceListener; }
+
+    /**
+     * Deterministic id for the single mark a student can have in a course on a date.
+     */
+    static String naturalId(String courseId, String studentId, LocalDate date) {
+        return courseId + '/' + studentId + '/' + date;
+    }
+
+    @Override
+    public String toString() {
+        DateTimeFormatter dateFormatter = DateTimeFormatter.ofPattern("yyyy-MM-dd");
+        DateTimeFormatter timeFormatter = DateTimeFormatter.ofPattern("HH:mm");
+        return "AttendanceRecord{" +
+               "courseId='" + IdGenerators.abbreviate(courseId) + '\'' +
+               ", studentId='" + IdGenerators.abbreviate(studentId) + '\'' +
+               ", date=" + date.format(dateFormatter) +
+               ", timeMarked=" + timeMarked.format(timeFormatter) +
+               ", isPresent=" + isPresent +
+               '}';
+    }
+}
+
+/**
+ * Attendance totals for one student in one course.
+ */
+class AttendanceSummary {
+    private final String studentId;
+    private final String courseId;
+    private final int sessionsHeld;
+    private final int sessionsPresent;
+    private final int currentAbsenceStreak;
+
+    public AttendanceSummary(String studentId, String courseId, int sessionsHeld, int sessionsPresent, int currentAbsenceStreak) {
+        this.studentId = studentId;
+        this.courseId = courseId;
+        this.sessionsHeld = sessionsHeld;
+        this.sessionsPresent = sessionsPresent;
+        this.currentAbsenceStreak = currentAbsenceStreak;
+    }
+
+    // --- Getters ---
+    public String getStudentId() { return studentId; }
+    public String getCourseId() { return courseId; }
+    public int getSessionsHeld() { return sessionsHeld; }
+    public int getSessionsPresent() { return sessionsPresent; }
+    public int getCurrentAbsenceStreak() { return currentAbsenceStreak; }
+
+    /**
+     * @return Percentage of held sessions attended; 100 when no session has been held yet.
+     */
+    public double getPercentage() {
+        return percentage(sessionsPresent, sessionsHeld);
+    }
+
+    public boolean isBelowThreshold(double thresholdPercent) {
+        return getPercentage() < thresholdPercent;
+    }
+
+    static double percentage(int present, int held) {
+        return held == 0 ? 100.0 : present * 100.0 / held;
+    }
+
+    @Override
+    public String toString() {
+        return "AttendanceSummary{" +
+               "studentId='" + studentId + '\'' +
+               ", courseId='" + courseId + '\'' +
+               ", present=" + sessionsPresent + "/" + sessionsHeld +
+               ", absenceStreak=" + currentAbsenceStreak +
+               '}';
+    }
+}
+
+/**
+ * Filter for streamed attendance queries: optional student, inclusive date range and presence,
+ * plus the position to resume after when paging. Stores push as much of it down as they can.
+ */
+class AttendanceQuery {
+    private String studentId;
+    private LocalDate from;
+    private LocalDate to;
+    private Boolean present;
+    private LocalDate resumeAfterDate;
+    private String resumeAfterStudentId;
+
+    public static AttendanceQuery all() {
+        return new AttendanceQuery();
+    }
+
+    public AttendanceQuery forStudent(String studentId) {
+        this.studentId = studentId;
+        return this;
+    }
+
+    public AttendanceQuery between(LocalDate from, LocalDate to) {
+        this.from = from;
+        this.to = to;
+        return this;
+    }
+
+    public AttendanceQuery presentOnly() {
+        this.present = Boolean.TRUE;
+        return this;
+    }
+
+    public AttendanceQuery absentOnly() {
+        this.present = Boolean.FALSE;
+        return this;
+    }
+
+    /**
+     * Continues after the record with this (date, studentId), as returned in a page token.
+     */
+    public AttendanceQuery resumeAfter(LocalDate date, String studentId) {
+        this.resumeAfterDate = date;
+        this.resumeAfterStudentId = studentId;
+        return this;
+    }
+
+    // --- Getters ---
+    public String getStudentId() { return studentId; }
+    public LocalDate getFrom() { return from; }
+    public LocalDate getTo() { return to; }
+    public Boolean getPresent() { return present; }
+    public LocalDate getResumeAfterDate() { return resumeAfterDate; }
+    public String getResumeAfterStudentId() { return resumeAfterStudentId; }
+
+    public boolean matchesDate(LocalDate date) {
+        return (from == null || !date.isBefore(from)) && (to == null || !date.isAfter(to));
+    }
+
+    public boolean matches(AttendanceRecord record) {
+        return matchesDate(record.getDate())
+                && (studentId == null || studentId.equals(record.getStudentId()))
+                && (present == null || present == record.isPresent());
+    }
+
+    /**
+     * Copy of this query that starts from the beginning instead of the resume position.
+     */
+    AttendanceQuery withoutResume() {
+        AttendanceQuery copy = new AttendanceQuery();
+        copy.studentId = studentId;
+        copy.from = from;
+        copy.to = to;
+        copy.present = present;
+        return copy;
+    }
+
+    /**
+     * Copy of this query (including its resume position) that matches marks regardless of presence.
+     */
+    AttendanceQuery withoutPresenceFilter() {
+        AttendanceQuery copy = withoutResume();
+        copy.present = null;
+        copy.resumeAfterDate = resumeAfterDate;
+        copy.resumeAfterStudentId = resumeAfterStudentId;
+        return copy;
+    }
+
+    /**
+     * Applies the query to a stream in POSITION_ORDER, for stores that cannot push it down.
+     * The resume position is compared, not looked up, so paging carries on even if that mark is gone.
+     */
+    Stream<AttendanceRecord> applyTo(Stream<AttendanceRecord> records) {
+        Stream<AttendanceRecord> filtered = records.filter(this::matches);
+        if (resumeAfterDate == null) return filtered;
+        return filtered.filter(record -> {
+            int byDate = record.getDate().compareTo(resumeAfterDate);
+            return byDate > 0 || (byDate == 0 && record.getStudentId().compareTo(resumeAfterStudentId) > 0);
+        });
+    }
+
+    // Order of the fallback scan, and of the (date, studentId) positions it resumes from
+    static final Comparator<AttendanceRecord> POSITION_ORDER =
+            Comparator.comparing(AttendanceRecord::getDate).thenComparing(AttendanceRecord::getStudentId);
+}
+
+/**
+ * One page of a streamed attendance query and the token to fetch the next one (null on the last page).
+ */
+class AttendancePage {
+    private final List<AttendanceRecord> records;
+    private final String nextPageToken;
+
+    public AttendancePage(List<AttendanceRecord> records, String nextPageToken) {
+        this.records = records;
+        this.nextPageToken = nextPageToken;
+    }
+
+    public List<AttendanceRecord> getRecords() { return records; }
+    public String getNextPageToken() { return nextPageToken; }
+
+    /**
+     * Builds a page from up to pageSize + 1 fetched records; the extra one only signals that more follow.
+     */
+    static AttendancePage of(List<AttendanceRecord> fetched, int pageSize) {
+        if (fetched.size() <= pageSize) return new AttendancePage(fetched, null);
+        List<AttendanceRecord> records = new ArrayList<>(fetched.subList(0, pageSize));
+        return new AttendancePage(records, tokenFor(records.get(pageSize - 1)));
+    }
+
+    static String tokenFor(AttendanceRecord last) {
+        String raw = last.getDate().toEpochDay() + ":" + last.getStudentId();
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Streams a whole query by fetching one page at a time, each only once the previous one is used up.
+     * @param fetch Returns the page after the given token (null for the first page).
+     */
+    static Stream<AttendanceRecord> stream(Function<String, AttendancePage> fetch) {
+        Spliterator<AttendanceRecord> pages = new Spliterators.AbstractSpliterator<AttendanceRecord>(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL) {
+            private Iterator<AttendanceRecord> page = Collections.emptyIterator();
+            private String token;
+            private boolean last = false;
+
+            @Override
+            public boolean tryAdvance(Consumer<? super AttendanceRecord> action) {
+                while (!page.hasNext()) {
+                    if (last) return false;
+                    AttendancePage next = fetch.apply(token);
+                    page = next.getRecords().iterator();
+                    token = next.getNextPageToken();
+                    last = token == null;
+                }
+                action.accept(page.next());
+                return true;
+            }
+        };
+        return StreamSupport.stream(pages, false);
+    }
+
+    /**
+     * Returns a copy of the query positioned after the page token; the caller's query is left as is.
+     * @throws IllegalArgumentException if the token is malformed.
+     */
+    static AttendanceQuery resume(AttendanceQuery query, String pageToken) {
+        if (pageToken == null) return query;
+        String raw = new String(Base64.getUrlDecoder().decode(pageToken), StandardCharsets.UTF_8);
+        int colon = raw.indexOf(':');
+        if (colon < 0) throw new IllegalArgumentException("Invalid page token");
+        return query.withoutResume().resumeAfter(LocalDate.ofEpochDay(Long.parseLong(raw.substring(0, colon))), raw.substring(colon + 1));
+    }
+}
+
+/**
+ * Compact attendance storage.
+ * Course and student ids are interned to ints; each (course, session date) keeps presence as
+ * packed bitsets over the course's enrolled-student slots plus a primitive array of
+ * second-of-day timestamps, i.e. a few bytes per mark instead of an object graph per record.
+ * AttendanceRecord objects are only created as views when a query asks for them; calling
+ * setPresent on a view (or on a record saved through put) writes through to the store.
+ *
+ * There is at most one mark per (course, student, date): putting the same key again overwrites it.
+ * Times are kept to second precision. The store is thread-safe; queries share a read lock.
+ * A DailyAbsenceIndex across all courses answers the campus-wide absence queries.
+ */
+class ColumnarAttendanceStore {
+    /**
+     * Told about every mark stored by put or flipped by setPresent, and every course whose marks
+     * removeBetween dropped, while the write lock is still held, so it sees changes in the order
+     * they were applied. Must be quick and must not call back into the store.
+     */
+    interface MarkObserver {
+        void onMark(String courseId, String studentId, LocalDate date, boolean isPresent);
+
+        void onRemove(String courseId, LocalDate from, LocalDate to);
+    }
+
+    private final Map<String, Integer> courseIndex = new HashMap<>();
+    private final List<String> courseIds = new ArrayList<>();
+    private final Map<String, Integer> studentIndex = new HashMap<>();
+    private final List<String> studentIds = new ArrayList<>();
+    private final List<CourseColumns> courses = new ArrayList<>(); // indexed by interned course id
+    private long markCount = 0;
+    private final DailyAbsenceIndex absences = new DailyAbsenceIndex();
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock(); // queries run concurrently, marks are exclusive
+    private final AttendanceRecord.PresenceListener downstream; // Told about write-through flips, e.g. to log them
+    private final MarkObserver observer; // May be null
+
+    // Shared by every record handed out, so views don't each carry their own callback object
+    private final AttendanceRecord.PresenceListener writeThrough;
+
+    public ColumnarAttendanceStore() {
+        this(null, null);
+    }
+
+    public ColumnarAttendanceStore(AttendanceRecord.PresenceListener downstream, MarkObserver observer) {
+        this.downstream = downstream;
+        this.observer = observer;
+        this.writeThrough = (record, present) -> {
+            if (setPresent(record.getCourseId(), record.getStudentId(), record.getDate(), present) && downstream != null) {
+                try {
+                    downstream.onPresenceChange(record, present);
+                } catch (RuntimeException e) {
+                    // e.g. the flip couldn't be logged; put the mark back before passing the failure on
+                    setPresent(record.getCourseId(), record.getStudentId(), record.getDate(), !present);
+                    throw e;
+                }
+            }
+        };
+    }
+
+    /**
+     * Stores a mark, overwriting any earlier mark for the same (course, student, date).
+     * @return true if this created a new mark, false if it replaced one.
+     */
+    public boolean put(String courseId, String studentId, LocalDate date, LocalTime timeMarked, boolean isPresent) {
+        return put(courseId, studentId, date, timeMarked, isPresent, null);
+    }
+
+    private boolean put(String courseId, String studentId, LocalDate date, LocalTime timeMarked, boolean isPresent,
+                        DatabaseManager.ReplacedMarks replaced) {
+        lock.writeLock().lock();
+        try {
+            CourseColumns course = courseColumns(courseId);
+            int student = internStudent(studentId);
+            int slot = course.slotFor(student);
+            int epochDay = (int) date.toEpochDay();
+            Session session = course.sessions.computeIfAbsent(epochDay, d -> new Session());
+            Boolean wasPresent = session.isMarked(slot) ? session.isPresent(slot) : null;
+            if (replaced != null) {
+                replaced.replacing(courseId, studentIds.get(student), epochDay,
+                        wasPresent == null ? DatabaseManager.ReplacedMarks.NEW_MARK : session.secondOfDay[slot], wasPresent == Boolean.TRUE);
+            }
+            session.set(slot, timeMarked.toSecondOfDay(), isPresent);
+            course.recordMark(slot, epochDay, wasPresent, isPresent);
+            absences.update(student, epochDay, wasPresent, isPresent);
+            if (wasPresent == null) markCount++;
+            if (observer != null) observer.onMark(courseId, studentId, date, isPresent);
+            return wasPresent == null;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Stores the record's mark and links the record so that later setPresent calls reach the store.
+     */
+    public boolean put(AttendanceRecord record) {
+        return put(record, null);
+    }
+
+    /**
+     * Like put(record), telling replaced (if not null) what the mark was just before it is
+     * overwritten, under the write lock. It must not call back into the store.
+     */
+    public boolean put(AttendanceRecord record, DatabaseManager.ReplacedMarks replaced) {
+        boolean added = put(record.getCourseId(), record.getStudentId(), record.getDate(), record.getTimeMarked(), record.isPresent(), replaced);
+        record.setPresenceListener(writeThrough);
+        return added;
+    }
+
+    /**
+     * Flips an existing mark.
+     * @return false if there is no mark for that (course, student, date).
+     */
+    public boolean setPresent(String courseId, String studentId, LocalDate date, boolean isPresent) {
+        lock.writeLock().lock();
+        try {
+            Integer c = courseIndex.get(courseId);
+            Integer s = studentIndex.get(studentId);
+            if (c == null || s == null) return false;
+            CourseColumns course = courses.get(c);
+            int slot = course.slotOf(s);
+            int epochDay = (int) date.toEpochDay();
+            Session session = course.sessions.get(epochDay);
+            if (slot < 0 || session == null || !session.isMarked(slot)) return false;
+            boolean wasPresent = session.isPresent(slot);
+            session.setPresent(slot, isPresent);
+            course.recordMark(slot, epochDay, wasPresent, isPresent);
+            absences.update(s, epochDay, wasPresent, isPresent);
+            if (observer != null) observer.onMark(courseId, studentId, date, isPresent);
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * O(1) attendance totals for a student in a course, from the running counters.
+     * @return The summary, with zero sessions if the student has no marks in the course.
+     */
+    public AttendanceSummary getSummary(String studentId, String courseId) {
+        lock.readLock().lock();
+        try {
+            Integer c = courseIndex.get(courseId);
+            Integer s = studentIndex.get(studentId);
+            int slot = c == null || s == null ? -1 : courses.get(c).slotOf(s);
+            if (slot < 0) return new AttendanceSummary(studentId, courseId, 0, 0, 0);
+            CourseColumns course = courses.get(c);
+            return new AttendanceSummary(studentId, courseId, course.held[slot], course.presentCount[slot], course.absenceStreak[slot]);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Students with at least one mark in the course whose attendance percentage is below the threshold.
+     * Costs one O(1) check per marked student.
+     */
+    public List<String> getStudentsBelowThreshold(String courseId, double thresholdPercent) {
+        lock.readLock().lock();
+        try {
+            List<String> result = new ArrayList<>();
+            Integer c = courseIndex.get(courseId);
+            if (c == null) return result;
+            CourseColumns course = courses.get(c);
+            for (int slot = 0; slot < course.slotCount; slot++) {
+                if (course.held[slot] > 0 && AttendanceSummary.percentage(course.presentCount[slot], course.held[slot]) < thresholdPercent) {
+                    result.add(studentIds.get(course.slotToStudent[slot]));
+                }
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public List<AttendanceRecord> getAttendanceForCourse(String courseId) {
+        lock.readLock().lock();
+        try {
+            List<AttendanceRecord> result = new ArrayList<>();
+            Integer c = courseIndex.get(courseId);
+            if (c == null) return result;
+            CourseColumns course = courses.get(c);
+            for (Map.Entry<Integer, Session> entry : course.sessions.entrySet()) {
+                Session session = entry.getValue();
+                for (int slot = 0; slot < course.slotCount; slot++) {
+                    if (session.isMarked(slot)) {
+                        result.add(view(courseId, course, slot, entry.getKey(), session));
+                    }
+                }
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public List<AttendanceRecord> getAttendanceForStudentInCourse(String studentId, String courseId) {
+        lock.readLock().lock();
+        try {
+            List<AttendanceRecord> result = new ArrayList<>();
+            Integer c = courseIndex.get(courseId);
+            Integer s = studentIndex.get(studentId);
+            if (c == null || s == null) return result;
+            CourseColumns course = courses.get(c);
+            int slot = course.slotOf(s);
+            if (slot < 0) return result;
+            for (Map.Entry<Integer, Session> entry : course.sessions.entrySet()) {
+                if (entry.getValue().isMarked(slot)) {
+                    result.add(view(courseId, course, slot, entry.getKey(), entry.getValue()));
+                }
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return The mark for (course, student, date), or null if there is none.
+     */
+    public AttendanceRecord get(String courseId, String studentId, LocalDate date) {
+        lock.readLock().lock();
+        try {
+            Integer c = courseIndex.get(courseId);
+            Integer s = studentIndex.get(studentId);
+            if (c == null || s == null) return null;
+            CourseColumns course = courses.get(c);
+            int slot = course.slotOf(s);
+            int epochDay = (int) date.toEpochDay();
+            Session session = course.sessions.get(epochDay);
+            return slot < 0 || session == null || !session.isMarked(slot) ? null : view(courseId, course, slot, epochDay, session);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return Ids of every course with at least one stored mark.
+     */
+    public List<String> getCourseIds() {
+        lock.readLock().lock();
+        try {
+            List<String> result = new ArrayList<>(courseIds.size());
+            for (int c = 0; c < courseIds.size(); c++) {
+                if (!courses.get(c).sessions.isEmpty()) result.add(courseIds.get(c));
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Drops every mark of a course. Its interned id stays allocated, so a later put reuses it.
+     * @return The number of marks removed.
+     */
+    public int removeCourse(String courseId) {
+        lock.writeLock().lock();
+        try {
+            Integer c = courseIndex.get(courseId);
+            if (c == null) return 0;
+            CourseColumns course = courses.get(c);
+            int removed = 0;
+            for (int slot = 0; slot < course.slotCount; slot++) removed += course.held[slot];
+            for (Map.Entry<Integer, Session> entry : course.sessions.entrySet()) {
+                Session session = entry.getValue();
+                for (int slot = 0; slot < course.slotCount; slot++) {
+                    if (session.isMarked(slot)) absences.update(course.slotToStudent[slot], entry.getKey(), session.isPresent(slot), null);
+                }
+            }
+            courses.set(c, new CourseColumns());
+            markCount -= removed;
+            return removed;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Drops every mark dated from..to (inclusive) in every course, and winds the per-student totals back.
+     * @return The number of marks removed.
+     */
+    public int removeBetween(LocalDate from, LocalDate to) {
+        lock.writeLock().lock();
+        try {
+            int removed = 0;
+            for (int c = 0; c < courses.size(); c++) {
+                CourseColumns course = courses.get(c);
+                NavigableMap<Integer, Session> range = course.sessions.subMap((int) from.toEpochDay(), true, (int) to.toEpochDay(), true);
+                if (range.isEmpty()) continue;
+                for (Map.Entry<Integer, Session> entry : range.entrySet()) {
+                    Session session = entry.getValue();
+                    for (int slot = 0; slot < course.slotCount; slot++) {
+                        if (!session.isMarked(slot)) continue;
+                        boolean present = session.isPresent(slot);
+                        course.held[slot]--;
+                        if (present) course.presentCount[slot]--;
+                        absences.update(course.slotToStudent[slot], entry.getKey(), present, null);
+                        removed++;
+                    }
+                }
+                range.clear();
+                for (int slot = 0; slot < course.slotCount; slot++) course.recomputeStreak(slot);
+                if (observer != null) observer.onRemove(courseIds.get(c), from, to);
+            }
+            markCount -= removed;
+            return removed;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Campus-wide absences from the daily index; touches only the partitions in the range.
+     * @return For each day in [from, to] with any marks, the students with at least one absence.
+     */
+    public SortedMap<LocalDate, List<String>> getAbsentStudents(LocalDate from, LocalDate to) {
+        lock.readLock().lock();
+        try {
+            SortedMap<LocalDate, List<String>> result = new TreeMap<>();
+            for (Map.Entry<Integer, int[]> day : absences.absentBetween((int) from.toEpochDay(), (int) to.toEpochDay()).entrySet()) {
+                result.put(LocalDate.ofEpochDay(day.getKey()), toStudentIds(day.getValue()));
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return Students absent on each of the last {@code days} days with marks, up to and including through.
+     */
+    public List<String> getStudentsAbsentConsecutively(LocalDate through, int days) {
+        lock.readLock().lock();
+        try {
+            return toStudentIds(absences.absentOnEach((int) through.toEpochDay(), days));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Freezes the absence index's partitions for days before the given date into compressed segments.
+     * @return The number of partitions compacted.
+     */
+    public int compactAbsencesBefore(LocalDate before) {
+        lock.writeLock().lock();
+        try {
+            return absences.compactBefore((int) before.toEpochDay());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private List<String> toStudentIds(int[] students) {
+        List<String> result = new ArrayList<>(students.length);
+        for (int s : students) result.add(studentIds.get(s));
+        return result;
+    }
+
+    /**
+     * @return The number of stored marks.
+     */
+    public long size() {
+        lock.readLock().lock();
+        try {
+            return markCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Lazily streams matching marks of a course in (date, studentId) order, the same
+     * AttendanceQuery.POSITION_ORDER every other store uses, so a resume position means the same
+     * thing everywhere (including for a student no longer in the course). The date range, student,
+     * presence and resume position are checked against the columns before any record is created,
+     * and each step holds the read lock only briefly, so the stream never pins the store.
+     */
+    public Stream<AttendanceRecord> stream(String courseId, AttendanceQuery query) {
+        Spliterator<AttendanceRecord> cursor = new Spliterators.AbstractSpliterator<AttendanceRecord>(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL) {
+            private Integer day; // current session, null before the first
+            private String afterStudent; // last student passed on the current day, null at its start
+            private int[] order; // the course's slots by student id, as of the last step
+            private int rank; // next position in order
+            private CourseColumns columns;
+            private boolean started;
+            private boolean done;
+
+            @Override
+            public boolean tryAdvance(Consumer<? super AttendanceRecord> action) {
+                if (done) return false;
+                AttendanceRecord next;
+                lock.readLock().lock();
+                try {
+                    next = advance();
+                } finally {
+                    lock.readLock().unlock();
+                }
+                if (next == null) {
+                    done = true;
+                    return false;
+                }
+                action.accept(next);
+                return true;
+            }
+
+            private AttendanceRecord advance() {
+                Integer c = courseIndex.get(courseId);
+                if (c == null) return null;
+                CourseColumns course = courses.get(c);
+                int onlySlot = -1;
+                if (query.getStudentId() != null) {
+                    Integer s = studentIndex.get(query.getStudentId());
+                    onlySlot = s == null ? -1 : course.slotOf(s);
+                    if (onlySlot < 0) return null;
+                }
+                if (!started) {
+                    started = true;
+                    columns = course;
+                    start(course);
+                } else if (course != columns) {
+                    return null; // the course was removed; its slots no longer apply
+                }
+                if (order == null || (onlySlot < 0 && order.length != course.slotCount)) { // a student joined: find our place again
+                    order = onlySlot >= 0 ? new int[] {onlySlot} : course.slotsByStudentId(studentIds);
+                    rank = afterStudent == null ? 0 : rankAfter(course, order, afterStudent);
+                }
+                int lastDay = query.getTo() == null ? Integer.MAX_VALUE : (int) query.getTo().toEpochDay();
+                while (day != null && day <= lastDay) {
+                    Session session = course.sessions.get(day);
+                    while (session != null && rank < order.length) {
+                        int slot = order[rank++];
+                        if (session.isMarked(slot) && (query.getPresent() == null || query.getPresent() == session.isPresent(slot))) {
+                            afterStudent = studentIds.get(course.slotToStudent[slot]);
+                            return view(courseId, course, slot, day, session);
+                        }
+                    }
+                    day = course.sessions.higherKey(day);
+                    afterStudent = null;
+                    rank = 0;
+                }
+                return null;
+            }
+
+            private void start(CourseColumns course) {
+                int firstDay = query.getFrom() == null ? Integer.MIN_VALUE : (int) query.getFrom().toEpochDay();
+                if (query.getResumeAfterDate() != null) {
+                    int resumeDay = (int) query.getResumeAfterDate().toEpochDay();
+                    if (resumeDay >= firstDay) {
+                        firstDay = resumeDay;
+                        afterStudent = query.getResumeAfterStudentId();
+                    }
+                }
+                day = course.sessions.ceilingKey(firstDay);
+                if (day != null && day != firstDay) afterStudent = null;
+            }
+        };
+        return StreamSupport.stream(cursor, false);
+    }
+
+    // First position in order whose student id sorts after the given one
+    private int rankAfter(CourseColumns course, int[] order, String studentId) {
+        int lo = 0;
+        int hi = order.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (studentIds.get(course.slotToStudent[order[mid]]).compareTo(studentId) <= 0) lo = mid + 1; else hi = mid;
+        }
+        return lo;
+    }
+
+    // Views carry no id of their own; getRecordId() renders the natural id on demand
+    private AttendanceRecord view(String courseId, CourseColumns course, int slot, int epochDay, Session session) {
+        String studentId = studentIds.get(course.slotToStudent[slot]);
+        LocalDate date = LocalDate.ofEpochDay(epochDay);
+        AttendanceRecord record = new AttendanceRecord(null, courseId, studentId,
+                date, LocalTime.ofSecondOfDay(session.secondOfDay[slot]), session.isPresent(slot));
+        record.setPresenceListener(writeThrough);
+        return record;
+    }
+
+    private CourseColumns courseColumns(String courseId) {
+        Integer c = courseIndex.get(courseId);
+        if (c == null) {
+            c = courseIds.size();
+            courseIndex.put(courseId, c);
+            courseIds.add(courseId);
+            courses.add(new CourseColumns());
+        }
+        return courses.get(c);
+    }
+
+    private int internStudent(String studentId) {
+        Integer s = studentIndex.get(studentId);
+        if (s == null) {
+            s = studentIds.size();
+            studentIndex.put(studentId, s);
+            studentIds.add(studentId);
+        }
+        return s;
+    }
+
+    /**
+     * Per-course columns. Students get a dense course-local slot so session bitsets stay
+     * proportional to the roster rather than to the whole campus.
+     */
+    private static final class CourseColumns {
+        final IntIntMap studentToSlot = new IntIntMap();
+        int[] slotToStudent = new int[8];
+        int slotCount = 0;
+        final TreeMap<Integer, Session> sessions = new TreeMap<>(); // epochDay -> session
+        // Running per-slot aggregates, kept in step with every mark and flip
+        int[] held = new int[8];
+        int[] presentCount = new int[8];
+        int[] absenceStreak = new int[8]; // consecutive absences ending at lastMarkedDay
+        int[] lastMarkedDay = new int[8];
+        volatile int[] slotsById; // see slotsByStudentId
+
+        // Updates the aggregates after a slot's mark on epochDay was added (wasPresent == null) or changed
+        void recordMark(int slot, int epochDay, Boolean wasPresent, boolean isPresent) {
+            if (wasPresent == null) {
+                held[slot]++;
+                if (isPresent) presentCount[slot]++;
+                if (held[slot] == 1 || epochDay > lastMarkedDay[slot]) {
+                    absenceStreak[slot] = isPresent ? 0 : absenceStreak[slot] + 1;
+                    lastMarkedDay[slot] = epochDay;
+                    return;
+                }
+            } else if (wasPresent != isPresent) {
+                presentCount[slot] += isPresent ? 1 : -1;
+                if (epochDay == lastMarkedDay[slot] && isPresent) {
+                    absenceStreak[slot] = 0;
+                    return;
+                }
+            } else {
+                return;
+            }
+            recomputeStreak(slot); // out-of-order mark or a correction inside the streak: rare, walk back once
+        }
+
+        // Also moves lastMarkedDay back to the slot's newest remaining mark, for when sessions are dropped
+        void recomputeStreak(int slot) {
+            int streak = 0;
+            boolean newest = true;
+            for (Map.Entry<Integer, Session> entry : sessions.descendingMap().entrySet()) {
+                Session session = entry.getValue();
+                if (!session.isMarked(slot)) continue;
+                if (newest) {
+                    lastMarkedDay[slot] = entry.getKey();
+                    newest = false;
+                }
+                if (session.isPresent(slot)) break;
+                streak++;
+            }
+            absenceStreak[slot] = streak;
+        }
+
+        int slotOf(int student) {
+            return studentToSlot.get(student);
+        }
+
+        // Slots sorted by student id, for POSITION_ORDER streams. Slots are only ever appended, so
+        // the cached order is valid until slotCount grows; readers may race to rebuild it.
+        int[] slotsByStudentId(List<String> studentIds) {
+            int[] order = slotsById;
+            if (order != null && order.length == slotCount) return order;
+            Integer[] slots = new Integer[slotCount];
+            for (int slot = 0; slot < slotCount; slot++) slots[slot] = slot;
+            Arrays.sort(slots, Comparator.comparing(slot -> studentIds.get(slotToStudent[slot])));
+            order = new int[slotCount];
+            for (int i = 0; i < order.length; i++) order[i] = slots[i];
+            slotsById = order;
+            return order;
+        }
+
+        int slotFor(int student) {
+            int slot = studentToSlot.get(student);
+            if (slot < 0) {
+                slot = slotCount++;
+                if (slot == slotToStudent.length) {
+                    slotToStudent = Arrays.copyOf(slotToStudent, slot * 2);
+                }
+                if (slot == held.length) {
+                    held = Arrays.copyOf(held, slot * 2);
+                    presentCount = Arrays.copyOf(presentCount, slot * 2);
+                    absenceStreak = Arrays.copyOf(absenceStreak, slot * 2);
+                    lastMarkedDay = Arrays.copyOf(lastMarkedDay, slot * 2);
+                }
+                slotToStudent[slot] = student;
+                studentToSlot.put(student, slot);
+            }
+            return slot;
+        }
+    }
+
+    /**
+     * One class meeting: which slots are marked, which are present, and when each was marked.
+     */
+    private static final class Session {
+        long[] marked = new long[1];
+        long[] present = new long[1];
+        int[] secondOfDay = new int[64];
+
+        boolean isMarked(int slot) {
+            int word = slot >>> 6;
+            return word < marked.length && (marked[word] & (1L << slot)) != 0;
+        }
+
+        boolean isPresent(int slot) {
+            int word = slot >>> 6;
+            return word < present.length && (present[word] & (1L << slot)) != 0;
+        }
+
+        void set(int slot, int seconds, boolean isPresent) {
+            ensureCapacity(slot);
+            marked[slot >>> 6] |= 1L << slot;
+            secondOfDay[slot] = seconds;
+            setPresent(slot, isPresent);
+        }
+
+        void setPresent(int slot, boolean isPresent) {
+            if (isPresent) {
+                present[slot >>> 6] |= 1L << slot;
+            } else {
+                present[slot >>> 6] &= ~(1L << slot);
+            }
+        }
+
+        private void ensureCapacity(int slot) {
+            if (slot >= secondOfDay.length) {
+                int capacity = Math.max(slot + 1, secondOfDay.length * 2);
+                secondOfDay = Arrays.copyOf(secondOfDay, capacity);
+                int words = (capacity + 63) >>> 6;
+                marked = Arrays.copyOf(marked, words);
+                present = Arrays.copyOf(present, words);
+            }
+        }
+    }
+
+    /**
+     * Open-addressing int -> int map (non-negative keys and values), avoiding boxed entries.
+     */
+    static final class IntIntMap {
+        private int[] keys = new int[16];
+        private int[] values = new int[16];
+        private int size = 0;
+
+        IntIntMap() {
+            Arrays.fill(keys, -1);
+        }
+
+        /** @return the mapped value, or -1 if absent. */
+        int get(int key) {
+            int mask = keys.length - 1;
+            for (int i = mix(key) & mask; ; i = (i + 1) & mask) {
+                if (keys[i] == key) return values[i];
+                if (keys[i] == -1) return -1;
+            }
+        }
+
+        void put(int key, int value) {
+            if ((size + 1) * 4 > keys.length * 3) resize();
+            int mask = keys.length - 1;
+            int i = mix(key) & mask;
+            while (keys[i] != -1 && keys[i] != key) {
+                i = (i + 1) & mask;
+            }
+            if (keys[i] == -1) size++;
+            keys[i] = key;
+            values[i] = value;
+        }
+
+        int size() {
+            return size;
+        }
+
+        private void resize() {
+            int[] oldKeys = keys;
+            int[] oldValues = values;
+            keys = new int[oldKeys.length * 2];
+            values = new int[oldKeys.length * 2];
+            Arrays.fill(keys, -1);
+            size = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != -1) put(oldKeys[i], oldValues[i]);
+            }
+        }
+
+        private static int mix(int key) {
+            return key * 0x9E3779B9 >>> 16 ^ key;
+        }
+    }
+}
+
+/**
+ * Campus-wide absences by day, for "who is absent today / this week / N days running" queries.
+ * ColumnarAttendanceStore keeps it in step with every mark and flip, under the store's lock; it is
+ * not thread-safe on its own. Students are the store's interned ints.
+ *
+ * There is one partition per session day (a day with any marks). It holds the day's mark count,
+ * the number of absent marks per student, and a bitmap of the students with at least one, so
+ * range and streak queries touch only the partitions for their days.
+ * compactBefore() freezes old partitions into immutable segments: the absent students as
+ * varint-encoded gaps, each followed by its absent-mark count. That is a few bytes per absence
+ * instead of a bitmap word per 64 students. A late mark for a compacted day thaws it first.
+ */
+class DailyAbsenceIndex {
+    // Longest stretch the streak defaults search back for session days
+    static final int MAX_STREAK_LOOKBACK_DAYS = 366;
+
+    private final TreeMap<Integer, Day> days = new TreeMap<>(); // epochDay -> partition
+    private int lastEpochDay; // marks arrive a session at a time, so remember the last partition
+    private Day lastDay;
+
+    /**
+     * Applies one mark change. wasPresent is null for a new mark, isPresent null for a removed one.
+     */
+    void update(int student, int epochDay, Boolean wasPresent, Boolean isPresent) {
+        Day day = lastDay != null && lastEpochDay == epochDay ? lastDay : days.get(epochDay);
+        if (day == null) {
+            if (isPresent == null) return;
+            day = new Day();
+            days.put(epochDay, day);
+        }
+        day.thaw();
+        day.marks += (wasPresent == null ? 1 : 0) - (isPresent == null ? 1 : 0);
+        int delta = (Boolean.FALSE.equals(isPresent) ? 1 : 0) - (Boolean.FALSE.equals(wasPresent) ? 1 : 0);
+        if (delta != 0) day.addAbsences(student, delta);
+        if (day.marks == 0) {
+            days.remove(epochDay);
+            day = null;
+        }
+        lastEpochDay = epochDay;
+        lastDay = day;
+    }
+
+    /**
+     * @return For each session day in [fromDay, toDay], the students with at least one absence (ascending ids).
+     */
+    SortedMap<Integer, int[]> absentBetween(int fromDay, int toDay) {
+        SortedMap<Integer, int[]> result = new TreeMap<>();
+        for (Map.Entry<Integer, Day> entry : days.subMap(fromDay, true, toDay, true).entrySet()) {
+            result.put(entry.getKey(), entry.getValue().absentStudents());
+        }
+        return result;
+    }
+
+    /**
+     * @return Students absent on each of the last {@code count} session days up to throughDay,
+     *         or none if there haven't been that many session days.
+     */
+    int[] absentOnEach(int throughDay, int count) {
+        if (count <= 0) throw new IllegalArgumentException("count must be positive");
+        long[] common = null;
+        int seen = 0;
+        for (Day day : days.headMap(throughDay, true).descendingMap().values()) {
+            long[] absent = day.absentBitmap();
+            if (common == null) {
+                common = absent.clone();
+            } else {
+                for (int i = 0; i < common.length; i++) common[i] &= i < absent.length ? absent[i] : 0;
+            }
+            if (++seen == count || isEmpty(common)) break;
+        }
+        return seen < count || common == null ? new int[0] : toIds(common);
+    }
+
+    /**
+     * Compacts every partition before the given day into an immutable segment.
+     * @return The number of partitions compacted.
+     */
+    int compactBefore(int epochDay) {
+        int compacted = 0;
+        for (Day day : days.headMap(epochDay, false).values()) {
+            if (day.freeze()) compacted++;
+        }
+        return compacted;
+    }
+
+    int getDayCount() {
+        return days.size();
+    }
+
+    int getCompactedDayCount() {
+        int count = 0;
+        for (Day day : days.values()) if (day.segment != null) count++;
+        return count;
+    }
+
+    private static boolean isEmpty(long[] bitmap) {
+        for (long word : bitmap) if (word != 0) return false;
+        return true;
+    }
+
+    private static int[] toIds(long[] bitmap) {
+        int count = 0;
+        for (long word : bitmap) count += Long.bitCount(word);
+        int[] ids = new int[count];
+        int n = 0;
+        for (int i = 0; i < bitmap.length; i++) {
+            for (long word = bitmap[i]; word != 0; word &= word - 1) ids[n++] = i << 6 | Long.numberOfTrailingZeros(word);
+        }
+        return ids;
+    }
+
+    /**
+     * One session day: mutable (counts and bitmap) or compacted (segment); never both.
+     */
+    private static final class Day {
+        int marks;
+        ColumnarAttendanceStore.IntIntMap absentMarks = new ColumnarAttendanceStore.IntIntMap(); // student -> absent marks
+        long[] absent = new long[1]; // bit per student with absentMarks > 0
+        byte[] segment;
+
+        void addAbsences(int student, int delta) {
+            int count = Math.max(absentMarks.get(student), 0) + delta;
+            absentMarks.put(student, count);
+            int word = student >>> 6;
+            if (word >= absent.length) absent = Arrays.copyOf(absent, Math.max(word + 1, absent.length * 2));
+            if (count > 0) absent[word] |= 1L << student; else absent[word] &= ~(1L << student);
+        }
+
+        int[] absentStudents() {
+            if (segment == null) return toIds(absent);
+            ByteBuffer in = ByteBuffer.wrap(segment);
+            int[] ids = new int[readVarInt(in)];
+            int student = -1;
+            for (int i = 0; i < ids.length; i++) {
+                student += readVarInt(in) + 1;
+                readVarInt(in); // count
+                ids[i] = student;
+            }
+            return ids;
+        }
+
+        long[] absentBitmap() {
+            if (segment == null) return absent;
+            int[] ids = absentStudents();
+            long[] bitmap = new long[ids.length == 0 ? 1 : (ids[ids.length - 1] >>> 6) + 1];
+            for (int id : ids) bitmap[id >>> 6] |= 1L << id;
+            return bitmap;
+        }
+
+        // Segment: absent student count, then per student (gap - 1, absent marks) as varints
+        boolean freeze() {
+            if (segment != null) return false;
+            int[] ids = toIds(absent);
+            ByteBuffer out = ByteBuffer.allocate(5 + ids.length * 10);
+            writeVarInt(out, ids.length);
+            int previous = -1;
+            for (int id : ids) {
+                writeVarInt(out, id - previous - 1);
+                writeVarInt(out, absentMarks.get(id));
+                previous = id;
+            }
+            segment = Arrays.copyOf(out.array(), out.position());
+            absentMarks = null;
+            absent = null;
+            return true;
+        }
+
+        void thaw() {
+            if (segment == null) return;
+            ByteBuffer in = ByteBuffer.wrap(segment);
+            absentMarks = new ColumnarAttendanceStore.IntIntMap();
+            absent = new long[1];
+            segment = null;
+            int student = -1;
+            for (int i = readVarInt(in); i > 0; i--) {
+                student += readVarInt(in) + 1;
+                addAbsences(student, readVarInt(in));
+            }
+        }
+
+        private static void writeVarInt(ByteBuffer out, int value) {
+            while ((value & ~0x7F) != 0) {
+                out.put((byte) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            out.put((byte) value);
+        }
+
+        private static int readVarInt(ByteBuffer in) {
+            int result = 0;
+            for (int shift = 0; ; shift += 7) {
+                byte b = in.get();
+                result |= (b & 0x7F) << shift;
+                if (b >= 0) return result;
+            }
+        }
+    }
+
+    // --- Scans for stores without an index (DatabaseManager defaults) ---
+
+    /**
+     * Builds the per-day absences from a full scan of every course's marks in the range.
+     */
+    static SortedMap<LocalDate, List<String>> scanAbsences(DatabaseManager db, LocalDate from, LocalDate to) {
+        Map<LocalDate, Set<String>> byDay = new TreeMap<>();
+        for (Course course : db.getAllCourses()) {
+            try (Stream<AttendanceRecord> marks = db.streamAttendance(course.getCourseId(), AttendanceQuery.all().between(from, to))) {
+                marks.forEach(record -> {
+                    Set<String> absent = byDay.computeIfAbsent(record.getDate(), d -> new LinkedHashSet<>());
+                    if (!record.isPresent()) absent.add(record.getStudentId());
+                });
+            }
+        }
+        SortedMap<LocalDate, List<String>> result = new TreeMap<>();
+        for (Map.Entry<LocalDate, Set<String>> day : byDay.entrySet()) result.put(day.getKey(), new ArrayList<>(day.getValue()));
+        return result;
+    }
+
+    /**
+     * Streak query over getAbsentStudents ranges, walking back a month at a time.
+     */
+    static List<String> absentOnEach(DatabaseManager db, LocalDate through, int count) {
+        if (count <= 0) throw new IllegalArgumentException("count must be positive");
+        Set<String> common = null;
+        int seen = 0;
+        LocalDate limit = through.minusDays(MAX_STREAK_LOOKBACK_DAYS);
+        for (LocalDate windowEnd = through; seen < count && windowEnd.isAfter(limit); windowEnd = windowEnd.minusDays(31)) {
+            List<List<String>> window = new ArrayList<>(db.getAbsentStudents(windowEnd.minusDays(30), windowEnd).values());
+            for (int i = window.size() - 1; i >= 0 && seen < count; i--) {
+                if (common == null) common = new LinkedHashSet<>(window.get(i)); else common.retainAll(window.get(i));
+                seen++;
+                if (common.isEmpty()) return new ArrayList<>();
+            }
+        }
+        return seen < count ? new ArrayList<>() : new ArrayList<>(common);
+    }
+}
+
+/**
+ * Compact binary codec for User, Course and AttendanceRecord, used for log frames and on the wire
+ * instead of java.io.Serializable.
+ *
+ * Encoding: ints and lengths are LEB128 varints (zig-zag for signed values), LocalDate is its epoch
+ * day and LocalTime its second of day. Ids are interned per Writer/Reader: the first occurrence is
+ * written in full (time-ordered ids as a varlong, anything else as UTF-8) and repeats as a small
+ * back-reference, so a batch of 500 marks for one course carries the course id once.
+ *
+ * Schema evolution: every entity is written as (version, body length, body). New fields are only
+ * ever appended to the body; readers decode the fields they know and skip the rest using the body
+ * length, and fields missing from an older body take defaults. Appended fields go after
+ * appendedFields(): ids in them may refer back to earlier ids but are never interned themselves,
+ * since a reader that skips the field could not number them and its back-references would drift.
+ */
+final class ModelCodec {
+    static final int USER_VERSION = 1;
+    static final int COURSE_VERSION = 1;
+    static final int ATTENDANCE_VERSION = 1;
+
+    private static final int ID_NULL = 0;
+    private static final int ID_NUMERIC = 1;
+    private static final int ID_STRING = 2;
+    private static final int ID_REF = 3;
+
+    private ModelCodec() {}
+
+    /**
+     * Encodes into a ByteBuffer: either a caller-supplied one (BufferOverflowException when it is
+     * too small) or an internal heap buffer that grows as needed.
+     */
+    static final class Writer {
+        private ByteBuffer buf;
+        private final boolean growable;
+        private final Map<Object, Integer> ids = new HashMap<>(); // id (Long or String) -> back-reference index
+        private boolean interning = true; // false in an entity's appended fields
+
+        Writer(ByteBuffer target) {
+            this.buf = target;
+            this.growable = false;
+        }
+
+        Writer(int initialCapacity) {
+            this.buf = ByteBuffer.allocate(initialCapacity);
+            this.growable = true;
+        }
+
+        /** @return The buffer, flipped for reading. Only for growable writers. */
+        ByteBuffer toBuffer() {
+            ByteBuffer out = buf.duplicate();
+            out.flip();
+            return out;
+        }
+
+        int position() { return buf.position(); }
+
+        void writeUser(User user) {
+            int start = beginEntity(USER_VERSION);
+            writeOwnId(user.getUserIdBits(), user.getUserIdBits() == 0 ? user.getUserId() : null);
+            writeString(user.getUsername());
+            writeString(user.getEmail());
+            writeString(user.getPasswordHash());
+            writeVarInt(user.getRole().ordinal());
+            writeString(user.getFullName());
+            writeString(user.getStudentId());
+            writeString(user.getFacultyId());
+            appendedFields();
+            endEntity(start);
+        }
+
+        void writeCourse(Course course) {
+            int start = beginEntity(COURSE_VERSION);
+            writeOwnId(course.getCourseIdBits(), course.getCourseIdBits() == 0 ? course.getCourseId() : null);
+            writeString(course.getCourseCode());
+            writeString(course.getCourseName());
+            writeId(course.getInstructorId());
+            Set<String> studentIds = course.getStudentIds();
+            writeVarInt(studentIds.size());
+            for (String studentId : studentIds) {
+                writeId(studentId);
+            }
+            appendedFields();
+            endEntity(start);
+        }
+
+        void writeAttendance(AttendanceRecord record) {
+            int start = beginEntity(ATTENDANCE_VERSION);
+            writeOwnId(record.getRecordIdBits(), record.getStoredRecordId());
+            writeId(record.getCourseId());
+            writeId(record.getStudentId());
+            writeVarLong(zigZag(record.getDate().toEpochDay()));
+            writeVarInt(record.getTimeMarked().toSecondOfDay() << 1 | (record.isPresent() ? 1 : 0));
+            appendedFields();
+            endEntity(start);
+        }
+
+        /**
+         * Writes a reference id (e.g., a courseId inside a record). Rendered time-ordered ids
+         * (16 hex digits) go back to their 8-byte-or-less numeric form.
+         */
+        void writeId(String id) {
+            if (id == null) {
+                writeVarInt(ID_NULL);
+                return;
+            }
+            long numeric = parseNumericId(id);
+            Object key = numeric != 0 ? (Object) numeric : id;
+            Integer ref = ids.get(key);
+            if (ref != null) {
+                writeVarInt(ID_REF);
+                writeVarInt(ref);
+            } else if (numeric != 0) {
+                writeVarInt(ID_NUMERIC);
+                writeVarLong(numeric);
+                if (interning) ids.put(key, ids.size());
+            } else {
+                writeVarInt(ID_STRING);
+                writeString(id);
+                if (interning) ids.put(key, ids.size());
+            }
+        }
+
+        /**
+         * Marks the end of the version 1 fields: anything written after this, until the entity
+         * ends, is an appended field and its ids are not interned.
+         */
+        void appendedFields() {
+            interning = false;
+        }
+
+        void writeString(String value) {
+            if (value == null) {
+                writeVarInt(0);
+                return;
+            }
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeVarInt(bytes.length + 1);
+            ensure(bytes.length);
+            buf.put(bytes);
+        }
+
+        void writeVarInt(int value) {
+            writeVarLong(value & 0xFFFFFFFFL);
+        }
+
+        void writeVarLong(long value) {
+            ensure(10);
+            while ((value & ~0x7FL) != 0) {
+                buf.put((byte) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            buf.put((byte) value);
+        }
+
+        void writeByte(int value) {
+            ensure(1);
+            buf.put((byte) value);
+        }
+
+        // Own ids are written from their numeric bits when the entity hasn't rendered them
+        private void writeOwnId(long bits, String id) {
+            if (bits != 0) {
+                Integer ref = ids.get(bits);
+                if (ref != null) {
+                    writeVarInt(ID_REF);
+                    writeVarInt(ref);
+                    return;
+                }
+                writeVarInt(ID_NUMERIC);
+                writeVarLong(bits);
+                if (interning) ids.put(bits, ids.size());
+            } else {
+                writeId(id);
+            }
+        }
+
+        // Reserves one byte for the body length; endEntity widens it in place if the body is longer
+        private int beginEntity(int version) {
+            writeVarInt(version);
+            ensure(1);
+            int start = buf.position();
+            buf.put((byte) 0);
+            return start;
+        }
+
+        private void endEntity(int lengthAt) {
+            interning = true;
+            int bodyStart = lengthAt + 1;
+            int length = buf.position() - bodyStart;
+            int extra = varIntSize(length) - 1;
+            if (extra > 0) {
+                ensure(extra);
+                for (int i = buf.position() - 1; i >= bodyStart; i--) {
+                    buf.put(i + extra, buf.get(i));
+                }
+                buf.position(buf.position() + extra);
+            }
+            int at = lengthAt;
+            int value = length;
+            while ((value & ~0x7F) != 0) {
+                buf.put(at++, (byte) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            buf.put(at, (byte) value);
+        }
+
+        private void ensure(int bytes) {
+            if (buf.remaining() >= bytes) return;
+            if (!growable) throw new BufferOverflowException();
+            ByteBuffer bigger = ByteBuffer.allocate(Math.max(buf.capacity() * 2, buf.position() + bytes));
+            buf.flip();
+            bigger.put(buf);
+            buf = bigger;
+        }
+    }
+
+    /**
+     * Decodes entities written by a Writer; must read them in the same order to resolve back-references.
+     */
+    static final class Reader {
+        private final ByteBuffer buf;
+        private final List<Object> ids = new ArrayList<>(); // Long or String, by back-reference index
+        private boolean interning = true; // false in an entity's appended fields
+
+        Reader(ByteBuffer source) {
+            this.buf = source;
+        }
+
+        boolean hasRemaining() { return buf.hasRemaining(); }
+
+        User readUser() {
+            int version = readVarInt();
+            int end = bodyEnd();
+            Object id = readIdObject();
+            String username = readOptionalString(end);
+            String email = readOptionalString(end);
+            String passwordHash = readOptionalString(end);
+            User.Role role = buf.position() < end ? roleOf(readVarInt()) : User.Role.STUDENT;
+            String fullName = readOptionalString(end);
+            User user = id instanceof Long
+                    ? new User((Long) id, username, email, passwordHash, role, fullName)
+                    : new User((String) id, username, email, passwordHash, role, fullName);
+            user.setStudentId(readOptionalString(end));
+            user.setFacultyId(readOptionalString(end));
+            appendedFields();
+            skipTo(end, version);
+            return user;
+        }
+
+        Course readCourse() {
+            int version = readVarInt();
+            int end = bodyEnd();
+            Object id = readIdObject();
+            String code = readOptionalString(end);
+            String name = readOptionalString(end);
+            String instructorId = buf.position() < end ? readId() : null;
+            Course course = id instanceof Long
+                    ? new Course((Long) id, code, name, instructorId)
+                    : new Course((String) id, code, name, instructorId);
+            int count = buf.position() < end ? readVarInt() : 0;
+            List<String> studentIds = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                studentIds.add(readId());
+            }
+            course.addStudents(studentIds);
+            appendedFields();
+            skipTo(end, version);
+            return course;
+        }
+
+        AttendanceRecord readAttendance() {
+            int version = readVarInt();
+            int end = bodyEnd();
+            Object id = readIdObject();
+            String courseId = readId();
+            String studentId = readId();
+            LocalDate date = LocalDate.ofEpochDay(unZigZag(readVarLong()));
+            int timeAndPresence = readVarInt();
+            LocalTime time = LocalTime.ofSecondOfDay(timeAndPresence >>> 1);
+            boolean present = (timeAndPresence & 1) != 0;
+            AttendanceRecord record = id instanceof Long
+                    ? new AttendanceRecord((Long) id, courseId, studentId, date, time, present)
+                    : new AttendanceRecord((String) id, courseId, studentId, date, time, present);
+            appendedFields();
+            skipTo(end, version);
+            return record;
+        }
+
+        String readId() {
+            Object id = readIdObject();
+            return id instanceof Long ? IdGenerators.render((Long) id) : (String) id;
+        }
+
+        String readString() {
+            int length = readVarInt();
+            if (length == 0) return null;
+            byte[] bytes = new byte[length - 1];
+            buf.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        int readVarInt() {
+            return (int) readVarLong();
+        }
+
+        long readVarLong() {
+            long result = 0;
+            for (int shift = 0; ; shift += 7) {
+                byte b = buf.get();
+                result |= (long) (b & 0x7F) << shift;
+                if (b >= 0) return result;
+            }
+        }
+
+        byte readByte() {
+            return buf.get();
+        }
+
+        private Object readIdObject() {
+            int tag = readVarInt();
+            switch (tag) {
+                case ID_NULL: return null;
+                case ID_NUMERIC: {
+                    Long id = readVarLong();
+                    if (interning) ids.add(id);
+                    return id;
+                }
+                case ID_STRING: {
+                    String id = readString();
+                    if (interning) ids.add(id);
+                    return id;
+                }
+                case ID_REF: return ids.get(readVarInt());
+                default: throw new IllegalStateException("Codec: Unknown id tag " + tag);
+            }
+        }
+
+        private int bodyEnd() {
+            int length = readVarInt();
+            return buf.position() + length;
+        }
+
+        // A field past the end of the body was added after the writer's version: it takes its default
+        private String readOptionalString(int end) {
+            return buf.position() < end ? readString() : null;
+        }
+
+        // Roles added by a newer writer are read as the least privileged one
+        private static User.Role roleOf(int ordinal) {
+            User.Role[] roles = User.Role.values();
+            return ordinal >= 0 && ordinal < roles.length ? roles[ordinal] : User.Role.STUDENT;
+        }
+
+        /**
+         * Mirrors Writer.appendedFields(): ids read after this, until the entity ends, are not interned.
+         */
+        void appendedFields() {
+            interning = false;
+        }
+
+        // Skips fields appended by newer writers
+        private void skipTo(int end, int version) {
+            interning = true;
+            if (buf.position() > end) {
+                throw new IllegalStateException("Codec: Corrupt entity body (version " + version + ")");
+            }
+            buf.position(end);
+        }
+    }
+
+    // A rendered time-ordered id is exactly 16 lower-case hex digits; anything else stays a string
+    static long parseNumericId(String id) {
+        if (id.length() != 16) return 0;
+        long value = 0;
+        for (int i = 0; i < 16; i++) {
+            char c = id.charAt(i);
+            int digit = c >= '0' && c <= '9' ? c - '0' : c >= 'a' && c <= 'f' ? c - 'a' + 10 : -1;
+            if (digit < 0) return 0;
+            value = value << 4 | digit;
+        }
+        return value;
+    }
+
+    static int varIntSize(int value) {
+        int size = 1;
+        while ((value & ~0x7F) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
+
+/**
+ * One-way password hashing. Stored hashes are self-describing strings, so the cost can be raised
+ * without invalidating existing passwords: verify() still accepts them and needsRehash() says when
+ * a successful login should store a fresh hash.
+ */
+interface PasswordHasher {
+    String hash(String password);
+
+    boolean verify(String password, String storedHash);
+
+    boolean needsRehash(String storedHash);
+
+    /**
+     * @return true if the value is in a format this hasher verifies, so it can be stored as a hash
+     *         (e.g. on import). Anything else would never match a password.
+     */
+    boolean recognizes(String storedHash);
+}
+
+/**
+ * PBKDF2-HMAC-SHA256 hasher using only the JDK.
+ * Format: {@code pbkdf2-sha256$<iterations>$<salt>$<hash>} with base64 salt and hash.
+ * Plaintext passwords are only accepted behind an explicit {@code legacy-plain$} tag: they verify
+ * (in constant time) but always need a rehash, which migrates them on the user's next login. Any
+ * other value never verifies, so a foreign hash string can't be used as the password itself.
+ */
+class Pbkdf2PasswordHasher implements PasswordHasher {
+    private static final String ALGORITHM = "PBKDF2WithHmacSHA256";
+    private static final String PREFIX = "pbkdf2-sha256$";
+    static final String LEGACY_PREFIX = "legacy-plain$";
+    private static final int MIN_ITERATIONS = 10_000;
+    // Stored hashes may come from outside (imports), so their cost is capped to keep a login bounded
+    private static final int MAX_ITERATIONS = 10_000_000;
+    private static final int SALT_BYTES = 16;
+    private static final int HASH_BITS = 256;
+
+    private final int iterations;
+    private final SecureRandom random = new SecureRandom();
+
+    public Pbkdf2PasswordHasher(int iterations) {
+        if (iterations < MIN_ITERATIONS) throw new IllegalArgumentException("PBKDF2 needs at least " + MIN_ITERATIONS + " iterations");
+        if (iterations > MAX_ITERATIONS) throw new IllegalArgumentException("PBKDF2 allows at most " + MAX_ITERATIONS + " iterations");
+        this.iterations = iterations;
+    }
+
+    /**
+     * Picks the iteration count that makes one hash take about targetMillis on this machine.
+     * Meant to run once at startup; takes a few times the target.
+     */
+    public static Pbkdf2PasswordHasher calibrated(long targetMillis) {
+        byte[] salt = new byte[SALT_BYTES];
+        derive("calibration".toCharArray(), salt, MIN_ITERATIONS); // warm up the JIT
+        int probe = MIN_ITERATIONS;
+        long elapsedNanos;
+        do {
+            probe *= 2;
+            long start = System.nanoTime();
+            derive("calibration".toCharArray(), salt, probe);
+            elapsedNanos = System.nanoTime() - start;
+        } while (elapsedNanos < TimeUnit.MILLISECONDS.toNanos(Math.max(targetMillis, 1)) / 4 && probe < (1 << 26));
+        long scaled = probe * TimeUnit.MILLISECONDS.toNanos(targetMillis) / Math.max(elapsedNanos, 1);
+        return new Pbkdf2PasswordHasher((int) Math.max(MIN_ITERATIONS, Math.min(scaled, MAX_ITERATIONS)));
+    }
+
+    public int getIterations() { return iterations; }
+
+    @Override
+    public String hash(String password) {
+        byte[] salt = new byte[SALT_BYTES];
+        random.nextBytes(salt);
+        Base64.Encoder base64 = Base64.getEncoder().withoutPadding();
+        return PREFIX + iterations + '$' + base64.encodeToString(salt) + '$'
+                + base64.encodeToString(derive(password.toCharArray(), salt, iterations));
+    }
+
+    @Override
+    public boolean verify(String password, String storedHash) {
+        if (password == null || storedHash == null) return false;
+        if (storedHash.startsWith(LEGACY_PREFIX)) {
+            byte[] legacy = storedHash.substring(LEGACY_PREFIX.length()).getBytes(StandardCharsets.UTF_8);
+            return MessageDigest.isEqual(password.getBytes(StandardCharsets.UTF_8), legacy);
+        }
+        String[] parts = parse(storedHash);
+        if (parts == null) return false;
+        byte[] salt = Base64.getDecoder().decode(parts[1]);
+        byte[] expected = Base64.getDecoder().decode(parts[2]);
+        return MessageDigest.isEqual(derive(password.toCharArray(), salt, Integer.parseInt(parts[0])), expected);
+    }
+
+    @Override
+    public boolean recognizes(String storedHash) {
+        return storedHash != null && (storedHash.startsWith(LEGACY_PREFIX) || parse(storedHash) != null);
+    }
+
+    // Iterations, salt and hash of a well-formed PBKDF2 value with a cost in range, or null
+    private static String[] parse(String storedHash) {
+        if (!storedHash.startsWith(PREFIX)) return null;
+        String[] parts = storedHash.substring(PREFIX.length()).split("\\$");
+        if (parts.length != 3) return null;
+        try {
+            int storedIterations = Integer.parseInt(parts[0]);
+            if (storedIterations <= 0 || storedIterations > MAX_ITERATIONS) return null;
+            Base64.getDecoder().decode(parts[1]);
+            Base64.getDecoder().decode(parts[2]);
+            return parts;
+        } catch (IllegalArgumentException e) {
+            return null; // malformed hash
+        }
+    }
+
+    @Override
+    public boolean needsRehash(String storedHash) {
+        if (storedHash == null || !storedHash.startsWith(PREFIX)) return true;
+        int end = storedHash.indexOf('$', PREFIX.length());
+        try {
+            return end < 0 || Integer.parseInt(storedHash.substring(PREFIX.length(), end)) < iterations;
+        } catch (NumberFormatException e) {
+            return true;
+        }
+    }
+
+    private static byte[] derive(char[] password, byte[] salt, int iterations) {
+        PBEKeySpec spec = new PBEKeySpec(password, salt, iterations, HASH_BITS);
+        try {
+            return SecretKeyFactory.getInstance(ALGORITHM).generateSecret(spec).getEncoded();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("PBKDF2 is not available", e); // mandatory in every JDK
+        } finally {
+            spec.clearPassword();
+            Arrays.fill(password, '\0');
+        }
+    }
+}
+
+/**
+ * Brute-force protection for logins: token buckets per username and per client, plus a lockout
+ * after repeated failures for a username. Every check is O(1) and lock-free (one CAS on a packed
+ * long), so throttled attempts are turned away before any password hashing runs.
+ *
+ * Memory stays bounded under credential stuffing: idle keys are dropped by a time wheel, and once
+ * maxKeys are tracked, further keys share a fixed array of striped overflow buckets (stricter, and
+ * without lockout tracking) instead of allocating new entries.
+ */
+class LoginRateLimiter {
+    private static final int OVERFLOW_STRIPES = 4096;
+    private static final int WHEEL_SLOTS = 256;
+    private static final int TOKEN_BITS = 16; // Bucket state: lastRefillMillis << TOKEN_BITS | tokens
+
+    private final int capacity;
+    private final long refillMillis;
+    private final int maxFailures;
+    private final long lockoutMillis;
+    private final int maxKeys;
+    private final long idleMillis; // An untouched bucket is full again after this long
+    private final long tickMillis;
+    private final long origin = System.nanoTime();
+
+    private final Map<String, KeyState> keys = new ConcurrentHashMap<>();
+    private final AtomicLong[] overflow = new AtomicLong[OVERFLOW_STRIPES];
+    // Expiry wheel: each tracked key sits in the slot of the tick it expires at (modulo the wheel)
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private final Queue<KeyState>[] wheel = new Queue[WHEEL_SLOTS];
+    private final AtomicLong sweptTick = new AtomicLong();
+    private final AtomicInteger tracked = new AtomicInteger(); // Entries in keys, counted as slots are reserved
+
+    /**
+     * @param capacity Attempts allowed in a burst, per key (at most 65535).
+     * @param refillMillis Time for one attempt to be credited back.
+     * @param maxFailures Consecutive failed logins after which a username is locked.
+     * @param lockoutMillis How long a locked username stays locked.
+     * @param maxKeys Usernames and clients tracked individually before the overflow buckets are used.
+     */
+    public LoginRateLimiter(int capacity, long refillMillis, int maxFailures, long lockoutMillis, int maxKeys) {
+        if (capacity < 1 || capacity >= 1 << TOKEN_BITS) throw new IllegalArgumentException("Capacity out of range: " + capacity);
+        this.capacity = capacity;
+        this.refillMillis = Math.max(1, refillMillis);
+        this.maxFailures = maxFailures;
+        this.lockoutMillis = lockoutMillis;
+        this.maxKeys = maxKeys;
+        this.idleMillis = this.refillMillis * capacity;
+        this.tickMillis = Math.max(1, Math.max(idleMillis, lockoutMillis) / (WHEEL_SLOTS / 2));
+        for (int i = 0; i < OVERFLOW_STRIPES; i++) overflow[i] = new AtomicLong(capacity);
+        for (int i = 0; i < WHEEL_SLOTS; i++) wheel[i] = new ConcurrentLinkedQueue<>();
+    }
+
+    /**
+     * Takes one attempt from the username's and the client's buckets. The username is checked
+     * first, so an attempt it refuses doesn't cost the client a token.
+     * @param username Account key (case-insensitive): the user id for a known account, so its
+     *                 username and email share one budget, or the name as typed otherwise.
+     * @param clientId Client address or device id, or null if unknown.
+     * @return false if either bucket is empty or the username is locked out.
+     */
+    public boolean tryAcquire(String username, String clientId) {
+        long now = now();
+        sweep(now);
+        AtomicLong user = null;
+        if (username != null) {
+            String key = "u:" + username.toLowerCase(Locale.ROOT);
+            KeyState state = state(key, now);
+            if (state != null && state.lockedUntil > now) return false;
+            user = state != null ? state.bucket : bucketFor(key, now);
+            if (!hasToken(user, now)) return false;
+        }
+        if (clientId != null && !take(bucketFor("c:" + clientId, now), now)) return false;
+        return user == null || take(user, now);
+    }
+
+    public void recordFailure(String username) {
+        if (username == null) return;
+        long now = now();
+        KeyState user = state("u:" + username.toLowerCase(Locale.ROOT), now);
+        if (user == null) return; // Overflow keys are only rate limited
+        user.touch(now);
+        if (user.failures.incrementAndGet() >= maxFailures) {
+            user.failures.set(0);
+            user.lockedUntil = now + lockoutMillis;
+        }
+    }
+
+    public void recordSuccess(String username) {
+        if (username == null) return;
+        KeyState user = keys.get("u:" + username.toLowerCase(Locale.ROOT));
+        if (user != null) user.failures.set(0);
+    }
+
+    public boolean isLockedOut(String username) {
+        KeyState user = username == null ? null : keys.get("u:" + username.toLowerCase(Locale.ROOT));
+        return user != null && user.lockedUntil > now();
+    }
+
+    public int getTrackedKeys() {
+        return keys.size();
+    }
+
+    private long now() {
+        return (System.nanoTime() - origin) / 1_000_000;
+    }
+
+    // Existing entry, a new one if there is room, or null when the key has to use an overflow stripe
+    // A slot is reserved before the entry is added, so racing threads can't overshoot maxKeys
+    private KeyState state(String key, long now) {
+        KeyState state = keys.get(key);
+        if (state != null || tracked.get() >= maxKeys) return state;
+        if (tracked.incrementAndGet() > maxKeys) {
+            tracked.decrementAndGet();
+            return keys.get(key);
+        }
+        KeyState created = new KeyState(key, capacity, now);
+        state = keys.putIfAbsent(key, created);
+        if (state != null) {
+            tracked.decrementAndGet();
+            return state;
+        }
+        schedule(created, created.expiresAt());
+        return created;
+    }
+
+    private AtomicLong bucketFor(String key, long now) {
+        KeyState state = state(key, now);
+        return state != null ? state.bucket : overflow[(key.hashCode() & 0x7fffffff) % OVERFLOW_STRIPES];
+    }
+
+    private boolean hasToken(AtomicLong bucket, long now) {
+        long state = bucket.get();
+        return (state & ((1L << TOKEN_BITS) - 1)) > 0 || now - (state >>> TOKEN_BITS) >= refillMillis;
+    }
+
+    // Lazily refills whole tokens since the last refill, then takes one
+    private boolean take(AtomicLong bucket, long now) {
+        while (true) {
+            long state = bucket.get();
+            long last = state >>> TOKEN_BITS;
+            long tokens = state & ((1L << TOKEN_BITS) - 1);
+            long refills = (now - last) / refillMillis;
+            if (refills > 0) {
+                tokens = Math.min(capacity, tokens + refills);
+                last = tokens == capacity ? now : last + refills * refillMillis;
+            }
+            if (tokens == 0) return false;
+            if (bucket.compareAndSet(state, last << TOKEN_BITS | (tokens - 1))) return true;
+        }
+    }
+
+    private void schedule(KeyState state, long expiresAt) {
+        wheel[(int) ((expiresAt / tickMillis) % WHEEL_SLOTS)].add(state);
+    }
+
+    // Whoever advances the tick first drains the slots it passed; entries not yet idle are rescheduled
+    private void sweep(long now) {
+        long tick = now / tickMillis;
+        long swept = sweptTick.get();
+        if (tick <= swept || !sweptTick.compareAndSet(swept, tick)) return;
+        for (long t = Math.max(swept + 1, tick - WHEEL_SLOTS + 1); t <= tick; t++) {
+            Queue<KeyState> slot = wheel[(int) (t % WHEEL_SLOTS)];
+            for (int n = slot.size(); n > 0; n--) {
+                KeyState state = slot.poll();
+                if (state == null) break;
+                long expiresAt = state.expiresAt();
+                if (expiresAt <= now) {
+                    if (keys.remove(state.key, state)) tracked.decrementAndGet();
+                } else {
+                    schedule(state, expiresAt);
+                }
+            }
+        }
+    }
+
+    /**
+     * Thrown (or used to fail a login future) when an attempt is refused by the limiter.
+     */
+    static class ThrottledException extends IllegalStateException {
+        private static final long serialVersionUID = 1L;
+
+        ThrottledException() {
+            super("Too many login attempts");
+        }
+    }
+
+    private final class KeyState {
+        final String key;
+        final AtomicLong bucket;
+        final AtomicInteger failures = new AtomicInteger();
+        volatile long lockedUntil;
+        volatile long lastSeen;
+
+        KeyState(String key, int tokens, long now) {
+            this.key = key;
+            this.bucket = new AtomicLong(now << TOKEN_BITS | tokens);
+            this.lastSeen = now;
+        }
+
+        void touch(long now) {
+            lastSeen = now;
+        }
+
+        // Once idle long enough to refill and past any lockout, the entry is equivalent to a new one
+        long expiresAt() {
+            long lastRefill = bucket.get() >>> TOKEN_BITS;
+            return Math.max(Math.max(lastRefill, lastSeen) + idleMillis, lockedUntil) + 1;
+        }
+    }
+}
+
+/**
+ * Session table for logged-in users: opaque random tokens mapped to user ids with an expiry.
+ * Safe for concurrent use; lookups are lock-free.
+ */
+class SessionTable {
+    private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+    private final SecureRandom random = new SecureRandom();
+    private final long ttlMillis;
+
+    private static final class Session {
+        final String userId;
+        final long expiresAtMillis;
+
+        Session(String userId, long expiresAtMillis) {
+            this.userId = userId;
+            this.expiresAtMillis = expiresAtMillis;
+        }
+    }
+
+    public SessionTable(long ttlMillis) {
+        this.ttlMillis = ttlMillis;
+    }
+
+    /**
+     * Opens a session for the user.
+     * @return The session token.
+     */
+    public String create(String userId) {
+        byte[] bytes = new byte[24];
+        random.nextBytes(bytes);
+        String token = Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+        sessions.put(token, new Session(userId, System.currentTimeMillis() + ttlMillis));
+        return token;
+    }
+
+    /**
+     * @return The user id for a live session, or null if the token is unknown or expired.
+     */
+    public String resolve(String token) {
+        Session session = token == null ? null : sessions.get(token);
+        if (session == null) return null;
+        if (session.expiresAtMillis <= System.currentTimeMillis()) {
+            sessions.remove(token, session);
+            return null;
+        }
+        return session.userId;
+    }
+
+    public void invalidate(String token) {
+        if (token != null) sessions.remove(token);
+    }
+
+    /**
+     * Drops expired sessions; call periodically so abandoned tokens don't accumulate.
+     * @return The number of sessions removed.
+     */
+    public int purgeExpired() {
+        long now = System.currentTimeMillis();
+        int removed = 0;
+        for (Map.Entry<String, Session> entry : sessions.entrySet()) {
+            if (entry.getValue().expiresAtMillis <= now && sessions.remove(entry.getKey(), entry.getValue())) {
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    public int size() {
+        return sessions.size();
+    }
+}
+
+/**
+ * Conceptual Authentication Manager.
+ * In a real Android app, this would use Firebase Authentication or a custom backend.
+ * Thread-safe, so a single instance can serve many concurrent requests: the user registry
+ * and its indexes are concurrent maps (reads on the login path take no locks), and each
+ * client holds its own session token instead of sharing currentUser.
+ * Users are loaded from the DatabaseManager at startup and written through to it on
+ * registration, import and password rehash; the maps are an index over the store.
+ */
+class AuthenticationManager {
+    private static final long DEFAULT_SESSION_TTL_MILLIS = TimeUnit.HOURS.toMillis(8);
+    private static final long SESSION_PURGE_MILLIS = TimeUnit.MINUTES.toMillis(1);
+    private static final long DEFAULT_HASH_MILLIS = 50; // Per password hash, calibrated at startup
+    private static final int DEFAULT_VERIFY_QUEUE = 256;
+    // 10 attempts per burst, then one every 6s; 5 straight failures lock a username for 5 minutes
+    private static final int LOGIN_BURST = 10;
+    private static final long LOGIN_REFILL_MILLIS = TimeUnit.SECONDS.toMillis(6);
+    private static final int LOGIN_MAX_FAILURES = 5;
+    private static final long LOGIN_LOCKOUT_MILLIS = TimeUnit.MINUTES.toMillis(5);
+    private static final int LOGIN_MAX_TRACKED_KEYS = 1_000_000;
+    // A login costs about one hash by design, so only flag ones well beyond that
+    private static final long SLOW_AUTH_NANOS = TimeUnit.MILLISECONDS.toNanos(4 * DEFAULT_HASH_MILLIS);
+
+    private final DatabaseManager dbManager;
+    private final Map<String, User> registeredUsers = new ConcurrentHashMap<>();
+    // Secondary indexes (lower-cased username/email -> userId) so lookups don't scan every user.
+    // Entries are claimed with putIfAbsent, which is what makes username/email uniqueness race-free.
+    private final Map<String, String> usernameIndex = new ConcurrentHashMap<>();
+    private final Map<String, String> emailIndex = new ConcurrentHashMap<>();
+    private final SessionTable sessions = new SessionTable(DEFAULT_SESSION_TTL_MILLIS);
+    private volatile User currentUser = null; // Last user logged in via loginUser (single-user UI flows)
+    private final PasswordHasher hasher;
+    // Password checks are CPU-bound, so they run on a fixed pool sized to the cores. When the queue
+    // is full new logins are rejected immediately instead of piling up behind the KDF.
+    private final ThreadPoolExecutor verifier;
+    private final ScheduledExecutorService sessionPurger; // Drops sessions nobody looks up again
+    private final String dummyHash; // Verified against for unknown users, so both paths cost the same
+    private final LoginRateLimiter rateLimiter;
+    private final OperationTimer loginTimer;
+    private final OperationTimer registerTimer;
+    private final LongAdder loginsSucceeded;
+    private final LongAdder loginsFailed;
+    private final LongAdder loginsThrottled;
+    private final LongAdder loginsRejected; // verifier queue full
+    private final LongAdder registrationsFailed;
+
+    public AuthenticationManager() {
+        this(new InMemoryDatabaseManager());
+    }
+
+    public AuthenticationManager(DatabaseManager dbManager) {
+        this(dbManager, Pbkdf2PasswordHasher.calibrated(DEFAULT_HASH_MILLIS), Runtime.getRuntime().availableProcessors(), DEFAULT_VERIFY_QUEUE);
+    }
+
+    public AuthenticationManager(DatabaseManager dbManager, PasswordHasher hasher, int verifyThreads, int verifyQueue) {
+        this(dbManager, hasher, new LoginRateLimiter(LOGIN_BURST, LOGIN_REFILL_MILLIS, LOGIN_MAX_FAILURES, LOGIN_LOCKOUT_MILLIS, LOGIN_MAX_TRACKED_KEYS),
+                verifyThreads, verifyQueue);
+    }
+
+    /**
+     * @param dbManager Users are loaded from it here and saved to it as they change.
+     * @param hasher Hashes new passwords and verifies stored ones.
+     * @param rateLimiter Checked before any password is verified.
+     * @param verifyThreads Maximum concurrent password verifications.
+     * @param verifyQueue Logins allowed to wait for a verifier before new ones are rejected.
+     */
+    public AuthenticationManager(DatabaseManager dbManager, PasswordHasher hasher, LoginRateLimiter rateLimiter, int verifyThreads, int verifyQueue) {
+        this.dbManager = dbManager;
+        this.hasher = hasher;
+        this.rateLimiter = rateLimiter;
+        MetricsRegistry metrics = Metrics.get();
+        this.loginTimer = metrics.timer("auth.login", SLOW_AUTH_NANOS);
+        this.registerTimer = metrics.timer("auth.register", SLOW_AUTH_NANOS);
+        this.loginsSucceeded = metrics.counter("auth.login.succeeded");
+        this.loginsFailed = metrics.counter("auth.login.failed");
+        this.loginsThrottled = metrics.counter("auth.login.throttled");
+        this.loginsRejected = metrics.counter("auth.login.rejected");
+        this.registrationsFailed = metrics.counter("auth.register.failed");
+        this.verifier = new ThreadPoolExecutor(verifyThreads, verifyThreads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(verifyQueue), runnable -> {
+                    Thread thread = new Thread(runnable, "password-verifier");
+                    thread.setDaemon(true);
+                    return thread;
+                }, new ThreadPoolExecutor.AbortPolicy());
+        this.sessionPurger = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "session-purger");
+            thread.setDaemon(true);
+            return thread;
+        });
+        sessionPurger.scheduleWithFixedDelay(sessions::purgeExpired, SESSION_PURGE_MILLIS, SESSION_PURGE_MILLIS, TimeUnit.MILLISECONDS);
+        this.dummyHash = hasher.hash(UUID.randomUUID().toString());
+        loadUsers();
+        // For demo, add some dummy users (once; after that they come back from the store)
+        if (findByUsernameOrEmail("profsmith") == null) {
+            User instructor = new User("profsmith", "smith@university.edu", hasher.hash("pass123"), User.Role.INSTRUCTOR, "Prof. John Smith");
+            instructor.setFacultyId("F001");
+            addAndSave(instructor);
+        }
+        if (findByUsernameOrEmail("johndoe") == null) {
+            User student1 = new User("johndoe", "john@student.edu", hasher.hash("pass123"), User.Role.STUDENT, "John Doe");
+            student1.setStudentId("S001");
+            addAndSave(student1);
+        }
+        if (findByUsernameOrEmail("janesmith") == null) {
+            User student2 = new User("janesmith", "jane@student.edu", hasher.hash("pass123"), User.Role.STUDENT, "Jane Smith");
+            student2.setStudentId("S002");
+            addAndSave(student2);
+        }
+    }
+
+    // Indexes every stored user; one whose username or email clashes with an earlier one is skipped
+    private void loadUsers() {
+        for (User.Role role : User.Role.values()) {
+            for (User user : dbManager.getAllUsersByRole(role)) {
+                if (!addUser(user)) System.err.println("Auth: Skipping stored user " + user.getUserId() + ": username or email already taken");
+            }
+        }
+    }
+
+    /**
+     * Registers a new user.
+     * @param username
+     * @param email
+     * @param password
+     * @param role
+     * @param fullName
+     * @return The registered User object, or null if registration fails (e.g., username/email taken).
+     */
+    public User registerUser(String username, String email, String password, User.Role role, String fullName) {
+        long start = System.nanoTime();
+        try {
+            // Turn away taken names before paying for the hash; addUser still settles any race
+            if (isTaken(usernameIndex, username) || isTaken(emailIndex, email)) {
+                registrationsFailed.increment();
+                System.out.println("Registration failed: Username or email already exists.");
+                return null;
+            }
+            User newUser = new User(username, email, hasher.hash(password), role, fullName);
+            if (!addUser(newUser)) {
+                registrationsFailed.increment();
+                System.out.println("Registration failed: Username or email already exists.");
+                return null;
+            }
+            if (!save(newUser)) {
+                registrationsFailed.increment();
+                System.out.println("Registration failed: Could not save user.");
+                return null;
+            }
+            System.out.println("User registered: " + newUser.getUsername());
+            return newUser;
+        } finally {
+            registerTimer.record(start);
+        }
+    }
+
+    /**
+     * Authenticates a user.
+     * @param usernameOrEmail
+     * @param password
+     * @return The authenticated User object, or null if authentication fails.
+     */
+    public User loginUser(String usernameOrEmail, String password) {
+        return loginUser(usernameOrEmail, password, null);
+    }
+
+    /**
+     * Authenticates a user, rate limited per username and per client.
+     * @param usernameOrEmail
+     * @param password
+     * @param clientId Client address or device id, or null if unknown.
+     * @return The authenticated User object, or null if authentication fails or is throttled.
+     */
+    public User loginUser(String usernameOrEmail, String password, String clientId) {
+        User user;
+        try {
+            user = authenticate(usernameOrEmail, password, clientId);
+        } catch (LoginRateLimiter.ThrottledException e) {
+            System.out.println("Login failed: Too many attempts, try again later.");
+            return null;
+        } catch (RejectedExecutionException e) {
+            System.out.println("Login failed: Too many logins in progress, try again.");
+            return null;
+        }
+        if (user != null) {
+            currentUser = user;
+            System.out.println("User logged in: " + user.getUsername());
+            return user;
+        }
+        System.out.println("Login failed: Invalid credentials.");
+        return null;
+    }
+
+    /**
+     * Authenticates a user without blocking the caller; the password is checked on the verifier pool.
+     * The rate limiter is consulted first, so throttled attempts never reach the password hasher.
+     * @param usernameOrEmail
+     * @param password
+     * @param clientId Client address or device id, or null if unknown.
+     * @return Future of the authenticated User, or of null if authentication fails. Fails with
+     *         LoginRateLimiter.ThrottledException if the username or client is throttled, or with
+     *         RejectedExecutionException if too many logins are already waiting.
+     */
+    public CompletableFuture<User> loginUserAsync(String usernameOrEmail, String password, String clientId) {
+        if (usernameOrEmail == null || password == null) return CompletableFuture.completedFuture(null);
+        // Known accounts are limited by id, so switching between username and email gains nothing
+        User user = findByUsernameOrEmail(usernameOrEmail);
+        String limiterKey = user != null ? "#" + user.getUserId() : usernameOrEmail;
+        if (!rateLimiter.tryAcquire(limiterKey, clientId)) {
+            return CompletableFuture.failedFuture(new LoginRateLimiter.ThrottledException());
+        }
+        try {
+            return CompletableFuture.supplyAsync(() -> {
+                User verified = verify(user, password);
+                if (verified != null) rateLimiter.recordSuccess(limiterKey); else rateLimiter.recordFailure(limiterKey);
+                return verified;
+            }, verifier);
+        } catch (RejectedExecutionException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * Authenticates a user and opens a session for them, for use by concurrent clients.
+     * @param usernameOrEmail
+     * @param password
+     * @param clientId Client address or device id, or null if unknown.
+     * @return A session token, or null if authentication fails.
+     * @throws LoginRateLimiter.ThrottledException if the username or client is throttled.
+     * @throws RejectedExecutionException if too many logins are already waiting.
+     */
+    public String loginForSession(String usernameOrEmail, String password, String clientId) {
+        User user = authenticate(usernameOrEmail, password, clientId);
+        return user == null ? null : sessions.create(user.getUserId());
+    }
+
+    /**
+     * @param sessionToken
+     * @return The user owning a live session, or null if the token is unknown or expired.
+     */
+    public User getUserForSession(String sessionToken) {
+        String userId = sessions.resolve(sessionToken);
+        return userId == null ? null : registeredUsers.get(userId);
+    }
+
+    /**
+     * Ends a session opened by loginForSession.
+     * @param sessionToken
+     */
+    public void logoutSession(String sessionToken) {
+        sessions.invalidate(sessionToken);
+    }
+
+    public SessionTable getSessions() {
+        return sessions;
+    }
+
+    public PasswordHasher getPasswordHasher() {
+        return hasher;
+    }
+
+    public LoginRateLimiter getRateLimiter() {
+        return rateLimiter;
+    }
+
+    /**
+     * Looks up a user by username or email (case-insensitive) using the secondary indexes.
+     * @param usernameOrEmail
+     * @return User object or null.
+     */
+    public User findByUsernameOrEmail(String usernameOrEmail) {
+        if (usernameOrEmail == null) return null;
+        String key = indexKey(usernameOrEmail);
+        String userId = usernameIndex.get(key);
+        if (userId == null) {
+            userId = emailIndex.get(key);
+        }
+        return userId == null ? null : registeredUsers.get(userId);
+    }
+
+    /**
+     * Stops the verifier pool and the session purge. Pending logins still complete.
+     */
+    public void shutdown() {
+        verifier.shutdown();
+        sessionPurger.shutdown();
+    }
+
+    // Blocking login: still runs on the verifier pool, so callers share its concurrency limit
+    // Shared by loginUser and loginForSession, so both are timed and counted as "auth.login"
+    private User authenticate(String usernameOrEmail, String password, String clientId) {
+        long start = System.nanoTime();
+        try {
+            User user = loginUserAsync(usernameOrEmail, password, clientId).join();
+            (user != null ? loginsSucceeded : loginsFailed).increment();
+            return user;
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof LoginRateLimiter.ThrottledException) loginsThrottled.increment();
+            if (e.getCause() instanceof RejectedExecutionException) loginsRejected.increment();
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            throw e;
+        } finally {
+            loginTimer.record(start);
+        }
+    }
+
+    // Runs on the verifier pool. Upgrades outdated (or legacy plaintext) hashes after a successful check.
+    private User verify(User user, String password) {
+        if (user == null) {
+            hasher.verify(password, dummyHash);
+            return null;
+        }
+        String stored = user.getPasswordHash();
+        if (stored == null) { // imported without a password
+            hasher.verify(password, dummyHash);
+            return null;
+        }
+        if (!hasher.verify(password, stored)) return null;
+        if (hasher.needsRehash(stored)) {
+            String upgraded = hasher.hash(password);
+            boolean upgradedNow;
+            synchronized (user) {
+                upgradedNow = stored.equals(user.getPasswordHash());
+                if (upgradedNow) user.setPasswordHash(upgraded);
+            }
+            if (upgradedNow) {
+                try {
+                    dbManager.saveUser(user);
+                } catch (RuntimeException e) { // the login stands; the next one upgrades the stored hash again
+                    System.err.println("Auth: Failed to save rehashed password for " + user.getUserId() + ": " + e.getMessage());
+                }
+            }
+        }
+        return user;
+    }
+
+    /**
+     * Registers a user whose password is already hashed, e.g. from a registrar import, and saves it.
+     * A user without a hash exists but can't log in until one is set.
+     * @return false if the user id, username or email is already taken, or the user can't be saved.
+     */
+    public boolean importUser(User user) {
+        return importUser(user, true);
+    }
+
+    /**
+     * @param persist false if the caller saves the user itself (BulkImporter commits in batches).
+     */
+    boolean importUser(User user, boolean persist) {
+        if (!addUser(user)) return false;
+        return !persist || save(user);
+    }
+
+    /**
+     * Unregisters users claimed by importUser(user, false) whose batch then failed to save.
+     */
+    void forgetUsers(Collection<User> users) {
+        for (User user : users) removeUser(user);
+    }
+
+    private void addAndSave(User user) {
+        if (addUser(user)) save(user);
+    }
+
+    // Writes a newly added user through to the store, unregistering it again if that fails
+    private boolean save(User user) {
+        try {
+            dbManager.saveUser(user);
+            return true;
+        } catch (RuntimeException e) {
+            System.err.println("Auth: Failed to save user " + user.getUsername() + ": " + e.getMessage());
+            removeUser(user);
+            return false;
+        }
+    }
+
+    private void removeUser(User user) {
+        if (!registeredUsers.remove(user.getUserId(), user)) return;
+        user.setProfileListener(null);
+        release(emailIndex, indexKey(user.getEmail()), user.getUserId());
+        release(usernameIndex, indexKey(user.getUsername()), user.getUserId());
+    }
+
+    // Claims the username, then the email, then the id, releasing earlier claims if a later one fails.
+    // The user only becomes visible once all claims succeed. A null username or email is not indexed.
+    private boolean addUser(User user) {
+        String userId = user.getUserId();
+        String usernameKey = indexKey(user.getUsername());
+        String emailKey = indexKey(user.getEmail());
+        if (!claim(usernameIndex, usernameKey, userId)) {
+            return false;
+        }
+        if (!claim(emailIndex, emailKey, userId)) {
+            release(usernameIndex, usernameKey, userId);
+            return false;
+        }
+        if (registeredUsers.putIfAbsent(userId, user) != null) {
+            release(emailIndex, emailKey, userId);
+            release(usernameIndex, usernameKey, userId);
+            return false;
+        }
+        user.setProfileListener(indexUpdater);
+        return true;
+    }
+
+    private static String indexKey(String value) {
+        return value == null ? null : value.toLowerCase(Locale.ROOT);
+    }
+
+    private static boolean isTaken(Map<String, String> index, String value) {
+        String key = indexKey(value);
+        return key != null && index.containsKey(key);
+    }
+
+    private static boolean claim(Map<String, String> index, String key, String userId) {
+        return key == null || index.putIfAbsent(key, userId) == null;
+    }
+
+    private static void release(Map<String, String> index, String key, String userId) {
+        if (key != null) index.remove(key, userId);
+    }
+
+    // Moves index entries when a registered user's username or email is edited
+    private final User.ProfileListener indexUpdater = new User.ProfileListener() {
+        @Override
+        public void onUsernameChange(User user, String oldUsername, String newUsername) {
+            reindex(usernameIndex, user, oldUsername, newUsername, "Username");
+        }
+
+        @Override
+        public void onEmailChange(User user, String oldEmail, String newEmail) {
+            reindex(emailIndex, user, oldEmail, newEmail, "Email");
+        }
+    };
+
+    private void reindex(Map<String, String> index, User user, String oldValue, String newValue, String field) {
+        String oldKey = indexKey(oldValue);
+        String newKey = indexKey(newValue);
+        if (Objects.equals(newKey, oldKey)) return;
+        if (newKey != null) {
+            String owner = index.putIfAbsent(newKey, user.getUserId());
+            if (owner != null && !owner.equals(user.getUserId())) {
+                throw new IllegalArgumentException(field + " already in use: " + newValue);
+            }
+        }
+        release(index, oldKey, user.getUserId());
+    }
+
+    /**
+     * Logs out the current user.
+     */
+    public void logoutUser() {
+        currentUser = null;
+        System.out.println("User logged out.");
+    }
+
+    /**
+     * Gets the currently logged-in user.
+     * @return The current User, or null if no one is logged in.
+     */
+    public User getCurrentUser() {
+        return currentUser;
+    }
+
+    /**
+     * Retrieves a user by their ID.
+     * @param userId
+     * @return User object or null.
+     */
+    public User getUserById(String userId) {
+        return registeredUsers.get(userId);
+    }
+}
+
+/**
+ * Storage abstraction used by the rest of the system.
+ * Implementations: InMemoryDatabaseManager (volatile, for tests/demo) and
+ * FileDatabaseManager (embedded, append-only log on local disk, no server needed).
+ * A SQLite or Firebase backed manager would implement the same interface.
+ */
+interface DatabaseManager extends AutoCloseable {
+
+    // --- User Operations ---
+    void saveUser(User user);
+    User getUser(String userId);
+    List<User> getAllUsersByRole(User.Role role);
+
+    /**
+     * Saves many users at once, e.g. for a bulk import. Stores override it to take their lock and
+     * flush their log once per batch instead of once per user.
+     */
+    default void saveUsers(Collection<User> users) {
+        for (User user : users) saveUser(user);
+    }
+
+    // --- Course Operations ---
+    void saveCourse(Course course);
+    Course getCourse(String courseId);
+    List<Course> getAllCourses();
+    List<Course> getCoursesByInstructor(String instructorId);
+    List<Course> getCoursesByStudent(String studentId);
+
+    /**
+     * Saves many courses at once; see saveUsers.
+     */
+    default void saveCourses(Collection<Course> courses) {
+        for (Course course : courses) saveCourse(course);
+    }
+
+    // --- Attendance Operations ---
+    void saveAttendanceRecord(AttendanceRecord record);
+    /**
+     * Saves a batch of records in one storage round trip; durable engines commit it with a single fsync.
+     */
+    void saveAttendanceRecords(Collection<AttendanceRecord> records);
+
+    /**
+     * Told about each mark a save is about to overwrite, in the order the records are saved.
+     */
+    interface ReplacedMarks {
+        /** priorSecondOfDay when the save creates a new mark. */
+        int NEW_MARK = -1;
+
+        /**
+         * Plain ints, so reporting a mark converts and allocates nothing on the write path.
+         * @param studentId The store's own copy of the id where it keeps one, so holding on to it
+         *                  retains nothing per write.
+         * @param epochDay The mark's date as LocalDate.toEpochDay().
+         * @param priorSecondOfDay The stored mark's time of day in seconds, or NEW_MARK.
+         */
+        void replacing(String courseId, String studentId, int epochDay, int priorSecondOfDay, boolean priorPresent);
+    }
+
+    /**
+     * Saves a batch like saveAttendanceRecords, passing each mark's previous state to replaced
+     * before it is overwritten. The default looks every mark up first; stores override it to
+     * report what they find while writing.
+     */
+    default void saveAttendanceRecords(Collection<AttendanceRecord> records, ReplacedMarks replaced) {
+        for (AttendanceRecord record : records) {
+            AttendanceRecord prior = getAttendanceRecord(record.getCourseId(), record.getStudentId(), record.getDate());
+            replaced.replacing(record.getCourseId(), record.getStudentId(), (int) record.getDate().toEpochDay(),
+                    prior == null ? ReplacedMarks.NEW_MARK : prior.getTimeMarked().toSecondOfDay(), prior != null && prior.isPresent());
+        }
+        saveAttendanceRecords(records);
+    }
+
+    List<AttendanceRecord> getAttendanceForCourse(String courseId);
+    List<AttendanceRecord> getAttendanceForStudentInCourse(String studentId, String courseId);
+
+    /**
+     * Point lookup of one mark.
+     * @return The record for (course, student, date), or null if the student has no mark that day.
+     */
+    default AttendanceRecord getAttendanceRecord(String courseId, String studentId, LocalDate date) {
+        try (Stream<AttendanceRecord> marks = streamAttendance(courseId, AttendanceQuery.all().forStudent(studentId).between(date, date))) {
+            return marks.findFirst().orElse(null);
+        }
+    }
+
+    /**
+     * Running totals (sessions held/present, current absence streak) for a student in a course.
+     */
+    AttendanceSummary getAttendanceSummary(String studentId, String courseId);
+    /**
+     * Students of the course whose attendance percentage is below the threshold (e.g., 75.0).
+     */
+    List<String> getStudentsBelowThreshold(String courseId, double thresholdPercent);
+
+    /**
+     * Campus-wide: every student with at least one absence on the day, in no particular order.
+     */
+    default List<String> getAbsentStudents(LocalDate date) {
+        return getAbsentStudents(date, date).getOrDefault(date, new ArrayList<>());
+    }
+
+    /**
+     * Campus-wide absences per day. Days without any marks (weekends, holidays) have no entry.
+     * The default scans every course; stores with a DailyAbsenceIndex override it.
+     * @return For each day in [from, to] with marks, the students with at least one absence.
+     */
+    default SortedMap<LocalDate, List<String>> getAbsentStudents(LocalDate from, LocalDate to) {
+        return DailyAbsenceIndex.scanAbsences(this, from, to);
+    }
+
+    /**
+     * Students absent on each of the last {@code days} days with marks, up to and including through,
+     * e.g. "absent all of the last 3 teaching days". Days without marks don't break a streak.
+     * @throws IllegalArgumentException if days is not positive.
+     */
+    default List<String> getStudentsAbsentConsecutively(LocalDate through, int days) {
+        return DailyAbsenceIndex.absentOnEach(this, through, days);
+    }
+
+    /**
+     * Lazily streams a course's attendance in a stable order (by date within each store), without
+     * materializing the result.
+     * The default sorts and filters the list queries; stores override it to push the query down and to
+     * create records only as the stream is consumed. Close the stream, or consume it to the end.
+     */
+    default Stream<AttendanceRecord> streamAttendance(String courseId, AttendanceQuery query) {
+        List<AttendanceRecord> records = new ArrayList<>(query.getStudentId() != null
+                ? getAttendanceForStudentInCourse(query.getStudentId(), courseId)
+                : getAttendanceForCourse(courseId));
+        records.sort(AttendanceQuery.POSITION_ORDER);
+        return query.applyTo(records.stream());
+    }
+
+    /**
+     * Fetches one page of a streamed query. Pass the previous page's token to continue.
+     * @throws IllegalArgumentException if the page token is malformed.
+     */
+    default AttendancePage getAttendancePage(String courseId, AttendanceQuery query, String pageToken, int pageSize) {
+        try (Stream<AttendanceRecord> stream = streamAttendance(courseId, AttendancePage.resume(query, pageToken))) {
+            return AttendancePage.of(stream.limit(pageSize + 1L).collect(Collectors.toList()), pageSize);
+        }
+    }
+
+    /**
+     * Deletes every attendance mark dated from..to (inclusive) in every course, e.g. once the term is archived.
+     * @return The number of marks deleted.
+     * @throws UnsupportedOperationException if the store can't delete marks.
+     */
+    default int removeAttendanceBetween(LocalDate from, LocalDate to) {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " can't delete attendance");
+    }
+
+    /**
+     * @return Ids of every course with stored attendance. The default lists the saved courses;
+     * stores that keep marks for courses never saved with saveCourse override it.
+     */
+    default List<String> getAttendanceCourseIds() {
+        List<String> courseIds = new ArrayList<>();
+        for (Course course : getAllCourses()) courseIds.add(course.getCourseId());
+        return courseIds;
+    }
+
+    /**
+     * Releases any underlying resources (files, background threads).
+     * Pending writes are made durable before this returns.
+     */
+    @Override
+    default void close() {
+    }
+}
+
+/**
+ * Bidirectional enrollment index: student -> courses and instructor -> courses.
+ * Kept up to date from Course.RosterListener callbacks, so dashboard queries cost
+ * O(result size) instead of a scan over every course.
+ */
+class EnrollmentIndex {
+    private final Map<String, Set<String>> coursesByStudent = new HashMap<>();
+    private final Map<String, Set<String>> coursesByInstructor = new HashMap<>();
+
+    public synchronized void addCourse(Course course) {
+        for (String studentId : course.getStudentIds()) {
+            link(coursesByStudent, studentId, course.getCourseId());
+        }
+        link(coursesByInstructor, course.getInstructorId(), course.getCourseId());
+    }
+
+    public synchronized void removeCourse(Course course) {
+        for (String studentId : course.getStudentIds()) {
+            unlink(coursesByStudent, studentId, course.getCourseId());
+        }
+        unlink(coursesByInstructor, course.getInstructorId(), course.getCourseId());
+    }
+
+    public synchronized void enroll(String studentId, String courseId) {
+        link(coursesByStudent, studentId, courseId);
+    }
+
+    public synchronized void unenroll(String studentId, String courseId) {
+        unlink(coursesByStudent, studentId, courseId);
+    }
+
+    public synchronized void changeInstructor(String courseId, String oldInstructorId, String newInstructorId) {
+        unlink(coursesByInstructor, oldInstructorId, courseId);
+        link(coursesByInstructor, newInstructorId, courseId);
+    }
+
+    public synchronized List<String> getCourseIdsForStudent(String studentId) {
+        return copy(coursesByStudent.get(studentId));
+    }
+
+    public synchronized List<String> getCourseIdsForInstructor(String instructorId) {
+        return copy(coursesByInstructor.get(instructorId));
+    }
+
+    private static void link(Map<String, Set<String>> index, String key, String courseId) {
+        if (key != null) index.computeIfAbsent(key, k -> new LinkedHashSet<>()).add(courseId);
+    }
+
+    private static void unlink(Map<String, Set<String>> index, String key, String courseId) {
+        Set<String> courseIds = key == null ? null : index.get(key);
+        if (courseIds != null && courseIds.remove(courseId) && courseIds.isEmpty()) {
+            index.remove(key);
+        }
+    }
+
+    private static List<String> copy(Set<String> courseIds) {
+        return courseIds == null ? new ArrayList<>() : new ArrayList<>(courseIds);
+    }
+}
+
+/**
+ * One change published to a ChangeFeed. Attendance events carry the course, student, date and
+ * presence; roster events the course and the student or instructor; save and removal events the
+ * entity id. ATTENDANCE_REMOVED carries the course and the range of days whose marks were deleted.
+ */
+class ChangeEvent {
+    public enum Type {
+        USER_SAVED, COURSE_SAVED, STUDENT_ENROLLED, STUDENT_UNENROLLED, INSTRUCTOR_CHANGED, ATTENDANCE_MARKED,
+        USER_REMOVED, COURSE_REMOVED, ATTENDANCE_REMOVED // a course's marks from date..endDate
+    }
+
+    private final long sequence;
+    private final long timestampMillis;
+    private final Type type;
+    private final String entityId; // userId for USER_SAVED and USER_REMOVED, courseId otherwise
+    private final String userId; // student or instructor concerned, if any
+    private final LocalDate date;
+    private final LocalDate endDate; // last day of an ATTENDANCE_REMOVED range
+    private final Boolean present;
+
+    ChangeEvent(long sequence, long timestampMillis, Type type, String entityId, String userId, LocalDate date, LocalDate endDate, Boolean present) {
+        this.sequence = sequence;
+        this.timestampMillis = timestampMillis;
+        this.type = type;
+        this.entityId = entityId;
+        this.userId = userId;
+        this.date = date;
+        this.endDate = endDate;
+        this.present = present;
+    }
+
+    // --- Getters ---
+    public long getSequence() { return sequence; }
+    public long getTimestampMillis() { return timestampMillis; }
+    public Type getType() { return type; }
+    public String getEntityId() { return entityId; }
+    public String getUserId() { return userId; }
+    public LocalDate getDate() { return date; }
+    public LocalDate getEndDate() { return endDate; }
+    public Boolean getPresent() { return present; }
+
+    @Override
+    public String toString() {
+        return "ChangeEvent{" +
+                "sequence=" + sequence +
+                ", type=" + type +
+                ", entityId='" + entityId + '\'' +
+                (userId != null ? ", userId='" + userId + '\'' : "") +
+                (date != null ? ", date=" + date : "") +
+                (endDate != null ? ", endDate=" + endDate : "") +
+                (present != null ? ", present=" + present : "") +
+                '}';
+    }
+}
+
+/**
+ * In-process change feed: an ordered, replayable log of mutations held in a fixed-size ring buffer.
+ * Publishing is lock-free (claim a sequence, store the event) and never waits for consumers.
+ * Each consumer has its own Subscription with an independent offset and pulls batches at its own
+ * pace; a consumer that falls more than the capacity behind skips ahead to the oldest retained
+ * event and has the skipped events counted in getMissedCount(), so it can resync from storage.
+ */
+class ChangeFeed {
+    private final AtomicReferenceArray<ChangeEvent> ring;
+    private final int mask;
+    private final AtomicLong nextSequence = new AtomicLong();
+    private final Map<String, Subscription> subscriptions = new ConcurrentHashMap<>();
+
+    /**
+     * @param capacity Events retained for replay; rounded up to a power of two.
+     */
+    public ChangeFeed(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.ring = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+    }
+
+    /**
+     * Appends an event.
+     * @return Its sequence number.
+     */
+    public long publish(ChangeEvent.Type type, String entityId, String userId, LocalDate date, Boolean present) {
+        return publish(type, entityId, userId, date, null, present);
+    }
+
+    /**
+     * Appends an event covering a range of days, e.g. ATTENDANCE_REMOVED.
+     * @return Its sequence number.
+     */
+    public long publish(ChangeEvent.Type type, String entityId, String userId, LocalDate date, LocalDate endDate, Boolean present) {
+        long sequence = nextSequence.getAndIncrement();
+        ring.set((int) (sequence & mask), new ChangeEvent(sequence, System.currentTimeMillis(), type, entityId, userId, date, endDate, present));
+        return sequence;
+    }
+
+    /**
+     * @return The sequence the next published event will get.
+     */
+    public long getHeadSequence() {
+        return nextSequence.get();
+    }
+
+    /**
+     * @return The oldest sequence still available for replay.
+     */
+    public long getOldestSequence() {
+        return Math.max(0, nextSequence.get() - ring.length());
+    }
+
+    /**
+     * Registers a named consumer starting at the given sequence (e.g. getOldestSequence() to replay
+     * everything retained, or getHeadSequence() for new events only).
+     * @throws IllegalArgumentException if the name is already subscribed.
+     */
+    public Subscription subscribe(String name, long fromSequence) {
+        Subscription subscription = new Subscription(name, fromSequence);
+        if (subscriptions.putIfAbsent(name, subscription) != null) {
+            throw new IllegalArgumentException("Already subscribed: " + name);
+        }
+        return subscription;
+    }
+
+    public void unsubscribe(String name) {
+        subscriptions.remove(name);
+    }
+
+    public Collection<Subscription> getSubscriptions() {
+        return Collections.unmodifiableCollection(subscriptions.values());
+    }
+
+    /**
+     * A consumer's position in the feed. Meant to be polled by one thread at a time.
+     */
+    class Subscription {
+        private final String name;
+        private volatile long offset;
+        private final LongAdder missed = new LongAdder();
+
+        private Subscription(String name, long offset) {
+            this.name = name;
+            this.offset = offset;
+        }
+
+        /**
+         * Returns up to maxEvents events in sequence order without waiting, advancing the offset past them.
+         */
+        public List<ChangeEvent> poll(int maxEvents) {
+            List<ChangeEvent> batch = new ArrayList<>(Math.min(maxEvents, 256));
+            long next = offset;
+            while (batch.size() < maxEvents) {
+                ChangeEvent event = ring.get((int) (next & mask));
+                if (event == null || event.getSequence() < next) break; // not published yet
+                if (event.getSequence() > next) { // overwritten: jump to the oldest retained event
+                    long oldest = nextSequence.get() - ring.length();
+                    missed.add(oldest - next);
+                    next = oldest;
+                    continue;
+                }
+                batch.add(event);
+                next++;
+            }
+            offset = next;
+            return batch;
+        }
+
+        /**
+         * Like poll(maxEvents), but waits up to the timeout for at least one event.
+         */
+        public List<ChangeEvent> poll(int maxEvents, long timeout, TimeUnit unit) throws InterruptedException {
+            long deadline = System.nanoTime() + unit.toNanos(timeout);
+            long backoffNanos = 1_000;
+            while (true) {
+                List<ChangeEvent> batch = poll(maxEvents);
+                if (!batch.isEmpty() || System.nanoTime() >= deadline) return batch;
+                if (Thread.interrupted()) throw new InterruptedException();
+                LockSupport.parkNanos(Math.min(backoffNanos, deadline - System.nanoTime()));
+                backoffNanos = Math.min(backoffNanos * 2, TimeUnit.MILLISECONDS.toNanos(10));
+            }
+        }
+
+        /**
+         * Moves to another position, e.g. to replay from a checkpoint.
+         */
+        public void seek(long sequence) {
+            offset = sequence;
+        }
+
+        public String getName() { return name; }
+        public long getOffset() { return offset; }
+        public long getLag() { return Math.max(0, nextSequence.get() - offset); }
+        public long getMissedCount() { return missed.sum(); }
+    }
+}
+
+/**
+ * Volatile DatabaseManager that keeps everything in hash-based indexes.
+ * Also serves as the read side of FileDatabaseManager, which rebuilds these
+ * indexes from its log on startup.
+ */
+class InMemoryDatabaseManager implements DatabaseManager {
+    private final Map<String, User> users = new HashMap<>();
+    private final Map<User.Role, Map<String, User>> usersByRole = new EnumMap<>(User.Role.class);
+    private final Map<String, Course> courses = new LinkedHashMap<>();
+    private final EnrollmentIndex enrollments = new EnrollmentIndex();
+    // Roster edits on a saved course update the enrollment index, then reach the subclass hooks
+    private final Course.RosterListener rosterUpdater = new Course.RosterListener() {
+        @Override
+        public void onStudentAdded(Course course, String studentId) {
+            InMemoryDatabaseManager.this.onEnrollmentChange(course, studentId, true);
+            enrollments.enroll(studentId, course.getCourseId());
+            publish(ChangeEvent.Type.STUDENT_ENROLLED, course.getCourseId(), studentId, null, null);
+        }
+
+        @Override
+        public void onStudentRemoved(Course course, String studentId) {
+            InMemoryDatabaseManager.this.onEnrollmentChange(course, studentId, false);
+            enrollments.unenroll(studentId, course.getCourseId());
+            publish(ChangeEvent.Type.STUDENT_UNENROLLED, course.getCourseId(), studentId, null, null);
+        }
+
+        @Override
+        public void onInstructorChange(Course course, String oldInstructorId, String newInstructorId) {
+            InMemoryDatabaseManager.this.onInstructorChange(course, newInstructorId);
+            enrollments.changeInstructor(course.getCourseId(), oldInstructorId, newInstructorId);
+            publish(ChangeEvent.Type.INSTRUCTOR_CHANGED, course.getCourseId(), newInstructorId, null, null);
+        }
+
+        @Override
+        public void afterChange(Course course) {
+            afterRosterChange(course);
+        }
+    };
+    // Mark events are published from inside the store's write lock, so the feed's order matches the store's
+    private final ColumnarAttendanceStore attendance = new ColumnarAttendanceStore(this::onPresenceChange, new ColumnarAttendanceStore.MarkObserver() {
+        @Override
+        public void onMark(String courseId, String studentId, LocalDate date, boolean isPresent) {
+            publish(ChangeEvent.Type.ATTENDANCE_MARKED, courseId, studentId, date, isPresent);
+        }
+
+        @Override
+        public void onRemove(String courseId, LocalDate from, LocalDate to) {
+            ChangeFeed feed = changeFeed;
+            if (feed != null) feed.publish(ChangeEvent.Type.ATTENDANCE_REMOVED, courseId, null, from, to, null);
+        }
+    });
+    private volatile ChangeFeed changeFeed; // Optional; told about every mutation after it is applied
+
+    /**
+     * Publishes every subsequent mutation (saves, removals, roster edits, presence flips) to the feed.
+     * Pass null to stop publishing.
+     */
+    public void setChangeFeed(ChangeFeed changeFeed) {
+        this.changeFeed = changeFeed;
+    }
+
+    // --- User Operations ---
+    @Override
+    public synchronized void saveUser(User user) {
+        User previous = users.put(user.getUserId(), user);
+        if (previous != null) {
+            usersByRole.get(previous.getRole()).remove(previous.getUserId());
+        }
+        usersByRole.computeIfAbsent(user.getRole(), r -> new LinkedHashMap<>()).put(user.getUserId(), user);
+        publish(ChangeEvent.Type.USER_SAVED, user.getUserId(), null, null, null);
+    }
+
+    @Override
+    public synchronized void saveUsers(Collection<User> users) {
+        for (User user : users) saveUser(user);
+    }
+
+    @Override
+    public synchronized User getUser(String userId) {
+        return users.get(userId);
+    }
+
+    @Override
+    public synchronized List<User> getAllUsersByRole(User.Role role) {
+        Map<String, User> byRole = usersByRole.get(role);
+        return byRole == null ? new ArrayList<>() : new ArrayList<>(byRole.values());
+    }
+
+    // --- Course Operations ---
+    @Override
+    public synchronized void saveCourse(Course course) {
+        Course previous = courses.put(course.getCourseId(), course);
+        if (previous != null) {
+            enrollments.removeCourse(previous);
+            if (previous != course) previous.setRosterListener(null, null);
+        }
+        enrollments.addCourse(course);
+        course.setRosterListener(rosterUpdater, this);
+        publish(ChangeEvent.Type.COURSE_SAVED, course.getCourseId(), course.getInstructorId(), null, null);
+    }
+
+    @Override
+    public synchronized void saveCourses(Collection<Course> courses) {
+        for (Course course : courses) saveCourse(course);
+    }
+
+    @Override
+    public synchronized Course getCourse(String courseId) {
+        return courses.get(courseId);
+    }
+
+    @Override
+    public synchronized List<Course> getAllCourses() {
+        return new ArrayList<>(courses.values());
+    }
+
+    @Override
+    public synchronized List<Course> getCoursesByInstructor(String instructorId) {
+        return lookupCourses(enrollments.getCourseIdsForInstructor(instructorId));
+    }
+
+    @Override
+    public synchronized List<Course> getCoursesByStudent(String studentId) {
+        return lookupCourses(enrollments.getCourseIdsForStudent(studentId));
+    }
+
+    /**
+     * Deletes a user. Courses that reference the user are left as they are.
+     * @return The removed user, or null if there was none.
+     */
+    public synchronized User removeUser(String userId) {
+        User previous = users.remove(userId);
+        if (previous != null) {
+            usersByRole.get(previous.getRole()).remove(userId);
+            publish(ChangeEvent.Type.USER_REMOVED, userId, null, null, null);
+        }
+        return previous;
+    }
+
+    /**
+     * Deletes a course together with all of its attendance, e.g. after it moved to another partition.
+     * @return true if there was a course or any attendance to delete.
+     */
+    public synchronized boolean removeCourse(String courseId) {
+        Course previous = courses.remove(courseId);
+        if (previous != null) {
+            enrollments.removeCourse(previous);
+            previous.setRosterListener(null, null);
+        }
+        boolean removed = attendance.removeCourse(courseId) > 0 || previous != null;
+        if (removed) publish(ChangeEvent.Type.COURSE_REMOVED, courseId, null, null, null);
+        return removed;
+    }
+
+    @Override
+    public synchronized int removeAttendanceBetween(LocalDate from, LocalDate to) {
+        return attendance.removeBetween(from, to);
+    }
+
+    private List<Course> lookupCourses(List<String> courseIds) {
+        List<Course> result = new ArrayList<>(courseIds.size());
+        for (String courseId : courseIds) {
+            Course course = courses.get(courseId);
+            if (course != null) result.add(course);
+        }
+        return result;
+    }
+
+    // --- Attendance Operations ---
+    // One mark per (course, student, date); saving the same key again overwrites it.
+    // The columnar store does its own locking, so attendance queries don't contend on this manager's monitor.
+    @Override
+    public void saveAttendanceRecord(AttendanceRecord record) {
+        attendance.put(record);
+    }
+
+    @Override
+    public synchronized void saveAttendanceRecords(Collection<AttendanceRecord> records) {
+        for (AttendanceRecord record : records) attendance.put(record);
+    }
+
+    @Override
+    public synchronized void saveAttendanceRecords(Collection<AttendanceRecord> records, ReplacedMarks replaced) {
+        for (AttendanceRecord record : records) attendance.put(record, replaced);
+    }
+
+    @Override
+    public List<AttendanceRecord> getAttendanceForCourse(String courseId) {
+        return attendance.getAttendanceForCourse(courseId);
+    }
+
+    @Override
+    public List<AttendanceRecord> getAttendanceForStudentInCourse(String studentId, String courseId) {
+        return attendance.getAttendanceForStudentInCourse(studentId, courseId);
+    }
+
+    @Override
+    public Stream<AttendanceRecord> streamAttendance(String courseId, AttendanceQuery query) {
+        return attendance.stream(courseId, query);
+    }
+
+    @Override
+    public AttendanceRecord getAttendanceRecord(String courseId, String studentId, LocalDate date) {
+        return attendance.get(courseId, studentId, date);
+    }
+
+    @Override
+    public AttendanceSummary getAttendanceSummary(String studentId, String courseId) {
+        return attendance.getSummary(studentId, courseId);
+    }
+
+    @Override
+    public List<String> getStudentsBelowThreshold(String courseId, double thresholdPercent) {
+        return attendance.getStudentsBelowThreshold(courseId, thresholdPercent);
+    }
+
+    @Override
+    public SortedMap<LocalDate, List<String>> getAbsentStudents(LocalDate from, LocalDate to) {
+        return attendance.getAbsentStudents(from, to);
+    }
+
+    @Override
+    public List<String> getStudentsAbsentConsecutively(LocalDate through, int days) {
+        return attendance.getStudentsAbsentConsecutively(through, days);
+    }
+
+    /**
+     * Compacts the absence index for days before the given date, e.g. once a term is over.
+     * Late marks for those days still work; they thaw the day they touch.
+     * @return The number of days compacted.
+     */
+    public int compactAbsenceIndex(LocalDate before) {
+        return attendance.compactAbsencesBefore(before);
+    }
+
+    @Override
+    public List<String> getAttendanceCourseIds() {
+        return attendance.getCourseIds();
+    }
+
+    private void publish(ChangeEvent.Type type, String entityId, String userId, LocalDate date, Boolean present) {
+        ChangeFeed feed = changeFeed;
+        if (feed != null) feed.publish(type, entityId, userId, date, present);
+    }
+
+    /**
+     * Called after AttendanceRecord.setPresent on a stored record has been applied to the store.
+     * Subclasses override this to persist the flip; throwing undoes it.
+     */
+    protected void onPresenceChange(AttendanceRecord record, boolean isPresent) {
+    }
+
+    /**
+     * Called under the store's monitor just before a student is added to or removed from a saved course.
+     * Subclasses override this to persist the roster change; throwing leaves the roster as it was.
+     */
+    protected void onEnrollmentChange(Course course, String studentId, boolean enrolled) {
+    }
+
+    /**
+     * Called under the store's monitor just before the instructor of a saved course changes.
+     * Subclasses override this to persist the change; throwing leaves the instructor as it was.
+     */
+    protected void onInstructorChange(Course course, String instructorId) {
+    }
+
+    /**
+     * Called once a roster or instructor edit is complete, outside the store's monitor.
+     * Subclasses override this to wait until the edit is durable.
+     */
+    protected void afterRosterChange(Course course) {
+    }
+}
+
+/**
+ * Segmented write-ahead log.
+ * Frames are {@code [int payloadLength][int crc32][long lsn][payload]}, where the CRC covers the
+ * LSN and the payload, so a torn or corrupted frame is detected on recovery. Segments are named
+ * after the first LSN they hold ({@code wal-<lsn>.log}); a new segment is started once the active
+ * one passes {@code segmentBytes}, and segments fully covered by a snapshot can be deleted.
+ *
+ * Appends are buffered and made durable by group commit: a background thread writes the buffer
+ * and fsyncs once every {@code groupCommitMillis}, and a committing append waits for the commit
+ * that covers its LSN, so it is durable when it returns and concurrent writers share one fsync.
+ * With 0, a committing append fsyncs itself (taking along whatever else is buffered).
+ * A batch that fails to commit goes back to the front of the buffer and is retried on the next
+ * flush, after the segment is cut back to its last committed size. If that cut fails too the log
+ * is failed: no frame can be made durable after it, so later appends and flushes throw.
+ */
+class WriteAheadLog implements AutoCloseable {
+    static final int FRAME_HEADER_BYTES = 16;
+    private static final String SEGMENT_PREFIX = "wal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    /**
+     * Receives frames during recovery or when reading a frame file.
+     */
+    interface FrameHandler {
+        void accept(long lsn, ByteBuffer payload) throws IOException;
+    }
+
+    private final Path directory;
+    private final long segmentBytes;
+    private final long groupCommitMillis;
+    private final Object bufferLock = new Object();
+    private final Object flushLock = new Object();
+    private ByteArrayOutputStream pending = new ByteArrayOutputStream(); // guarded by bufferLock
+    private long pendingFirstLsn = 0; // guarded by bufferLock
+    private long lastLsn = 0; // guarded by bufferLock
+    private FileChannel active; // guarded by flushLock
+    private long activeSize; // guarded by flushLock
+    private boolean dirtyTail; // guarded by flushLock; a failed write may have left part of a batch past activeSize
+    private volatile IOException failure;
+    private ScheduledExecutorService committer;
+    private volatile boolean closed = false;
+    private final Object durableLock = new Object();
+    private long durableLsn = 0; // guarded by durableLock; every frame up to here is fsynced
+    private boolean stopped = false; // guarded by durableLock; closed, so nothing more will be fsynced
+
+    public WriteAheadLog(Path directory, long segmentBytes, long groupCommitMillis) throws IOException {
+        this.directory = Files.createDirectories(directory);
+        this.segmentBytes = segmentBytes;
+        this.groupCommitMillis = groupCommitMillis;
+    }
+
+    /**
+     * Replays every intact frame with an LSN above {@code afterLsn}, cuts off a torn tail in the
+     * newest segment, and opens the log for appending. Must be called once before append.
+     * @return The last LSN in the log (or afterLsn if the log holds nothing newer).
+     * @throws IOException if a segment other than the newest is corrupt.
+     */
+    public long recover(long afterLsn, FrameHandler handler) throws IOException {
+        List<Path> segments = listSegments();
+        long last = afterLsn;
+        for (int i = 0; i < segments.size(); i++) {
+            Path segment = segments.get(i);
+            boolean newest = i == segments.size() - 1;
+            try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                long[] lastSeen = {last};
+                long intact = readFrames(channel, (lsn, payload) -> {
+                    if (lsn > afterLsn) handler.accept(lsn, payload);
+                    lastSeen[0] = Math.max(lastSeen[0], lsn);
+                });
+                last = lastSeen[0];
+                if (intact < channel.size()) {
+                    if (!newest) throw new IOException("WAL: Corrupt frame in " + segment.getFileName() + " at " + intact);
+                    System.err.println("WAL: Truncating " + (channel.size() - intact) + " bytes of torn tail in " + segment.getFileName());
+                    channel.truncate(intact);
+                    channel.force(true);
+                }
+            }
+        }
+        synchronized (flushLock) {
+            synchronized (bufferLock) {
+                lastLsn = last;
+            }
+            synchronized (durableLock) {
+                durableLsn = last;
+            }
+            if (!segments.isEmpty()) {
+                active = FileChannel.open(segments.get(segments.size() - 1), StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+                activeSize = active.size();
+            }
+        }
+        if (groupCommitMillis > 0) {
+            committer = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "wal-group-commit");
+                t.setDaemon(true);
+                return t;
+            });
+            committer.scheduleWithFixedDelay(this::flushQuietly, groupCommitMillis, groupCommitMillis, TimeUnit.MILLISECONDS);
+        }
+        return last;
+    }
+
+    /**
+     * Appends a frame and returns once it is durable: with a group-commit interval, after the next
+     * group commit (so concurrent callers share its fsync), otherwise after an fsync of its own.
+     * @return The LSN assigned to the frame.
+     */
+    public long append(ByteBuffer payload) {
+        return append(payload, true);
+    }
+
+    /**
+     * Like {@link #append(ByteBuffer)}, but with commit false the frame is only buffered; the caller
+     * commits it later (e.g. once it has released its own locks) or batches several appends.
+     */
+    public long append(ByteBuffer payload, boolean commit) {
+        if (closed) throw new IllegalStateException("WAL: Log is closed");
+        if (failure != null) throw new IllegalStateException("WAL: Log failed", failure);
+        long lsn;
+        synchronized (bufferLock) {
+            lsn = ++lastLsn;
+            if (pending.size() == 0) pendingFirstLsn = lsn;
+            byte[] frame = encodeFrame(lsn, payload);
+            pending.write(frame, 0, frame.length);
+        }
+        if (commit) commit(lsn);
+        return lsn;
+    }
+
+    /**
+     * Returns once every frame up to {@code lsn} is fsynced. With a group-commit interval this waits
+     * for the committer; a failed group commit is retried, so only a failed or closed log gives up.
+     * @throws UncheckedIOException if the frame can't be made durable.
+     */
+    public void commit(long lsn) {
+        if (groupCommitMillis <= 0) {
+            try {
+                if (durableLsn() < lsn) flush();
+            } catch (IOException e) {
+                throw new UncheckedIOException("WAL: Failed to commit", e);
+            }
+        }
+        boolean interrupted = false;
+        synchronized (durableLock) {
+            while (durableLsn < lsn) {
+                if (failure != null) throw new UncheckedIOException("WAL: Log failed", failure);
+                if (stopped) throw new UncheckedIOException(new IOException("WAL: Log closed before LSN " + lsn + " was committed"));
+                try {
+                    durableLock.wait();
+                } catch (InterruptedException e) {
+                    interrupted = true; // the frame is already in the log; the caller has to learn its fate
+                }
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+
+    public long durableLsn() {
+        synchronized (durableLock) {
+            return durableLsn;
+        }
+    }
+
+    /**
+     * Writes buffered frames to the active segment (rotating first if it is full) and fsyncs.
+     * On failure the frames stay buffered for the next flush.
+     * @throws IOException if the write or fsync fails, or the log has failed.
+     */
+    public void flush() throws IOException {
+        synchronized (flushLock) {
+            if (failure != null) throw new IOException("WAL: Log failed", failure);
+            byte[] batch;
+            long firstLsn;
+            long batchLastLsn;
+            synchronized (bufferLock) {
+                if (pending.size() == 0) return;
+                batch = pending.toByteArray();
+                firstLsn = pendingFirstLsn;
+                batchLastLsn = lastLsn;
+                pending = new ByteArrayOutputStream();
+            }
+            try {
+                if (dirtyTail && active != null) {
+                    try {
+                        active.truncate(activeSize);
+                    } catch (IOException e) {
+                        failure = e;
+                        wakeCommitters();
+                        throw e;
+                    }
+                }
+                dirtyTail = false;
+                if (active == null || activeSize >= segmentBytes) {
+                    rotate(firstLsn);
+                }
+                ByteBuffer buf = ByteBuffer.wrap(batch);
+                while (buf.hasRemaining()) {
+                    active.write(buf);
+                }
+                active.force(false);
+                activeSize += batch.length;
+                synchronized (durableLock) {
+                    durableLsn = batchLastLsn;
+                    durableLock.notifyAll();
+                }
+            } catch (IOException e) {
+                dirtyTail = true;
+                requeue(batch, firstLsn);
+                throw e;
+            }
+        }
+    }
+
+    private void wakeCommitters() {
+        synchronized (durableLock) {
+            durableLock.notifyAll();
+        }
+    }
+
+    // Puts a failed batch back ahead of anything appended since it was taken
+    private void requeue(byte[] batch, long firstLsn) {
+        synchronized (bufferLock) {
+            ByteArrayOutputStream merged = new ByteArrayOutputStream(batch.length + pending.size());
+            merged.write(batch, 0, batch.length);
+            merged.write(pending.toByteArray(), 0, pending.size());
+            pending = merged;
+            pendingFirstLsn = firstLsn;
+        }
+    }
+
+    public long lastLsn() {
+        synchronized (bufferLock) {
+            return lastLsn;
+        }
+    }
+
+    /**
+     * Deletes segments whose frames all have LSN <= coveredLsn (e.g., captured by a snapshot).
+     * The active segment is never deleted.
+     * @return The number of segments deleted.
+     */
+    public int deleteSegmentsCoveredBy(long coveredLsn) throws IOException {
+        synchronized (flushLock) {
+            List<Path> segments = listSegments();
+            int deleted = 0;
+            for (int i = 0; i + 1 < segments.size(); i++) {
+                long nextFirstLsn = segmentLsn(segments.get(i + 1));
+                if (nextFirstLsn - 1 > coveredLsn) break;
+                Files.delete(segments.get(i));
+                deleted++;
+            }
+            return deleted;
+        }
+    }
+
+    /**
+     * Stops the group committer (waiting for a commit in progress), flushes what is left and closes
+     * the active segment. Callers still waiting in commit get an exception if the final flush fails.
+     */
+    @Override
+    public void close() {
+        if (closed) return;
+        closed = true;
+        try {
+            if (committer != null) {
+                committer.shutdown();
+                try {
+                    committer.awaitTermination(1, TimeUnit.MINUTES);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            flush();
+            synchronized (flushLock) {
+                if (active != null) active.close();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("WAL: Failed to close", e);
+        } finally {
+            synchronized (durableLock) {
+                stopped = true;
+                durableLock.notifyAll();
+            }
+        }
+    }
+
+    static byte[] encodeFrame(long lsn, ByteBuffer payload) {
+        int length = payload.remaining();
+        byte[] frame = new byte[FRAME_HEADER_BYTES + length];
+        ByteBuffer buf = ByteBuffer.wrap(frame);
+        buf.putInt(length).putInt(0).putLong(lsn).put(payload.duplicate());
+        CRC32 crc = new CRC32();
+        crc.update(frame, 8, 8 + length);
+        buf.putInt(4, (int) crc.getValue());
+        return frame;
+    }
+
+    /**
+     * Reads consecutive frames from the start of the channel until the end or the first
+     * torn/corrupt frame.
+     * @return The byte offset just past the last intact frame.
+     */
+    static long readFrames(FileChannel channel, FrameHandler handler) throws IOException {
+        long size = channel.size();
+        long position = 0;
+        InputStream in = new BufferedInputStream(Channels.newInputStream(channel.position(0)), 1 << 16);
+        byte[] header = new byte[FRAME_HEADER_BYTES];
+        CRC32 crc = new CRC32();
+        while (position + FRAME_HEADER_BYTES <= size) {
+            if (in.readNBytes(header, 0, FRAME_HEADER_BYTES) < FRAME_HEADER_BYTES) break;
+            ByteBuffer h = ByteBuffer.wrap(header);
+            int length = h.getInt();
+            int expectedCrc = h.getInt();
+            long lsn = h.getLong();
+            if (length < 0 || position + FRAME_HEADER_BYTES + length > size) break;
+            byte[] payload = new byte[length];
+            if (in.readNBytes(payload, 0, length) < length) break;
+            crc.reset();
+            crc.update(header, 8, 8);
+            crc.update(payload, 0, length);
+            if ((int) crc.getValue() != expectedCrc) break;
+            handler.accept(lsn, ByteBuffer.wrap(payload));
+            position += FRAME_HEADER_BYTES + length;
+        }
+        return position;
+    }
+
+    private void rotate(long firstLsn) throws IOException {
+        if (active != null) {
+            active.force(true);
+            active.close();
+            active = null;
+        }
+        Path segment = directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, firstLsn, SEGMENT_SUFFIX));
+        active = FileChannel.open(segment, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        activeSize = active.size();
+    }
+
+    private List<Path> listSegments() throws IOException {
+        List<Path> segments = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path path : stream) segments.add(path);
+        }
+        segments.sort(Comparator.comparingLong(WriteAheadLog::segmentLsn));
+        return segments;
+    }
+
+    private static long segmentLsn(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (IOException e) {
+            System.err.println("WAL: Group commit failed: " + e.getMessage());
+        }
+    }
+}
+
+/**
+ * Embedded, file-backed DatabaseManager.
+ * Every mutation is logged to a WriteAheadLog as a ModelCodec-encoded frame; reads are served
+ * from the in-memory indexes inherited from InMemoryDatabaseManager.
+ *
+ * Periodic snapshots ({@code snapshot-<lsn>.snap}) hold the full state as of an LSN, written in
+ * the same checksummed frame format. Once a snapshot is complete, older snapshots and the WAL
+ * segments it covers are deleted, so startup recovery loads the latest snapshot and replays only
+ * the frames logged after it.
+ *
+ * Snapshots are fuzzy: users and courses are copied under this manager's monitor, attendance is
+ * read course by course while marking continues. That is safe because every logged operation is
+ * an idempotent overwrite of its key, so replaying frames after the snapshot LSN converges on the
+ * latest state.
+ */
+class FileDatabaseManager extends InMemoryDatabaseManager {
+    private static final byte OP_SAVE_USER = 1;
+    private static final byte OP_SAVE_COURSE = 2;
+    private static final byte OP_SAVE_ATTENDANCE = 3;
+    private static final byte OP_SAVE_ATTENDANCE_BATCH = 4;
+    private static final byte OP_ENROLL = 5;
+    private static final byte OP_UNENROLL = 6;
+    private static final byte OP_SET_INSTRUCTOR = 7;
+    private static final byte OP_SNAPSHOT_END = 8;
+    private static final byte OP_REMOVE_USER = 9;
+    private static final byte OP_REMOVE_COURSE = 10;
+    private static final byte OP_REMOVE_ATTENDANCE = 11;
+
+    static final long DEFAULT_SEGMENT_BYTES = 64L << 20;
+    static final long DEFAULT_SNAPSHOT_EVERY_BYTES = 256L << 20;
+    private static final int SNAPSHOT_BATCH = 4096;
+    private static final String SNAPSHOT_PREFIX = "snapshot-";
+    private static final String SNAPSHOT_SUFFIX = ".snap";
+
+    private final Path directory;
+    private final WriteAheadLog wal;
+    private final long snapshotEveryBytes;
+    private final AtomicLong bytesSinceSnapshot = new AtomicLong();
+    private final AtomicBoolean snapshotRunning = new AtomicBoolean();
+    private final ExecutorService snapshotter;
+    private volatile boolean closed = false;
+    private boolean replaying = false; // Suppresses logging of hook callbacks fired while replaying
+    private boolean batching = false; // Frames are buffered without a per-frame fsync; the batch flushes once
+
+    public FileDatabaseManager(Path directory, long groupCommitMillis) throws IOException {
+        this(directory, groupCommitMillis, DEFAULT_SEGMENT_BYTES, DEFAULT_SNAPSHOT_EVERY_BYTES);
+    }
+
+    /**
+     * @param directory Holds the WAL segments and snapshots; created if missing.
+     * @param groupCommitMillis Group-commit interval; 0 fsyncs every write.
+     * @param segmentBytes Size after which a new WAL segment is started.
+     * @param snapshotEveryBytes Log volume after which a background snapshot is taken.
+     */
+    public FileDatabaseManager(Path directory, long groupCommitMillis, long segmentBytes, long snapshotEveryBytes) throws IOException {
+        this.directory = Files.createDirectories(directory);
+        this.snapshotEveryBytes = snapshotEveryBytes;
+        this.wal = new WriteAheadLog(directory, segmentBytes, groupCommitMillis);
+        long snapshotLsn = loadLatestSnapshot();
+        replaying = true;
+        try {
+            wal.recover(snapshotLsn, (lsn, payload) -> {
+                try {
+                    apply(new ModelCodec.Reader(payload));
+                } catch (RuntimeException e) {
+                    // Frames are logged before they are applied, so one the store refused is in the log;
+                    // replay refuses it the same way
+                    System.err.println("DB: Skipping log frame " + lsn + " the store refused: " + e.getMessage());
+                }
+            });
+        } finally {
+            replaying = false;
+        }
+        this.snapshotter = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "db-snapshot");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    // --- Mutations: append to the log, then apply to the indexes, under one monitor so log order == apply order.
+    // The frame is only buffered there; the caller waits for its group commit after releasing the monitor,
+    // so concurrent writers share one fsync. A write that can't be logged is never applied.
+    @Override
+    public void saveUser(User user) {
+        long lsn;
+        synchronized (this) {
+            lsn = append(OP_SAVE_USER, out -> out.writeUser(user));
+            super.saveUser(user);
+        }
+        commit(lsn);
+    }
+
+    @Override
+    public void saveCourse(Course course) {
+        long lsn;
+        synchronized (this) {
+            lsn = append(OP_SAVE_COURSE, out -> out.writeCourse(course));
+            super.saveCourse(course);
+        }
+        commit(lsn);
+    }
+
+    // Batches are logged user by user (replay needs no new op) and committed once at the end
+    @Override
+    public void saveUsers(Collection<User> users) {
+        long lsn;
+        synchronized (this) {
+            batching = true;
+            try {
+                super.saveUsers(users);
+            } finally {
+                batching = false;
+            }
+            lsn = wal.lastLsn();
+        }
+        commit(lsn);
+    }
+
+    @Override
+    public void saveCourses(Collection<Course> courses) {
+        long lsn;
+        synchronized (this) {
+            batching = true;
+            try {
+                super.saveCourses(courses);
+            } finally {
+                batching = false;
+            }
+            lsn = wal.lastLsn();
+        }
+        commit(lsn);
+    }
+
+    @Override
+    public void saveAttendanceRecord(AttendanceRecord record) {
+        long lsn;
+        synchronized (this) {
+            lsn = append(OP_SAVE_ATTENDANCE, out -> out.writeAttendance(record));
+            super.saveAttendanceRecord(record);
+        }
+        commit(lsn);
+    }
+
+    // The whole batch goes into one frame
+    @Override
+    public void saveAttendanceRecords(Collection<AttendanceRecord> records) {
+        long lsn;
+        synchronized (this) {
+            lsn = append(OP_SAVE_ATTENDANCE_BATCH, out -> writeAttendanceBatch(out, records));
+            super.saveAttendanceRecords(records);
+        }
+        commit(lsn);
+    }
+
+    @Override
+    public void saveAttendanceRecords(Collection<AttendanceRecord> records, ReplacedMarks replaced) {
+        long lsn;
+        synchronized (this) {
+            lsn = append(OP_SAVE_ATTENDANCE_BATCH, out -> writeAttendanceBatch(out, records));
+            super.saveAttendanceRecords(records, replaced);
+        }
+        commit(lsn);
+    }
+
+    @Override
+    public User removeUser(String userId) {
+        long lsn = 0;
+        User removed;
+        synchronized (this) {
+            if (getUser(userId) != null) lsn = append(OP_REMOVE_USER, out -> out.writeId(userId));
+            removed = super.removeUser(userId);
+        }
+        commit(lsn);
+        return removed;
+    }
+
+    @Override
+    public boolean removeCourse(String courseId) {
+        long lsn = 0;
+        boolean removed;
+        synchronized (this) {
+            if (getCourse(courseId) != null) lsn = append(OP_REMOVE_COURSE, out -> out.writeId(courseId));
+            removed = super.removeCourse(courseId);
+        }
+        commit(lsn);
+        return removed;
+    }
+
+    // Logged even if nothing turns out to be in range; replaying an empty removal is harmless
+    @Override
+    public int removeAttendanceBetween(LocalDate from, LocalDate to) {
+        long lsn;
+        int removed;
+        synchronized (this) {
+            lsn = append(OP_REMOVE_ATTENDANCE, out -> {
+                out.writeVarLong(from.toEpochDay());
+                out.writeVarLong(to.toEpochDay());
+            });
+            removed = super.removeAttendanceBetween(from, to);
+        }
+        commit(lsn);
+        return removed;
+    }
+
+    // A flip via setPresent is logged as a re-save of the mark, which overwrites it on replay.
+    // It is already applied by now; if logging fails the store undoes it.
+    @Override
+    protected void onPresenceChange(AttendanceRecord record, boolean isPresent) {
+        long lsn;
+        synchronized (this) {
+            lsn = append(OP_SAVE_ATTENDANCE, out -> out.writeAttendance(record));
+        }
+        commit(lsn);
+    }
+
+    // Roster edits are logged individually so bulk enrollment doesn't rewrite the whole course each time.
+    // These run under the monitor (the course takes it), so the commit waits in afterRosterChange.
+    @Override
+    protected synchronized void onEnrollmentChange(Course course, String studentId, boolean enrolled) {
+        append(enrolled ? OP_ENROLL : OP_UNENROLL, out -> {
+            out.writeId(course.getCourseId());
+            out.writeId(studentId);
+        });
+    }
+
+    @Override
+    protected synchronized void onInstructorChange(Course course, String instructorId) {
+        append(OP_SET_INSTRUCTOR, out -> {
+            out.writeId(course.getCourseId());
+            out.writeId(instructorId);
+        });
+    }
+
+    // Waits for everything logged so far, which covers the edit just made
+    @Override
+    protected void afterRosterChange(Course course) {
+        if (!replaying) commit(wal.lastLsn());
+    }
+
+    /**
+     * Writes any buffered frames to the log and fsyncs it.
+     * @throws IOException if the write or fsync fails.
+     */
+    public void flush() throws IOException {
+        wal.flush();
+    }
+
+    /**
+     * Writes a snapshot of the full state, then drops older snapshots and the WAL segments it covers.
+     * Runs automatically in the background every {@code snapshotEveryBytes} of log.
+     * @return The LSN the snapshot covers.
+     * @throws IOException if the snapshot cannot be written.
+     */
+    public long snapshot() throws IOException {
+        synchronized (directory) { // one snapshot at a time
+            long lsn;
+            List<byte[]> frames = new ArrayList<>();
+            synchronized (this) {
+                lsn = wal.lastLsn();
+                bytesSinceSnapshot.set(0);
+                for (User.Role role : User.Role.values()) {
+                    for (User user : getAllUsersByRole(role)) {
+                        frames.add(encode(lsn, OP_SAVE_USER, out -> out.writeUser(user)));
+                    }
+                }
+                for (Course course : getAllCourses()) {
+                    frames.add(encode(lsn, OP_SAVE_COURSE, out -> out.writeCourse(course)));
+                }
+            }
+            Path target = directory.resolve(String.format("%s%020d%s", SNAPSHOT_PREFIX, lsn, SNAPSHOT_SUFFIX));
+            Path temp = directory.resolve(target.getFileName() + ".tmp");
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                OutputStream out = new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16);
+                for (byte[] frame : frames) {
+                    out.write(frame);
+                }
+                frames = null;
+                for (String courseId : getAttendanceCourseIds()) {
+                    List<AttendanceRecord> records = getAttendanceForCourse(courseId);
+                    for (int from = 0; from < records.size(); from += SNAPSHOT_BATCH) {
+                        List<AttendanceRecord> batch = records.subList(from, Math.min(records.size(), from + SNAPSHOT_BATCH));
+                        out.write(encode(lsn, OP_SAVE_ATTENDANCE_BATCH, w -> writeAttendanceBatch(w, batch)));
+                    }
+                }
+                out.write(encode(lsn, OP_SNAPSHOT_END, w -> { }));
+                out.flush();
+                channel.force(true);
+            }
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+            for (Path old : listSnapshots()) {
+                if (snapshotLsn(old) < lsn) Files.delete(old);
+            }
+            wal.deleteSegmentsCoveredBy(lsn);
+            return lsn;
+        }
+    }
+
+    @Override
+    public void close() {
+        if (closed) return;
+        closed = true;
+        snapshotter.shutdown();
+        try {
+            snapshotter.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        wal.close();
+    }
+
+    private interface FrameWriter {
+        void write(ModelCodec.Writer out);
+    }
+
+    // Buffers a frame. Returns its LSN for the caller to commit, or 0 if there is nothing to wait
+    // for: while replaying, or inside a batch that commits once at the end.
+    private long append(byte op, FrameWriter writer) {
+        if (replaying) return 0;
+        if (closed) {
+            throw new IllegalStateException("DB: Log is closed");
+        }
+        ModelCodec.Writer out = new ModelCodec.Writer(128);
+        out.writeByte(op);
+        writer.write(out);
+        ByteBuffer payload = out.toBuffer();
+        long lsn = wal.append(payload, false);
+        long logged = bytesSinceSnapshot.addAndGet(WriteAheadLog.FRAME_HEADER_BYTES + payload.remaining());
+        if (logged >= snapshotEveryBytes && snapshotRunning.compareAndSet(false, true)) {
+            snapshotter.execute(() -> {
+                try {
+                    snapshot();
+                } catch (IOException e) {
+                    System.err.println("DB: Snapshot failed: " + e.getMessage());
+                } finally {
+                    snapshotRunning.set(false);
+                }
+            });
+        }
+        return batching ? 0 : lsn;
+    }
+
+    private void commit(long lsn) {
+        if (lsn > 0) wal.commit(lsn);
+    }
+
+    private static byte[] encode(long lsn, byte op, FrameWriter writer) {
+        ModelCodec.Writer out = new ModelCodec.Writer(128);
+        out.writeByte(op);
+        writer.write(out);
+        return WriteAheadLog.encodeFrame(lsn, out.toBuffer());
+    }
+
+    private static void writeAttendanceBatch(ModelCodec.Writer out, Collection<AttendanceRecord> records) {
+        out.writeVarInt(records.size());
+        for (AttendanceRecord record : records) {
+            out.writeAttendance(record);
+        }
+    }
+
+    // Loads the newest snapshot, if any. Snapshots only appear under their final name once complete.
+    private long loadLatestSnapshot() throws IOException {
+        try (DirectoryStream<Path> leftovers = Files.newDirectoryStream(directory, SNAPSHOT_PREFIX + "*.tmp")) {
+            for (Path leftover : leftovers) Files.delete(leftover);
+        }
+        List<Path> snapshots = listSnapshots();
+        if (snapshots.isEmpty()) return 0;
+        Path latest = snapshots.get(snapshots.size() - 1);
+        boolean[] complete = {false};
+        replaying = true;
+        try (FileChannel channel = FileChannel.open(latest, StandardOpenOption.READ)) {
+            WriteAheadLog.readFrames(channel, (lsn, payload) -> {
+                if (payload.get(payload.position()) == OP_SNAPSHOT_END) {
+                    complete[0] = true;
+                } else {
+                    apply(new ModelCodec.Reader(payload));
+                }
+            });
+        } finally {
+            replaying = false;
+        }
+        if (!complete[0]) throw new IOException("DB: Snapshot " + latest.getFileName() + " is incomplete or corrupt");
+        return snapshotLsn(latest);
+    }
+
+    private List<Path> listSnapshots() throws IOException {
+        List<Path> snapshots = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, SNAPSHOT_PREFIX + "*" + SNAPSHOT_SUFFIX)) {
+            for (Path path : stream) snapshots.add(path);
+        }
+        snapshots.sort(Comparator.comparingLong(FileDatabaseManager::snapshotLsn));
+        return snapshots;
+    }
+
+    private static long snapshotLsn(Path snapshot) {
+        String name = snapshot.getFileName().toString();
+        return Long.parseLong(name.substring(SNAPSHOT_PREFIX.length(), name.length() - SNAPSHOT_SUFFIX.length()));
+    }
+
+    private void apply(ModelCodec.Reader in) throws IOException {
+        byte op = in.readByte();
+        switch (op) {
+            case OP_SAVE_USER: super.saveUser(in.readUser()); break;
+            case OP_SAVE_COURSE: super.saveCourse(in.readCourse()); break;
+            case OP_SAVE_ATTENDANCE: super.saveAttendanceRecord(in.readAttendance()); break;
+            case OP_SAVE_ATTENDANCE_BATCH: {
+                int count = in.readVarInt();
+                List<AttendanceRecord> records = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    records.add(in.readAttendance());
+                }
+                super.saveAttendanceRecords(records);
+                break;
+            }
+            case OP_ENROLL: case OP_UNENROLL: {
+                Course course = getCourse(in.readId());
+                String studentId = in.readId();
+                if (course != null) {
+                    if (op == OP_ENROLL) course.addStudent(studentId); else course.removeStudent(studentId);
+                }
+                break;
+            }
+            case OP_SET_INSTRUCTOR: {
+                Course course = getCourse(in.readId());
+                String instructorId = in.readId();
+                if (course != null) course.setInstructorId(instructorId);
+                break;
+            }
+            case OP_REMOVE_USER: super.removeUser(in.readId()); break;
+            case OP_REMOVE_COURSE: super.removeCourse(in.readId()); break;
+            case OP_REMOVE_ATTENDANCE: {
+                LocalDate from = LocalDate.ofEpochDay(in.readVarLong());
+                super.removeAttendanceBetween(from, LocalDate.ofEpochDay(in.readVarLong()));
+                break;
+            }
+            default: throw new IOException("DB: Unknown log op " + op);
+        }
+    }
+}
+
+/**
+ * DatabaseManager that forwards every call to another one.
+ * Base class for decorators that add behaviour (archives, caching, ...) around a real store.
+ */
+abstract class ForwardingDatabaseManager implements DatabaseManager {
+    protected final DatabaseManager delegate;
+
+    protected ForwardingDatabaseManager(DatabaseManager delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override public void saveUser(User user) { delegate.saveUser(user); }
+    @Override public User getUser(String userId) { return delegate.getUser(userId); }
+    @Override public List<User> getAllUsersByRole(User.Role role) { return delegate.getAllUsersByRole(role); }
+    @Override public void saveCourse(Course course) { delegate.saveCourse(course); }
+    @Override public Course getCourse(String courseId) { return delegate.getCourse(courseId); }
+    @Override public List<Course> getAllCourses() { return delegate.getAllCourses(); }
+    @Override public List<Course> getCoursesByInstructor(String instructorId) { return delegate.getCoursesByInstructor(instructorId); }
+    @Override public List<Course> getCoursesByStudent(String studentId) { return delegate.getCoursesByStudent(studentId); }
+    @Override public void saveAttendanceRecord(AttendanceRecord record) { delegate.saveAttendanceRecord(record); }
+    @Override public void saveAttendanceRecords(Collection<AttendanceRecord> records) { delegate.saveAttendanceRecords(records); }
+    @Override public List<AttendanceRecord> getAttendanceForCourse(String courseId) { return delegate.getAttendanceForCourse(courseId); }
+    @Override public List<AttendanceRecord> getAttendanceForStudentInCourse(String studentId, String courseId) {
+        return delegate.getAttendanceForStudentInCourse(studentId, courseId);
+    }
+    @Override public AttendanceRecord getAttendanceRecord(String courseId, String studentId, LocalDate date) {
+        return delegate.getAttendanceRecord(courseId, studentId, date);
+    }
+    @Override public AttendanceSummary getAttendanceSummary(String studentId, String courseId) {
+        return delegate.getAttendanceSummary(studentId, courseId);
+    }
+    @Override public List<String> getStudentsBelowThreshold(String courseId, double thresholdPercent) {
+        return delegate.getStudentsBelowThreshold(courseId, thresholdPercent);
+    }
+    @Override public SortedMap<LocalDate, List<String>> getAbsentStudents(LocalDate from, LocalDate to) {
+        return delegate.getAbsentStudents(from, to);
+    }
+    @Override public List<String> getStudentsAbsentConsecutively(LocalDate through, int days) {
+        return delegate.getStudentsAbsentConsecutively(through, days);
+    }
+    @Override public Stream<AttendanceRecord> streamAttendance(String courseId, AttendanceQuery query) {
+        return delegate.streamAttendance(courseId, query);
+    }
+    @Override public int removeAttendanceBetween(LocalDate from, LocalDate to) { return delegate.removeAttendanceBetween(from, to); }
+    @Override public List<String> getAttendanceCourseIds() { return delegate.getAttendanceCourseIds(); }
+    @Override public void close() { delegate.close(); }
+    // saveUsers, saveCourses, getAttendancePage and saveAttendanceRecords(records, replaced) are
+    // deliberately not forwarded: their defaults call this decorator's own saveUser/saveCourse/
+    // streamAttendance/saveAttendanceRecords, so subclasses stay in the loop
+}
+
+/**
+ * Bounded read-through cache with LRU eviction and a time-to-live.
+ * Concurrent misses on the same key are single-flighted: the first caller loads, the others wait
+ * for its result, so a cold key costs one storage read however many dashboards ask for it.
+ * Null results are not cached.
+ */
+class ReadThroughCache<K, V> {
+    private final int maxEntries;
+    private final long ttlNanos;
+    private final Map<K, Entry<V>> entries;
+    private final Map<K, CompletableFuture<V>> loading = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public ReadThroughCache(int maxEntries, long ttlMillis) {
+        this.maxEntries = maxEntries;
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+        // Access-ordered, so the eldest entry is the least recently used one
+        this.entries = new LinkedHashMap<K, Entry<V>>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest) {
+                if (size() <= ReadThroughCache.this.maxEntries) return false;
+                evictions.increment();
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Returns the cached value, or loads it (once, however many callers miss concurrently).
+     * Exceptions thrown by the loader are passed on to every waiting caller and nothing is cached.
+     */
+    public V get(K key, Function<K, V> loader) {
+        long now = System.nanoTime();
+        synchronized (entries) {
+            Entry<V> entry = entries.get(key);
+            if (entry != null && now - entry.loadedAt < ttlNanos) {
+                hits.increment();
+                return entry.value;
+            }
+            if (entry != null) {
+                entries.remove(key);
+                evictions.increment();
+            }
+        }
+        misses.increment();
+        CompletableFuture<V> mine = new CompletableFuture<>();
+        CompletableFuture<V> inFlight = loading.putIfAbsent(key, mine);
+        if (inFlight != null) return await(inFlight);
+        try {
+            V value = loader.apply(key);
+            // Only publish if no invalidate() ran meanwhile; it removes the in-flight load
+            synchronized (entries) {
+                if (loading.remove(key, mine) && value != null) entries.put(key, new Entry<>(value, now));
+            }
+            mine.complete(value);
+            return value;
+        } catch (RuntimeException | Error e) {
+            loading.remove(key, mine);
+            mine.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    public void invalidate(K key) {
+        synchronized (entries) {
+            loading.remove(key);
+            entries.remove(key);
+        }
+    }
+
+    public void invalidateAll() {
+        synchronized (entries) {
+            loading.clear();
+            entries.clear();
+        }
+    }
+
+    // --- Statistics ---
+    public long getHitCount() { return hits.sum(); }
+    public long getMissCount() { return misses.sum(); }
+    public long getEvictionCount() { return evictions.sum(); }
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public double getHitRate() {
+        long h = hits.sum();
+        long total = h + misses.sum();
+        return total == 0 ? 0.0 : (double) h / total;
+    }
+
+    @Override
+    public String toString() {
+        return "hits=" + getHitCount() + ", misses=" + getMissCount() + ", evictions=" + getEvictionCount() + ", size=" + size();
+    }
+
+    private static <V> V await(CompletableFuture<V> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            if (e.getCause() instanceof Error) throw (Error) e.getCause();
+            throw e;
+        }
+    }
+
+    private static final class Entry<V> {
+        final V value;
+        final long loadedAt;
+
+        Entry(V value, long loadedAt) {
+            this.value = value;
+            this.loadedAt = loadedAt;
+        }
+    }
+}
+
+/**
+ * Caches user, course and roster lookups in front of another DatabaseManager.
+ * saveUser/saveCourse invalidate the affected entries; since any course save can move a course
+ * between instructors or students, it drops the roster entries wholesale. Roster changes made
+ * directly on a stored Course (addStudent, setInstructorId, ...) without a saveCourse become
+ * visible in the roster queries once their entries expire.
+ */
+class CachingDatabaseManager extends ForwardingDatabaseManager {
+    private final ReadThroughCache<String, User> users;
+    private final ReadThroughCache<String, Course> courses;
+    private final ReadThroughCache<String, List<Course>> coursesByInstructor;
+    private final ReadThroughCache<String, List<Course>> coursesByStudent;
+
+    /**
+     * @param maxEntries Maximum entries per cache (users, courses, and each roster query).
+     * @param ttlMillis How long a loaded entry may be served before it is read again.
+     */
+    public CachingDatabaseManager(DatabaseManager delegate, int maxEntries, long ttlMillis) {
+        super(delegate);
+        this.users = new ReadThroughCache<>(maxEntries, ttlMillis);
+        this.courses = new ReadThroughCache<>(maxEntries, ttlMillis);
+        this.coursesByInstructor = new ReadThroughCache<>(maxEntries, ttlMillis);
+        this.coursesByStudent = new ReadThroughCache<>(maxEntries, ttlMillis);
+    }
+
+    @Override
+    public void saveUser(User user) {
+        delegate.saveUser(user);
+        users.invalidate(user.getUserId());
+    }
+
+    @Override
+    public User getUser(String userId) {
+        return users.get(userId, delegate::getUser);
+    }
+
+    @Override
+    public void saveCourse(Course course) {
+        delegate.saveCourse(course);
+        courses.invalidate(course.getCourseId());
+        coursesByInstructor.invalidateAll();
+        coursesByStudent.invalidateAll();
+    }
+
+    @Override
+    public Course getCourse(String courseId) {
+        return courses.get(courseId, delegate::getCourse);
+    }
+
+    // Roster lists are cached unmodifiable and handed out as copies, as the stores do
+    @Override
+    public List<Course> getCoursesByInstructor(String instructorId) {
+        return new ArrayList<>(coursesByInstructor.get(instructorId, id -> Collections.unmodifiableList(delegate.getCoursesByInstructor(id))));
+    }
+
+    @Override
+    public List<Course> getCoursesByStudent(String studentId) {
+        return new ArrayList<>(coursesByStudent.get(studentId, id -> Collections.unmodifiableList(delegate.getCoursesByStudent(id))));
+    }
+
+    // --- Cache statistics, for sizing ---
+    public ReadThroughCache<String, User> getUserCache() { return users; }
+    public ReadThroughCache<String, Course> getCourseCache() { return courses; }
+    public ReadThroughCache<String, List<Course>> getInstructorRosterCache() { return coursesByInstructor; }
+    public ReadThroughCache<String, List<Course>> getStudentRosterCache() { return coursesByStudent; }
+}
+
+/**
+ * Times every DatabaseManager operation into a per-operation OperationTimer ("db.<method>"), plus
+ * counters of the users, courses and marks written and the marks removed. Batch saves and pages are
+ * forwarded as well, so the store's own batching and pushdown are kept.
+ * streamAttendance is timed until the stream is returned; consuming it is the caller's time.
+ */
+class MetricsDatabaseManager extends ForwardingDatabaseManager {
+    private final OperationTimer saveUser, getUser, usersByRole, saveUsers;
+    private final OperationTimer saveCourse, getCourse, allCourses, coursesByInstructor, coursesByStudent, saveCourses;
+    private final OperationTimer saveAttendance, saveAttendanceBatch, attendanceForCourse, attendanceForStudent, attendanceRecord;
+    private final OperationTimer summary, belowThreshold, absentStudents, absentConsecutively, streamAttendance, attendancePage;
+    private final OperationTimer removeAttendance;
+    private final LongAdder usersWritten, coursesWritten, marksWritten, marksRemoved;
+
+    public MetricsDatabaseManager(DatabaseManager delegate) {
+        this(delegate, Metrics.get());
+    }
+
+    public MetricsDatabaseManager(DatabaseManager delegate, MetricsRegistry metrics) {
+        super(delegate);
+        saveUser = metrics.timer("db.saveUser");
+        getUser = metrics.timer("db.getUser");
+        usersByRole = metrics.timer("db.getAllUsersByRole");
+        saveUsers = metrics.timer("db.saveUsers");
+        saveCourse = metrics.timer("db.saveCourse");
+        getCourse = metrics.timer("db.getCourse");
+        allCourses = metrics.timer("db.getAllCourses");
+        coursesByInstructor = metrics.timer("db.getCoursesByInstructor");
+        coursesByStudent = metrics.timer("db.getCoursesByStudent");
+        saveCourses = metrics.timer("db.saveCourses");
+        saveAttendance = metrics.timer("db.saveAttendanceRecord");
+        saveAttendanceBatch = metrics.timer("db.saveAttendanceRecords");
+        attendanceForCourse = metrics.timer("db.getAttendanceForCourse");
+        attendanceForStudent = metrics.timer("db.getAttendanceForStudentInCourse");
+        attendanceRecord = metrics.timer("db.getAttendanceRecord");
+        summary = metrics.timer("db.getAttendanceSummary");
+        belowThreshold = metrics.timer("db.getStudentsBelowThreshold");
+        absentStudents = metrics.timer("db.getAbsentStudents");
+        absentConsecutively = metrics.timer("db.getStudentsAbsentConsecutively");
+        streamAttendance = metrics.timer("db.streamAttendance");
+        attendancePage = metrics.timer("db.getAttendancePage");
+        removeAttendance = metrics.timer("db.removeAttendanceBetween");
+        usersWritten = metrics.counter("db.users.written");
+        coursesWritten = metrics.counter("db.courses.written");
+        marksWritten = metrics.counter("db.marks.written");
+        marksRemoved = metrics.counter("db.marks.removed");
+    }
+
+    @Override
+    public void saveUser(User user) {
+        long start = System.nanoTime();
+        try {
+            delegate.saveUser(user);
+            usersWritten.increment();
+        } finally {
+            saveUser.record(start);
+        }
+    }
+
+    @Override
+    public User getUser(String userId) {
+        long start = System.nanoTime();
+        try {
+            return delegate.getUser(userId);
+        } finally {
+            getUser.record(start);
+        }
+    }
+
+    @Override
+    public List<User> getAllUsersByRole(User.Role role) {
+        long start = System.nanoTime();
+        try {
+            return delegate.getAllUsersByRole(role);
+        } finally {
+            usersByRole.record(start);
+        }
+    }
+
+    @Override
+    public void saveUsers(Collection<User> users) {
+        long start = System.nanoTime();
+        try {
+            delegate.saveUsers(users);
+            usersWritten.add(users.size());
+        } finally {
+            saveUsers.record(start);
+        }
+    }
+
+    @Override
+    public void saveCourse(Course course) {
+        long start = System.nanoTime();
+        try {
+            delegate.saveCourse(course);
+            coursesWritten.increment();
+        } finally {
+            saveCourse.record(start);
+        }
+    }
+
+    @Override
+    public Course getCourse(String courseId) {
+        long start = System.nanoTime();
+        try {
+            return delegate.getCourse(courseId);
+        } finally {
+            getCourse.record(start);
+        }
+    }
+
+    @Override
+    public List<Course> getAllCourses() {
+        long start = System.nanoTime();
+        try {
+            return delegate.getAllCourses();
+        } finally {
+            allCourses.record(start);
+        }
+    }
+
+    @Override
+    public List<Course> getCoursesByInstructor(String instructorId) {
+        long start = System.nanoTime();
+        try {
+            return delegate.getCoursesByInstructor(instructorId);
+        } finally {
+            coursesByInstructor.record(start);
+        }
+    }
+
+    @Override
+    public List<Course> getCoursesByStudent(String studentId) {
+        long start = System.nanoTime();
+        try {
+            return delegate.getCoursesByStudent(studentId);
+        } finally {
+            coursesByStudent.record(start);
+        }
+    }
+
+    @Override
+    public void saveCourses(Collection<Course> courses) {
+        long start = System.nanoTime();
+        try {
+            delegate.saveCourses(courses);
+            coursesWritten.add(courses.size());
+        } finally {
+            saveCourses.record(start);
+        }
+    }
+
+    @Override
+    public void saveAttendanceRecord(AttendanceRecord record) {
+        long start = System.nanoTime();
+        try {
+            delegate.saveAttendanceRecord(record);
+            marksWritten.increment();
+        } finally {
+            saveAttendance.record(start);
+        }
+    }
+
+    @Override
+    public void saveAttendanceRecords(Collection<AttendanceRecord> records) {
+        long start = System.nanoTime();
+        try {
+            delegate.saveAttendanceRecords(records);
+            marksWritten.add(records.size());
+        } finally {
+            saveAttendanceBatch.record(start);
+        }
+    }
+
+    @Override
+    public int removeAttendanceBetween(LocalDate from, LocalDate to) {
+        long start = System.nanoTime();
+        try {
+            int removed = delegate.removeAttendanceBetween(from, to);
+            marksRemoved.add(removed);
+            return removed;
+        } finally {
+            removeAttendance.record(start);
+        }
+    }
+
+    @Override
+    public List<AttendanceRecord> getAttendanceForCourse(String courseId) {
+        long start = System.nanoTime();
+        try {
+            return delegate.getAttendanceForCourse(courseId);
+        } finally {
+            attendanceForCourse.record(start);
+        }
+    }
+
+    @Override
+    public List<AttendanceRecord> getAttendanceForStudentInCourse(String studentId, String courseId) {
+        long start = System.nanoTime();
+        try {
+            return delegate.getAttendanceForStudentInCourse(studentId, courseId);
+        } finally {
+            attendanceForStudent.record(start);
+        }
+    }
+
+    @Override
+    public AttendanceRecord getAttendanceRecord(String courseId, String studentId, LocalDate date) {
+        long start = System.nanoTime();
+        try {
+            return delegate.getAttendanceRecord(courseId, studentId, date);
+        } finally {
+            attendanceRecord.record(start);
+        }
+    }
+
+    @Override
+    public AttendanceSummary getAttendanceSummary(String studentId, String courseId) {
+        long start = System.nanoTime();
+        try {
+            return delegate.getAttendanceSummary(studentId, courseId);
+        } finally {
+            summary.record(start);
+        }
+    }
+
+    @Override
+    public List<String> getStudentsBelowThreshold(String courseId, double thresholdPercent) {
+        long start = System.nanoTime();
+        try {
+            return delegate.getStudentsBelowThreshold(courseId, thresholdPercent);
+        } finally {
+            belowThreshold.record(start);
+        }
+    }
+
+    @Override
+    public SortedMap<LocalDate, List<String>> getAbsentStudents(LocalDate from, LocalDate to) {
+        long start = System.nanoTime();
+        try {
+            return delegate.getAbsentStudents(from, to);
+        } finally {
+            absentStudents.record(start);
+        }
+    }
+
+    @Override
+    public List<String> getStudentsAbsentConsecutively(LocalDate through, int days) {
+        long start = System.nanoTime();
+        try {
+            return delegate.getStudentsAbsentConsecutively(through, days);
+        } finally {
+            absentConsecutively.record(start);
+        }
+    }
+
+    @Override
+    public Stream<AttendanceRecord> streamAttendance(String courseId, AttendanceQuery query) {
+        long start = System.nanoTime();
+        try {
+            return delegate.streamAttendance(courseId, query);
+        } finally {
+            streamAttendance.record(start);
+        }
+    }
+
+    @Override
+    public AttendancePage getAttendancePage(String courseId, AttendanceQuery query, String pageToken, int pageSize) {
+        long start = System.nanoTime();
+        try {
+            return delegate.getAttendancePage(courseId, query, pageToken, pageSize);
+        } finally {
+            attendancePage.record(start);
+        }
+    }
+}
+
+/**
+ * Multi-version decorator: openSnapshot() gives a point-in-time, read-only view of users, courses
+ * and attendance while writes keep flowing to the delegate.
+ *
+ * Users and courses are small, so every save keeps a copy in a per-id version chain. Attendance
+ * marks are not duplicated: while snapshots are open, the store reports each mark just before a
+ * write replaces it, and the prior value is appended to the course's undo log (removals append
+ * tombstones the same way). Snapshot reads patch the live rows with those older values and put
+ * removed marks back.
+ * Readers never lock; writers only serialize with writers of the same key stripe, and never wait
+ * for readers. Versions no open snapshot can see are dropped whenever a snapshot closes.
+ *
+ * Only changes made through this manager are versioned: roster edits on a stored Course or
+ * setPresent flips on a stored record must be saved again to reach snapshots.
+ */
+class MvccDatabaseManager extends ForwardingDatabaseManager {
+    private static final int STRIPES = 64;
+    private static final long UNASSIGNED = Long.MIN_VALUE;
+
+    private final AtomicLong clock = new AtomicLong();
+    private final ReentrantLock[] stripes = new ReentrantLock[STRIPES];
+    private final Set<WriteTicket> inFlight = ConcurrentHashMap.newKeySet();
+    private final Set<Snapshot> open = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger openCount = new AtomicInteger();
+    private final Map<String, Version<User>> users = new ConcurrentHashMap<>();
+    private final Map<String, Version<Course>> courses = new ConcurrentHashMap<>();
+    // courseId -> what writes replaced or removed in the course; logs are never removed, only emptied
+    private final Map<String, UndoLog> undo = new ConcurrentHashMap<>();
+
+    public MvccDatabaseManager(DatabaseManager delegate) {
+        super(delegate);
+        for (int i = 0; i < STRIPES; i++) stripes[i] = new ReentrantLock();
+        for (User.Role role : User.Role.values()) {
+            for (User user : delegate.getAllUsersByRole(role)) users.put(user.getUserId(), new Version<>(new User(user), 0, null));
+        }
+        for (Course course : delegate.getAllCourses()) courses.put(course.getCourseId(), new Version<>(new Course(course), 0, null));
+    }
+
+    @Override
+    public void saveUser(User user) {
+        String userId = user.getUserId();
+        ReentrantLock lock = stripe(userId);
+        lock.lock();
+        WriteTicket ticket = begin();
+        try {
+            delegate.saveUser(user);
+            push(users, userId, new User(user), ticket.timestamp);
+        } finally {
+            inFlight.remove(ticket);
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void saveCourse(Course course) {
+        String courseId = course.getCourseId();
+        ReentrantLock lock = stripe(courseId);
+        lock.lock();
+        WriteTicket ticket = begin();
+        try {
+            delegate.saveCourse(course);
+            push(courses, courseId, new Course(course), ticket.timestamp);
+        } finally {
+            inFlight.remove(ticket);
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void saveAttendanceRecord(AttendanceRecord record) {
+        saveAttendanceRecords(Collections.singletonList(record));
+    }
+
+    // The whole batch gets one timestamp, so a snapshot sees all of it or none of it
+    @Override
+    public void saveAttendanceRecords(Collection<AttendanceRecord> records) {
+        boolean[] needed = new boolean[STRIPES];
+        for (AttendanceRecord record : records) needed[stripeIndex(record.getStudentId())] = true;
+        for (int i = 0; i < STRIPES; i++) if (needed[i]) stripes[i].lock(); // ascending order, no deadlock
+        WriteTicket ticket = begin();
+        try {
+            if (openCount.get() == 0) {
+                delegate.saveAttendanceRecords(records);
+            } else {
+                delegate.saveAttendanceRecords(records, new UndoWriter(ticket.timestamp, false));
+                if (openCount.get() == 0) collectGarbage(); // the last snapshot closed while we logged
+            }
+        } finally {
+            inFlight.remove(ticket);
+            for (int i = STRIPES - 1; i >= 0; i--) if (needed[i]) stripes[i].unlock();
+        }
+    }
+
+    /**
+     * Removes the marks from the delegate; while snapshots are open, they are first logged as
+     * tombstones so snapshots keep seeing them. Blocks all other writes while it runs.
+     */
+    @Override
+    public int removeAttendanceBetween(LocalDate from, LocalDate to) {
+        for (int i = 0; i < STRIPES; i++) stripes[i].lock();
+        WriteTicket ticket = begin();
+        try {
+            if (openCount.get() > 0) {
+                UndoWriter tombstones = new UndoWriter(ticket.timestamp, true);
+                for (String courseId : delegate.getAttendanceCourseIds()) {
+                    try (Stream<AttendanceRecord> marks = delegate.streamAttendance(courseId, AttendanceQuery.all().between(from, to))) {
+                        marks.forEach(mark -> tombstones.replacing(courseId, mark.getStudentId(), (int) mark.getDate().toEpochDay(),
+                                mark.getTimeMarked().toSecondOfDay(), mark.isPresent()));
+                    }
+                }
+                if (openCount.get() == 0) collectGarbage();
+            }
+            return delegate.removeAttendanceBetween(from, to);
+        } finally {
+            inFlight.remove(ticket);
+            for (int i = STRIPES - 1; i >= 0; i--) stripes[i].unlock();
+        }
+    }
+
+    /**
+     * Opens a consistent view of everything written through this manager so far. Waits only for
+     * writes already in progress to finish. Close it to let old versions be collected.
+     */
+    public Snapshot openSnapshot() {
+        Snapshot snapshot = new Snapshot();
+        openCount.incrementAndGet();
+        open.add(snapshot);
+        long timestamp = clock.get();
+        // Writers that took a timestamp at or before ours must land before we read
+        for (WriteTicket ticket : inFlight) {
+            while (inFlight.contains(ticket) && (ticket.timestamp == UNASSIGNED || ticket.timestamp <= timestamp)) Thread.yield();
+        }
+        snapshot.timestamp = timestamp;
+        return snapshot;
+    }
+
+    public int getOpenSnapshotCount() {
+        return openCount.get();
+    }
+
+    /**
+     * @return Marks currently retained for open snapshots.
+     */
+    public int getUndoSize() {
+        int size = 0;
+        for (UndoLog log : undo.values()) size += log.size();
+        return size;
+    }
+
+    // Called under the id's stripe lock, after begin(). With no snapshot open only the head is kept;
+    // otherwise the chain keeps the head plus the version each open snapshot sees.
+    private <T> void push(Map<String, Version<T>> chains, String id, T value, long timestamp) {
+        if (openCount.get() == 0) {
+            chains.put(id, new Version<>(value, timestamp, null));
+            return;
+        }
+        Version<T> head = new Version<>(value, timestamp, chains.get(id));
+        long[] snapshots = snapshotTimestamps();
+        if (snapshots != null) trim(head, snapshots);
+        chains.put(id, head);
+    }
+
+    // Open snapshot timestamps, newest first, or null while one is still opening
+    private long[] snapshotTimestamps() {
+        List<Long> timestamps = new ArrayList<>();
+        for (Snapshot snapshot : open) {
+            if (snapshot.timestamp == UNASSIGNED) return null;
+            timestamps.add(snapshot.timestamp);
+        }
+        long[] sorted = new long[timestamps.size()];
+        for (int i = 0; i < sorted.length; i++) sorted[i] = timestamps.get(i);
+        Arrays.sort(sorted);
+        for (int i = 0, j = sorted.length - 1; i < j; i++, j--) {
+            long t = sorted[i];
+            sorted[i] = sorted[j];
+            sorted[j] = t;
+        }
+        return sorted;
+    }
+
+    private WriteTicket begin() {
+        WriteTicket ticket = new WriteTicket();
+        inFlight.add(ticket);
+        ticket.timestamp = clock.incrementAndGet();
+        return ticket;
+    }
+
+    private ReentrantLock stripe(String key) {
+        return stripes[stripeIndex(key)];
+    }
+
+    private static int stripeIndex(String key) {
+        return (key.hashCode() & 0x7fffffff) % STRIPES;
+    }
+
+    private static AttendanceRecord detached(AttendanceRecord record) {
+        return new AttendanceRecord(null, record.getCourseId(), record.getStudentId(), record.getDate(), record.getTimeMarked(), record.isPresent());
+    }
+
+    // Drops versions that no open snapshot can see any more
+    private void collectGarbage() {
+        long[] snapshots = snapshotTimestamps();
+        if (snapshots == null) return; // one is still opening
+        long oldest = snapshots.length == 0 ? Long.MAX_VALUE : snapshots[snapshots.length - 1];
+        for (UndoLog log : undo.values()) log.dropThrough(oldest);
+        for (Version<User> chain : users.values()) trim(chain, snapshots);
+        for (Version<Course> chain : courses.values()) trim(chain, snapshots);
+    }
+
+    // Keeps the head and the newest version visible to each snapshot (timestamps newest first); the
+    // rest are unreachable. Readers mid-walk still get through, since dropped versions keep their links.
+    private static <T> void trim(Version<T> head, long[] snapshots) {
+        Version<T> kept = head;
+        int i = 0;
+        while (i < snapshots.length && snapshots[i] >= head.timestamp) i++;
+        for (Version<T> v = head.next; v != null && i < snapshots.length; v = v.next) {
+            if (v.timestamp > snapshots[i]) continue;
+            kept.next = v;
+            kept = v;
+            while (i < snapshots.length && snapshots[i] >= v.timestamp) i++;
+        }
+        kept.next = null;
+    }
+
+    private static <T> T visibleAt(Version<T> v, long timestamp) {
+        while (v != null && v.timestamp > timestamp) v = v.next;
+        return v == null ? null : v.value;
+    }
+
+    private static final class Version<T> {
+        final T value;
+        final long timestamp;
+        volatile Version<T> next;
+
+        Version(T value, long timestamp, Version<T> next) {
+            this.value = value;
+            this.timestamp = timestamp;
+            this.next = next;
+        }
+    }
+
+    // Logs what each mark was just before the store overwrites it, or before a removal
+    private final class UndoWriter implements DatabaseManager.ReplacedMarks {
+        private final long timestamp;
+        private final boolean removal;
+        private String courseId; // writes are usually one course, so the log lookup is cached
+        private UndoLog log;
+
+        UndoWriter(long timestamp, boolean removal) {
+            this.timestamp = timestamp;
+            this.removal = removal;
+        }
+
+        @Override
+        public void replacing(String markCourseId, String studentId, int epochDay, int priorSecondOfDay, boolean priorPresent) {
+            if (!markCourseId.equals(courseId)) {
+                courseId = markCourseId;
+                log = undo.get(courseId);
+                if (log == null) log = undo.computeIfAbsent(courseId, c -> new UndoLog());
+            }
+            log.append(studentId, epochDay, UndoLog.encode(priorSecondOfDay, priorPresent, removal), timestamp);
+        }
+    }
+
+    /**
+     * One course's undo entries in append order: the mark a write replaced (or a removal's
+     * tombstone) and the write's timestamp. Entries are parallel arrays in chunks, so logging one
+     * allocates nothing; readers walk forward without locking, and collection drops whole chunks
+     * from the front once no open snapshot is older than everything in them.
+     */
+    private static final class UndoLog {
+        private static final int NEW_MARK = DatabaseManager.ReplacedMarks.NEW_MARK;
+        private static final int FIRST_CHUNK = 16;
+        private static final int MAX_CHUNK = 1024;
+
+        volatile UndoChunk first = new UndoChunk(FIRST_CHUNK);
+        private UndoChunk last = first; // guarded by this
+
+        // secondOfDay << 2 | removed << 1 | present, or NEW_MARK if the write created the mark
+        static int encode(int priorSecondOfDay, boolean present, boolean removal) {
+            return priorSecondOfDay == NEW_MARK ? NEW_MARK : priorSecondOfDay << 2 | (removal ? 2 : 0) | (present ? 1 : 0);
+        }
+
+        static boolean isRemoval(int prior) {
+            return prior != NEW_MARK && (prior & 2) != 0;
+        }
+
+        static AttendanceRecord decode(String courseId, String studentId, int day, int prior) {
+            if (prior == NEW_MARK) return null;
+            return new AttendanceRecord(null, courseId, studentId, LocalDate.ofEpochDay(day), LocalTime.ofSecondOfDay(prior >>> 2), (prior & 1) != 0);
+        }
+
+        synchronized void append(String studentId, int day, int prior, long timestamp) {
+            UndoChunk chunk = last;
+            int i = chunk.size;
+            if (i == chunk.studentIds.length) {
+                chunk = new UndoChunk(Math.min(MAX_CHUNK, i * 2));
+                last.next = chunk;
+                last = chunk;
+                i = 0;
+            }
+            chunk.studentIds[i] = studentId;
+            chunk.days[i] = day;
+            chunk.priors[i] = prior;
+            chunk.timestamps[i] = timestamp;
+            chunk.newest = Math.max(chunk.newest, timestamp);
+            chunk.size = i + 1; // publishes the entry
+        }
+
+        // Drops the chunks holding nothing newer than oldest. Dropped chunks keep their links, so a
+        // reader part way through one still gets to everything appended after.
+        synchronized void dropThrough(long oldest) {
+            UndoChunk chunk = first;
+            while (chunk != last && chunk.newest <= oldest) chunk = chunk.next;
+            if (chunk == last && chunk.size > 0 && chunk.newest <= oldest) {
+                chunk = new UndoChunk(FIRST_CHUNK);
+                last.next = chunk;
+                last = chunk;
+            }
+            first = chunk;
+        }
+
+        int size() {
+            int size = 0;
+            for (UndoChunk chunk = first; chunk != null; chunk = chunk.next) size += chunk.size;
+            return size;
+        }
+    }
+
+    private static final class UndoChunk {
+        final String[] studentIds;
+        final int[] days;
+        final int[] priors;
+        final long[] timestamps;
+        long newest = Long.MIN_VALUE; // guarded by the log
+        volatile int size;
+        volatile UndoChunk next; // set once this chunk is full, or emptied by collection
+
+        UndoChunk(int capacity) {
+            studentIds = new String[capacity];
+            days = new int[capacity];
+            priors = new int[capacity];
+            timestamps = new long[capacity];
+        }
+    }
+
+    // An undo entry: its chunk and position
+    private static final class Then {
+        final UndoChunk chunk;
+        final int at;
+
+        Then(UndoChunk chunk, int at) {
+            this.chunk = chunk;
+            this.at = at;
+        }
+
+        long timestamp() { return chunk.timestamps[at]; }
+    }
+
+    private static final class WriteTicket {
+        volatile long timestamp = UNASSIGNED;
+    }
+
+    /**
+     * Read-only, point-in-time view. Entities are returned as copies, so callers can't change the past.
+     * Usable anywhere a DatabaseManager is read, e.g. new AttendanceReportEngine(snapshot, n).
+     */
+    class Snapshot implements DatabaseManager {
+        private volatile long timestamp = UNASSIGNED;
+        private final Map<String, UndoIndex> indexes = new ConcurrentHashMap<>(); // by course, built as courses are read
+
+        public long getTimestamp() { return timestamp; }
+
+        @Override
+        public User getUser(String userId) {
+            User user = visibleAt(users.get(userId), timestamp);
+            return user == null ? null : new User(user);
+        }
+
+        @Override
+        public List<User> getAllUsersByRole(User.Role role) {
+            List<User> result = new ArrayList<>();
+            for (Version<User> chain : users.values()) {
+                User user = visibleAt(chain, timestamp);
+                if (user != null && user.getRole() == role) result.add(new User(user));
+            }
+            return result;
+        }
+
+        @Override
+        public Course getCourse(String courseId) {
+            Course course = visibleAt(courses.get(courseId), timestamp);
+            return course == null ? null : new Course(course);
+        }
+
+        @Override
+        public List<Course> getAllCourses() {
+            List<Course> result = new ArrayList<>();
+            for (Version<Course> chain : courses.values()) {
+                Course course = visibleAt(chain, timestamp);
+                if (course != null) result.add(new Course(course));
+            }
+            return result;
+        }
+
+        @Override
+        public List<Course> getCoursesByInstructor(String instructorId) {
+            List<Course> result = new ArrayList<>();
+            for (Course course : getAllCourses()) {
+                if (instructorId.equals(course.getInstructorId())) result.add(course);
+            }
+            return result;
+        }
+
+        @Override
+        public List<Course> getCoursesByStudent(String studentId) {
+            List<Course> result = new ArrayList<>();
+            for (Course course : getAllCourses()) {
+                if (course.isEnrolled(studentId)) result.add(course);
+            }
+            return result;
+        }
+
+        /**
+         * Streams the live marks, each patched to its value at the snapshot (marks added later are
+         * skipped), merged in position order with the marks removed since the snapshot. The live row
+         * is read before the undo log, so a concurrent overwrite is seen either way round as the old
+         * value; a removal logs its tombstones before deleting, so a mark gone from the live stream
+         * is always found among them.
+         */
+        @Override
+        public Stream<AttendanceRecord> streamAttendance(String courseId, AttendanceQuery query) {
+            Boolean present = query.getPresent();
+            AttendanceQuery scope = query.withoutPresenceFilter();
+            Stream<AttendanceRecord> live = delegate.streamAttendance(courseId, scope);
+            return StreamSupport.stream(new AsOfCursor(courseId, scope, live.iterator()), false)
+                    .onClose(live::close)
+                    .filter(record -> present == null || present == record.isPresent());
+        }
+
+        @Override
+        public List<AttendanceRecord> getAttendanceForCourse(String courseId) {
+            try (Stream<AttendanceRecord> records = streamAttendance(courseId, AttendanceQuery.all())) {
+                return records.collect(Collectors.toList());
+            }
+        }
+
+        @Override
+        public List<AttendanceRecord> getAttendanceForStudentInCourse(String studentId, String courseId) {
+            try (Stream<AttendanceRecord> records = streamAttendance(courseId, AttendanceQuery.all().forStudent(studentId))) {
+                return records.collect(Collectors.toList());
+            }
+        }
+
+        @Override
+        public AttendanceSummary getAttendanceSummary(String studentId, String courseId) {
+            int held = 0;
+            int present = 0;
+            int streak = 0;
+            for (AttendanceRecord record : getAttendanceForStudentInCourse(studentId, courseId)) { // date order
+                held++;
+                if (record.isPresent()) {
+                    present++;
+                    streak = 0;
+                } else {
+                    streak++;
+                }
+            }
+            return new AttendanceSummary(studentId, courseId, held, present, streak);
+        }
+
+        @Override
+        public List<String> getStudentsBelowThreshold(String courseId, double thresholdPercent) {
+            Map<String, int[]> counts = new LinkedHashMap<>(); // studentId -> {held, present}
+            for (AttendanceRecord record : getAttendanceForCourse(courseId)) {
+                int[] c = counts.computeIfAbsent(record.getStudentId(), s -> new int[2]);
+                c[0]++;
+                if (record.isPresent()) c[1]++;
+            }
+            List<String> result = new ArrayList<>();
+            for (Map.Entry<String, int[]> entry : counts.entrySet()) {
+                if (AttendanceSummary.percentage(entry.getValue()[1], entry.getValue()[0]) < thresholdPercent) result.add(entry.getKey());
+            }
+            return result;
+        }
+
+        @Override public void saveUser(User user) { throw readOnly(); }
+        @Override public void saveCourse(Course course) { throw readOnly(); }
+        @Override public void saveAttendanceRecord(AttendanceRecord record) { throw readOnly(); }
+        @Override public void saveAttendanceRecords(Collection<AttendanceRecord> records) { throw readOnly(); }
+
+        /**
+         * Releases the snapshot so the versions only it could see can be collected.
+         */
+        @Override
+        public void close() {
+            if (open.remove(this)) {
+                openCount.decrementAndGet();
+                collectGarbage();
+            }
+        }
+
+        private final class AsOfCursor extends Spliterators.AbstractSpliterator<AttendanceRecord> {
+            private final String courseId;
+            private final AttendanceQuery scope;
+            private final Iterator<AttendanceRecord> live;
+            private AttendanceRecord nextLive;
+            // Removed marks as of the snapshot, not yet passed
+            private final PriorityQueue<AttendanceRecord> removed = new PriorityQueue<>(AttendanceQuery.POSITION_ORDER);
+            private final UndoIndex index;
+            private int removalsSeen;
+            private AttendanceRecord last; // position of the last mark passed
+
+            AsOfCursor(String courseId, AttendanceQuery scope, Iterator<AttendanceRecord> live) {
+                super(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL);
+                this.courseId = courseId;
+                this.scope = scope;
+                this.live = live;
+                this.index = indexes.computeIfAbsent(courseId, UndoIndex::new);
+            }
+
+            @Override
+            public boolean tryAdvance(Consumer<? super AttendanceRecord> action) {
+                while (true) {
+                    if (nextLive == null && live.hasNext()) nextLive = live.next();
+                    mergeRemovals(); // after the live read, so a mark it no longer finds is queued by now
+                    AttendanceRecord mark;
+                    boolean isLive = nextLive != null && (removed.isEmpty() || AttendanceQuery.POSITION_ORDER.compare(nextLive, removed.peek()) <= 0);
+                    if (isLive) {
+                        mark = nextLive;
+                        nextLive = null;
+                    } else if (!removed.isEmpty()) {
+                        mark = removed.poll();
+                    } else {
+                        return false;
+                    }
+                    // A mark both still live and already tombstoned comes up twice in a row
+                    if (last != null && AttendanceQuery.POSITION_ORDER.compare(mark, last) <= 0) continue;
+                    last = mark;
+                    AttendanceRecord then = isLive ? index.asOf(mark.getStudentId(), mark.getDate(), mark) : mark;
+                    if (then != null) {
+                        action.accept(then);
+                        return true;
+                    }
+                }
+            }
+
+            // Queues the marks removed since the last look
+            private void mergeRemovals() {
+                List<AttendanceRecord> found = new ArrayList<>();
+                removalsSeen = index.removedSince(removalsSeen, found);
+                if (!found.isEmpty()) scope.applyTo(found.stream()).forEach(removed::add);
+            }
+        }
+
+        /**
+         * The undo entries of one course newer than this snapshot, keyed by mark, keeping the oldest
+         * (the mark as it was at the snapshot). Each read first indexes what was appended since the
+         * last one, so a read costs a lookup however long the course's undo log has grown.
+         */
+        private final class UndoIndex {
+            private final String courseId;
+            private final Map<String, Map<Integer, Then>> byStudent = new HashMap<>();
+            private final List<Then> removals = new ArrayList<>(); // tombstones, in log order
+            private UndoChunk chunk; // indexed up to read in this chunk
+            private int read;
+
+            UndoIndex(String courseId) {
+                this.courseId = courseId;
+            }
+
+            // Without an entry, the mark is unchanged since the snapshot (live, which may be null)
+            synchronized AttendanceRecord asOf(String studentId, LocalDate date, AttendanceRecord live) {
+                catchUp();
+                return lookUp(studentId, (int) date.toEpochDay(), live);
+            }
+
+            // Adds the marks removed since the snapshot, from the from-th tombstone on, as they were then
+            synchronized int removedSince(int from, List<AttendanceRecord> out) {
+                catchUp();
+                for (int i = from; i < removals.size(); i++) {
+                    Then removal = removals.get(i);
+                    AttendanceRecord then = lookUp(removal.chunk.studentIds[removal.at], removal.chunk.days[removal.at], null);
+                    if (then != null) out.add(then);
+                }
+                return removals.size();
+            }
+
+            private AttendanceRecord lookUp(String studentId, int day, AttendanceRecord live) {
+                Map<Integer, Then> days = byStudent.get(studentId);
+                Then then = days == null ? null : days.get(day);
+                if (then == null) return live == null ? null : detached(live);
+                return UndoLog.decode(courseId, studentId, day, then.chunk.priors[then.at]);
+            }
+
+            // Entries dropped before we start were all at or before the oldest open snapshot, so
+            // starting from the log's current first chunk misses nothing this snapshot needs
+            private void catchUp() {
+                if (chunk == null) {
+                    UndoLog log = undo.get(courseId);
+                    if (log == null) return;
+                    chunk = log.first;
+                }
+                while (true) {
+                    UndoChunk next = chunk.next; // read first: once there is a next chunk, size is final
+                    for (int n = chunk.size; read < n; read++) {
+                        if (chunk.timestamps[read] > timestamp) add(chunk, read);
+                    }
+                    if (next == null) return;
+                    chunk = next;
+                    read = 0;
+                }
+            }
+
+            private void add(UndoChunk chunk, int at) {
+                Map<Integer, Then> days = byStudent.computeIfAbsent(chunk.studentIds[at], s -> new HashMap<>());
+                Then entry = new Then(chunk, at);
+                Then older = days.get(chunk.days[at]);
+                if (older == null || entry.timestamp() < older.timestamp()) days.put(chunk.days[at], entry); // same write: first one wins
+                if (UndoLog.isRemoval(chunk.priors[at])) removals.add(entry);
+            }
+        }
+
+        private UnsupportedOperationException readOnly() {
+            return new UnsupportedOperationException("Snapshots are read-only");
+        }
+    }
+}
+
+/**
+ * Read-only archive of a closed term's attendance, queried through memory-mapped files so that
+ * audits are served from the OS page cache instead of loading whole terms onto the heap.
+ *
+ * Layout: a fixed header, then fixed-width 16-byte rows {@code (courseIdx, epochDay, studentIdx,
+ * secondOfDay << 1 | present)} sorted by (courseId, date, studentId), then a sparse index holding
+ * the key of every {@value #SPARSE_EVERY}th row, then the id table. Ids are numbered in sorted
+ * string order, so comparing indexes compares ids.
+ */
+class AttendanceArchive implements AutoCloseable {
+    private static final int MAGIC = 0x41545441; // "ATTA"
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_BYTES = 64;
+    private static final int ROW_BYTES = 16;
+    private static final int SPARSE_EVERY = 128;
+    private static final int ROWS_PER_MAPPING = 1 << 26; // 1 GiB of rows per MappedByteBuffer
+
+    private final FileChannel channel;
+    private final LocalDate termStart;
+    private final LocalDate termEnd;
+    private final long rowCount;
+    private final MappedByteBuffer[] rowMappings;
+    private final int[] sparseCourse; // keys of every SPARSE_EVERY-th row, kept on heap (tiny)
+    private final int[] sparseDay;
+    private final Map<String, Integer> idIndex = new HashMap<>();
+    private final String[] ids;
+
+    private AttendanceArchive(Path file) throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.READ);
+        ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+        if (header.getInt() != MAGIC || header.getInt() != FORMAT_VERSION) {
+            throw new IOException("Archive: Not an attendance archive: " + file);
+        }
+        termStart = LocalDate.ofEpochDay(header.getLong());
+        termEnd = LocalDate.ofEpochDay(header.getLong());
+        rowCount = header.getLong();
+        long sparseOffset = header.getLong();
+        long idsOffset = header.getLong();
+        int idCount = header.getInt();
+
+        rowMappings = new MappedByteBuffer[(int) ((rowCount + ROWS_PER_MAPPING - 1) / ROWS_PER_MAPPING)];
+        for (int i = 0; i < rowMappings.length; i++) {
+            long firstRow = (long) i * ROWS_PER_MAPPING;
+            long rows = Math.min(ROWS_PER_MAPPING, rowCount - firstRow);
+            rowMappings[i] = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES + firstRow * ROW_BYTES, rows * ROW_BYTES);
+        }
+        int sparseCount = (int) ((rowCount + SPARSE_EVERY - 1) / SPARSE_EVERY);
+        ByteBuffer sparse = channel.map(FileChannel.MapMode.READ_ONLY, sparseOffset, (long) sparseCount * 8);
+        sparseCourse = new int[sparseCount];
+        sparseDay = new int[sparseCount];
+        for (int i = 0; i < sparseCount; i++) {
+            sparseCourse[i] = sparse.getInt();
+            sparseDay[i] = sparse.getInt();
+        }
+        ModelCodec.Reader idReader = new ModelCodec.Reader(channel.map(FileChannel.MapMode.READ_ONLY, idsOffset, channel.size() - idsOffset));
+        ids = new String[idCount];
+        for (int i = 0; i < idCount; i++) {
+            ids[i] = idReader.readString();
+            idIndex.put(ids[i], i);
+        }
+    }
+
+    /**
+     * Opens an archive written by seal().
+     * @throws IOException if the file is missing or not an archive.
+     */
+    public static AttendanceArchive open(Path file) throws IOException {
+        return new AttendanceArchive(file);
+    }
+
+    public LocalDate getTermStart() { return termStart; }
+    public LocalDate getTermEnd() { return termEnd; }
+    public long getRowCount() { return rowCount; }
+
+    public boolean covers(LocalDate date) {
+        return !date.isBefore(termStart) && !date.isAfter(termEnd);
+    }
+
+    public List<AttendanceRecord> getAttendanceForCourse(String courseId) {
+        return scanCourse(courseId, null);
+    }
+
+    public List<AttendanceRecord> getAttendanceForStudentInCourse(String studentId, String courseId) {
+        Integer student = idIndex.get(studentId);
+        return student == null ? new ArrayList<>() : scanCourse(courseId, student);
+    }
+
+    /**
+     * Lazily streams the course's matching rows in (date, studentId) order. The sparse index is used
+     * to seek straight to the first row on or after the query's start date; rows are only turned into
+     * records once they pass the student and presence checks.
+     */
+    public Stream<AttendanceRecord> stream(String courseId, AttendanceQuery query) {
+        Integer course = idIndex.get(courseId);
+        Integer student = query.getStudentId() == null ? null : idIndex.get(query.getStudentId());
+        if (course == null || (query.getStudentId() != null && student == null)) return Stream.empty();
+        int fromDay = query.getFrom() == null ? Integer.MIN_VALUE : (int) query.getFrom().toEpochDay();
+        int toDay = query.getTo() == null ? Integer.MAX_VALUE : (int) query.getTo().toEpochDay();
+        int resumeDay = Integer.MIN_VALUE;
+        int resumeStudent = -1; // rows on resumeDay with a student index up to this were already returned
+        if (query.getResumeAfterDate() != null) {
+            resumeDay = (int) query.getResumeAfterDate().toEpochDay();
+            int found = Arrays.binarySearch(ids, query.getResumeAfterStudentId());
+            resumeStudent = found >= 0 ? found : -found - 2;
+            fromDay = Math.max(fromDay, resumeDay);
+        }
+        int startDay = fromDay;
+        int skipDay = resumeDay;
+        int skipThrough = resumeStudent;
+        Spliterator<AttendanceRecord> cursor = new Spliterators.AbstractSpliterator<AttendanceRecord>(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL) {
+            private long row = (long) seek(course, startDay) * SPARSE_EVERY;
+
+            @Override
+            public boolean tryAdvance(Consumer<? super AttendanceRecord> action) {
+                for (; row < rowCount; row++) {
+                    ByteBuffer rows = rowMappings[(int) (row / ROWS_PER_MAPPING)];
+                    int at = (int) (row % ROWS_PER_MAPPING) * ROW_BYTES;
+                    int rowCourse = rows.getInt(at);
+                    int rowDay = rows.getInt(at + 4);
+                    if (rowCourse < course || (rowCourse == course && rowDay < startDay)) continue;
+                    if (rowCourse > course || rowDay > toDay) {
+                        row = rowCount;
+                        return false;
+                    }
+                    int rowStudent = rows.getInt(at + 8);
+                    int timeAndPresence = rows.getInt(at + 12);
+                    boolean present = (timeAndPresence & 1) != 0;
+                    if (student != null && rowStudent != student) continue;
+                    if (rowDay == skipDay && rowStudent <= skipThrough) continue;
+                    if (query.getPresent() != null && query.getPresent() != present) continue;
+                    row++;
+                    action.accept(new AttendanceRecord(null, courseId, ids[rowStudent], LocalDate.ofEpochDay(rowDay),
+                            LocalTime.ofSecondOfDay(timeAndPresence >>> 1), present));
+                    return true;
+                }
+                return false;
+            }
+        };
+        return StreamSupport.stream(cursor, false);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    // Last sparse block whose first key is before (course, day); its rows start at or before the target
+    private int seek(int course, int day) {
+        int lo = 0;
+        int hi = sparseCourse.length - 1;
+        int block = 0;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (sparseCourse[mid] < course || (sparseCourse[mid] == course && sparseDay[mid] < day)) {
+                block = mid;
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return block;
+    }
+
+    // Finds the first row of the course via the sparse index, then scans the mapped rows in place
+    private List<AttendanceRecord> scanCourse(String courseId, Integer student) {
+        List<AttendanceRecord> result = new ArrayList<>();
+        Integer course = idIndex.get(courseId);
+        if (course == null) return result;
+        int block = seek(course, Integer.MIN_VALUE);
+        for (long row = (long) block * SPARSE_EVERY; row < rowCount; row++) {
+            ByteBuffer rows = rowMappings[(int) (row / ROWS_PER_MAPPING)];
+            int at = (int) (row % ROWS_PER_MAPPING) * ROW_BYTES;
+            int rowCourse = rows.getInt(at);
+            if (rowCourse < course) continue;
+            if (rowCourse > course) break;
+            int rowStudent = rows.getInt(at + 8);
+            if (student != null && rowStudent != student) continue;
+            int timeAndPresence = rows.getInt(at + 12);
+            result.add(new AttendanceRecord(null, courseId, ids[rowStudent], LocalDate.ofEpochDay(rows.getInt(at + 4)),
+                    LocalTime.ofSecondOfDay(timeAndPresence >>> 1), (timeAndPresence & 1) != 0));
+        }
+        return result;
+    }
+
+    /**
+     * Seals a closed term: writes every mark dated termStart..termEnd (inclusive) for the given
+     * courses into an archive file. Reads one course at a time from the live store.
+     * @return The number of rows written.
+     * @throws IOException if the archive cannot be written.
+     */
+    public static long seal(DatabaseManager dbManager, Collection<String> courseIds, LocalDate termStart, LocalDate termEnd, Path file) throws IOException {
+        // Pass 1: collect and number ids in sorted order
+        TreeSet<String> sortedIds = new TreeSet<>(courseIds);
+        for (String courseId : courseIds) {
+            for (AttendanceRecord record : dbManager.getAttendanceForCourse(courseId)) {
+                sortedIds.add(record.getStudentId());
+            }
+        }
+        Map<String, Integer> index = new HashMap<>();
+        for (String id : sortedIds) index.put(id, index.size());
+
+        // Pass 2: write rows course by course (courses in id order, rows sorted within the course)
+        long rowCount = 0;
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            OutputStream rowsOut = new BufferedOutputStream(Channels.newOutputStream(out.position(HEADER_BYTES)), 1 << 16);
+            ByteArrayOutputStream sparse = new ByteArrayOutputStream();
+            ByteBuffer row = ByteBuffer.allocate(ROW_BYTES);
+            List<String> orderedCourses = new ArrayList<>(new TreeSet<>(courseIds));
+            for (String courseId : orderedCourses) {
+                int course = index.get(courseId);
+                List<long[]> rows = new ArrayList<>();
+                for (AttendanceRecord record : dbManager.getAttendanceForCourse(courseId)) {
+                    if (record.getDate().isBefore(termStart) || record.getDate().isAfter(termEnd)) continue;
+                    long key = record.getDate().toEpochDay() << 32 | index.get(record.getStudentId());
+                    rows.add(new long[] {key, record.getTimeMarked().toSecondOfDay() << 1 | (record.isPresent() ? 1 : 0)});
+                }
+                rows.sort((a, b) -> Long.compare(a[0], b[0]));
+                for (long[] r : rows) {
+                    if (rowCount % SPARSE_EVERY == 0) {
+                        sparse.write(ByteBuffer.allocate(8).putInt(course).putInt((int) (r[0] >> 32)).array(), 0, 8);
+                    }
+                    row.clear();
+                    row.putInt(course).putInt((int) (r[0] >> 32)).putInt((int) r[0]).putInt((int) r[1]);
+                    rowsOut.write(row.array());
+                    rowCount++;
+                }
+            }
+            rowsOut.write(sparse.toByteArray());
+            ModelCodec.Writer idWriter = new ModelCodec.Writer(1 << 16);
+            for (String id : sortedIds) idWriter.writeString(id);
+            ByteBuffer idBytes = idWriter.toBuffer();
+            rowsOut.write(idBytes.array(), idBytes.arrayOffset(), idBytes.remaining());
+            rowsOut.flush();
+
+            long sparseOffset = HEADER_BYTES + rowCount * ROW_BYTES;
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            header.putInt(MAGIC).putInt(FORMAT_VERSION).putLong(termStart.toEpochDay()).putLong(termEnd.toEpochDay())
+                    .putLong(rowCount).putLong(sparseOffset).putLong(sparseOffset + sparse.size()).putInt(sortedIds.size());
+            header.rewind();
+            out.write(header, 0);
+            out.force(true);
+        }
+        Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        return rowCount;
+    }
+}
+
+/**
+ * Serves attendance for sealed terms from AttendanceArchives and everything else from the live store.
+ * Inside an archived term the archive is authoritative, so saving a mark dated in a sealed term (or
+ * in the term being sealed) is refused with an IllegalStateException.
+ * With a manifest, sealed archives are listed in it (one path per line) and reopened on restart.
+ */
+class ArchivedDatabaseManager extends ForwardingDatabaseManager {
+    private final List<AttendanceArchive> archives = new CopyOnWriteArrayList<>();
+    private final Path manifest; // null: archives are not remembered across restarts
+    private final List<Path> sealedFiles = new ArrayList<>(); // guarded by this
+    // Attendance saves hold the read lock while they check their dates and write; sealTerm takes the
+    // write lock to close the term, so no save into it is still in flight when sealing reads it
+    private final ReentrantReadWriteLock saveGate = new ReentrantReadWriteLock();
+    private volatile LocalDate[] sealing; // {start, end} of the term being sealed, or null
+
+    public ArchivedDatabaseManager(DatabaseManager delegate) {
+        super(delegate);
+        this.manifest = null;
+    }
+
+    /**
+     * Reopens every archive listed in the manifest.
+     * @param manifest Written by sealTerm; need not exist yet.
+     * @throws IOException if the manifest or one of its archives can't be read.
+     */
+    public ArchivedDatabaseManager(DatabaseManager delegate, Path manifest) throws IOException {
+        super(delegate);
+        this.manifest = manifest;
+        if (!Files.exists(manifest)) return;
+        try {
+            for (String line : Files.readAllLines(manifest, StandardCharsets.UTF_8)) {
+                if (line.isEmpty()) continue;
+                Path file = Path.of(line);
+                archives.add(AttendanceArchive.open(file));
+                sealedFiles.add(file);
+            }
+        } catch (IOException e) {
+            for (AttendanceArchive archive : archives) archive.close();
+            throw e;
+        }
+    }
+
+    public void addArchive(AttendanceArchive archive) {
+        archives.add(archive);
+    }
+
+    /**
+     * Seals the given term of the live store into an archive file and starts serving it from there,
+     * records it in the manifest, then deletes the term's marks from the live store. Saves dated in
+     * the term are refused from the moment sealing starts, so every accepted mark is archived.
+     * @return The opened archive.
+     * @throws IOException if the archive cannot be written or opened, or the manifest updated.
+     */
+    public synchronized AttendanceArchive sealTerm(LocalDate termStart, LocalDate termEnd, Path file) throws IOException {
+        saveGate.writeLock().lock();
+        try {
+            sealing = new LocalDate[] {termStart, termEnd};
+        } finally {
+            saveGate.writeLock().unlock();
+        }
+        AttendanceArchive archive;
+        try {
+            List<String> courseIds = new ArrayList<>();
+            for (Course course : delegate.getAllCourses()) courseIds.add(course.getCourseId());
+            AttendanceArchive.seal(delegate, courseIds, termStart, termEnd, file);
+            archive = AttendanceArchive.open(file);
+            if (manifest != null) {
+                try {
+                    writeManifest(file.toAbsolutePath());
+                } catch (IOException e) {
+                    archive.close();
+                    throw e;
+                }
+            }
+            addArchive(archive);
+        } finally {
+            sealing = null; // sealed: the archive now refuses the term's saves; failed: they're allowed again
+        }
+        // The archive now hides the term's live marks, so they can go; a crash before this only leaves them hidden
+        try {
+            int removed = delegate.removeAttendanceBetween(termStart, termEnd);
+            System.out.println("Archive: Removed " + removed + " live marks sealed into " + file.getFileName());
+        } catch (UnsupportedOperationException e) {
+            System.err.println("Archive: Live marks for the term kept behind the archive: " + e.getMessage());
+        }
+        return archive;
+    }
+
+    @Override
+    public void saveAttendanceRecord(AttendanceRecord record) {
+        saveGate.readLock().lock();
+        try {
+            checkWritable(record.getDate());
+            delegate.saveAttendanceRecord(record);
+        } finally {
+            saveGate.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void saveAttendanceRecords(Collection<AttendanceRecord> records) {
+        saveGate.readLock().lock();
+        try {
+            for (AttendanceRecord record : records) checkWritable(record.getDate());
+            delegate.saveAttendanceRecords(records);
+        } finally {
+            saveGate.readLock().unlock();
+        }
+    }
+
+    private void checkWritable(LocalDate date) {
+        LocalDate[] term = sealing;
+        if (isArchived(date) || (term != null && !date.isBefore(term[0]) && !date.isAfter(term[1]))) {
+            throw new IllegalStateException("Archive: Can't save a mark dated " + date + ": its term is sealed");
+        }
+    }
+
+    // Rewrites the manifest with the new archive added, atomically
+    private void writeManifest(Path added) throws IOException {
+        List<String> lines = new ArrayList<>();
+        for (Path sealed : sealedFiles) lines.add(sealed.toString());
+        lines.add(added.toString());
+        Path temp = manifest.resolveSibling(manifest.getFileName() + ".tmp");
+        Files.write(temp, lines, StandardCharsets.UTF_8);
+        Files.move(temp, manifest, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        sealedFiles.add(added);
+    }
+
+    @Override
+    public List<AttendanceRecord> getAttendanceForCourse(String courseId) {
+        List<AttendanceRecord> result = new ArrayList<>();
+        for (AttendanceArchive archive : archives) {
+            result.addAll(archive.getAttendanceForCourse(courseId));
+        }
+        addLive(result, delegate.getAttendanceForCourse(courseId));
+        return result;
+    }
+
+    @Override
+    public List<AttendanceRecord> getAttendanceForStudentInCourse(String studentId, String courseId) {
+        List<AttendanceRecord> result = new ArrayList<>();
+        for (AttendanceArchive archive : archives) {
+            result.addAll(archive.getAttendanceForStudentInCourse(studentId, courseId));
+        }
+        addLive(result, delegate.getAttendanceForStudentInCourse(studentId, courseId));
+        return result;
+    }
+
+    /**
+     * Streams the archived terms (oldest archive first) followed by the live marks outside them.
+     * A resume position applies to the part that holds its date; everything after it is streamed in full.
+     */
+    @Override
+    public Stream<AttendanceRecord> streamAttendance(String courseId, AttendanceQuery query) {
+        AttendanceQuery fromStart = query.withoutResume();
+        LocalDate resumeDate = query.getResumeAfterDate();
+        boolean resumed = resumeDate == null;
+        Stream<AttendanceRecord> result = Stream.empty();
+        for (AttendanceArchive archive : archives) {
+            if (!resumed && !archive.covers(resumeDate)) continue; // entirely before the resume position
+            result = Stream.concat(result, archive.stream(courseId, resumed ? fromStart : query));
+            resumed = true;
+        }
+        Stream<AttendanceRecord> live = delegate.streamAttendance(courseId, resumed ? fromStart : query);
+        return Stream.concat(result, live.filter(record -> !isArchived(record.getDate())));
+    }
+
+    // Sealed marks are gone from the live store's running totals, so with archives these are scans
+    @Override
+    public AttendanceSummary getAttendanceSummary(String studentId, String courseId) {
+        if (archives.isEmpty()) return delegate.getAttendanceSummary(studentId, courseId);
+        return summarize(studentId, courseId, getAttendanceForStudentInCourse(studentId, courseId));
+    }
+
+    @Override
+    public List<String> getStudentsBelowThreshold(String courseId, double thresholdPercent) {
+        if (archives.isEmpty()) return delegate.getStudentsBelowThreshold(courseId, thresholdPercent);
+        Map<String, List<AttendanceRecord>> byStudent = new LinkedHashMap<>();
+        for (AttendanceRecord record : getAttendanceForCourse(courseId)) {
+            byStudent.computeIfAbsent(record.getStudentId(), id -> new ArrayList<>()).add(record);
+        }
+        List<String> result = new ArrayList<>();
+        for (Map.Entry<String, List<AttendanceRecord>> entry : byStudent.entrySet()) {
+            if (summarize(entry.getKey(), courseId, entry.getValue()).isBelowThreshold(thresholdPercent)) result.add(entry.getKey());
+        }
+        return result;
+    }
+
+    private static AttendanceSummary summarize(String studentId, String courseId, List<AttendanceRecord> marks) {
+        marks.sort(Comparator.comparing(AttendanceRecord::getDate));
+        int present = 0;
+        int streak = 0;
+        for (AttendanceRecord record : marks) {
+            if (record.isPresent()) {
+                present++;
+                streak = 0;
+            } else {
+                streak++;
+            }
+        }
+        return new AttendanceSummary(studentId, courseId, marks.size(), present, streak);
+    }
+
+    // Archives have no absence index: ranges that reach into one are answered by a scan
+    @Override
+    public SortedMap<LocalDate, List<String>> getAbsentStudents(LocalDate from, LocalDate to) {
+        for (AttendanceArchive archive : archives) {
+            if (!archive.getTermStart().isAfter(to) && !archive.getTermEnd().isBefore(from)) {
+                return DailyAbsenceIndex.scanAbsences(this, from, to);
+            }
+        }
+        return delegate.getAbsentStudents(from, to);
+    }
+
+    @Override
+    public List<String> getStudentsAbsentConsecutively(LocalDate through, int days) {
+        if (archives.isEmpty()) return delegate.getStudentsAbsentConsecutively(through, days);
+        return DailyAbsenceIndex.absentOnEach(this, through, days);
+    }
+
+    @Override
+    public void close() {
+        for (AttendanceArchive archive : archives) {
+            try {
+                archive.close();
+            } catch (IOException e) {
+                System.err.println("Archive: Failed to close: " + e.getMessage());
+            }
+        }
+        super.close();
+    }
+
+    private void addLive(List<AttendanceRecord> result, List<AttendanceRecord> live) {
+        for (AttendanceRecord record : live) {
+            if (!isArchived(record.getDate())) result.add(record);
+        }
+    }
+
+    private boolean isArchived(LocalDate date) {
+        for (AttendanceArchive archive : archives) {
+            if (archive.covers(date)) return true;
+        }
+        return false;
+    }
+}
+
+/**
+ * Campus-wide attendance report for a date range.
+ * Work is partitioned by course and run on a fork/join pool; each course row is written to the
+ * CSV as soon as it is computed, and only the small per-instructor and per-department totals are
+ * held in memory until the end. The department is the letter prefix of the course code ("CS101" -> "CS").
+ *
+ * CSV columns: scope,key,name,sessions,marks,present,percentage
+ */
+class AttendanceReportEngine {
+    private static final String HEADER = "scope,key,name,sessions,marks,present,percentage";
+
+    private final DatabaseManager dbManager;
+    private final int parallelism;
+
+    public AttendanceReportEngine(DatabaseManager dbManager, int parallelism) {
+        this.dbManager = dbManager;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Computes the report for marks dated from..to (inclusive) and streams it to the CSV file.
+     * @return Total number of marks counted.
+     * @throws IOException if the report cannot be written.
+     */
+    public long writeCsv(LocalDate from, LocalDate to, Path csvFile) throws IOException {
+        List<Course> courses = dbManager.getAllCourses();
+        Map<String, Tally> byInstructor = new ConcurrentHashMap<>();
+        Map<String, Tally> byDepartment = new ConcurrentHashMap<>();
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try (BufferedWriter out = Files.newBufferedWriter(csvFile, StandardCharsets.UTF_8)) {
+            out.write(HEADER);
+            out.newLine();
+            CourseTask root = new CourseTask(courses, 0, courses.size(), from, to, out, byInstructor, byDepartment);
+            Tally total;
+            try {
+                total = pool.invoke(root);
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            for (Map.Entry<String, Tally> entry : byInstructor.entrySet()) {
+                writeRow(out, "instructor", entry.getKey(), "", entry.getValue());
+            }
+            for (Map.Entry<String, Tally> entry : byDepartment.entrySet()) {
+                writeRow(out, "department", entry.getKey(), "", entry.getValue());
+            }
+            writeRow(out, "campus", "ALL", "", total);
+            return total.marks;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    static String departmentOf(String courseCode) {
+        int end = 0;
+        while (end < courseCode.length() && Character.isLetter(courseCode.charAt(end))) end++;
+        return end == 0 ? courseCode : courseCode.substring(0, end).toUpperCase(Locale.ROOT);
+    }
+
+    private Tally tallyCourse(Course course, LocalDate from, LocalDate to) {
+        Tally tally = new Tally();
+        Set<LocalDate> sessionDates = new HashSet<>();
+        try (Stream<AttendanceRecord> records = dbManager.streamAttendance(course.getCourseId(), AttendanceQuery.all().between(from, to))) {
+            records.forEach(record -> {
+                sessionDates.add(record.getDate());
+                tally.marks++;
+                if (record.isPresent()) tally.present++;
+            });
+        }
+        tally.sessions = sessionDates.size();
+        return tally;
+    }
+
+    private static void writeRow(BufferedWriter out, String scope, String key, String name, Tally tally) throws IOException {
+        synchronized (out) {
+            out.write(scope + ',' + csv(key) + ',' + csv(name) + ',' + tally.sessions + ',' + tally.marks + ',' + tally.present + ','
+                    + String.format(Locale.ROOT, "%.2f", tally.marks == 0 ? 100.0 : tally.present * 100.0 / tally.marks));
+            out.newLine();
+        }
+    }
+
+    private static String csv(String value) {
+        if (value == null) return "";
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0) return value;
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+
+    /**
+     * Sessions, marks and present counts; merged up the fork/join tree.
+     */
+    static final class Tally {
+        long sessions;
+        long marks;
+        long present;
+
+        Tally add(Tally other) {
+            sessions += other.sessions;
+            marks += other.marks;
+            present += other.present;
+            return this;
+        }
+    }
+
+    // Splits the course list until one course per task; leaves write their row and feed the group totals
+    private final class CourseTask extends RecursiveTask<Tally> {
+        private static final long serialVersionUID = 1L;
+        private final List<Course> courses;
+        private final int start;
+        private final int end;
+        private final LocalDate from;
+        private final LocalDate to;
+        private final BufferedWriter out;
+        private final Map<String, Tally> byInstructor;
+        private final Map<String, Tally> byDepartment;
+
+        CourseTask(List<Course> courses, int start, int end, LocalDate from, LocalDate to, BufferedWriter out,
+                   Map<String, Tally> byInstructor, Map<String, Tally> byDepartment) {
+            this.courses = courses;
+            this.start = start;
+            this.end = end;
+            this.from = from;
+            this.to = to;
+            this.out = out;
+            this.byInstructor = byInstructor;
+            this.byDepartment = byDepartment;
+        }
+
+        @Override
+        protected Tally compute() {
+            if (end - start == 1) {
+                Course course = courses.get(start);
+                Tally tally = tallyCourse(course, from, to);
+                try {
+                    writeRow(out, "course", course.getCourseCode(), course.getCourseName(), tally);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                if (course.getInstructorId() != null) {
+                    byInstructor.merge(course.getInstructorId(), copy(tally), Tally::add);
+                }
+                byDepartment.merge(departmentOf(course.getCourseCode()), copy(tally), Tally::add);
+                return tally;
+            }
+            if (end <= start) return new Tally();
+            int mid = (start + end) >>> 1;
+            CourseTask left = new CourseTask(courses, start, mid, from, to, out, byInstructor, byDepartment);
+            CourseTask right = new CourseTask(courses, mid, end, from, to, out, byInstructor, byDepartment);
+            left.fork();
+            Tally result = right.compute();
+            return result.add(left.join());
+        }
+
+        private Tally copy(Tally tally) {
+            return new Tally().add(tally);
+        }
+    }
+}
+
+/**
+ * An open self-check-in window for one class session.
+ * Check-ins are validated in memory against a snapshot of the roster taken at open, deduplicated
+ * with a concurrent set and queued on a lock-free buffer; nothing touches storage until flush().
+ * Check-ins after the on-time cutoff are accepted as late, keeping the time they were made.
+ */
+class CheckInSession {
+    public enum Result {
+        ACCEPTED, LATE, DUPLICATE, NOT_ENROLLED, CLOSED
+    }
+
+    private final String courseId;
+    private final LocalDate date;
+    private final LocalDateTime opensAt;
+    private final LocalDateTime lateAfter;
+    private final LocalDateTime closesAt;
+    private final Set<String> roster;
+    private final Set<String> checkedIn = ConcurrentHashMap.newKeySet();
+    private final Queue<AttendanceRecord> pending = new ConcurrentLinkedQueue<>();
+    private final LongAdder onTime = new LongAdder();
+    private final LongAdder late = new LongAdder();
+    private final AtomicInteger inFlight = new AtomicInteger(); // check-ins between the closed test and the enqueue
+    private volatile boolean closed;
+
+    CheckInSession(Course course, LocalDateTime opensAt, Duration onTimeWindow, Duration window) {
+        this.courseId = course.getCourseId();
+        this.date = opensAt.toLocalDate();
+        this.opensAt = opensAt;
+        this.lateAfter = opensAt.plus(onTimeWindow);
+        this.closesAt = opensAt.plus(window);
+        this.roster = new HashSet<>(course.getStudentIds()); // Read-only after construction
+    }
+
+    /**
+     * Records a check-in made at the given time.
+     */
+    public Result checkIn(String studentId, LocalDateTime at) {
+        if (at.isBefore(opensAt) || at.isAfter(closesAt)) return Result.CLOSED;
+        if (!roster.contains(studentId)) return Result.NOT_ENROLLED;
+        inFlight.incrementAndGet();
+        try {
+            if (closed) return Result.CLOSED;
+            if (!checkedIn.add(studentId)) return Result.DUPLICATE;
+            pending.add(new AttendanceRecord(null, courseId, studentId, date, at.toLocalTime(), true));
+        } finally {
+            inFlight.decrementAndGet();
+        }
+        if (at.isAfter(lateAfter)) {
+            late.increment();
+            return Result.LATE;
+        }
+        onTime.increment();
+        return Result.ACCEPTED;
+    }
+
+    /**
+     * Writes all buffered check-ins in one batch. They leave the buffer only once the batch is
+     * saved, so a failed write is retried by the next flush.
+     * @return The number of records written.
+     */
+    public synchronized int flush(DatabaseManager dbManager) {
+        List<AttendanceRecord> batch = new ArrayList<>(pending); // FIFO; we are the only consumer
+        if (batch.isEmpty()) return 0;
+        dbManager.saveAttendanceRecords(batch);
+        for (int i = 0; i < batch.size(); i++) pending.poll();
+        return batch.size();
+    }
+
+    /**
+     * Stops accepting check-ins, flushes the buffer and marks everyone on the roster who did not
+     * check in as absent (timestamped at the close of the window). Safe to call again after a failure.
+     * @return The number of absences recorded.
+     */
+    synchronized int close(DatabaseManager dbManager) {
+        closed = true;
+        while (inFlight.get() != 0) Thread.onSpinWait(); // let accepted check-ins reach the buffer
+        flush(dbManager);
+        List<AttendanceRecord> absent = new ArrayList<>();
+        for (String studentId : roster) {
+            if (!checkedIn.contains(studentId)) absent.add(new AttendanceRecord(null, courseId, studentId, date, closesAt.toLocalTime(), false));
+        }
+        if (absent.isEmpty()) return 0;
+        dbManager.saveAttendanceRecords(absent);
+        for (AttendanceRecord record : absent) checkedIn.add(record.getStudentId());
+        return absent.size();
+    }
+
+    // --- Getters ---
+    public String getCourseId() { return courseId; }
+    public LocalDate getDate() { return date; }
+    public LocalDateTime getOpensAt() { return opensAt; }
+    public LocalDateTime getLateAfter() { return lateAfter; }
+    public LocalDateTime getClosesAt() { return closesAt; }
+    public boolean isClosed() { return closed; }
+    public long getOnTimeCount() { return onTime.sum(); }
+    public long getLateCount() { return late.sum(); }
+    public int getPendingCount() { return pending.size(); }
+}
+
+/**
+ * Open check-in sessions, at most one per course. A timer flushes every session's buffer in
+ * batches and closes sessions whose window has passed, so a burst of check-ins at the start of
+ * class becomes a handful of saveAttendanceRecords calls instead of one write per student.
+ */
+class CheckInManager {
+    private final DatabaseManager dbManager;
+    private final Clock clock;
+    private final Map<String, CheckInSession> open = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService flusher;
+    private final OperationTimer checkInTimer = Metrics.get().timer("attendance.checkIn");
+
+    public CheckInManager(DatabaseManager dbManager, long flushMillis) {
+        this(dbManager, flushMillis, Clock.systemDefaultZone());
+    }
+
+    CheckInManager(DatabaseManager dbManager, long flushMillis, Clock clock) {
+        this.dbManager = dbManager;
+        this.clock = clock;
+        this.flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "check-in-flush");
+            t.setDaemon(true);
+            return t;
+        });
+        flusher.scheduleWithFixedDelay(this::flushAll, flushMillis, flushMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Opens a check-in window for a course starting now.
+     * @param instructorId Must be the course's instructor.
+     * @param onTimeWindow Check-ins after this are recorded as late.
+     * @param window Check-ins after this are refused; the session closes itself shortly after.
+     * @return The session, or null if the instructor is missing, the course is unknown, not taught by
+     *         the instructor, or already has one open.
+     */
+    public CheckInSession openSession(String instructorId, String courseId, Duration onTimeWindow, Duration window) {
+        if (instructorId == null) {
+            System.out.println("Check-in rejected: No instructor given for course " + courseId);
+            return null;
+        }
+        Course course = dbManager.getCourse(courseId);
+        if (course == null || !instructorId.equals(course.getInstructorId())) {
+            System.out.println("Check-in rejected: Course " + courseId + " is unknown or not taught by " + instructorId);
+            return null;
+        }
+        CheckInSession session = new CheckInSession(course, LocalDateTime.now(clock), onTimeWindow, window);
+        if (open.putIfAbsent(courseId, session) != null) {
+            System.out.println("Check-in rejected: A session is already open for " + course.getCourseCode());
+            return null;
+        }
+        return session;
+    }
+
+    /**
+     * Checks a student in to the course's open session at the current time.
+     */
+    public CheckInSession.Result checkIn(String courseId, String studentId) {
+        long start = System.nanoTime();
+        try {
+            CheckInSession session = open.get(courseId);
+            return session == null ? CheckInSession.Result.CLOSED : session.checkIn(studentId, LocalDateTime.now(clock));
+        } finally {
+            checkInTimer.record(start);
+        }
+    }
+
+    public CheckInSession getOpenSession(String courseId) {
+        return open.get(courseId);
+    }
+
+    /**
+     * Closes the course's session: flushes it and records absences for students who did not check in.
+     * If the store fails the session stays registered (refusing check-ins) and the timer retries the close.
+     * @return The closed session, or null if none was open.
+     */
+    public CheckInSession closeSession(String courseId) {
+        CheckInSession session = open.get(courseId);
+        if (session == null) return null;
+        session.close(dbManager);
+        open.remove(courseId, session);
+        return session;
+    }
+
+    /**
+     * Closes all open sessions and stops the flush timer.
+     */
+    public void shutdown() {
+        flusher.shutdown();
+        for (String courseId : new ArrayList<>(open.keySet())) closeSession(courseId);
+    }
+
+    // Runs on the timer; a failing store must not kill the schedule
+    private void flushAll() {
+        LocalDateTime now = LocalDateTime.now(clock);
+        for (CheckInSession session : open.values()) {
+            try {
+                if (session.isClosed() || now.isAfter(session.getClosesAt())) {
+                    closeSession(session.getCourseId());
+                } else {
+                    session.flush(dbManager);
+                }
+            } catch (RuntimeException e) {
+                System.err.println("Check-in: Flush failed for " + session.getCourseId() + ": " + e.getMessage());
+            }
+        }
+    }
+}
+
+/**
+ * Counters for one BulkImporter run: rows and busy time per pipeline stage, plus what was imported
+ * and what was rejected. Parse time is summed over the parser threads, so its rate is per core.
+ */
+class ImportStats {
+    enum Stage { READ, PARSE, DEDUPE, COMMIT }
+
+    private static final int MAX_REPORTED_ERRORS = 1000;
+
+    private final LongAdder[] rows = new LongAdder[Stage.values().length]; // chunks for READ
+    private final LongAdder[] busyNanos = new LongAdder[Stage.values().length];
+    private final LongAdder bytesRead = new LongAdder();
+    private final LongAdder usersImported = new LongAdder();
+    private final LongAdder coursesImported = new LongAdder();
+    private final LongAdder enrollmentsImported = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final List<String> errors = Collections.synchronizedList(new ArrayList<>());
+    private volatile long wallNanos;
+
+    ImportStats() {
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = new LongAdder();
+            busyNanos[i] = new LongAdder();
+        }
+    }
+
+    void record(Stage stage, long count, long nanos) {
+        rows[stage.ordinal()].add(count);
+        busyNanos[stage.ordinal()].add(nanos);
+    }
+
+    void addBytesRead(long bytes) { bytesRead.add(bytes); }
+    void addUsers(int count) { usersImported.add(count); }
+    void addCourses(int count) { coursesImported.add(count); }
+    void addEnrollment() { enrollmentsImported.increment(); }
+    void finish(long nanos) { wallNanos = nanos; }
+
+    // Keeps the first MAX_REPORTED_ERRORS messages; the count covers all of them
+    void reject(String file, long line, String reason) {
+        rejected.increment();
+        if (errors.size() < MAX_REPORTED_ERRORS) errors.add(file + ":" + line + ": " + reason);
+    }
+
+    public long getRows(Stage stage) { return rows[stage.ordinal()].sum(); }
+    public long getBusyMillis(Stage stage) { return TimeUnit.NANOSECONDS.toMillis(busyNanos[stage.ordinal()].sum()); }
+    public long getBytesRead() { return bytesRead.sum(); }
+    public long getUsersImported() { return usersImported.sum(); }
+    public long getCoursesImported() { return coursesImported.sum(); }
+    public long getEnrollmentsImported() { return enrollmentsImported.sum(); }
+    public long getRejectedCount() { return rejected.sum(); }
+    public long getWallMillis() { return TimeUnit.NANOSECONDS.toMillis(wallNanos); }
+
+    /**
+     * @return Up to the first 1000 rejections as "file:line: reason".
+     */
+    public List<String> getErrors() {
+        synchronized (errors) {
+            return new ArrayList<>(errors);
+        }
+    }
+
+    /**
+     * @return Rows per second of busy time in the stage.
+     */
+    public double getRate(Stage stage) {
+        long nanos = busyNanos[stage.ordinal()].sum();
+        return nanos == 0 ? 0 : getRows(stage) * 1e9 / nanos;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder out = new StringBuilder();
+        out.append(String.format(Locale.ROOT, "users=%d courses=%d enrollments=%d rejected=%d in %d ms (%.1f MB read)",
+                getUsersImported(), getCoursesImported(), getEnrollmentsImported(), getRejectedCount(), getWallMillis(), getBytesRead() / 1e6));
+        long readNanos = busyNanos[Stage.READ.ordinal()].sum();
+        out.append(String.format(Locale.ROOT, "%n  %-7s %,10d chunks %,8d ms busy %,10.1f MB/s", Stage.READ, getRows(Stage.READ),
+                getBusyMillis(Stage.READ), readNanos == 0 ? 0 : getBytesRead() * 1e3 / readNanos));
+        for (Stage stage : Arrays.asList(Stage.PARSE, Stage.DEDUPE, Stage.COMMIT)) {
+            out.append(String.format(Locale.ROOT, "%n  %-7s %,10d rows %,8d ms busy %,12.0f rows/s", stage, getRows(stage), getBusyMillis(stage), getRate(stage)));
+        }
+        return out.toString();
+    }
+}
+
+/**
+ * Loads a registrar extract (users, courses, enrollments) in bulk. Use one importer per extract.
+ *
+ * Each file goes through a pipeline. One thread reads it with NIO in chunks of about
+ * {@value #CHUNK_BYTES} bytes, cut at line ends. The chunks are parsed in parallel, then taken
+ * in file order on the calling thread, which dedupes and commits to the DatabaseManager in
+ * batches of {@value #BATCH_SIZE}. At most two chunks per parser thread are in flight, so memory
+ * stays flat however big the file is.
+ *
+ * Usernames and emails are deduplicated by claiming them in the AuthenticationManager's
+ * concurrent indexes, the same ones live registrations use. The first row in file order wins,
+ * and a user registered mid-import is never duplicated.
+ * Enrollments are folded into the course rosters, and the courses are saved last, so a roster
+ * costs one save rather than a call per student. A stored course is re-read at that point and only
+ * gets the new students added, so enrollments made while the import ran are not overwritten.
+ *
+ * Files are CSV with a header row, or JSON Lines when the name ends in .jsonl. There is one
+ * record per line: quoted CSV fields may contain commas and "", but not line breaks. Columns
+ * (others are ignored):
+ *   users: userId?, username, email, role, fullName?, studentId?, facultyId?, passwordHash?
+ *   courses: courseId?, courseCode, courseName, instructor (a userId or facultyId)
+ *   enrollments: course (a courseId or courseCode), student (a userId or studentId)
+ * Password hashes must be in a format the AuthenticationManager's hasher recognizes (for PBKDF2, a
+ * pbkdf2-sha256 hash or a legacy-plain$ tagged password); other rows are rejected. A user without
+ * one can't log in until a password is set.
+ */
+class BulkImporter {
+    static final int CHUNK_BYTES = 4 << 20;
+    static final int BATCH_SIZE = 10_000;
+    private static final long PROGRESS_EVERY_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final DatabaseManager db;
+    private final AuthenticationManager auth;
+    private final PasswordHasher hasher; // Decides which imported password hashes are usable
+    private final int parserThreads;
+    private final ImportStats stats = new ImportStats();
+    // Registrar references, one map per kind so an id of one kind can't shadow another
+    private final Set<String> userIds = new HashSet<>();
+    private final Map<String, String> studentNumbers = new HashMap<>(); // studentId -> userId
+    private final Map<String, String> facultyIds = new HashMap<>(); // facultyId -> userId
+    // Courses being built by this import, and the stored ones, by id and by code
+    private final Map<String, Course> coursesById = new HashMap<>();
+    private final Map<String, Course> coursesByCode = new HashMap<>();
+    private final Map<String, Course> existingById = new HashMap<>();
+    private final Map<String, Course> existingByCode = new HashMap<>();
+    private final Map<String, Course> changedCourses = new LinkedHashMap<>(); // courseId -> course to save
+    // Stored courses a course row renamed or reassigned; the others only gain students
+    private final Set<String> updatedCourses = new HashSet<>();
+    private final List<User> userBatch = new ArrayList<>();
+    private boolean started = false;
+
+    public BulkImporter(DatabaseManager db, AuthenticationManager auth, int parserThreads) {
+        this.db = db;
+        this.auth = auth;
+        this.hasher = auth.getPasswordHasher();
+        this.parserThreads = Math.max(1, parserThreads);
+    }
+
+    /**
+     * Imports the files in dependency order; pass null to skip one.
+     * Bad rows are counted and reported in the stats rather than stopping the import.
+     * @return Per-stage counts and timings.
+     * @throws IOException if a file cannot be read.
+     */
+    public ImportStats run(Path users, Path courses, Path enrollments) throws IOException {
+        if (started) throw new IllegalStateException("Import: An importer runs only once");
+        started = true;
+        long start = System.nanoTime();
+        ExecutorService parsers = Executors.newFixedThreadPool(parserThreads, runnable -> {
+            Thread thread = new Thread(runnable, "import-parser");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            loadReferences();
+            if (users != null) {
+                importFile(users, parsers, this::parseUser, this::acceptUser);
+                commitUsers();
+            }
+            if (courses != null) importFile(courses, parsers, BulkImporter::parseCourse, this::acceptCourse);
+            if (enrollments != null) importFile(enrollments, parsers, BulkImporter::parseEnrollment, this::acceptEnrollment);
+            commitCourses();
+        } finally {
+            parsers.shutdownNow();
+        }
+        stats.finish(System.nanoTime() - start);
+        System.out.println("Import: Done, " + stats);
+        return stats;
+    }
+
+    public ImportStats getStats() {
+        return stats;
+    }
+
+    // One CSV or JSON line, by column name
+    private interface Row {
+        String get(String column);
+    }
+
+    // Runs on a parser thread; throws IllegalArgumentException for a bad row
+    private interface RowParser<T> {
+        T parse(Row row);
+    }
+
+    // Runs on the importing thread, in file order
+    private interface RowHandler<T> {
+        void accept(T item, String file, long line);
+    }
+
+    // A course row, remembering whether it named its courseId or got a generated one
+    private static final class CourseRow {
+        final Course course;
+        final boolean idGiven;
+
+        CourseRow(Course course, boolean idGiven) {
+            this.course = course;
+            this.idGiven = idGiven;
+        }
+    }
+
+    private static final class ParsedChunk<T> {
+        final List<T> items = new ArrayList<>();
+        final List<Integer> itemLines = new ArrayList<>(); // chunk-relative, 0-based
+        final List<String> errors = new ArrayList<>();
+        final List<Integer> errorLines = new ArrayList<>();
+        int lineCount;
+    }
+
+    private <T> void importFile(Path file, ExecutorService parsers, RowParser<T> parser, RowHandler<T> handler) throws IOException {
+        String name = file.getFileName().toString();
+        boolean jsonLines = name.endsWith(".jsonl");
+        BlockingQueue<CompletableFuture<ParsedChunk<T>>> inFlight = new ArrayBlockingQueue<>(parserThreads * 2);
+        Thread reader = new Thread(() -> {
+            try {
+                CompletableFuture<ParsedChunk<T>> end;
+                try {
+                    readChunks(file, jsonLines, parsers, parser, inFlight);
+                    end = CompletableFuture.completedFuture(null);
+                } catch (IOException | RuntimeException e) {
+                    end = CompletableFuture.failedFuture(e); // the consumer stops here
+                }
+                inFlight.put(end);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt(); // the consumer gave up
+            }
+        }, "import-reader");
+        reader.setDaemon(true);
+        reader.start();
+        long line = jsonLines ? 0 : 1; // the CSV header is line 1
+        long nextProgress = System.nanoTime() + PROGRESS_EVERY_NANOS;
+        try {
+            while (true) {
+                ParsedChunk<T> chunk;
+                try {
+                    chunk = inFlight.take().join();
+                } catch (CompletionException e) {
+                    if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+                    throw e;
+                }
+                if (chunk == null) break;
+                long start = System.nanoTime();
+                for (int i = 0; i < chunk.errors.size(); i++) stats.reject(name, line + chunk.errorLines.get(i) + 1, chunk.errors.get(i));
+                for (int i = 0; i < chunk.items.size(); i++) handler.accept(chunk.items.get(i), name, line + chunk.itemLines.get(i) + 1);
+                stats.record(ImportStats.Stage.DEDUPE, chunk.items.size(), System.nanoTime() - start);
+                line += chunk.lineCount;
+                if (System.nanoTime() >= nextProgress) {
+                    System.out.println("Import: " + name + " at line " + line + ", " + stats.getRows(ImportStats.Stage.PARSE) + " rows parsed");
+                    nextProgress = System.nanoTime() + PROGRESS_EVERY_NANOS;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Import: Interrupted");
+        } finally {
+            reader.interrupt();
+        }
+    }
+
+    // Reader thread: cuts the file into whole-line chunks and hands each one to a parser
+    private <T> void readChunks(Path file, boolean jsonLines, ExecutorService parsers, RowParser<T> parser,
+                                BlockingQueue<CompletableFuture<ParsedChunk<T>>> inFlight) throws IOException, InterruptedException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(CHUNK_BYTES);
+            Map<String, Integer> header = null;
+            boolean first = true;
+            boolean eof = false;
+            while (!eof) {
+                long start = System.nanoTime();
+                while (buffer.hasRemaining() && !eof) {
+                    int read = channel.read(buffer);
+                    if (read < 0) eof = true; else stats.addBytesRead(read);
+                }
+                buffer.flip();
+                int cut = eof ? buffer.limit() : lastLineEnd(buffer);
+                if (cut == 0 && !eof) { // a single line longer than the buffer
+                    ByteBuffer bigger = ByteBuffer.allocate(buffer.capacity() * 2);
+                    bigger.put(buffer);
+                    buffer = bigger;
+                    continue;
+                }
+                byte[] bytes = new byte[cut];
+                buffer.get(bytes);
+                buffer.compact();
+                int from = 0;
+                if (first) {
+                    first = false;
+                    if (bytes.length >= 3 && (bytes[0] & 0xFF) == 0xEF && (bytes[1] & 0xFF) == 0xBB && (bytes[2] & 0xFF) == 0xBF) from = 3; // UTF-8 BOM
+                    if (!jsonLines) {
+                        int end = from;
+                        while (end < bytes.length && bytes[end] != '\n') end++;
+                        header = parseHeader(new String(bytes, from, end - from, StandardCharsets.UTF_8));
+                        from = Math.min(end + 1, bytes.length);
+                    }
+                }
+                stats.record(ImportStats.Stage.READ, 1, System.nanoTime() - start);
+                if (from == bytes.length) continue;
+                String text = new String(bytes, from, bytes.length - from, StandardCharsets.UTF_8);
+                Map<String, Integer> columns = header;
+                inFlight.put(CompletableFuture.supplyAsync(() -> parseChunk(text, columns, parser), parsers));
+            }
+        }
+    }
+
+    // Index just past the last '\n', or 0 if the buffer holds no complete line
+    private static int lastLineEnd(ByteBuffer buffer) {
+        for (int i = buffer.limit() - 1; i >= buffer.position(); i--) {
+            if (buffer.get(i) == '\n') return i + 1;
+        }
+        return 0;
+    }
+
+    private <T> ParsedChunk<T> parseChunk(String text, Map<String, Integer> header, RowParser<T> parser) {
+        long start = System.nanoTime();
+        ParsedChunk<T> chunk = new ParsedChunk<>();
+        int line = 0;
+        for (int pos = 0; pos < text.length(); line++) {
+            int newline = text.indexOf('\n', pos);
+            if (newline < 0) newline = text.length();
+            int end = newline > pos && text.charAt(newline - 1) == '\r' ? newline - 1 : newline;
+            if (end > pos) {
+                String raw = text.substring(pos, end);
+                try {
+                    chunk.items.add(parser.parse(header == null ? jsonRow(raw) : csvRow(raw, header)));
+                    chunk.itemLines.add(line);
+                } catch (RuntimeException e) {
+                    chunk.errors.add(e.getMessage());
+                    chunk.errorLines.add(line);
+                }
+            }
+            pos = newline + 1;
+        }
+        chunk.lineCount = line;
+        stats.record(ImportStats.Stage.PARSE, chunk.items.size() + chunk.errors.size(), System.nanoTime() - start);
+        return chunk;
+    }
+
+    // --- Row formats ---
+
+    private static Map<String, Integer> parseHeader(String line) {
+        List<String> names = splitCsv(line.endsWith("\r") ? line.substring(0, line.length() - 1) : line);
+        Map<String, Integer> header = new HashMap<>();
+        for (int i = 0; i < names.size(); i++) header.putIfAbsent(names.get(i).trim(), i);
+        return header;
+    }
+
+    private static Row csvRow(String line, Map<String, Integer> header) {
+        List<String> fields = splitCsv(line);
+        return column -> {
+            Integer i = header.get(column);
+            String value = i == null || i >= fields.size() ? null : fields.get(i).trim();
+            return value == null || value.isEmpty() ? null : value;
+        };
+    }
+
+    private static Row jsonRow(String line) {
+        Object parsed = Json.parse(line);
+        if (!(parsed instanceof Map)) throw new IllegalArgumentException("Expected a JSON object");
+        Map<?, ?> object = (Map<?, ?>) parsed;
+        return column -> {
+            Object value = object.get(column);
+            return value == null ? null : value.toString();
+        };
+    }
+
+    // RFC 4180 fields on one line: quoted fields may hold commas and doubled quotes
+    static List<String> splitCsv(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c != '"') {
+                    field.append(c);
+                } else if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else {
+                    quoted = false;
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        if (quoted) throw new IllegalArgumentException("Unterminated quoted field");
+        fields.add(field.toString());
+        return fields;
+    }
+
+    private static String required(Row row, String column) {
+        String value = row.get(column);
+        if (value == null) throw new IllegalArgumentException("Missing " + column);
+        return value;
+    }
+
+    // --- Parsers (parser threads) ---
+
+    private User parseUser(Row row) {
+        String username = required(row, "username");
+        String email = required(row, "email");
+        if (email.indexOf('@') <= 0) throw new IllegalArgumentException("Invalid email: " + email);
+        User.Role role;
+        try {
+            role = User.Role.valueOf(required(row, "role").toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown role: " + row.get("role"));
+        }
+        String userId = row.get("userId");
+        String passwordHash = row.get("passwordHash");
+        if (passwordHash != null && !hasher.recognizes(passwordHash)) {
+            throw new IllegalArgumentException("Unsupported password hash for " + username);
+        }
+        User user = userId != null
+                ? new User(userId, username, email, passwordHash, role, row.get("fullName"))
+                : new User(username, email, passwordHash, role, row.get("fullName"));
+        user.setStudentId(row.get("studentId"));
+        user.setFacultyId(row.get("facultyId"));
+        return user;
+    }
+
+    // The instructor is still a registrar reference here; acceptCourse resolves it
+    private static CourseRow parseCourse(Row row) {
+        String courseId = row.get("courseId");
+        String code = required(row, "courseCode");
+        String name = required(row, "courseName");
+        String instructor = required(row, "instructor");
+        return courseId != null ? new CourseRow(new Course(courseId, code, name, instructor), true) : new CourseRow(new Course(code, name, instructor), false);
+    }
+
+    private static String[] parseEnrollment(Row row) {
+        return new String[] {required(row, "course"), required(row, "student")};
+    }
+
+    // --- Dedupe and commit (importing thread) ---
+
+    private void loadReferences() {
+        for (User.Role role : User.Role.values()) {
+            for (User user : db.getAllUsersByRole(role)) addUserRefs(user);
+        }
+        for (Course course : db.getAllCourses()) {
+            existingById.put(course.getCourseId(), course);
+            existingByCode.putIfAbsent(course.getCourseCode(), course);
+        }
+    }
+
+    private void addUserRefs(User user) {
+        userIds.add(user.getUserId());
+        if (user.getStudentId() != null) studentNumbers.putIfAbsent(user.getStudentId(), user.getUserId());
+        if (user.getFacultyId() != null) facultyIds.putIfAbsent(user.getFacultyId(), user.getUserId());
+    }
+
+    // A user id, or else the registrar number of the given kind
+    private String resolveUser(String ref, Map<String, String> numbers) {
+        return userIds.contains(ref) ? ref : numbers.get(ref);
+    }
+
+    private void acceptUser(User user, String file, long line) {
+        if (userIds.contains(user.getUserId()) || !auth.importUser(user, false)) { // saved by commitUsers
+            stats.reject(file, line, "Duplicate user id, username or email: " + user.getUsername());
+            return;
+        }
+        addUserRefs(user);
+        userBatch.add(user);
+        if (userBatch.size() >= BATCH_SIZE) commitUsers();
+    }
+
+    // A row without a courseId is matched to a stored course by code, so re-imports update it in place
+    private void acceptCourse(CourseRow row, String file, long line) {
+        Course parsed = row.course;
+        String instructorId = resolveUser(parsed.getInstructorId(), facultyIds);
+        if (instructorId == null) {
+            stats.reject(file, line, "Unknown instructor: " + parsed.getInstructorId());
+            return;
+        }
+        if (coursesById.containsKey(parsed.getCourseId()) || coursesByCode.containsKey(parsed.getCourseCode())) {
+            stats.reject(file, line, "Duplicate course: " + parsed.getCourseCode());
+            return;
+        }
+        Course existing = existingById.get(parsed.getCourseId());
+        if (existing == null) {
+            existing = existingByCode.get(parsed.getCourseCode());
+            if (existing != null && row.idGiven) {
+                stats.reject(file, line, "Course code " + parsed.getCourseCode() + " already belongs to course " + existing.getCourseId());
+                return;
+            }
+            if (existing != null) parsed = new Course(existing.getCourseId(), parsed.getCourseCode(), parsed.getCourseName(), parsed.getInstructorId());
+        }
+        parsed.setInstructorId(instructorId);
+        if (existing != null) updatedCourses.add(parsed.getCourseId()); // its roster is kept at commit
+        coursesById.put(parsed.getCourseId(), parsed);
+        coursesByCode.put(parsed.getCourseCode(), parsed);
+        changedCourses.put(parsed.getCourseId(), parsed);
+    }
+
+    private void acceptEnrollment(String[] enrollment, String file, long line) {
+        Course course = courseFor(enrollment[0]);
+        String studentId = resolveUser(enrollment[1], studentNumbers);
+        if (course == null) {
+            stats.reject(file, line, "Unknown course: " + enrollment[0]);
+        } else if (studentId == null) {
+            stats.reject(file, line, "Unknown student: " + enrollment[1]);
+        } else if (!course.isEnrolled(studentId) && !isStoredEnrollment(course.getCourseId(), studentId)) {
+            course.addStudent(studentId);
+            changedCourses.put(course.getCourseId(), course);
+            stats.addEnrollment();
+        }
+    }
+
+    private boolean isStoredEnrollment(String courseId, String studentId) {
+        Course existing = existingById.get(courseId);
+        return existing != null && existing.isEnrolled(studentId);
+    }
+
+    // A course from this import, or for a stored one an empty roster collecting the students to add
+    private Course courseFor(String ref) {
+        Course course = coursesById.get(ref);
+        if (course == null) course = coursesByCode.get(ref);
+        if (course != null) return course;
+        Course existing = existingById.get(ref);
+        if (existing == null) existing = existingByCode.get(ref);
+        if (existing == null) return null;
+        course = new Course(existing.getCourseId(), existing.getCourseCode(), existing.getCourseName(), existing.getInstructorId());
+        coursesById.put(course.getCourseId(), course);
+        coursesByCode.put(course.getCourseCode(), course);
+        return course;
+    }
+
+    private void commitUsers() {
+        if (userBatch.isEmpty()) return;
+        long start = System.nanoTime();
+        try {
+            db.saveUsers(userBatch);
+        } catch (RuntimeException e) { // none of the batch is stored, so free their usernames and emails
+            auth.forgetUsers(userBatch);
+            for (User user : userBatch) {
+                userIds.remove(user.getUserId());
+                if (user.getStudentId() != null) studentNumbers.remove(user.getStudentId(), user.getUserId());
+                if (user.getFacultyId() != null) facultyIds.remove(user.getFacultyId(), user.getUserId());
+            }
+            userBatch.clear();
+            throw e;
+        }
+        stats.record(ImportStats.Stage.COMMIT, userBatch.size(), System.nanoTime() - start);
+        stats.addUsers(userBatch.size());
+        userBatch.clear();
+    }
+
+    // Stored courses are re-read and only get this import's students added (under the store's
+    // lock), so enrollments made while the import ran are kept
+    private void commitCourses() {
+        List<Course> courses = new ArrayList<>(changedCourses.size());
+        for (Course course : changedCourses.values()) {
+            Course live = existingById.containsKey(course.getCourseId()) ? db.getCourse(course.getCourseId()) : null;
+            if (live == null) {
+                courses.add(course);
+                continue;
+            }
+            if (updatedCourses.contains(course.getCourseId())) {
+                live.setCourseCode(course.getCourseCode());
+                live.setCourseName(course.getCourseName());
+                live.setInstructorId(course.getInstructorId());
+            }
+            live.addStudents(course.getStudentIds());
+            courses.add(live);
+        }
+        for (int from = 0; from < courses.size(); from += BATCH_SIZE) {
+            List<Course> batch = courses.subList(from, Math.min(courses.size(), from + BATCH_SIZE));
+            long start = System.nanoTime();
+            db.saveCourses(batch);
+            stats.record(ImportStats.Stage.COMMIT, batch.size(), System.nanoTime() - start);
+            stats.addCourses(batch.size());
+        }
+        changedCourses.clear();
+    }
+}
+
+/**
+ * Main application logic manager.
+ * Orchestrates interactions between AuthenticationManager and DatabaseManager.
+ */
+class UniversityAttendanceSystem {
+    private static final long CHECK_IN_FLUSH_MILLIS = 1000;
+
+    private AuthenticationManager authManager;
+    private DatabaseManager dbManager;
+    private CheckInManager checkIns;
+    private final OperationTimer markTimer = Metrics.get().timer("attendance.markBatch");
+    private final LongAdder marksAccepted = Metrics.get().counter("attendance.marks.accepted");
+    private final LongAdder batchesRejected = Metrics.get().counter("attendance.markBatch.rejected");
+
+    public UniversityAttendanceSystem() {
+        this(new InMemoryDatabaseManager()); // Swap in a FileDatabaseManager for on-disk persistence, or a PartitionedDatabaseManager to shard
+    }
+
+    /**
+     * @param dbManager Wrapped in a MetricsDatabaseManager, so every storage call is timed.
+     */
+    public UniversityAttendanceSystem(DatabaseManager dbManager) {
+        this.dbManager = new MetricsDatabaseManager(dbManager); // Initialize DB connection
+        this.authManager = new AuthenticationManager(this.dbManager); // Loads users from dbManager and saves them back
+        this.checkIns = new CheckInManager(this.dbManager, CHECK_IN_FLUSH_MILLIS);
+        Metrics.get().registerMBean(MetricsRegistry.DEFAULT_OBJECT_NAME); // For jconsole / VisualVM
+        // For demo, we'll manually add some data to dbManager for testing
+        // In a real app, dbManager would load data from the actual database
+        addInitialDummyData();
+    }
+
+    private void addInitialDummyData() {
+        // The demo users are seeded (and stored) by AuthenticationManager with generated ids, so
+        // find them through the username index
+        User instructor = authManager.findByUsernameOrEmail("profsmith");
+        User student1 = authManager.findByUsernameOrEmail("johndoe");
+        User student2 = authManager.findByUsernameOrEmail("janesmith");
+        if (instructor == null || student1 == null || student2 == null) {
+            System.out.println("Demo data skipped: Seed users are missing.");
+            return;
+        }
+
+        // A persistent store already has the demo courses from an earlier run
+        if (dbManager.getCoursesByInstructor(instructor.getUserId()).isEmpty()) {
+            // Simulate adding courses to the database
+            Course cs101 = new Course("CS101", "Intro to Programming", instructor.getUserId());
+            cs101.addStudent(student1.getUserId());
+            cs101.addStudent(student2.getUserId());
+            dbManager.saveCourse(cs101);
+
+            Course ma201 = new Course("MA201", "Calculus I", instructor.getUserId());
+            ma201.addStudent(student1.getUserId());
+            dbManager.saveCourse(ma201);
+
+            // Simulate marking attendance
+            Map<String, Boolean> yesterday = new LinkedHashMap<>();
+            yesterday.put(student1.getUserId(), true);
+            yesterday.put(student2.getUserId(), true);
+            markAttendanceBatch(cs101.getCourseId(), LocalDate.now().minusDays(1), yesterday);
+            Map<String, Boolean> today = new LinkedHashMap<>();
+            today.put(student1.getUserId(), true);
+            today.put(student2.getUserId(), false);
+            markAttendanceBatch(cs101.getCourseId(), LocalDate.now(), today);
+        }
+    }
+
+    /**
+     * Marks attendance for a whole class session at once.
+     * Every student is checked against the course roster before anything is written, and the
+     * batch is saved in one storage round trip. Re-submitting a student for the same course and
+     * date overwrites the earlier mark rather than adding a second one.
+     * @param courseId
+     * @param date The session date.
+     * @param presence studentId -> present (true) / absent (false).
+     * @return The saved records, or null if the course is unknown or a student is not enrolled.
+     */
+    public List<AttendanceRecord> markAttendanceBatch(String courseId, LocalDate date, Map<String, Boolean> presence) {
+        long start = System.nanoTime();
+        try {
+            List<AttendanceRecord> saved = saveAttendanceBatch(courseId, date, presence);
+            if (saved != null) marksAccepted.add(saved.size()); else batchesRejected.increment();
+            return saved;
+        } finally {
+            markTimer.record(start);
+        }
+    }
+
+    private List<AttendanceRecord> saveAttendanceBatch(String courseId, LocalDate date, Map<String, Boolean> presence) {
+        Course course = dbManager.getCourse(courseId);
+        if (course == null) {
+            System.out.println("Attendance batch rejected: Unknown course " + courseId);
+            return null;
+        }
+        List<String> notEnrolled = new ArrayList<>();
+        List<AttendanceRecord> records = new ArrayList<>(presence.size());
+        LocalTime now = LocalTime.now();
+        for (Map.Entry<String, Boolean> entry : presence.entrySet()) {
+            String studentId = entry.getKey();
+            if (!course.isEnrolled(studentId)) {
+                notEnrolled.add(studentId);
+            } else if (notEnrolled.isEmpty()) {
+                records.add(new AttendanceRecord(null, courseId, studentId, date, now, entry.getValue()));
+            }
+        }
+        if (!notEnrolled.isEmpty()) {
+            System.out.println("Attendance batch rejected: " + notEnrolled.size() + " student(s) not enrolled in " + course.getCourseCode());
+            return null;
+        }
+        dbManager.saveAttendanceRecords(records);
+        return records;
+    }
+
+    /**
+     * Writes the campus-wide attendance report (per course, instructor and department) for a date range.
+     * Courses are processed in parallel on all available cores.
+     * @return Total number of marks counted.
+     * @throws IOException if the CSV file cannot be written.
+     */
+    public long exportAttendanceReport(LocalDate from, LocalDate to, Path csvFile) throws IOException {
+        return new AttendanceReportEngine(dbManager, Runtime.getRuntime().availableProcessors()).writeCsv(from, to, csvFile);
+    }
+
+    /**
+     * Bulk-loads the registrar's term extract (see BulkImporter for the file formats), parsing on all cores.
+     * Any of the files may be null to skip it.
+     * @return Counts, per-stage throughput and the rejected rows.
+     * @throws IOException if a file cannot be read.
+     */
+    public ImportStats importRegistrarExtract(Path users, Path courses, Path enrollments) throws IOException {
+        return new BulkImporter(dbManager, authManager, Runtime.getRuntime().availableProcessors()).run(users, courses, enrollments);
+    }
+
+    public AuthenticationManager getAuthManager() {
+        return authManager;
+    }
+
+    public DatabaseManager getDbManager() {
+        return dbManager;
+    }
+
+    public CheckInManager getCheckIns() {
+        return checkIns;
+    }
+
+    // You would add high-level methods here that combine auth and db operations
+    // e.g., markStudentAttendance(currentUser, courseId, studentId, isPresent)
+    // e.g., getStudentCourses(currentUser.getUserId())
+}
+
+/**
+ * Minimal JSON reader/writer for the HTTP API (objects, arrays, strings, numbers, booleans, null).
+ * Objects parse to LinkedHashMap, arrays to ArrayList, integral numbers to Long and others to Double.
+ */
+final class Json {
+    // Deepest nesting accepted; the parser recurses once per level
+    static final int MAX_DEPTH = 64;
+
+    private final String text;
+    private int pos;
+    private int depth;
+
+    private Json(String text) {
+        this.text = text;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the text is not valid JSON.
+     */
+    public static Object parse(String text) {
+        Json parser = new Json(text);
+        Object value = parser.value();
+        parser.skipWhitespace();
+        if (parser.pos != text.length()) throw parser.error("Trailing characters");
+        return value;
+    }
+
+    public static String quote(String value) {
+        if (value == null) return "null";
+        StringBuilder out = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"': out.append("\\\""); break;
+                case '\\': out.append("\\\\"); break;
+                case '\n': out.append("\\n"); break;
+                case '\r': out.append("\\r"); break;
+                case '\t': out.append("\\t"); break;
+                default:
+                    if (c < 0x20) out.append(String.format(Locale.ROOT, "\\u%04x", (int) c)); else out.append(c);
+            }
+        }
+        return out.append('"').toString();
+    }
+
+    private Object value() {
+        skipWhitespace();
+        if (pos >= text.length()) throw error("Unexpected end");
+        char c = text.charAt(pos);
+        switch (c) {
+            case '{':
+            case '[': return nested(c);
+            case '"': return string();
+            case 't': return literal("true", Boolean.TRUE);
+            case 'f': return literal("false", Boolean.FALSE);
+            case 'n': return literal("null", null);
+            default:
+                if (c == '-' || (c >= '0' && c <= '9')) return number();
+                throw error("Unexpected character '" + c + "'");
+        }
+    }
+
+    private Object nested(char open) {
+        if (++depth > MAX_DEPTH) throw error("Nested deeper than " + MAX_DEPTH + " levels");
+        try {
+            return open == '{' ? object() : array();
+        } finally {
+            depth--;
+        }
+    }
+
+    private Map<String, Object> object() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        pos++; // '{'
+        skipWhitespace();
+        if (peek('}')) return result;
+        do {
+            skipWhitespace();
+            if (pos >= text.length() || text.charAt(pos) != '"') throw error("Expected a key");
+            String key = string();
+            skipWhitespace();
+            expect(':');
+            result.put(key, value());
+            skipWhitespace();
+        } while (peek(','));
+        expect('}');
+        return result;
+    }
+
+    private List<Object> array() {
+        List<Object> result = new ArrayList<>();
+        pos++; // '['
+        skipWhitespace();
+        if (peek(']')) return result;
+        do {
+            result.add(value());
+            skipWhitespace();
+        } while (peek(','));
+        expect(']');
+        return result;
+    }
+
+    private String string() {
+        StringBuilder out = new StringBuilder();
+        pos++; // opening quote
+        while (pos < text.length()) {
+            char c = text.charAt(pos++);
+            if (c == '"') return out.toString();
+            if (c != '\\') {
+                out.append(c);
+                continue;
+            }
+            if (pos >= text.length()) break;
+            char escape = text.charAt(pos++);
+            switch (escape) {
+                case 'n': out.append('\n'); break;
+                case 'r': out.append('\r'); break;
+                case 't': out.append('\t'); break;
+                case 'b': out.append('\b'); break;
+                case 'f': out.append('\f'); break;
+                case 'u':
+                    if (pos + 4 > text.length()) throw error("Bad unicode escape");
+                    out.append((char) Integer.parseInt(text.substring(pos, pos + 4), 16));
+                    pos += 4;
+                    break;
+                default: out.append(escape); // '"', '\\' and '/'
+            }
+        }
+        throw error("Unterminated string");
+    }
+
+    private Object number() {
+        int start = pos;
+        while (pos < text.length() && "+-0123456789.eE".indexOf(text.charAt(pos)) >= 0) pos++;
+        String digits = text.substring(start, pos);
+        try {
+            if (digits.indexOf('.') < 0 && digits.indexOf('e') < 0 && digits.indexOf('E') < 0) return Long.parseLong(digits);
+            return Double.parseDouble(digits);
+        } catch (NumberFormatException e) {
+            throw error("Bad number " + digits);
+        }
+    }
+
+    private Object literal(String word, Object value) {
+        if (!text.startsWith(word, pos)) throw error("Unexpected token");
+        pos += word.length();
+        return value;
+    }
+
+    private boolean peek(char c) {
+        if (pos < text.length() && text.charAt(pos) == c) {
+            pos++;
+            return true;
+        }
+        return false;
+    }
+
+    private void expect(char c) {
+        if (!peek(c)) throw error("Expected '" + c + "'");
+    }
+
+    private void skipWhitespace() {
+        while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) pos++;
+    }
+
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException("JSON: " + message + " at offset " + pos);
+    }
+}
+
+/**
+ * Local HTTP/JSON front end for UniversityAttendanceSystem on the JDK's built-in HTTP server.
+ * Each request runs on its own virtual thread when the JVM has them (JDK 21+), so handlers and
+ * the DatabaseManager calls they make stay plain blocking code while thousands of phones wait
+ * at class start; older JVMs fall back to a cached platform thread pool.
+ *
+ * Endpoints (send "Authorization: Bearer <token>" except for /login):
+ *   POST /login                           {"username","password"} -> {"token","userId","role"}
+ *   POST /logout
+ *   GET  /courses                         courses taught (instructors) or taken (students)
+ *   GET  /courses/{id}/attendance         ?from=&to=&student=&pageToken=&pageSize=
+ *   POST /courses/{id}/attendance         {"date":"2025-09-01","marks":{"<studentId>":true,...}}
+ *   POST /courses/{id}/session            {"onTimeMinutes":5,"minutes":15} opens self-check-in (instructor)
+ *   DELETE /courses/{id}/session          closes it and records absences (instructor)
+ *   POST /courses/{id}/checkin            checks the calling student in
+ *   GET  /reports/attendance?from=&to=    campus CSV report (instructors only)
+ *   GET  /reports/absences                ?date= | ?from=&to= -> {"<date>":[studentIds],...};
+ *                                         ?through=&days= -> {"students":[...]} (instructors only)
+ *   GET  /metrics                         text dump of counters and latency percentiles (instructors only)
+ */
+class AttendanceHttpServer {
+    private static final int BACKLOG = 4096;
+    private static final int DEFAULT_PAGE_SIZE = 100;
+    private static final int MAX_PAGE_SIZE = 1000;
+    private static final int MAX_BODY_BYTES = 1 << 20;
+    private static final int MAX_REPORT_DAYS = DailyAbsenceIndex.MAX_STREAK_LOOKBACK_DAYS;
+
+    static {
+        // The JDK server sends headers and body as separate writes; with Nagle on, every response on a
+        // kept-alive connection waits out the client's delayed ACK (about 40 ms). Read once, when the
+        // first server is created.
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+    }
+
+    private final UniversityAttendanceSystem system;
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    /**
+     * Binds the server; call start() to begin serving.
+     * @param address Use port 0 for an ephemeral port.
+     * @throws IOException if the address cannot be bound.
+     */
+    public AttendanceHttpServer(UniversityAttendanceSystem system, InetSocketAddress address) throws IOException {
+        this.system = system;
+        this.server = HttpServer.create(address, BACKLOG);
+        this.executor = newRequestExecutor();
+        server.setExecutor(executor);
+        server.createContext("/login", exchange -> serve(exchange, false, this::login));
+        server.createContext("/logout", exchange -> serve(exchange, true, this::logout));
+        server.createContext("/courses", exchange -> serve(exchange, true, this::courses));
+        server.createContext("/reports/attendance", exchange -> serve(exchange, true, this::report));
+        server.createContext("/reports/absences", exchange -> serve(exchange, true, this::absences));
+        server.createContext("/metrics", exchange -> serve(exchange, true, this::metrics));
+    }
+
+    /**
+     * One virtual thread per task when available, otherwise a cached pool of daemon threads.
+     * Looked up reflectively so the code still builds and runs on pre-21 JDKs.
+     */
+    static ExecutorService newRequestExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | UnsupportedOperationException e) {
+            System.out.println("HTTP: Virtual threads unavailable, using a cached thread pool.");
+            return Executors.newCachedThreadPool(runnable -> {
+                Thread thread = new Thread(runnable, "http-request");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    public void start() {
+        server.start();
+        System.out.println("HTTP: Listening on port " + getPort());
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Stops accepting requests, waits up to delaySeconds for in-flight ones, then stops the executor.
+     */
+    public void stop(int delaySeconds) {
+        server.stop(delaySeconds);
+        executor.shutdown();
+    }
+
+    private interface Handler {
+        Reply handle(HttpExchange exchange, User user) throws IOException;
+    }
+
+    private static final class Reply {
+        final int status;
+        final String contentType;
+        final byte[] body;
+
+        Reply(int status, String contentType, byte[] body) {
+            this.status = status;
+            this.contentType = contentType;
+            this.body = body;
+        }
+
+        static Reply json(int status, String json) {
+            return new Reply(status, "application/json; charset=utf-8", json.getBytes(StandardCharsets.UTF_8));
+        }
+
+        static Reply error(int status, String message) {
+            return json(status, "{\"error\":" + Json.quote(message) + "}");
+        }
+    }
+
+    private void serve(HttpExchange exchange, boolean needsSession, Handler handler) throws IOException {
+        // The exchange is closed on every path, so a failed handler never leaves the client hanging
+        try {
+            Reply reply;
+            try {
+                User user = null;
+                if (needsSession) {
+                    String auth = exchange.getRequestHeaders().getFirst("Authorization");
+                    user = auth != null && auth.startsWith("Bearer ") ? system.getAuthManager().getUserForSession(auth.substring(7)) : null;
+                }
+                reply = needsSession && user == null ? Reply.error(401, "Not logged in") : handler.handle(exchange, user);
+            } catch (IllegalArgumentException | DateTimeException e) {
+                reply = Reply.error(400, e.getMessage());
+            } catch (RuntimeException e) {
+                System.err.println("HTTP: " + exchange.getRequestMethod() + " " + exchange.getRequestURI() + " failed: " + e);
+                reply = Reply.error(500, "Internal error");
+            }
+            exchange.getResponseHeaders().set("Content-Type", reply.contentType);
+            exchange.sendResponseHeaders(reply.status, reply.body.length == 0 ? -1 : reply.body.length);
+            if (reply.body.length > 0) exchange.getResponseBody().write(reply.body);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private Reply login(HttpExchange exchange, User ignored) throws IOException {
+        if (!"POST".equals(exchange.getRequestMethod())) return Reply.error(405, "Use POST");
+        Map<String, Object> body = readObject(exchange);
+        String clientId = exchange.getRemoteAddress().getAddress().getHostAddress();
+        String token;
+        try {
+            token = system.getAuthManager().loginForSession(stringField(body, "username"), stringField(body, "password"), clientId);
+        } catch (LoginRateLimiter.ThrottledException e) {
+            return Reply.error(429, e.getMessage());
+        } catch (RejectedExecutionException e) {
+            return Reply.error(503, "Too many logins in progress");
+        }
+        if (token == null) return Reply.error(401, "Invalid credentials");
+        User user = system.getAuthManager().getUserForSession(token);
+        return Reply.json(200, "{\"token\":" + Json.quote(token) + ",\"userId\":" + Json.quote(user.getUserId())
+                + ",\"role\":" + Json.quote(user.getRole().name()) + "}");
+    }
+
+    private Reply logout(HttpExchange exchange, User user) {
+        if (!"POST".equals(exchange.getRequestMethod())) return Reply.error(405, "Use POST");
+        system.getAuthManager().logoutSession(exchange.getRequestHeaders().getFirst("Authorization").substring(7));
+        return new Reply(204, "application/json; charset=utf-8", new byte[0]);
+    }
+
+    // /courses and /courses/{id}/attendance
+    private Reply courses(HttpExchange exchange, User user) throws IOException {
+        String[] path = exchange.getRequestURI().getPath().split("/");
+        DatabaseManager db = system.getDbManager();
+        if (path.length == 2) {
+            if (!"GET".equals(exchange.getRequestMethod())) return Reply.error(405, "Use GET");
+            List<Course> courses = user.getRole() == User.Role.INSTRUCTOR
+                    ? db.getCoursesByInstructor(user.getUserId()) : db.getCoursesByStudent(user.getUserId());
+            StringBuilder json = new StringBuilder("[");
+            for (Course course : courses) {
+                if (json.length() > 1) json.append(',');
+                json.append("{\"courseId\":").append(Json.quote(course.getCourseId()))
+                        .append(",\"courseCode\":").append(Json.quote(course.getCourseCode()))
+                        .append(",\"courseName\":").append(Json.quote(course.getCourseName()))
+                        .append(",\"instructorId\":").append(Json.quote(course.getInstructorId()))
+                        .append(",\"students\":").append(course.getStudentIds().size()).append('}');
+            }
+            return Reply.json(200, json.append(']').toString());
+        }
+        if (path.length != 4) return Reply.error(404, "Not found");
+        Course course = db.getCourse(path[2]);
+        if (course == null) return Reply.error(404, "Unknown course");
+        boolean teaches = user.getUserId().equals(course.getInstructorId());
+        if (!teaches && !course.isEnrolled(user.getUserId())) return Reply.error(403, "Not your course");
+        if ("session".equals(path[3])) return session(exchange, course, teaches);
+        if ("checkin".equals(path[3])) return checkIn(exchange, user, course);
+        if (!"attendance".equals(path[3])) return Reply.error(404, "Not found");
+        if ("GET".equals(exchange.getRequestMethod())) return attendancePage(exchange, user, course, teaches);
+        if (!"POST".equals(exchange.getRequestMethod())) return Reply.error(405, "Use GET or POST");
+        if (!teaches) return Reply.error(403, "Only the instructor can mark attendance");
+
+        Map<String, Object> body = readObject(exchange);
+        LocalDate date = LocalDate.parse(stringField(body, "date"));
+        if (!(body.get("marks") instanceof Map)) throw new IllegalArgumentException("Missing object field: marks");
+        Map<String, Boolean> presence = new LinkedHashMap<>();
+        for (Map.Entry<?, ?> mark : ((Map<?, ?>) body.get("marks")).entrySet()) {
+            if (!(mark.getValue() instanceof Boolean)) throw new IllegalArgumentException("Mark for " + mark.getKey() + " must be true or false");
+            presence.put((String) mark.getKey(), (Boolean) mark.getValue());
+        }
+        List<AttendanceRecord> saved = system.markAttendanceBatch(course.getCourseId(), date, presence);
+        if (saved == null) return Reply.error(400, "Attendance rejected: every student must be enrolled");
+        return Reply.json(200, "{\"saved\":" + saved.size() + "}");
+    }
+
+    // Students only ever see their own marks
+    private Reply attendancePage(HttpExchange exchange, User user, Course course, boolean teaches) {
+        Map<String, String> params = queryParams(exchange);
+        AttendanceQuery query = AttendanceQuery.all();
+        String student = teaches ? params.get("student") : user.getUserId();
+        if (student != null) query.forStudent(student);
+        if (params.containsKey("from") || params.containsKey("to")) {
+            query.between(params.containsKey("from") ? LocalDate.parse(params.get("from")) : null,
+                    params.containsKey("to") ? LocalDate.parse(params.get("to")) : null);
+        }
+        int pageSize = params.containsKey("pageSize") ? Integer.parseInt(params.get("pageSize")) : DEFAULT_PAGE_SIZE;
+        if (pageSize < 1 || pageSize > MAX_PAGE_SIZE) throw new IllegalArgumentException("pageSize must be 1.." + MAX_PAGE_SIZE);
+        AttendancePage page = system.getDbManager().getAttendancePage(course.getCourseId(), query, params.get("pageToken"), pageSize);
+        StringBuilder json = new StringBuilder("{\"records\":[");
+        for (AttendanceRecord record : page.getRecords()) {
+            if (json.charAt(json.length() - 1) != '[') json.append(',');
+            json.append("{\"studentId\":").append(Json.quote(record.getStudentId()))
+                    .append(",\"date\":\"").append(record.getDate())
+                    .append("\",\"timeMarked\":\"").append(record.getTimeMarked())
+                    .append("\",\"present\":").append(record.isPresent()).append('}');
+        }
+        return Reply.json(200, json.append("],\"nextPageToken\":").append(Json.quote(page.getNextPageToken())).append('}').toString());
+    }
+
+    private Reply session(HttpExchange exchange, Course course, boolean teaches) throws IOException {
+        if (!teaches) return Reply.error(403, "Only the instructor can open or close check-in");
+        CheckInManager checkIns = system.getCheckIns();
+        if ("DELETE".equals(exchange.getRequestMethod())) {
+            CheckInSession closed = checkIns.closeSession(course.getCourseId());
+            if (closed == null) return Reply.error(404, "No open session");
+            return Reply.json(200, "{\"onTime\":" + closed.getOnTimeCount() + ",\"late\":" + closed.getLateCount() + "}");
+        }
+        if (!"POST".equals(exchange.getRequestMethod())) return Reply.error(405, "Use POST or DELETE");
+        Map<String, Object> body = readObject(exchange);
+        if (!(body.get("onTimeMinutes") instanceof Long) || !(body.get("minutes") instanceof Long)) {
+            throw new IllegalArgumentException("onTimeMinutes and minutes must be whole numbers");
+        }
+        CheckInSession session = checkIns.openSession(course.getInstructorId(), course.getCourseId(),
+                Duration.ofMinutes((Long) body.get("onTimeMinutes")), Duration.ofMinutes((Long) body.get("minutes")));
+        if (session == null) return Reply.error(409, "A session is already open");
+        return Reply.json(200, "{\"lateAfter\":\"" + session.getLateAfter() + "\",\"closesAt\":\"" + session.getClosesAt() + "\"}");
+    }
+
+    private Reply checkIn(HttpExchange exchange, User user, Course course) {
+        if (!"POST".equals(exchange.getRequestMethod())) return Reply.error(405, "Use POST");
+        CheckInSession.Result result = system.getCheckIns().checkIn(course.getCourseId(), user.getUserId());
+        int status;
+        switch (result) {
+            case CLOSED: status = 409; break;
+            case NOT_ENROLLED: status = 403; break; // enrolled after the session opened
+            default: status = 200; // ACCEPTED, LATE, and DUPLICATE (retries are harmless)
+        }
+        return Reply.json(status, "{\"result\":" + Json.quote(result.name()) + "}");
+    }
+
+    private Reply report(HttpExchange exchange, User user) throws IOException {
+        if (!"GET".equals(exchange.getRequestMethod())) return Reply.error(405, "Use GET");
+        if (user.getRole() != User.Role.INSTRUCTOR) return Reply.error(403, "Instructors only");
+        Map<String, String> params = queryParams(exchange);
+        if (!params.containsKey("from") || !params.containsKey("to")) throw new IllegalArgumentException("from and to are required");
+        Path csv = Files.createTempFile("attendance-report", ".csv");
+        try {
+            system.exportAttendanceReport(LocalDate.parse(params.get("from")), LocalDate.parse(params.get("to")), csv);
+            return new Reply(200, "text/csv; charset=utf-8", Files.readAllBytes(csv));
+        } finally {
+            Files.deleteIfExists(csv);
+        }
+    }
+
+    private Reply absences(HttpExchange exchange, User user) {
+        if (!"GET".equals(exchange.getRequestMethod())) return Reply.error(405, "Use GET");
+        if (user.getRole() != User.Role.INSTRUCTOR) return Reply.error(403, "Instructors only");
+        Map<String, String> params = queryParams(exchange);
+        DatabaseManager db = system.getDbManager();
+        if (params.containsKey("through")) {
+            int days = Integer.parseInt(params.getOrDefault("days", "1"));
+            if (days < 1 || days > MAX_REPORT_DAYS) throw new IllegalArgumentException("days must be 1.." + MAX_REPORT_DAYS);
+            return Reply.json(200, "{\"students\":" + idArray(db.getStudentsAbsentConsecutively(LocalDate.parse(params.get("through")), days)) + "}");
+        }
+        LocalDate from = LocalDate.parse(params.containsKey("date") ? params.get("date") : required(params, "from"));
+        LocalDate to = params.containsKey("date") ? from : LocalDate.parse(required(params, "to"));
+        if (to.isBefore(from) || from.plusDays(MAX_REPORT_DAYS).isBefore(to)) {
+            throw new IllegalArgumentException("to must be within " + MAX_REPORT_DAYS + " days after from");
+        }
+        StringBuilder json = new StringBuilder("{");
+        for (Map.Entry<LocalDate, List<String>> day : db.getAbsentStudents(from, to).entrySet()) {
+            if (json.length() > 1) json.append(',');
+            json.append(Json.quote(day.getKey().toString())).append(':').append(idArray(day.getValue()));
+        }
+        return Reply.json(200, json.append('}').toString());
+    }
+
+    private Reply metrics(HttpExchange exchange, User user) {
+        if (!"GET".equals(exchange.getRequestMethod())) return Reply.error(405, "Use GET");
+        if (user.getRole() != User.Role.INSTRUCTOR) return Reply.error(403, "Instructors only");
+        return new Reply(200, "text/plain; charset=utf-8", Metrics.get().dump().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String required(Map<String, String> params, String name) {
+        String value = params.get(name);
+        if (value == null) throw new IllegalArgumentException(name + " is required");
+        return value;
+    }
+
+    private static String idArray(List<String> ids) {
+        StringBuilder json = new StringBuilder("[");
+        for (String id : ids) {
+            if (json.length() > 1) json.append(',');
+            json.append(Json.quote(id));
+        }
+        return json.append(']').toString();
+    }
+
+    private static Map<String, Object> readObject(HttpExchange exchange) throws IOException {
+        byte[] body = exchange.getRequestBody().readNBytes(MAX_BODY_BYTES + 1);
+        if (body.length > MAX_BODY_BYTES) throw new IllegalArgumentException("Request body too large");
+        Object parsed = Json.parse(new String(body, StandardCharsets.UTF_8));
+        if (!(parsed instanceof Map)) throw new IllegalArgumentException("Expected a JSON object");
+        @SuppressWarnings("unchecked")
+        Map<String, Object> object = (Map<String, Object>) parsed;
+        return object;
+    }
+
+    private static String stringField(Map<String, Object> body, String name) {
+        Object value = body.get(name);
+        if (!(value instanceof String)) throw new IllegalArgumentException("Missing string field: " + name);
+        return (String) value;
+    }
+
+    private static Map<String, String> queryParams(HttpExchange exchange) {
+        Map<String, String> params = new HashMap<>();
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query == null) return params;
+        for (String pair : query.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq <= 0) continue;
+            params.put(URLDecoder.decode(pair.substring(0, eq), StandardCharsets.UTF_8),
+                    URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8));
+        }
+        return params;
+    }
+}
+
+/**
+ * Serves one partition of a PartitionedDatabaseManager over loopback TCP.
+ *
+ * Protocol: requests and responses are {@code [int length][payload]} frames with a ModelCodec
+ * payload. A request is an op byte followed by its arguments; a response is a status byte followed
+ * by the result (OK) or a message (ERROR). Each connection carries one request at a time, so
+ * clients pool connections for concurrency.
+ */
+class PartitionServer implements AutoCloseable {
+    static final byte OP_SAVE_USER = 1;
+    static final byte OP_GET_USER = 2;
+    static final byte OP_USERS_BY_ROLE = 3;
+    static final byte OP_SAVE_COURSE = 4;
+    static final byte OP_GET_COURSE = 5;
+    static final byte OP_ALL_COURSES = 6;
+    static final byte OP_COURSES_BY_INSTRUCTOR = 7;
+    static final byte OP_COURSES_BY_STUDENT = 8;
+    static final byte OP_SAVE_ATTENDANCE = 9;
+    static final byte OP_QUERY_ATTENDANCE = 10;
+    static final byte OP_GET_ATTENDANCE_RECORD = 11;
+    static final byte OP_SUMMARY = 12;
+    static final byte OP_BELOW_THRESHOLD = 13;
+    static final byte OP_COURSE_IDS = 14;
+    static final byte OP_USER_IDS = 15;
+    static final byte OP_REMOVE_COURSE = 16;
+    static final byte OP_REMOVE_USER = 17;
+    static final byte OP_SAVE_USERS = 18;
+    static final byte OP_SAVE_COURSES = 19;
+    static final byte OP_ABSENT_STUDENTS = 20;
+
+    static final byte STATUS_OK = 0;
+    static final byte STATUS_ERROR = 1;
+    static final int MAX_FRAME_BYTES = 64 << 20;
+    static final String READY = "PARTITION READY ";
+
+    private final InMemoryDatabaseManager db;
+    private final ServerSocket socket;
+    private final ExecutorService executor = AttendanceHttpServer.newRequestExecutor();
+    private final Set<Socket> connections = ConcurrentHashMap.newKeySet();
+    private volatile boolean closed = false;
+
+    /**
+     * @param port Loopback port to listen on; 0 picks a free one.
+     */
+    public PartitionServer(InMemoryDatabaseManager db, int port) throws IOException {
+        this.db = db;
+        this.socket = new ServerSocket();
+        socket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+    }
+
+    /**
+     * Runs a partition as its own process: {@code java -cp <classpath> PartitionServer [port [dataDir]]}.
+     * With a data directory the partition is a FileDatabaseManager, otherwise it lives in memory.
+     * Prints {@value #READY}<port> once it accepts connections and exits when its stdin closes,
+     * i.e. when the parent process goes away.
+     */
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 0;
+        InMemoryDatabaseManager db = args.length > 1 ? new FileDatabaseManager(Path.of(args[1]), 10) : new InMemoryDatabaseManager();
+        try (PartitionServer server = new PartitionServer(db, port)) {
+            server.start();
+            System.out.println(READY + server.getAddress().getPort());
+            System.out.flush();
+            while (System.in.read() >= 0) {
+                // Nothing is sent on stdin; it only tells us the parent is still alive
+            }
+        }
+    }
+
+    public void start() {
+        Thread acceptor = new Thread(this::acceptLoop, "partition-accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    public InetSocketAddress getAddress() {
+        return (InetSocketAddress) socket.getLocalSocketAddress();
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        socket.close();
+        for (Socket connection : connections) connection.close();
+        executor.shutdown();
+        db.close();
+    }
+
+    private void acceptLoop() {
+        while (!closed) {
+            try {
+                Socket connection = socket.accept();
+                connection.setTcpNoDelay(true);
+                connections.add(connection);
+                executor.execute(() -> serve(connection));
+            } catch (IOException | RejectedExecutionException e) {
+                if (!closed) System.err.println("Partition: Accept failed: " + e.getMessage());
+            }
+        }
+    }
+
+    private void serve(Socket connection) {
+        try (Socket c = connection;
+             DataInputStream in = new DataInputStream(new BufferedInputStream(c.getInputStream(), 1 << 16));
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(c.getOutputStream(), 1 << 16))) {
+            ByteBuffer request;
+            while ((request = readFrame(in)) != null) {
+                writeFrame(out, handle(new ModelCodec.Reader(request)));
+                out.flush();
+            }
+        } catch (IOException e) {
+            if (!closed) System.err.println("Partition: Connection dropped: " + e.getMessage());
+        } finally {
+            connections.remove(connection);
+        }
+    }
+
+    // Runs one request against the local store; a failure goes back to the caller instead of killing the connection
+    private ByteBuffer handle(ModelCodec.Reader in) {
+        ModelCodec.Writer out = new ModelCodec.Writer(256);
+        out.writeByte(STATUS_OK);
+        try {
+            byte op = in.readByte();
+            switch (op) {
+                case OP_SAVE_USER: db.saveUser(in.readUser()); break;
+                case OP_GET_USER: writeUser(out, db.getUser(in.readId())); break;
+                case OP_USERS_BY_ROLE: writeUsers(out, db.getAllUsersByRole(User.Role.values()[in.readVarInt()])); break;
+                case OP_SAVE_COURSE: db.saveCourse(in.readCourse()); break;
+                case OP_GET_COURSE: writeCourse(out, db.getCourse(in.readId())); break;
+                case OP_ALL_COURSES: writeCourses(out, db.getAllCourses()); break;
+                case OP_COURSES_BY_INSTRUCTOR: writeCourses(out, db.getCoursesByInstructor(in.readId())); break;
+                case OP_COURSES_BY_STUDENT: writeCourses(out, db.getCoursesByStudent(in.readId())); break;
+                case OP_SAVE_ATTENDANCE: db.saveAttendanceRecords(readRecords(in)); break;
+                case OP_QUERY_ATTENDANCE: {
+                    String courseId = in.readId();
+                    AttendanceQuery query = readQuery(in);
+                    long limit = in.readVarLong();
+                    try (Stream<AttendanceRecord> records = db.streamAttendance(courseId, query)) {
+                        writeRecords(out, (limit == 0 ? records : records.limit(limit)).collect(Collectors.toList()));
+                    }
+                    break;
+                }
+                case OP_GET_ATTENDANCE_RECORD: {
+                    AttendanceRecord record = db.getAttendanceRecord(in.readId(), in.readId(), readDate(in));
+                    out.writeByte(record == null ? 0 : 1);
+                    if (record != null) out.writeAttendance(record);
+                    break;
+                }
+                case OP_SUMMARY: {
+                    AttendanceSummary summary = db.getAttendanceSummary(in.readId(), in.readId());
+                    out.writeVarInt(summary.getSessionsHeld());
+                    out.writeVarInt(summary.getSessionsPresent());
+                    out.writeVarInt(summary.getCurrentAbsenceStreak());
+                    break;
+                }
+                case OP_BELOW_THRESHOLD: writeIds(out, db.getStudentsBelowThreshold(in.readId(), Double.longBitsToDouble(in.readVarLong()))); break;
+                case OP_COURSE_IDS: {
+                    Set<String> courseIds = new LinkedHashSet<>();
+                    for (Course course : db.getAllCourses()) courseIds.add(course.getCourseId());
+                    courseIds.addAll(db.getAttendanceCourseIds()); // marks can exist for courses never saved here
+                    writeIds(out, new ArrayList<>(courseIds));
+                    break;
+                }
+                case OP_USER_IDS: {
+                    List<String> userIds = new ArrayList<>();
+                    for (User.Role role : User.Role.values()) {
+                        for (User user : db.getAllUsersByRole(role)) userIds.add(user.getUserId());
+                    }
+                    writeIds(out, userIds);
+                    break;
+                }
+                case OP_REMOVE_COURSE: db.removeCourse(in.readId()); break;
+                case OP_REMOVE_USER: db.removeUser(in.readId()); break;
+                case OP_SAVE_USERS: {
+                    int count = in.readVarInt();
+                    List<User> users = new ArrayList<>(count);
+                    for (int i = 0; i < count; i++) users.add(in.readUser());
+                    db.saveUsers(users);
+                    break;
+                }
+                case OP_SAVE_COURSES: {
+                    int count = in.readVarInt();
+                    List<Course> courses = new ArrayList<>(count);
+                    for (int i = 0; i < count; i++) courses.add(in.readCourse());
+                    db.saveCourses(courses);
+                    break;
+                }
+                case OP_ABSENT_STUDENTS: {
+                    SortedMap<LocalDate, List<String>> absent = db.getAbsentStudents(readDate(in), readDate(in));
+                    out.writeVarInt(absent.size());
+                    for (Map.Entry<LocalDate, List<String>> day : absent.entrySet()) {
+                        writeDate(out, day.getKey());
+                        writeIds(out, day.getValue());
+                    }
+                    break;
+                }
+                default: throw new IllegalArgumentException("Unknown op " + op);
+            }
+            return out.toBuffer();
+        } catch (RuntimeException e) {
+            ModelCodec.Writer error = new ModelCodec.Writer(128);
+            error.writeByte(STATUS_ERROR);
+            error.writeString(e.toString());
+            return error.toBuffer();
+        }
+    }
+
+    // --- Framing and argument encoding, shared with PartitionClient ---
+
+    /**
+     * @return The next frame's payload, or null if the peer closed the connection between frames.
+     */
+    static ByteBuffer readFrame(DataInputStream in) throws IOException {
+        int length;
+        try {
+            length = in.readInt();
+        } catch (EOFException e) {
+            return null;
+        }
+        if (length < 0 || length > MAX_FRAME_BYTES) throw new IOException("Cluster: Bad frame length " + length);
+        byte[] payload = new byte[length];
+        in.readFully(payload);
+        return ByteBuffer.wrap(payload);
+    }
+
+    static void writeFrame(DataOutputStream out, ByteBuffer payload) throws IOException {
+        out.writeInt(payload.remaining());
+        out.write(payload.array(), payload.arrayOffset() + payload.position(), payload.remaining());
+    }
+
+    static void writeUser(ModelCodec.Writer out, User user) {
+        out.writeByte(user == null ? 0 : 1);
+        if (user != null) out.writeUser(user);
+    }
+
+    static void writeUsers(ModelCodec.Writer out, List<User> users) {
+        out.writeVarInt(users.size());
+        for (User user : users) out.writeUser(user);
+    }
+
+    static void writeCourse(ModelCodec.Writer out, Course course) {
+        out.writeByte(course == null ? 0 : 1);
+        if (course != null) out.writeCourse(course);
+    }
+
+    static void writeCourses(ModelCodec.Writer out, List<Course> courses) {
+        out.writeVarInt(courses.size());
+        for (Course course : courses) out.writeCourse(course);
+    }
+
+    static void writeRecords(ModelCodec.Writer out, Collection<AttendanceRecord> records) {
+        out.writeVarInt(records.size());
+        for (AttendanceRecord record : records) out.writeAttendance(record);
+    }
+
+    static List<AttendanceRecord> readRecords(ModelCodec.Reader in) {
+        int count = in.readVarInt();
+        List<AttendanceRecord> records = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) records.add(in.readAttendance());
+        return records;
+    }
+
+    static void writeIds(ModelCodec.Writer out, List<String> ids) {
+        out.writeVarInt(ids.size());
+        for (String id : ids) out.writeId(id);
+    }
+
+    static List<String> readIds(ModelCodec.Reader in) {
+        int count = in.readVarInt();
+        List<String> ids = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) ids.add(in.readId());
+        return ids;
+    }
+
+    // Nullable date: 0, or the zig-zagged epoch day plus one
+    static void writeDate(ModelCodec.Writer out, LocalDate date) {
+        out.writeVarLong(date == null ? 0 : ModelCodec.zigZag(date.toEpochDay()) + 1);
+    }
+
+    static LocalDate readDate(ModelCodec.Reader in) {
+        long value = in.readVarLong();
+        return value == 0 ? null : LocalDate.ofEpochDay(ModelCodec.unZigZag(value - 1));
+    }
+
+    static void writeQuery(ModelCodec.Writer out, AttendanceQuery query) {
+        out.writeId(query.getStudentId());
+        writeDate(out, query.getFrom());
+        writeDate(out, query.getTo());
+        out.writeByte(query.getPresent() == null ? 0 : query.getPresent() ? 1 : 2);
+        writeDate(out, query.getResumeAfterDate());
+        out.writeId(query.getResumeAfterStudentId());
+    }
+
+    static AttendanceQuery readQuery(ModelCodec.Reader in) {
+        AttendanceQuery query = AttendanceQuery.all();
+        String studentId = in.readId();
+        if (studentId != null) query.forStudent(studentId);
+        query.between(readDate(in), readDate(in));
+        byte present = in.readByte();
+        if (present == 1) query.presentOnly();
+        if (present == 2) query.absentOnly();
+        LocalDate resumeDate = readDate(in);
+        String resumeStudentId = in.readId();
+        if (resumeDate != null) query.resumeAfter(resumeDate, resumeStudentId);
+        return query;
+    }
+
+    /**
+     * A partition running in a child JVM on this machine, started with this JVM's classpath.
+     * Closing it closes the child's stdin, which makes it shut down cleanly.
+     */
+    static final class LocalProcess implements AutoCloseable {
+        private final Process process;
+        private final InetSocketAddress address;
+
+        private LocalProcess(Process process, InetSocketAddress address) {
+            this.process = process;
+            this.address = address;
+        }
+
+        static LocalProcess start() throws IOException {
+            String java = Path.of(System.getProperty("java.home"), "bin", "java").toString();
+            Process process = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), PartitionServer.class.getName())
+                    .redirectError(ProcessBuilder.Redirect.INHERIT)
+                    .start();
+            BufferedReader output = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+            String line;
+            while ((line = output.readLine()) != null && !line.startsWith(READY)) System.out.println(line);
+            if (line == null) {
+                process.destroyForcibly();
+                throw new IOException("Cluster: Partition process exited before it was ready");
+            }
+            // Keep draining the child's stdout so a chatty partition never blocks on a full pipe
+            Thread drain = new Thread(() -> {
+                try {
+                    for (String next; (next = output.readLine()) != null; ) System.out.println(next);
+                } catch (IOException e) {
+                    // Child exited
+                }
+            }, "partition-output");
+            drain.setDaemon(true);
+            drain.start();
+            int port = Integer.parseInt(line.substring(READY.length()).trim());
+            return new LocalProcess(process, new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+        }
+
+        public InetSocketAddress getAddress() { return address; }
+
+        @Override
+        public void close() {
+            try {
+                process.getOutputStream().close();
+                if (!process.waitFor(5, TimeUnit.SECONDS)) process.destroyForcibly();
+            } catch (IOException e) {
+                process.destroyForcibly();
+            } catch (InterruptedException e) {
+                process.destroyForcibly();
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
+
+/**
+ * DatabaseManager for one remote partition. Requests go over a small pool of loopback connections.
+ * Entities come back as decoded copies: change them and save them again, as with any other
+ * out-of-process store (setPresent on a returned record does not reach the partition).
+ */
+class PartitionClient implements DatabaseManager {
+    // Records per round trip when streaming; a few hundred KB, far below MAX_FRAME_BYTES
+    static final int STREAM_PAGE_RECORDS = 10_000;
+    private static final int MAX_IDLE_CONNECTIONS = 16;
+    private static final int CONNECT_TIMEOUT_MILLIS = 5000;
+    private static final int READ_TIMEOUT_MILLIS = 30000;
+
+    private final InetSocketAddress address;
+    private final BlockingQueue<Connection> idle = new ArrayBlockingQueue<>(MAX_IDLE_CONNECTIONS);
+    private volatile boolean closed = false;
+
+    public PartitionClient(InetSocketAddress address) {
+        this.address = address;
+    }
+
+    public InetSocketAddress getAddress() { return address; }
+
+    @Override
+    public void saveUser(User user) {
+        call(PartitionServer.OP_SAVE_USER, out -> out.writeUser(user), in -> null);
+    }
+
+    @Override
+    public void saveUsers(Collection<User> users) {
+        call(PartitionServer.OP_SAVE_USERS, out -> {
+            out.writeVarInt(users.size());
+            for (User user : users) out.writeUser(user);
+        }, in -> null);
+    }
+
+    @Override
+    public User getUser(String userId) {
+        return call(PartitionServer.OP_GET_USER, out -> out.writeId(userId), in -> in.readByte() == 0 ? null : in.readUser());
+    }
+
+    @Override
+    public List<User> getAllUsersByRole(User.Role role) {
+        return call(PartitionServer.OP_USERS_BY_ROLE, out -> out.writeVarInt(role.ordinal()), in -> {
+            int count = in.readVarInt();
+            List<User> users = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) users.add(in.readUser());
+            return users;
+        });
+    }
+
+    @Override
+    public void saveCourse(Course course) {
+        call(PartitionServer.OP_SAVE_COURSE, out -> out.writeCourse(course), in -> null);
+    }
+
+    @Override
+    public void saveCourses(Collection<Course> courses) {
+        call(PartitionServer.OP_SAVE_COURSES, out -> PartitionServer.writeCourses(out, new ArrayList<>(courses)), in -> null);
+    }
+
+    @Override
+    public Course getCourse(String courseId) {
+        return call(PartitionServer.OP_GET_COURSE, out -> out.writeId(courseId), in -> in.readByte() == 0 ? null : in.readCourse());
+    }
+
+    @Override
+    public List<Course> getAllCourses() {
+        return call(PartitionServer.OP_ALL_COURSES, out -> { }, PartitionClient::readCourses);
+    }
+
+    @Override
+    public List<Course> getCoursesByInstructor(String instructorId) {
+        return call(PartitionServer.OP_COURSES_BY_INSTRUCTOR, out -> out.writeId(instructorId), PartitionClient::readCourses);
+    }
+
+    @Override
+    public List<Course> getCoursesByStudent(String studentId) {
+        return call(PartitionServer.OP_COURSES_BY_STUDENT, out -> out.writeId(studentId), PartitionClient::readCourses);
+    }
+
+    @Override
+    public void saveAttendanceRecord(AttendanceRecord record) {
+        saveAttendanceRecords(Collections.singletonList(record));
+    }
+
+    @Override
+    public void saveAttendanceRecords(Collection<AttendanceRecord> records) {
+        call(PartitionServer.OP_SAVE_ATTENDANCE, out -> PartitionServer.writeRecords(out, records), in -> null);
+    }
+
+    @Override
+    public List<AttendanceRecord> getAttendanceForCourse(String courseId) {
+        try (Stream<AttendanceRecord> records = streamAttendance(courseId, AttendanceQuery.all())) {
+            return records.collect(Collectors.toList());
+        }
+    }
+
+    @Override
+    public List<AttendanceRecord> getAttendanceForStudentInCourse(String studentId, String courseId) {
+        try (Stream<AttendanceRecord> records = streamAttendance(courseId, AttendanceQuery.all().forStudent(studentId))) {
+            return records.collect(Collectors.toList());
+        }
+    }
+
+    @Override
+    public AttendanceRecord getAttendanceRecord(String courseId, String studentId, LocalDate date) {
+        return call(PartitionServer.OP_GET_ATTENDANCE_RECORD, out -> {
+            out.writeId(courseId);
+            out.writeId(studentId);
+            PartitionServer.writeDate(out, date);
+        }, in -> in.readByte() == 0 ? null : in.readAttendance());
+    }
+
+    @Override
+    public AttendanceSummary getAttendanceSummary(String studentId, String courseId) {
+        return call(PartitionServer.OP_SUMMARY, out -> {
+            out.writeId(studentId);
+            out.writeId(courseId);
+        }, in -> new AttendanceSummary(studentId, courseId, in.readVarInt(), in.readVarInt(), in.readVarInt()));
+    }
+
+    @Override
+    public List<String> getStudentsBelowThreshold(String courseId, double thresholdPercent) {
+        return call(PartitionServer.OP_BELOW_THRESHOLD, out -> {
+            out.writeId(courseId);
+            out.writeVarLong(Double.doubleToLongBits(thresholdPercent));
+        }, PartitionServer::readIds);
+    }
+
+    @Override
+    public SortedMap<LocalDate, List<String>> getAbsentStudents(LocalDate from, LocalDate to) {
+        return call(PartitionServer.OP_ABSENT_STUDENTS, out -> {
+            PartitionServer.writeDate(out, from);
+            PartitionServer.writeDate(out, to);
+        }, in -> {
+            SortedMap<LocalDate, List<String>> absent = new TreeMap<>();
+            for (int days = in.readVarInt(); days > 0; days--) absent.put(PartitionServer.readDate(in), PartitionServer.readIds(in));
+            return absent;
+        });
+    }
+
+    // Fetched STREAM_PAGE_RECORDS at a time, so no course is too big for one frame
+    @Override
+    public Stream<AttendanceRecord> streamAttendance(String courseId, AttendanceQuery query) {
+        return AttendancePage.stream(token -> getAttendancePage(courseId, query, token, STREAM_PAGE_RECORDS));
+    }
+
+    // Pushes the page size down, so a page costs one round trip of pageSize + 1 records
+    @Override
+    public AttendancePage getAttendancePage(String courseId, AttendanceQuery query, String pageToken, int pageSize) {
+        return AttendancePage.of(query(courseId, AttendancePage.resume(query, pageToken), pageSize + 1L), pageSize);
+    }
+
+    /**
+     * @return Ids of every course the partition holds a course or marks for.
+     */
+    public List<String> getCourseIds() {
+        return call(PartitionServer.OP_COURSE_IDS, out -> { }, PartitionServer::readIds);
+    }
+
+    public List<String> getUserIds() {
+        return call(PartitionServer.OP_USER_IDS, out -> { }, PartitionServer::readIds);
+    }
+
+    /**
+     * Deletes a course and its attendance from the partition.
+     */
+    public void removeCourse(String courseId) {
+        call(PartitionServer.OP_REMOVE_COURSE, out -> out.writeId(courseId), in -> null);
+    }
+
+    public void removeUser(String userId) {
+        call(PartitionServer.OP_REMOVE_USER, out -> out.writeId(userId), in -> null);
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        for (Connection connection; (connection = idle.poll()) != null; ) connection.close();
+    }
+
+    private List<AttendanceRecord> query(String courseId, AttendanceQuery query, long limit) {
+        return call(PartitionServer.OP_QUERY_ATTENDANCE, out -> {
+            out.writeId(courseId);
+            PartitionServer.writeQuery(out, query);
+            out.writeVarLong(limit);
+        }, PartitionServer::readRecords);
+    }
+
+    private static List<Course> readCourses(ModelCodec.Reader in) {
+        int count = in.readVarInt();
+        List<Course> courses = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) courses.add(in.readCourse());
+        return courses;
+    }
+
+    private interface RequestWriter {
+        void write(ModelCodec.Writer out);
+    }
+
+    private interface ResponseReader<T> {
+        T read(ModelCodec.Reader in);
+    }
+
+    /**
+     * Sends one request and decodes the response.
+     * @throws UncheckedIOException if the partition cannot be reached.
+     * @throws IllegalStateException if the partition reports an error.
+     */
+    private <T> T call(byte op, RequestWriter request, ResponseReader<T> response) {
+        ModelCodec.Writer out = new ModelCodec.Writer(256);
+        out.writeByte(op);
+        request.write(out);
+        ByteBuffer frame = out.toBuffer();
+        for (int attempt = 0; ; attempt++) {
+            Connection connection = null;
+            ByteBuffer reply;
+            try {
+                connection = borrow();
+                reply = connection.exchange(frame.duplicate());
+            } catch (IOException e) {
+                if (connection != null) connection.close();
+                // Every op is idempotent (saves overwrite), so one retry on a fresh connection covers a stale pooled one
+                if (attempt > 0 || closed) throw new UncheckedIOException("Cluster: Partition " + address + " unreachable", e);
+                continue;
+            }
+            release(connection);
+            ModelCodec.Reader in = new ModelCodec.Reader(reply);
+            if (in.readByte() != PartitionServer.STATUS_OK) {
+                throw new IllegalStateException("Cluster: Partition " + address + " failed: " + in.readString());
+            }
+            return response.read(in);
+        }
+    }
+
+    private Connection borrow() throws IOException {
+        if (closed) throw new IOException("Cluster: Client is closed");
+        Connection connection = idle.poll();
+        return connection != null ? connection : new Connection(address);
+    }
+
+    private void release(Connection connection) {
+        if (closed || !idle.offer(connection)) connection.close();
+    }
+
+    private static final class Connection {
+        private final Socket socket;
+        private final DataInputStream in;
+        private final DataOutputStream out;
+
+        Connection(InetSocketAddress address) throws IOException {
+            socket = new Socket();
+            try {
+                socket.connect(address, CONNECT_TIMEOUT_MILLIS);
+                socket.setTcpNoDelay(true);
+                socket.setSoTimeout(READ_TIMEOUT_MILLIS);
+                in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16));
+                out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16));
+            } catch (IOException e) {
+                socket.close();
+                throw e;
+            }
+        }
+
+        ByteBuffer exchange(ByteBuffer request) throws IOException {
+            PartitionServer.writeFrame(out, request);
+            out.flush();
+            ByteBuffer reply = PartitionServer.readFrame(in);
+            if (reply == null) throw new EOFException("Cluster: Partition closed the connection");
+            return reply;
+        }
+
+        void close() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Nothing left to release
+            }
+        }
+    }
+}
+
+/**
+ * Consistent-hash ring over partitions 0..n-1. Each partition owns {@value #POINTS_PER_PARTITION}
+ * points; a key belongs to the first point at or after its hash. Growing the ring from n to n + 1
+ * partitions moves only the keys that land on the new partition's points, about 1/(n + 1) of them.
+ */
+final class HashRing {
+    static final int POINTS_PER_PARTITION = 128;
+
+    private final int partitionCount;
+    private final long[] points; // sorted
+    private final int[] owners;
+
+    HashRing(int partitionCount) {
+        this.partitionCount = partitionCount;
+        TreeMap<Long, Integer> ring = new TreeMap<>();
+        for (int p = 0; p < partitionCount; p++) {
+            for (int i = 0; i < POINTS_PER_PARTITION; i++) ring.putIfAbsent(hash("partition-" + p + "#" + i), p);
+        }
+        points = new long[ring.size()];
+        owners = new int[ring.size()];
+        int i = 0;
+        for (Map.Entry<Long, Integer> point : ring.entrySet()) {
+            points[i] = point.getKey();
+            owners[i++] = point.getValue();
+        }
+    }
+
+    int getPartitionCount() { return partitionCount; }
+
+    int ownerOf(String key) {
+        int i = Arrays.binarySearch(points, hash(key));
+        if (i < 0) i = -i - 1;
+        return owners[i == points.length ? 0 : i];
+    }
+
+    // 64-bit FNV-1a over the chars, then the MurmurHash3 finalizer to spread similar ids around the ring
+    static long hash(String key) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            h ^= key.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
+
+/**
+ * Shards the campus across partitions: courses and their attendance by courseId, users by userId,
+ * on a consistent-hash ring. Single-course and single-user operations go to the owning partition;
+ * cross-course queries (getCoursesByStudent, getAllCourses, ...) are sent to every partition in
+ * parallel and merged.
+ *
+ * addPartition rebalances online. The keys that change owner are listed while writes are paused
+ * for that one scan; each key is then copied to its new partition under its own stripe lock,
+ * so only operations on the key being moved wait. Keys not yet moved keep going to their old
+ * owner, everything else (including keys created meanwhile) to the new one.
+ *
+ * The old copy of a key is deleted before the key is routed to its new owner, so a key found on a
+ * partition that does not own it has not moved yet. That is all the rebalance state there is:
+ * the constructor finds such keys and routes them to where they are, so after a restart mid-move
+ * reads still find them and rebalance() finishes the move.
+ */
+class PartitionedDatabaseManager implements DatabaseManager {
+    private static final int STRIPES = 256;
+    private static final int MOVE_BATCH = 4096;
+
+    private final List<PartitionClient> partitions = new CopyOnWriteArrayList<>();
+    private final List<PartitionServer.LocalProcess> processes = new CopyOnWriteArrayList<>(); // partitions this router started
+    private final ReentrantReadWriteLock[] stripes = new ReentrantReadWriteLock[STRIPES];
+    private final ExecutorService scatter = AttendanceHttpServer.newRequestExecutor();
+    private volatile Routing routing;
+
+    /**
+     * Connects and lists every partition's keys to pick up a rebalance that was cut short.
+     * @param addresses Partitions in ring order, including any added by an unfinished rebalance;
+     *                  reconnect with the same order to find the same keys.
+     * @throws UncheckedIOException if a partition cannot be reached.
+     */
+    public PartitionedDatabaseManager(List<InetSocketAddress> addresses) {
+        if (addresses.isEmpty()) throw new IllegalArgumentException("At least one partition is required");
+        for (int i = 0; i < STRIPES; i++) stripes[i] = new ReentrantReadWriteLock();
+        for (InetSocketAddress address : addresses) partitions.add(new PartitionClient(address));
+        routing = unmovedKeys(new HashRing(addresses.size()));
+        if (routing.isRebalancing()) {
+            System.err.println("Partition: " + routing.movingKeyCount() + " keys are not on their owner yet; call rebalance() to move them");
+        }
+    }
+
+    /**
+     * Starts the given number of partition processes on this machine and routes over them.
+     * The processes stop when this manager is closed.
+     */
+    public static PartitionedDatabaseManager launchLocal(int partitionCount) throws IOException {
+        List<PartitionServer.LocalProcess> started = new ArrayList<>();
+        try {
+            for (int i = 0; i < partitionCount; i++) started.add(PartitionServer.LocalProcess.start());
+        } catch (IOException e) {
+            for (PartitionServer.LocalProcess process : started) process.close();
+            throw e;
+        }
+        List<InetSocketAddress> addresses = new ArrayList<>();
+        for (PartitionServer.LocalProcess process : started) addresses.add(process.getAddress());
+        PartitionedDatabaseManager manager = new PartitionedDatabaseManager(addresses);
+        manager.processes.addAll(started);
+        return manager;
+    }
+
+    /**
+     * Starts one more local partition process and rebalances onto it.
+     */
+    public InetSocketAddress addLocalPartition() throws IOException {
+        PartitionServer.LocalProcess process = PartitionServer.LocalProcess.start();
+        processes.add(process);
+        addPartition(process.getAddress());
+        return process.getAddress();
+    }
+
+    /**
+     * Adds a partition and moves the keys it now owns onto it, while the cluster keeps serving.
+     * If a partition fails midway the exception propagates; routing stays correct (unmoved keys
+     * still go to their old owner) and the next addPartition or rebalance() finishes the move.
+     * @throws IllegalStateException if keys from an earlier rebalance still cannot be moved.
+     */
+    public synchronized void addPartition(InetSocketAddress address) {
+        rebalance();
+        if (routing.isRebalancing()) {
+            throw new IllegalStateException("Partition: " + routing.movingKeyCount() + " keys from the last rebalance are not moved yet");
+        }
+        partitions.add(new PartitionClient(address));
+        lockAll();
+        try {
+            routing = unmovedKeys(new HashRing(partitions.size()));
+        } finally {
+            unlockAll();
+        }
+        rebalance();
+    }
+
+    /**
+     * Moves every key not yet on its owner there; a no-op otherwise. A key whose old copy cannot
+     * be deleted stays where it is, still served from there, and the next call moves it again.
+     */
+    public synchronized void rebalance() {
+        Routing moving = routing;
+        for (Map.Entry<String, Integer> entry : moving.movingCourses.entrySet()) {
+            String courseId = entry.getKey();
+            PartitionClient from = partitions.get(entry.getValue());
+            PartitionClient to = partitions.get(moving.ring.ownerOf(courseId));
+            moveKey(courseId, moving.movingCourses, () -> {
+                to.removeCourse(courseId); // whatever an interrupted copy left there
+                Course course = from.getCourse(courseId);
+                if (course != null) to.saveCourse(course);
+                // A page at a time, so a big course never has to fit in one frame or in memory
+                String token = null;
+                do {
+                    AttendancePage page = from.getAttendancePage(courseId, AttendanceQuery.all(), token, MOVE_BATCH);
+                    if (!page.getRecords().isEmpty()) to.saveAttendanceRecords(page.getRecords());
+                    token = page.getNextPageToken();
+                } while (token != null);
+            }, () -> from.removeCourse(courseId));
+        }
+        for (Map.Entry<String, Integer> entry : moving.movingUsers.entrySet()) {
+            String userId = entry.getKey();
+            PartitionClient from = partitions.get(entry.getValue());
+            moveKey(userId, moving.movingUsers, () -> {
+                User user = from.getUser(userId);
+                if (user != null) partitions.get(moving.ring.ownerOf(userId)).saveUser(user);
+            }, () -> from.removeUser(userId));
+        }
+        if (moving.isRebalancing()) {
+            System.err.println("Partition: " + moving.movingKeyCount() + " keys could not be deleted from their old partition; rebalance() retries");
+        }
+    }
+
+    // Lists, per partition, the keys it holds but does not own on the ring. Partitions are asked one
+    // at a time; callers that race with writes hold every stripe.
+    private Routing unmovedKeys(HashRing ring) {
+        Map<String, Integer> movingCourses = new ConcurrentHashMap<>();
+        Map<String, Integer> movingUsers = new ConcurrentHashMap<>();
+        for (int p = 0; p < partitions.size(); p++) {
+            for (String courseId : partitions.get(p).getCourseIds()) {
+                if (ring.ownerOf(courseId) != p) movingCourses.put(courseId, p);
+            }
+            for (String userId : partitions.get(p).getUserIds()) {
+                if (ring.ownerOf(userId) != p) movingUsers.put(userId, p);
+            }
+        }
+        return new Routing(ring, movingCourses, movingUsers);
+    }
+
+    public int getPartitionCount() {
+        return routing.ring.getPartitionCount();
+    }
+
+    public boolean isRebalancing() {
+        return routing.isRebalancing();
+    }
+
+    // --- User Operations ---
+    @Override
+    public void saveUser(User user) {
+        onUser(user.getUserId(), p -> {
+            p.saveUser(user);
+            return null;
+        });
+    }
+
+    @Override
+    public void saveUsers(Collection<User> users) {
+        saveGrouped(users, User::getUserId, true, PartitionClient::saveUsers);
+    }
+
+    @Override
+    public User getUser(String userId) {
+        return onUser(userId, p -> p.getUser(userId));
+    }
+
+    @Override
+    public List<User> getAllUsersByRole(User.Role role) {
+        return gather(p -> p.getAllUsersByRole(role), User::getUserId, true);
+    }
+
+    // --- Course Operations ---
+    @Override
+    public void saveCourse(Course course) {
+        onCourse(course.getCourseId(), p -> {
+            p.saveCourse(course);
+            return null;
+        });
+    }
+
+    @Override
+    public void saveCourses(Collection<Course> courses) {
+        saveGrouped(courses, Course::getCourseId, false, PartitionClient::saveCourses);
+    }
+
+    @Override
+    public Course getCourse(String courseId) {
+        return onCourse(courseId, p -> p.getCourse(courseId));
+    }
+
+    @Override
+    public List<Course> getAllCourses() {
+        return gather(PartitionClient::getAllCourses, Course::getCourseId, false);
+    }
+
+    @Override
+    public List<Course> getCoursesByInstructor(String instructorId) {
+        return gather(p -> p.getCoursesByInstructor(instructorId), Course::getCourseId, false);
+    }
+
+    @Override
+    public List<Course> getCoursesByStudent(String studentId) {
+        return gather(p -> p.getCoursesByStudent(studentId), Course::getCourseId, false);
+    }
+
+    // --- Attendance Operations ---
+    @Override
+    public void saveAttendanceRecord(AttendanceRecord record) {
+        saveAttendanceRecords(Collections.singletonList(record));
+    }
+
+    @Override
+    public void saveAttendanceRecords(Collection<AttendanceRecord> records) {
+        saveGrouped(records, AttendanceRecord::getCourseId, false, PartitionClient::saveAttendanceRecords);
+    }
+
+    @Override
+    public List<AttendanceRecord> getAttendanceForCourse(String courseId) {
+        return onCourse(courseId, p -> p.getAttendanceForCourse(courseId));
+    }
+
+    @Override
+    public List<AttendanceRecord> getAttendanceForStudentInCourse(String studentId, String courseId) {
+        return onCourse(courseId, p -> p.getAttendanceForStudentInCourse(studentId, courseId));
+    }
+
+    @Override
+    public AttendanceRecord getAttendanceRecord(String courseId, String studentId, LocalDate date) {
+        return onCourse(courseId, p -> p.getAttendanceRecord(courseId, studentId, date));
+    }
+
+    @Override
+    public AttendanceSummary getAttendanceSummary(String studentId, String courseId) {
+        return onCourse(courseId, p -> p.getAttendanceSummary(studentId, courseId));
+    }
+
+    @Override
+    public List<String> getStudentsBelowThreshold(String courseId, double thresholdPercent) {
+        return onCourse(courseId, p -> p.getStudentsBelowThreshold(courseId, thresholdPercent));
+    }
+
+    // Routed page by page, so a stream that outlives a move of its course follows it
+    @Override
+    public Stream<AttendanceRecord> streamAttendance(String courseId, AttendanceQuery query) {
+        return AttendancePage.stream(token -> getAttendancePage(courseId, query, token, PartitionClient.STREAM_PAGE_RECORDS));
+    }
+
+    @Override
+    public AttendancePage getAttendancePage(String courseId, AttendanceQuery query, String pageToken, int pageSize) {
+        return onCourse(courseId, p -> p.getAttendancePage(courseId, query, pageToken, pageSize));
+    }
+
+    /**
+     * Asks every partition's index at once and unions the days, since a student's courses can sit on
+     * different partitions. Streaks use the default on top of this, so they see the merged days.
+     */
+    @Override
+    public SortedMap<LocalDate, List<String>> getAbsentStudents(LocalDate from, LocalDate to) {
+        List<CompletableFuture<SortedMap<LocalDate, List<String>>>> replies = new ArrayList<>();
+        for (PartitionClient partition : partitions) {
+            replies.add(CompletableFuture.supplyAsync(() -> partition.getAbsentStudents(from, to), scatter));
+        }
+        Map<LocalDate, Set<String>> merged = new TreeMap<>();
+        for (CompletableFuture<SortedMap<LocalDate, List<String>>> reply : replies) {
+            for (Map.Entry<LocalDate, List<String>> day : join(reply).entrySet()) {
+                merged.computeIfAbsent(day.getKey(), d -> new LinkedHashSet<>()).addAll(day.getValue());
+            }
+        }
+        SortedMap<LocalDate, List<String>> result = new TreeMap<>();
+        for (Map.Entry<LocalDate, Set<String>> day : merged.entrySet()) result.put(day.getKey(), new ArrayList<>(day.getValue()));
+        return result;
+    }
+
+    /**
+     * Disconnects from the partitions and stops the ones this manager started.
+     */
+    @Override
+    public void close() {
+        scatter.shutdown();
+        for (PartitionClient partition : partitions) partition.close();
+        for (PartitionServer.LocalProcess process : processes) process.close();
+    }
+
+    private <T> T onCourse(String courseId, Function<PartitionClient, T> action) {
+        ReentrantReadWriteLock.ReadLock lock = stripes[stripeIndex(courseId)].readLock();
+        lock.lock();
+        try {
+            return action.apply(partitions.get(routing.courseOwner(courseId)));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private <T> T onUser(String userId, Function<PartitionClient, T> action) {
+        ReentrantReadWriteLock.ReadLock lock = stripes[stripeIndex(userId)].readLock();
+        lock.lock();
+        try {
+            return action.apply(partitions.get(routing.userOwner(userId)));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Splits a batch by owning partition; the parts are sent in parallel, each as one batch
+    private <T> void saveGrouped(Collection<T> items, Function<T, String> keyOf, boolean users, BiConsumer<PartitionClient, List<T>> send) {
+        boolean[] needed = new boolean[STRIPES];
+        for (T item : items) needed[stripeIndex(keyOf.apply(item))] = true;
+        for (int i = 0; i < STRIPES; i++) if (needed[i]) stripes[i].readLock().lock();
+        try {
+            Routing current = routing;
+            Map<Integer, List<T>> byPartition = new HashMap<>();
+            for (T item : items) {
+                String key = keyOf.apply(item);
+                byPartition.computeIfAbsent(users ? current.userOwner(key) : current.courseOwner(key), p -> new ArrayList<>()).add(item);
+            }
+            if (byPartition.size() == 1) {
+                Map.Entry<Integer, List<T>> only = byPartition.entrySet().iterator().next();
+                send.accept(partitions.get(only.getKey()), only.getValue());
+                return;
+            }
+            List<CompletableFuture<Void>> sends = new ArrayList<>();
+            for (Map.Entry<Integer, List<T>> part : byPartition.entrySet()) {
+                PartitionClient partition = partitions.get(part.getKey());
+                sends.add(CompletableFuture.runAsync(() -> send.accept(partition, part.getValue()), scatter));
+            }
+            for (CompletableFuture<Void> sent : sends) join(sent);
+        } finally {
+            for (int i = STRIPES - 1; i >= 0; i--) if (needed[i]) stripes[i].readLock().unlock();
+        }
+    }
+
+    // Copies a key to its new owner with its stripe held exclusively, deletes the old copy, then
+    // routes it to the new owner. A failed copy propagates; a failed delete leaves the key where it
+    // was, complete and still routed there.
+    private void moveKey(String key, Map<String, Integer> moving, Runnable copy, Runnable dropOld) {
+        ReentrantReadWriteLock.WriteLock lock = stripes[stripeIndex(key)].writeLock();
+        lock.lock();
+        try {
+            copy.run();
+            try {
+                dropOld.run();
+            } catch (RuntimeException e) {
+                return;
+            }
+            moving.remove(key);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Asks every partition at once. A key seen twice (mid-move) is kept once: the copy from the
+    // partition it is routed to, or the first one if that partition didn't return it
+    private <T> List<T> gather(Function<PartitionClient, List<T>> query, Function<T, String> idOf, boolean users) {
+        List<CompletableFuture<List<T>>> replies = new ArrayList<>();
+        for (PartitionClient partition : partitions) {
+            replies.add(CompletableFuture.supplyAsync(() -> query.apply(partition), scatter));
+        }
+        Routing current = routing;
+        Map<String, T> merged = new LinkedHashMap<>();
+        Set<String> fromOwner = new HashSet<>();
+        for (int p = 0; p < replies.size(); p++) {
+            for (T item : join(replies.get(p))) {
+                String id = idOf.apply(item);
+                if ((users ? current.userOwner(id) : current.courseOwner(id)) == p) {
+                    merged.put(id, item);
+                    fromOwner.add(id);
+                } else if (!fromOwner.contains(id)) {
+                    merged.putIfAbsent(id, item);
+                }
+            }
+        }
+        return new ArrayList<>(merged.values());
+    }
+
+    private static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            throw e;
+        }
+    }
+
+    private void lockAll() {
+        for (ReentrantReadWriteLock stripe : stripes) stripe.writeLock().lock();
+    }
+
+    private void unlockAll() {
+        for (int i = STRIPES - 1; i >= 0; i--) stripes[i].writeLock().unlock();
+    }
+
+    private static int stripeIndex(String key) {
+        return (key.hashCode() & 0x7fffffff) % STRIPES;
+    }
+
+    /**
+     * Routing table; replaced as a whole when the ring changes. Keys not yet moved to their owner
+     * on the ring are listed with the partition holding them and go there; a key leaves the list
+     * once it has moved.
+     */
+    private static final class Routing {
+        final HashRing ring;
+        final Map<String, Integer> movingCourses;
+        final Map<String, Integer> movingUsers;
+
+        Routing(HashRing ring, Map<String, Integer> movingCourses, Map<String, Integer> movingUsers) {
+            this.ring = ring;
+            this.movingCourses = movingCourses;
+            this.movingUsers = movingUsers;
+        }
+
+        int courseOwner(String courseId) {
+            Integer holder = movingCourses.get(courseId);
+            return holder != null ? holder : ring.ownerOf(courseId);
+        }
+
+        int userOwner(String userId) {
+            Integer holder = movingUsers.get(userId);
+            return holder != null ? holder : ring.ownerOf(userId);
+        }
+
+        boolean isRebalancing() {
+            return !movingCourses.isEmpty() || !movingUsers.isEmpty();
+        }
+
+        int movingKeyCount() {
+            return movingCourses.size() + movingUsers.size();
+        }
+    }
+}
+
+// --- Conceptual Android Activity/Fragment Integration ---
+/*
+// Example of how you might use these managers in an Android Activity/Fragment
+// This is NOT runnable code as it requires Android SDK, project setup, and actual database implementation.
+
+import android.os.Bundle;
+import androidx.appcompat.app.AppCompatActivity;
+import android.widget.Button;
+import android.widget.EditText;
+import android.widget.RadioGroup;
+import android.widget.RadioButton;
+import android.widget.Toast;
+import android.content.Intent;
+import android.view.View;
+
+// For Firebase integration, you'd need:
+// import com.google.firebase.FirebaseApp;
+// import com.google.firebase.auth.FirebaseAuth;
+// import com.google.firebase.firestore.FirebaseFirestore;
+
+public class LoginActivity extends AppCompatActivity {
+
+    private EditText etUsernameEmail, etPassword;
+    private Button btnLogin, btnRegister;
+    private UniversityAttendanceSystem appSystem; // Main system instance
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_login); // Your login layout
+
+        // Initialize your main system
+        // In a real app, this might be a singleton or passed via Application class
+        appSystem = new UniversityAttendanceSystem();
+
+        etUsernameEmail = findViewById(R.id.etUsernameEmail);
+        etPassword = findViewById(R.id.etPassword);
+        btnLogin = findViewById(R.id.btnLogin);
+        btnRegister = findViewById(R.id.btnRegister);
+
+        btnLogin.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                String usernameEmail = etUsernameEmail.getText().toString().trim();
+                String password = etPassword.getText().toString().trim();
+
+                User loggedInUser = appSystem.getAuthManager().loginUser(usernameEmail, password);
+                if (loggedInUser != null) {
+                    Toast.makeText(LoginActivity.this, "Login Successful!", Toast.LENGTH_SHORT).show();
+                    // Navigate to appropriate dashboard based on role
+                    Intent intent;
+                    if (loggedInUser.getRole() == User.Role.STUDENT) {
+                        intent = new Intent(LoginActivity.this, StudentDashboardActivity.class);
+                    } else {
+                        intent = new Intent(LoginActivity.this, InstructorDashboardActivity.class);
+                    }
+                    startActivity(intent);
+                    finish(); // Close login activity
+                } else {
+                    Toast.makeText(LoginActivity.this, "Login Failed: Invalid credentials.", Toast.LENGTH_LONG).show();
+                }
+            }
+        });
+
+        btnRegister.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                // Navigate to registration activity
+                Intent intent = new Intent(LoginActivity.this, RegisterActivity.class);
+                startActivity(intent);
+            }
+        });
+    }
+}
+
+public class RegisterActivity extends AppCompatActivity {
+    private EditText etRegUsername, etRegEmail, etRegPassword, etRegFullName;
+    private RadioGroup rgRole;
+    private Button btnSubmitRegister;
+    private UniversityAttendanceSystem appSystem;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_register); // Your registration layout
+
+        appSystem = new UniversityAttendanceSystem(); // Or get from Application class
+
+        etRegUsername = findViewById(R.id.etRegUsername);
+        etRegEmail = findViewById(R.id.etRegEmail);
+        etRegPassword = findViewById(R.id.etRegPassword);
+        etRegFullName = findViewById(R.id.etRegFullName);
+        rgRole = findViewById(R.id.rgRole);
+        btnSubmitRegister = findViewById(R.id.btnSubmitRegister);
+
+        btnSubmitRegister.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                String username = etRegUsername.getText().toString().trim();
+                String email = etRegEmail.getText().toString().trim();
+                String password = etRegPassword.getText().toString().trim();
+                String fullName = etRegFullName.getText().toString().trim();
+
+                int selectedRoleId = rgRole.getCheckedRadioButtonId();
+                User.Role role = null;
+                if (selectedRoleId == R.id.rbStudent) {
+                    role = User.Role.STUDENT;
+                } else if (selectedRoleId == R.id.rbInstructor) {
+                    role = User.Role.INSTRUCTOR;
+                }
+
+                if (username.isEmpty() || email.isEmpty() || password.isEmpty() || fullName.isEmpty() || role == null) {
+                    Toast.makeText(RegisterActivity.this, "Please fill all fields!", Toast.LENGTH_SHORT).show();
+                    return;
+                }
+
+                User newUser = appSystem.getAuthManager().registerUser(username, email, password, role, fullName);
+                if (newUser != null) {
+                    Toast.makeText(RegisterActivity.this, "Registration successful!", Toast.LENGTH_SHORT).show();
+                    finish(); // Go back to login
+                } else {
+                    Toast.makeText(RegisterActivity.this, "Registration failed. Try different username/email.", Toast.LENGTH_LONG).show();
+                }
+            }
+        });
+    }
+}
+
+// Conceptual Student Dashboard Activity
+public class StudentDashboardActivity extends AppCompatActivity {
+    // ... UI elements for displaying courses, marking attendance ...
+    // private UniversityAttendanceSystem appSystem;
+    // private User currentUser;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_student_dashboard);
+
+        // currentUser = appSystem.getAuthManager().getCurrentUser(); // Get logged in user
+
+        // Fetch courses for this student using appSystem.getDbManager().getCoursesByStudent(currentUser.getUserId());
+        // Display them in a RecyclerView
+        // Implement logic for marking attendance (e.g., button click marks present for today)
+    }
+}
+
+// Conceptual Instructor Dashboard Activity
+public class InstructorDashboardActivity extends AppCompatActivity {
+    // ... UI elements for managing courses, viewing student rosters, marking attendance ...
+    // private UniversityAttendanceSystem appSystem;
+    // private User currentUser;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_instructor_dashboard);
+
+        // currentUser = appSystem.getAuthManager().getCurrentUser(); // Get logged in user
+
+        // Fetch courses taught by this instructor using appSystem.getDbManager().getCoursesByInstructor(currentUser.getUserId());
+        // Display them in a RecyclerView
+        // Implement logic for viewing student attendance, adding/removing students from courses
+    }
+}
+*/
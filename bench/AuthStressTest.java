@@ -0,0 +1,118 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Stress test for the shared AuthenticationManager: thousands of threads' worth of concurrent
+ * registrations, logins, session lookups and profile edits, then checks that nothing was lost
+ * and no username or email slipped in twice.
+ *
+ * Usage: java -cp out AuthStressTest [threads [usernames]]
+ */
+class AuthStressTest {
+    private static final int ATTEMPTS_PER_NAME = 4;
+
+    public static void main(String[] args) throws Exception {
+        int threads = Harness.intArg(args, 0, 64);
+        int names = Harness.intArg(args, 1, 5_000);
+        Harness.silenceApp();
+        InMemoryDatabaseManager db = new InMemoryDatabaseManager();
+        AuthenticationManager auth = new AuthenticationManager(db, Harness.plainHasher(), Harness.noRateLimit(), 4, 1 << 20);
+        int seeded = db.getAllUsersByRole(User.Role.STUDENT).size(); // the manager's demo accounts
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            // Every name is registered several times at once, in different cases and with different
+            // emails; half the attempts also reuse another name's email
+            CountDownLatch start = new CountDownLatch(1);
+            Map<String, User> winners = new ConcurrentHashMap<>(); // lower-cased username -> registered user
+            AtomicInteger duplicates = new AtomicInteger();
+            List<Future<?>> work = new ArrayList<>();
+            for (int attempt = 0; attempt < ATTEMPTS_PER_NAME; attempt++) {
+                for (int n = 0; n < names; n++) {
+                    int name = n;
+                    int variant = attempt;
+                    work.add(pool.submit(() -> {
+                        start.await();
+                        String username = variant % 2 == 0 ? "student" + name : "STUDENT" + name;
+                        String email = variant < 2 ? "s" + name + "@campus.edu" : "s" + ((name + 1) % names) + "@CAMPUS.edu";
+                        User user = auth.registerUser(username, email, "pw" + name, User.Role.STUDENT, "Student " + name);
+                        if (user != null && winners.putIfAbsent(username.toLowerCase(Locale.ROOT), user) != null) duplicates.incrementAndGet();
+                        return null;
+                    }));
+                }
+            }
+            long t0 = System.nanoTime();
+            start.countDown();
+            for (Future<?> f : work) f.get();
+            long registerNanos = System.nanoTime() - t0;
+            Harness.report("registrations: %d attempts in %d ms", work.size(), registerNanos / 1_000_000);
+
+            Harness.check(duplicates.get() == 0, "no username registered twice (" + duplicates.get() + ")");
+            Set<String> emails = ConcurrentHashMap.newKeySet();
+            for (User user : winners.values()) emails.add(user.getEmail().toLowerCase(Locale.ROOT));
+            Harness.check(emails.size() == winners.size(), "no email registered twice");
+            int stored = db.getAllUsersByRole(User.Role.STUDENT).size() - seeded;
+            Harness.check(stored == winners.size(), "every registration reached storage (" + stored + " of " + winners.size() + ")");
+            int found = 0;
+            for (User user : winners.values()) {
+                if (auth.findByUsernameOrEmail(user.getUsername()) == user && auth.findByUsernameOrEmail(user.getEmail()) == user) found++;
+            }
+            Harness.check(found == winners.size(), "every registered user is found by username and email");
+
+            // Concurrent logins, each with its own session, plus lookups of the sessions just made
+            List<Future<String>> logins = new ArrayList<>();
+            List<User> users = new ArrayList<>(winners.values());
+            t0 = System.nanoTime();
+            for (int round = 0; round < 4; round++) {
+                for (User user : users) {
+                    logins.add(pool.submit(() -> {
+                        String number = user.getUsername().replaceAll("\\D", "");
+                        String token = auth.loginForSession(user.getUsername().toUpperCase(Locale.ROOT), "pw" + number, null);
+                        User resolved = token == null ? null : auth.getUserForSession(token);
+                        return resolved == null ? null : resolved.getUserId().equals(user.getUserId()) ? token : "wrong user";
+                    }));
+                }
+            }
+            Set<String> tokens = ConcurrentHashMap.newKeySet();
+            int failed = 0;
+            for (Future<String> login : logins) {
+                String token = login.get();
+                if (token == null || token.equals("wrong user") || !tokens.add(token)) failed++;
+            }
+            long loginNanos = System.nanoTime() - t0;
+            Harness.report("logins: %d in %d ms (%.0f/s)", logins.size(), loginNanos / 1_000_000, logins.size() * 1e9 / loginNanos);
+            Harness.check(failed == 0, "every login got its own session for the right user (" + failed + " bad)");
+            Harness.check(auth.getSessions().size() == tokens.size(), "no session lost");
+
+            // Profile edits racing each other: users swap to fresh emails while others look them up
+            List<Future<?>> edits = new ArrayList<>();
+            for (User user : users) {
+                edits.add(pool.submit(() -> user.setEmail("new-" + user.getEmail())));
+                edits.add(pool.submit(() -> auth.findByUsernameOrEmail(user.getUsername())));
+            }
+            for (Future<?> f : edits) f.get();
+            int stale = 0;
+            for (User user : users) {
+                String old = user.getEmail().substring("new-".length());
+                if (auth.findByUsernameOrEmail(user.getEmail()) != user || auth.findByUsernameOrEmail(old) != null) stale++;
+            }
+            Harness.check(stale == 0, "email index follows every concurrent edit (" + stale + " stale)");
+
+            List<Future<?>> logouts = new ArrayList<>();
+            for (String token : tokens) logouts.add(pool.submit(() -> auth.logoutSession(token)));
+            for (Future<?> f : logouts) f.get();
+            Harness.check(auth.getSessions().size() == 0, "every session logged out");
+        } finally {
+            pool.shutdown();
+            auth.shutdown();
+        }
+    }
+}
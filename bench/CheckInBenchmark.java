@@ -0,0 +1,141 @@
+import java.time.Clock;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Self-check-in at class start: 500 open sessions of 500 students each (250k check-ins), first as
+ * fast as several threads can go, then paced at a target rate on the next day's sessions.
+ * CheckInManager flushes the session buffers every 100 ms. Checks the rate was sustained, the
+ * buffers stayed bounded, and every check-in reached storage exactly once.
+ *
+ * Usage: java -cp out CheckInBenchmark [targetPerSecond] [threads]
+ */
+class CheckInBenchmark {
+    private static final int COURSES = 500;
+    private static final int ROSTER = 500;
+    private static final int STUDENTS = 50_000;
+    private static final long FLUSH_MILLIS = 100;
+
+    public static void main(String[] args) throws InterruptedException {
+        Harness.silenceApp();
+        int target = Harness.intArg(args, 0, 50_000);
+        int threads = Harness.intArg(args, 1, 4);
+        InMemoryDatabaseManager db = new InMemoryDatabaseManager();
+        List<Course> courses = new ArrayList<>();
+        List<String[]> enrollments = new ArrayList<>(); // {courseId, studentId}
+        for (int c = 0; c < COURSES; c++) {
+            Course course = new Course("CI" + (100 + c), "Course " + c, "instructor-" + (c % 50));
+            for (int s = 0; s < ROSTER; s++) {
+                String studentId = "student-" + ((c * 131 + s) % STUDENTS);
+                course.addStudent(studentId);
+                enrollments.add(new String[] {course.getCourseId(), studentId});
+            }
+            db.saveCourse(course);
+            courses.add(course);
+        }
+        Collections.shuffle(enrollments, new Random(42));
+
+        // Burst: every 20th student retries straight away, which must come back as a duplicate
+        CheckInManager today = open(db, courses, Clock.systemDefaultZone());
+        AtomicInteger duplicates = new AtomicInteger();
+        AtomicInteger refused = new AtomicInteger();
+        long nanos = runThreads(threads, slice -> {
+            for (int i = slice[0]; i < slice[1]; i++) {
+                String[] enrollment = enrollments.get(i);
+                if (today.checkIn(enrollment[0], enrollment[1]) != CheckInSession.Result.ACCEPTED) refused.incrementAndGet();
+                if (i % 20 == 0 && today.checkIn(enrollment[0], enrollment[1]) == CheckInSession.Result.DUPLICATE) duplicates.incrementAndGet();
+            }
+        }, enrollments.size());
+        int calls = enrollments.size() + (enrollments.size() + 19) / 20;
+        Harness.report("burst: %,d check-ins on %d threads in %d ms: %,.0f check-ins/s", calls, threads, nanos / 1_000_000, calls / (nanos / 1e9));
+        Harness.check(refused.get() == 0, "every first check-in was accepted on time");
+        Harness.check(duplicates.get() == (enrollments.size() + 19) / 20, "every retry was reported as a duplicate");
+        today.shutdown();
+
+        // Paced at the target rate, on sessions a day later so each student can check in again
+        CheckInManager tomorrow = open(db, courses, Clock.offset(Clock.systemDefaultZone(), Duration.ofDays(1)));
+        long[] lagNanos = new long[enrollments.size()];
+        long periodNanos = 1_000_000_000L * threads / target;
+        AtomicBoolean sampling = new AtomicBoolean(true);
+        LongAdder samples = new LongAdder();
+        int[] maxPending = new int[1];
+        Thread sampler = new Thread(() -> {
+            while (sampling.get()) {
+                int pending = 0;
+                for (Course course : courses) {
+                    CheckInSession session = tomorrow.getOpenSession(course.getCourseId());
+                    if (session != null) pending += session.getPendingCount();
+                }
+                maxPending[0] = Math.max(maxPending[0], pending);
+                samples.increment();
+                LockSupport.parkNanos(10_000_000);
+            }
+        });
+        sampler.start();
+        nanos = runThreads(threads, slice -> {
+            long start = System.nanoTime();
+            for (int i = slice[0], n = 0; i < slice[1]; i++, n++) {
+                long due = start + n * periodNanos;
+                while (System.nanoTime() < due) {
+                    LockSupport.parkNanos(due - System.nanoTime());
+                }
+                String[] enrollment = enrollments.get(i);
+                if (tomorrow.checkIn(enrollment[0], enrollment[1]) != CheckInSession.Result.ACCEPTED) refused.incrementAndGet();
+                lagNanos[i] = System.nanoTime() - due;
+            }
+        }, enrollments.size());
+        sampling.set(false);
+        sampler.join();
+        double rate = enrollments.size() / (nanos / 1e9);
+        Harness.report("paced: %,d check-ins at a target of %,d/s took %d ms: %,.0f check-ins/s", enrollments.size(), target, nanos / 1_000_000, rate);
+        Harness.report("lag behind schedule p50 %.2f ms, p99 %.2f ms; most buffered at once %,d (%d samples)",
+                Harness.percentile(lagNanos, 50) / 1e6, Harness.percentile(lagNanos, 99) / 1e6, maxPending[0], samples.sum());
+        Harness.check(rate >= target * 0.95, "sustained at least 95% of " + target + " check-ins/s");
+        Harness.check(maxPending[0] < target, "flushing kept the buffers under a second's worth of check-ins");
+        Harness.check(refused.get() == 0, "every paced check-in was accepted on time");
+        tomorrow.shutdown();
+
+        long stored = 0;
+        long present = 0;
+        for (Course course : courses) {
+            stored += db.streamAttendance(course.getCourseId(), AttendanceQuery.all()).count();
+            present += db.streamAttendance(course.getCourseId(), AttendanceQuery.all().presentOnly()).count();
+        }
+        Harness.check(stored == 2L * enrollments.size() && present == stored, "each check-in was stored once, as present (" + stored + " stored)");
+    }
+
+    private interface Worker {
+        void run(int[] slice);
+    }
+
+    private static CheckInManager open(DatabaseManager db, List<Course> courses, Clock clock) {
+        CheckInManager manager = new CheckInManager(db, FLUSH_MILLIS, clock);
+        for (Course course : courses) {
+            if (manager.openSession(course.getInstructorId(), course.getCourseId(), Duration.ofMinutes(5), Duration.ofMinutes(15)) == null) {
+                throw new IllegalStateException("Could not open a session for " + course.getCourseCode());
+            }
+        }
+        return manager;
+    }
+
+    // Splits [0, total) across the threads and returns the wall time until all are done
+    private static long runThreads(int threads, Worker body, int total) throws InterruptedException {
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int[] slice = {(int) ((long) total * t / threads), (int) ((long) total * (t + 1) / threads)};
+            workers.add(new Thread(() -> body.run(slice)));
+        }
+        long start = System.nanoTime();
+        workers.forEach(Thread::start);
+        for (Thread thread : workers) thread.join();
+        return System.nanoTime() - start;
+    }
+}
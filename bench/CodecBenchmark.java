@@ -0,0 +1,99 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * ModelCodec against Java serialization for users, courses and attendance records: bytes per
+ * entity and encode + decode time per entity. Java serialization is measured twice: as one stream
+ * per batch, its best case since back-references share class descriptors and repeated ids, and
+ * with a reset after every object, which is what a standalone message or log frame costs.
+ *
+ * Usage: java -cp out CodecBenchmark [rounds]
+ */
+class CodecBenchmark {
+    public static void main(String[] args) throws Exception {
+        int rounds = Harness.intArg(args, 0, 30);
+        List<User> users = new ArrayList<>();
+        for (int i = 0; i < 2_000; i++) users.add(new User("student" + i, "student" + i + "@campus.edu", "pbkdf2-sha256$210000$c2FsdA" + i + "$aGFzaA" + Integer.toHexString(i * 0x9E3779B9), User.Role.STUDENT, "Student Number " + i));
+        List<Course> courses = new ArrayList<>();
+        for (int c = 0; c < 100; c++) {
+            Course course = new Course("CS" + (100 + c), "Course " + c, users.get(c).getUserId());
+            for (int s = 0; s < 300; s++) course.addStudent(users.get((c + s) % users.size()).getUserId());
+            courses.add(course);
+        }
+        List<AttendanceRecord> records = new ArrayList<>();
+        LocalDate start = LocalDate.of(2025, 9, 1);
+        for (int d = 0; d < 50; d++) {
+            for (int s = 0; s < 400; s++) records.add(new AttendanceRecord(courses.get(d % 10).getCourseId(), users.get(s).getUserId(), start.plusDays(d), LocalTime.of(9, 0, s % 60), s % 7 != 0));
+        }
+
+        boolean ok = true;
+        ok &= compare("user", users, rounds, ModelCodec.Writer::writeUser, ModelCodec.Reader::readUser);
+        ok &= compare("course (300 students)", courses, rounds, ModelCodec.Writer::writeCourse, ModelCodec.Reader::readCourse);
+        ok &= compare("attendance record", records, rounds, ModelCodec.Writer::writeAttendance, ModelCodec.Reader::readAttendance);
+        Harness.check(ok, "codec is smaller than Java serialization and faster than per-object Java frames for every type");
+    }
+
+    private static <T> boolean compare(String name, List<T> items, int rounds, BiConsumer<ModelCodec.Writer, T> write, Function<ModelCodec.Reader, T> read) throws IOException, ClassNotFoundException {
+        int codecBytes = 0;
+        int javaBytes = 0;
+        long codecNanos = Long.MAX_VALUE;
+        long javaNanos = Long.MAX_VALUE;
+        int framedBytes = 0;
+        long framedNanos = Long.MAX_VALUE;
+        for (int round = 0; round < rounds; round++) {
+            long t0 = System.nanoTime();
+            ModelCodec.Writer out = new ModelCodec.Writer(1 << 16);
+            for (T item : items) write.accept(out, item);
+            ByteBuffer encoded = out.toBuffer();
+            codecBytes = encoded.remaining();
+            ModelCodec.Reader in = new ModelCodec.Reader(encoded);
+            for (int i = 0; i < items.size(); i++) read.apply(in);
+            codecNanos = Math.min(codecNanos, System.nanoTime() - t0);
+
+            t0 = System.nanoTime();
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(1 << 16);
+            try (ObjectOutputStream objects = new ObjectOutputStream(bytes)) {
+                for (T item : items) objects.writeObject(item);
+            }
+            javaBytes = bytes.size();
+            try (ObjectInputStream objects = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+                for (int i = 0; i < items.size(); i++) objects.readObject();
+            }
+            javaNanos = Math.min(javaNanos, System.nanoTime() - t0);
+
+            t0 = System.nanoTime();
+            bytes = new ByteArrayOutputStream(1 << 16);
+            try (ObjectOutputStream objects = new ObjectOutputStream(bytes)) {
+                for (T item : items) {
+                    objects.writeObject(item);
+                    objects.reset();
+                }
+            }
+            framedBytes = bytes.size();
+            try (ObjectInputStream objects = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+                for (int i = 0; i < items.size(); i++) objects.readObject();
+            }
+            framedNanos = Math.min(framedNanos, System.nanoTime() - t0);
+        }
+        int n = items.size();
+        Harness.report("%-22s codec %7.1f B %8.0f ns   java stream %7.1f B %8.0f ns   java reset %7.1f B %8.0f ns",
+                name, codecBytes / (double) n, codecNanos / (double) n, javaBytes / (double) n, javaNanos / (double) n,
+                framedBytes / (double) n, framedNanos / (double) n);
+        Harness.report("%-22s vs stream %.1fx smaller, %.1fx faster; vs reset %.1fx smaller, %.1fx faster", "",
+                javaBytes / (double) codecBytes, javaNanos / (double) codecNanos,
+                framedBytes / (double) codecBytes, framedNanos / (double) codecNanos);
+        // A single shared Java stream can win on time for roster-heavy courses, since it hands back
+        // the same String objects where the codec renders each id again
+        return codecBytes < javaBytes && codecBytes < framedBytes && codecNanos < framedNanos;
+    }
+}
@@ -0,0 +1,58 @@
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Heap per attendance mark: a list of AttendanceRecord objects against ColumnarAttendanceStore,
+ * for a synthetic term of students x courses x sessions with UUID ids. Also times a full read of
+ * each course, since the store builds records only when asked.
+ *
+ * Usage: java -cp out ColumnarMemoryBenchmark [students [courses [sessions]]]
+ */
+class ColumnarMemoryBenchmark {
+    public static void main(String[] args) {
+        int students = Harness.intArg(args, 0, 2_000);
+        int courses = Harness.intArg(args, 1, 6);
+        int sessions = Harness.intArg(args, 2, 60);
+        long marks = (long) students * courses * sessions;
+        String[] studentIds = new String[students];
+        String[] courseIds = new String[courses];
+        for (int s = 0; s < students; s++) studentIds[s] = UUID.randomUUID().toString();
+        for (int c = 0; c < courses; c++) courseIds[c] = UUID.randomUUID().toString();
+        LocalDate start = LocalDate.of(2025, 9, 1);
+
+        long base = Harness.usedHeap();
+        List<AttendanceRecord> records = new ArrayList<>();
+        for (int c = 0; c < courses; c++) {
+            for (int d = 0; d < sessions; d++) {
+                for (int s = 0; s < students; s++) {
+                    records.add(new AttendanceRecord(courseIds[c], studentIds[s], start.plusDays(d), LocalTime.of(9, 0, s % 60), (s + d) % 5 != 0));
+                }
+            }
+        }
+        long objectBytes = Harness.usedHeap() - base;
+        Harness.report("objects:  %,d marks, %,d bytes (%.1f per mark)", records.size(), objectBytes, objectBytes / (double) marks);
+        records = null;
+
+        base = Harness.usedHeap();
+        ColumnarAttendanceStore store = new ColumnarAttendanceStore();
+        for (int c = 0; c < courses; c++) {
+            for (int d = 0; d < sessions; d++) {
+                for (int s = 0; s < students; s++) {
+                    store.put(courseIds[c], studentIds[s], start.plusDays(d), LocalTime.of(9, 0, s % 60), (s + d) % 5 != 0);
+                }
+            }
+        }
+        long columnarBytes = Harness.usedHeap() - base;
+        Harness.report("columnar: %,d marks, %,d bytes (%.1f per mark)", store.size(), columnarBytes, columnarBytes / (double) marks);
+
+        long t0 = System.nanoTime();
+        long read = 0;
+        for (String courseId : courseIds) read += store.getAttendanceForCourse(courseId).size();
+        Harness.report("reading every mark back as records: %d ms", (System.nanoTime() - t0) / 1_000_000);
+        Harness.check(store.size() == marks && read == marks, "store holds every mark");
+        Harness.check(objectBytes >= 10 * columnarBytes, String.format("at least 10x smaller (%.1fx)", objectBytes / (double) columnarBytes));
+    }
+}
@@ -0,0 +1,79 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Enrolling 10k students into one course: the old ArrayList roster (contains before add) against
+ * Course's hash-backed roster, one at a time and in bulk, on a new course and on one a store holds.
+ *
+ * A stored course is shared with readers, so each edit swaps in a fresh copy of the roster;
+ * adding students to it one by one therefore copies the roster each time, and bulk enrollment
+ * should go through addStudents. The numbers below show that trade-off.
+ *
+ * Usage: java -cp out EnrollmentBenchmark [students]
+ */
+class EnrollmentBenchmark {
+    public static void main(String[] args) {
+        int students = Harness.intArg(args, 0, 10_000);
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < students; i++) ids.add("student-" + i);
+        for (int round = 0; round < 3; round++) {
+            Harness.report("round %d, %,d students", round + 1, students);
+            run(ids, round == 2);
+        }
+    }
+
+    private static void run(List<String> ids, boolean check) {
+        long t0 = System.nanoTime();
+        List<String> list = new ArrayList<>();
+        for (String id : ids) if (!list.contains(id)) list.add(id);
+        long arrayList = System.nanoTime() - t0;
+        report("ArrayList roster, one at a time", arrayList);
+
+        Course single = new Course("CS101", "Intro", "prof");
+        t0 = System.nanoTime();
+        for (String id : ids) single.addStudent(id);
+        long oneByOne = System.nanoTime() - t0;
+        report("new course, addStudent each", oneByOne);
+
+        Course bulk = new Course("CS102", "Intro", "prof");
+        t0 = System.nanoTime();
+        bulk.addStudents(ids);
+        report("new course, addStudents", System.nanoTime() - t0);
+
+        InMemoryDatabaseManager db = new InMemoryDatabaseManager();
+        Course stored = new Course("CS103", "Intro", "prof");
+        db.saveCourse(stored);
+        t0 = System.nanoTime();
+        stored.addStudents(ids);
+        long storedBulk = System.nanoTime() - t0;
+        report("stored course, addStudents", storedBulk);
+
+        Course storedSingle = new Course("CS104", "Intro", "prof");
+        db.saveCourse(storedSingle);
+        t0 = System.nanoTime();
+        for (String id : ids) storedSingle.addStudent(id);
+        report("stored course, addStudent each (copies the roster)", System.nanoTime() - t0);
+
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int lookups = 1_000_000;
+        int hits = 0;
+        t0 = System.nanoTime();
+        for (int i = 0; i < lookups; i++) if (stored.isEnrolled(ids.get(random.nextInt(ids.size())))) hits++;
+        Harness.report("  %-52s %6.0f ns each", "isEnrolled", (System.nanoTime() - t0) / (double) lookups);
+
+        t0 = System.nanoTime();
+        int removed = stored.removeStudents(ids.subList(0, ids.size() / 2));
+        report("stored course, removeStudents half", System.nanoTime() - t0);
+
+        if (!check) return;
+        Harness.check(single.getStudentIds().size() == ids.size() && bulk.getStudentIds().size() == ids.size(), "every student enrolled once");
+        Harness.check(hits == lookups && removed == ids.size() / 2 && !stored.isEnrolled(ids.get(0)), "lookups and bulk removal agree");
+        Harness.check(db.getCoursesByStudent(ids.get(ids.size() - 1)).size() == 2, "store's enrollment index follows the edits");
+        Harness.check(oneByOne * 5 < arrayList, String.format("hash roster at least 5x faster than ArrayList (%.0fx)", arrayList / (double) oneByOne));
+    }
+
+    private static void report(String what, long nanos) {
+        Harness.report("  %-52s %8.2f ms", what, nanos / 1e6);
+    }
+}
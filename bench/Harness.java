@@ -0,0 +1,98 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * Shared helpers for the stress tests and benchmarks in this directory. Each one is a class with
+ * a main() in the default package, so it sees the app's package-private classes.
+ *
+ * Build and run from the repository root:
+ * <pre>
+ *   javac -d out Android-Development/universityAttendanceApp.java bench/*.java
+ *   java -cp out AuthStressTest
+ * </pre>
+ * Checks throw AssertionError, so a failed run exits non-zero.
+ */
+final class Harness {
+    // The app reports every login and registration on stdout; results go here instead
+    static final PrintStream out = System.out;
+
+    private Harness() {
+    }
+
+    static void silenceApp() {
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+
+    static void check(boolean ok, String what) {
+        if (!ok) throw new AssertionError(what);
+        out.println("ok   " + what);
+    }
+
+    static void report(String format, Object... args) {
+        out.println(String.format(format, args));
+    }
+
+    /**
+     * Stores passwords as-is, so benchmarks measure the code around the KDF rather than the KDF.
+     */
+    static PasswordHasher plainHasher() {
+        return new PasswordHasher() {
+            @Override public String hash(String password) { return "bench$" + password; }
+            @Override public boolean verify(String password, String storedHash) { return storedHash.equals("bench$" + password); }
+            @Override public boolean needsRehash(String storedHash) { return false; }
+            @Override public boolean recognizes(String storedHash) { return storedHash.startsWith("bench$"); }
+        };
+    }
+
+    // Never throttles, so repeated logins for one user are not turned away
+    static LoginRateLimiter noRateLimit() {
+        return new LoginRateLimiter(65_535, 1, Integer.MAX_VALUE, 0, 1_000_000);
+    }
+
+    // Nearest-rank percentile; sorts the array
+    static long percentile(long[] values, double percent) {
+        Arrays.sort(values);
+        if (values.length == 0) return 0;
+        int rank = (int) Math.ceil(percent / 100 * values.length);
+        return values[Math.max(0, Math.min(values.length - 1, rank - 1))];
+    }
+
+    // Heap in use after a few full collections; good to a few MB, so measure large structures
+    static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        long used = Long.MAX_VALUE;
+        for (int i = 0; i < 4; i++) {
+            System.gc();
+            used = Math.min(used, runtime.totalMemory() - runtime.freeMemory());
+        }
+        return used;
+    }
+
+    static Path tempDir(String prefix) {
+        try {
+            return Files.createTempDirectory(prefix);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    static void deleteTree(Path root) {
+        if (!Files.exists(root)) return;
+        try (Stream<Path> paths = Files.walk(root)) {
+            for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) Files.delete(path);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    static int intArg(String[] args, int index, int fallback) {
+        return args.length > index ? Integer.parseInt(args[index]) : fallback;
+    }
+}
@@ -0,0 +1,164 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Class-start load on AttendanceHttpServer over loopback: every client checks in to its course's
+ * open session, then lists its courses a few times, all clients at once. Reports p50/p99 latency
+ * per endpoint. The server runs in a child JVM so each side has its own file descriptor budget
+ * (10k clients need 10k sockets on each end). Sessions are opened server-side rather than through
+ * /login, which would hash a password per client and throttle them all as one address.
+ *
+ * Usage: java -cp out HttpLoadTest [clients] [requestsPerClient]
+ */
+class HttpLoadTest {
+    private static final int STUDENTS_PER_COURSE = 200;
+    private static final int WARM_UP_REQUESTS = 5_000;
+
+    public static void main(String[] args) throws Exception {
+        Harness.silenceApp();
+        if (args.length > 0 && args[0].equals("serve")) {
+            serve(Harness.intArg(args, 1, 10_000));
+            return;
+        }
+        int clients = Harness.intArg(args, 0, 10_000);
+        int requestsPerClient = Math.max(1, Harness.intArg(args, 1, 5));
+        String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        Process server = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), "HttpLoadTest", "serve", String.valueOf(clients))
+                .redirectError(ProcessBuilder.Redirect.INHERIT)
+                .start();
+        try {
+            BufferedReader lines = new BufferedReader(new InputStreamReader(server.getInputStream(), StandardCharsets.UTF_8));
+            String base = "http://127.0.0.1:" + lines.readLine();
+            List<String[]> students = new ArrayList<>(clients); // {courseId, session token}
+            for (int i = 0; i < clients; i++) students.add(lines.readLine().split(" "));
+            // Warm up both JVMs on course listings (a warm-up check-in would make the real one a duplicate)
+            int warmUpClients = Math.min(100, clients);
+            run(base, students.subList(0, warmUpClients), WARM_UP_REQUESTS / warmUpClients, false);
+            run(base, students, requestsPerClient, true);
+        } finally {
+            server.getOutputStream().close(); // the server exits when its stdin closes
+            server.waitFor();
+        }
+    }
+
+    private static void run(String base, List<String[]> students, int requestsPerClient, boolean measured) {
+        ExecutorService callbacks = Executors.newFixedThreadPool(4);
+        HttpClient client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(30))
+                .executor(callbacks)
+                .build();
+        int clients = students.size();
+        long[] checkInNanos = new long[clients];
+        long[] listNanos = new long[clients * (requestsPerClient - 1)];
+        AtomicInteger errors = new AtomicInteger();
+        AtomicInteger notAccepted = new AtomicInteger();
+        List<CompletableFuture<?>> done = new ArrayList<>(clients);
+        long t0 = System.nanoTime();
+        for (int i = 0; i < clients; i++) {
+            String[] student = students.get(i);
+            HttpRequest checkIn = HttpRequest.newBuilder(URI.create(base + "/courses/" + student[0] + "/checkin"))
+                    .header("Authorization", "Bearer " + student[1])
+                    .POST(HttpRequest.BodyPublishers.noBody())
+                    .build();
+            HttpRequest list = HttpRequest.newBuilder(URI.create(base + "/courses"))
+                    .header("Authorization", "Bearer " + student[1])
+                    .GET()
+                    .build();
+            int index = i;
+            CompletableFuture<?> chain = !measured ? timed(client, list, checkInNanos, index, errors)
+                    : timed(client, checkIn, checkInNanos, index, errors).thenAccept(body -> {
+                        if (body != null && !body.contains("ACCEPTED")) notAccepted.incrementAndGet();
+                    });
+            for (int r = 0; r < requestsPerClient - 1; r++) {
+                int slot = index * (requestsPerClient - 1) + r;
+                chain = chain.thenCompose(ignored -> timed(client, list, listNanos, slot, errors));
+            }
+            done.add(chain);
+        }
+        CompletableFuture.allOf(done.toArray(new CompletableFuture<?>[0])).join();
+        long nanos = System.nanoTime() - t0;
+        callbacks.shutdown();
+        if (!measured) return;
+
+        int requests = clients * requestsPerClient;
+        Harness.report("%,d clients, %,d requests in %.1f s: %,.0f requests/s (%d cores shared by both JVMs)",
+                clients, requests, nanos / 1e9, requests / (nanos / 1e9), Runtime.getRuntime().availableProcessors());
+        Harness.report("check-in        p50 %6.1f ms  p99 %7.1f ms  max %7.1f ms", Harness.percentile(checkInNanos, 50) / 1e6,
+                Harness.percentile(checkInNanos, 99) / 1e6, Harness.percentile(checkInNanos, 100) / 1e6);
+        if (listNanos.length > 0) {
+            Harness.report("list courses    p50 %6.1f ms  p99 %7.1f ms  max %7.1f ms", Harness.percentile(listNanos, 50) / 1e6,
+                    Harness.percentile(listNanos, 99) / 1e6, Harness.percentile(listNanos, 100) / 1e6);
+        }
+        Harness.check(errors.get() == 0, "every request succeeded (" + errors.get() + " failed)");
+        Harness.check(notAccepted.get() == 0, "every check-in was accepted on time (" + notAccepted.get() + " were not)");
+    }
+
+    // Sends one request and records its latency; completes with the body, or null if it failed
+    private static CompletableFuture<String> timed(HttpClient client, HttpRequest request, long[] latencies, int slot, AtomicInteger errors) {
+        long start = System.nanoTime();
+        return client.sendAsync(request, HttpResponse.BodyHandlers.ofString()).handle((response, failure) -> {
+            latencies[slot] = System.nanoTime() - start;
+            if (failure != null || response.statusCode() != 200) {
+                if (errors.incrementAndGet() <= 5) {
+                    Harness.report("failed %s: %s", request.uri().getPath(), failure != null ? failure : response.statusCode() + " " + response.body());
+                }
+                return null;
+            }
+            return response.body();
+        });
+    }
+
+    // Child process: builds the campus, opens a check-in session per course and prints the port,
+    // then one "courseId token" line per student; serves until stdin is closed
+    private static void serve(int students) throws IOException {
+        UniversityAttendanceSystem system = new UniversityAttendanceSystem();
+        AuthenticationManager auth = system.getAuthManager();
+        User instructor = auth.findByUsernameOrEmail("profsmith");
+        List<String> lines = new ArrayList<>(students);
+        Course course = null;
+        for (int i = 0; i < students; i++) {
+            if (i % STUDENTS_PER_COURSE == 0) {
+                if (course != null) open(system, instructor, course);
+                course = new Course("LT" + (100 + i / STUDENTS_PER_COURSE), "Lecture " + i / STUDENTS_PER_COURSE, instructor.getUserId());
+            }
+            User student = new User("loadstudent" + i, "loadstudent" + i + "@campus.edu", "unused", User.Role.STUDENT, "Load Student " + i);
+            auth.importUser(student);
+            course.addStudent(student.getUserId());
+            lines.add(course.getCourseId() + " " + auth.getSessions().create(student.getUserId()));
+        }
+        if (course != null) open(system, instructor, course);
+
+        AttendanceHttpServer server = new AttendanceHttpServer(system, new InetSocketAddress("127.0.0.1", 0));
+        server.start();
+        StringBuilder out = new StringBuilder().append(server.getPort()).append('\n');
+        for (String line : lines) out.append(line).append('\n');
+        Harness.out.print(out);
+        Harness.out.flush();
+        while (System.in.read() >= 0) {
+            // wait for the load generator to finish
+        }
+        server.stop(0);
+        System.exit(0);
+    }
+
+    private static void open(UniversityAttendanceSystem system, User instructor, Course course) {
+        system.getDbManager().saveCourse(course);
+        system.getCheckIns().openSession(instructor.getUserId(), course.getCourseId(), Duration.ofMinutes(30), Duration.ofMinutes(60));
+    }
+}
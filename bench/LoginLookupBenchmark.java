@@ -0,0 +1,65 @@
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Login and duplicate-registration latency as the user base grows. Lookups go through the
+ * username and email indexes, so the cost per operation should stay flat from a thousand users
+ * to hundreds of thousands; a scan would grow with the count.
+ *
+ * Usage: java -cp out LoginLookupBenchmark [largestUserCount]
+ */
+class LoginLookupBenchmark {
+    private static final int OPS = 200_000;
+    private static final int WARMUP_OPS = 100_000;
+
+    public static void main(String[] args) {
+        int largest = Harness.intArg(args, 0, 500_000);
+        Harness.silenceApp();
+        double first = 0;
+        double worst = 0;
+        for (int users : new int[] {1_000, 10_000, 100_000, largest}) {
+            AuthenticationManager auth = new AuthenticationManager(new InMemoryDatabaseManager(), Harness.plainHasher(), Harness.noRateLimit(), 1, 1024);
+            try {
+                for (int i = 0; i < users; i++) {
+                    auth.importUser(new User("user" + i, "user" + i + "@campus.edu", Harness.plainHasher().hash("pw"), User.Role.STUDENT, "User " + i), false);
+                }
+                run(auth, users, WARMUP_OPS);
+                long[] nanos = run(auth, users, OPS);
+                double login = nanos[0] / (double) OPS;
+                double duplicate = nanos[1] / (double) OPS;
+                double byEmail = nanos[2] / (double) OPS;
+                Harness.report("users=%,9d  login %,7.0f ns  duplicate check %,5.0f ns  email lookup %,5.0f ns", users, login, duplicate, byEmail);
+                double total = login + duplicate + byEmail;
+                if (first == 0) first = total;
+                worst = Math.max(worst, total);
+            } finally {
+                auth.shutdown();
+            }
+        }
+        // 500x the users should cost well under 5x per operation (a scan would be ~500x)
+        Harness.check(worst < first * 5, String.format("latency stays flat (worst %.1fx the smallest)", worst / first));
+    }
+
+    // {login, duplicate registration, email lookup} nanoseconds for ops of each
+    private static long[] run(AuthenticationManager auth, int users, int ops) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long[] nanos = new long[3];
+        long t0 = System.nanoTime();
+        for (int i = 0; i < ops; i++) {
+            if (auth.loginUser("USER" + random.nextInt(users), "pw") == null) throw new AssertionError("login failed");
+        }
+        long t1 = System.nanoTime();
+        for (int i = 0; i < ops; i++) {
+            int n = random.nextInt(users);
+            if (auth.registerUser("user" + n, "other" + n + "@campus.edu", "pw", User.Role.STUDENT, "Dup") != null) throw new AssertionError("duplicate accepted");
+        }
+        long t2 = System.nanoTime();
+        for (int i = 0; i < ops; i++) {
+            if (auth.findByUsernameOrEmail("user" + random.nextInt(users) + "@campus.edu") == null) throw new AssertionError("lookup failed");
+        }
+        long t3 = System.nanoTime();
+        nanos[0] = t1 - t0;
+        nanos[1] = t2 - t1;
+        nanos[2] = t3 - t2;
+        return nanos;
+    }
+}
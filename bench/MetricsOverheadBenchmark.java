@@ -0,0 +1,79 @@
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * What the metrics cost on the login microbenchmark. A login is timed and counted by its
+ * AuthenticationManager; the same work (two clock reads, a histogram record, a counter increment)
+ * is then timed on its own, against a timer and counter from a separate registry, and the two are
+ * compared. Rounds alternate between the two so drift on the box hits both; the median of the
+ * per-round ratios is reported. Passwords are stored as-is, so the login is as cheap as it gets
+ * and the metrics are as large a share of it as they can be.
+ *
+ * Usage: java -cp out MetricsOverheadBenchmark [users] [rounds]
+ */
+class MetricsOverheadBenchmark {
+    private static final int OPS = 200_000;
+    private static final double GOAL = 0.02;
+
+    public static void main(String[] args) {
+        int users = Harness.intArg(args, 0, 100_000);
+        int rounds = Harness.intArg(args, 1, 9);
+        Harness.silenceApp();
+        MetricsRegistry registry = new MetricsRegistry();
+        Metrics.set(registry);
+        AuthenticationManager auth = new AuthenticationManager(new InMemoryDatabaseManager(), Harness.plainHasher(), Harness.noRateLimit(), 1, 1024);
+        try {
+            for (int i = 0; i < users; i++) {
+                auth.importUser(new User("user" + i, "user" + i + "@campus.edu", Harness.plainHasher().hash("pw"), User.Role.STUDENT, "User " + i), false);
+            }
+            MetricsRegistry spare = new MetricsRegistry();
+            OperationTimer timer = spare.timer("bench.login", MetricsRegistry.DEFAULT_SLOW_NANOS);
+            LongAdder counter = spare.counter("bench.login.succeeded");
+            login(auth, users, OPS); // warm-up
+            instrumentation(timer, counter, OPS);
+
+            double[] ratios = new double[rounds];
+            double loginNanos = 0;
+            double metricsNanos = 0;
+            for (int r = 0; r < rounds; r++) {
+                double login = login(auth, users, OPS) / (double) OPS;
+                double metrics = instrumentation(timer, counter, OPS) / (double) OPS;
+                ratios[r] = metrics / login;
+                loginNanos += login / rounds;
+                metricsNanos += metrics / rounds;
+            }
+            Arrays.sort(ratios);
+            double overhead = ratios[rounds / 2];
+            Harness.report("users=%,d  login %,.0f ns  of which metrics %,.1f ns  overhead %.2f%% (median of %d rounds, range %.2f-%.2f%%)",
+                    users, loginNanos, metricsNanos, overhead * 100, rounds, ratios[0] * 100, ratios[rounds - 1] * 100);
+
+            long logins = (long) OPS * (rounds + 1);
+            Harness.check(registry.getTimers().get("auth.login").snapshot().getCount() == logins
+                    && registry.getCounters().get("auth.login.succeeded").sum() == logins, "every login was timed and counted");
+            Harness.check(overhead < GOAL, String.format("metrics cost under %.0f%% of a login (%.2f%%)", GOAL * 100, overhead * 100));
+        } finally {
+            auth.shutdown();
+        }
+    }
+
+    private static long login(AuthenticationManager auth, int users, int ops) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long start = System.nanoTime();
+        for (int i = 0; i < ops; i++) {
+            if (auth.loginUser("user" + random.nextInt(users), "pw") == null) throw new AssertionError("login failed");
+        }
+        return System.nanoTime() - start;
+    }
+
+    // What authenticate() adds around a login
+    private static long instrumentation(OperationTimer timer, LongAdder counter, int ops) {
+        long start = System.nanoTime();
+        for (int i = 0; i < ops; i++) {
+            long t = System.nanoTime();
+            counter.increment();
+            timer.record(t);
+        }
+        return System.nanoTime() - start;
+    }
+}
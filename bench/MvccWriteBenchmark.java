@@ -0,0 +1,175 @@
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Attendance write throughput on MvccDatabaseManager while reports run. Writers mark forward a day
+ * at a time with a correction every 20 marks, over a store preloaded with a month of marks. Modes
+ * are interleaved over several rounds, each compared with the writers-only run of its round:
+ * writers alone, an idle snapshot reopened every 50 ms, a full-scan report on the live store, and
+ * the same report inside a snapshot. On a machine with fewer cores than threads a report competes
+ * with the writers for CPU whatever it reads, so besides writes per second the writers' own CPU
+ * time per write is reported; that is the cost a snapshot adds, and what throughput follows once
+ * writers have cores to themselves. Each snapshot report scans twice and checks both passes agree
+ * while the writers keep going.
+ *
+ * Usage: java -cp out MvccWriteBenchmark [rounds] [writers]
+ */
+class MvccWriteBenchmark {
+    private static final int COURSES = 20;
+    private static final int STUDENTS = 100;
+    private static final int DAYS = 30;
+    private static final int CORRECT_EVERY = 20;
+    private static final long ROUND_MILLIS = 1_000;
+    private static final String[] STUDENT_IDS = new String[STUDENTS];
+    private static final String[] MODES = {"writers only", "idle snapshot", "live-store report", "snapshot report"};
+
+    static {
+        for (int s = 0; s < STUDENTS; s++) STUDENT_IDS[s] = "student-" + s;
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        Harness.silenceApp();
+        int rounds = Harness.intArg(args, 0, 9);
+        int writers = Harness.intArg(args, 1, 2);
+        LocalDate start = LocalDate.of(2025, 9, 1);
+        InMemoryDatabaseManager store = new InMemoryDatabaseManager();
+        List<String> courseIds = new ArrayList<>();
+        for (int c = 0; c < COURSES; c++) {
+            Course course = new Course("CS" + (100 + c), "Course " + c, "instructor-" + c);
+            for (String studentId : STUDENT_IDS) course.addStudent(studentId);
+            store.saveCourse(course);
+            courseIds.add(course.getCourseId());
+            List<AttendanceRecord> marks = new ArrayList<>();
+            for (int s = 0; s < STUDENTS; s++) {
+                for (int d = 0; d < DAYS; d++) marks.add(new AttendanceRecord(null, course.getCourseId(), STUDENT_IDS[s], start.plusDays(d), LocalTime.NOON, (s + d) % 3 != 0));
+            }
+            store.saveAttendanceRecords(marks);
+        }
+        MvccDatabaseManager db = new MvccDatabaseManager(store);
+
+        double[][] rates = new double[MODES.length][rounds + 1];
+        double[][] cpuPerWrite = new double[MODES.length][rounds + 1];
+        AtomicInteger torn = new AtomicInteger();
+        LongAdder reports = new LongAdder();
+        for (int round = 0; round <= rounds; round++) { // round 0 warms up
+            for (int mode = 0; mode < MODES.length; mode++) {
+                double[] result = run(db, courseIds, start, writers, mode, torn, reports);
+                rates[mode][round] = result[0];
+                cpuPerWrite[mode][round] = result[1];
+            }
+        }
+        // Each mode against the writers-only run of the same round, so drift in machine speed cancels
+        for (int mode = 0; mode < MODES.length; mode++) {
+            Harness.report("%-18s %,10.0f writes/s %5.1f%% below writers only;  %5.0f writer CPU ns/write %+6.1f%%",
+                    MODES[mode], median(rates[mode]), 100 * (1 - pairedRatio(rates, mode)),
+                    median(cpuPerWrite[mode]), 100 * (pairedRatio(cpuPerWrite, mode) - 1));
+        }
+        Harness.report("snapshot report vs live-store report: %.1f%% fewer writes/s (%d writers, %d cores, %,d snapshot reports)",
+                100 * (1 - pairedRatio(rates, 3) / pairedRatio(rates, 2)), writers, Runtime.getRuntime().availableProcessors(), reports.sum());
+        Harness.check(torn.get() == 0, "every snapshot report saw the same marks on both passes");
+        Harness.check(db.getOpenSnapshotCount() == 0 && db.getUndoSize() == 0, "old versions are collected once no snapshot is open");
+        // CPU per write is what throughput follows once writers have cores to themselves. The goal is
+        // under 10%; runs on a shared box scatter a few points either side, so the check is looser.
+        double overhead = pairedRatio(cpuPerWrite, 3) - 1;
+        Harness.report("writer CPU overhead under a snapshot report: %+.1f%% (goal under 10%%: %s)", 100 * overhead, overhead < 0.1 ? "met" : "missed");
+        Harness.check(overhead < 0.2, "a write costs under 20% more CPU while a snapshot report runs");
+    }
+
+    // One timed round; returns writes per second and writer CPU nanoseconds per write
+    private static double[] run(MvccDatabaseManager db, List<String> courseIds, LocalDate start, int writers, int mode,
+            AtomicInteger torn, LongAdder reports) throws InterruptedException {
+        AtomicBoolean stop = new AtomicBoolean();
+        LongAdder writes = new LongAdder();
+        LongAdder writerCpu = new LongAdder();
+        ThreadMXBean cpu = ManagementFactory.getThreadMXBean();
+        List<Thread> threads = new ArrayList<>();
+        // Marking moves forward a day at a time through each writer's courses, correcting one mark in
+        // CORRECT_EVERY; the days written are removed after the round to keep the store's size fixed
+        LocalDate roundStart = start.plusDays(DAYS);
+        AtomicInteger lastDay = new AtomicInteger();
+        for (int w = 0; w < writers; w++) {
+            int first = w;
+            threads.add(new Thread(() -> {
+                long cpuStart = cpu.getCurrentThreadCpuTime();
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                int day = 0;
+                long n = 0;
+                while (!stop.get()) {
+                    LocalDate date = roundStart.plusDays(day);
+                    for (int c = first; c < COURSES && !stop.get(); c += writers) {
+                        for (int s = 0; s < STUDENTS; s++) {
+                            boolean present = random.nextInt(10) != 0;
+                            db.saveAttendanceRecord(new AttendanceRecord(null, courseIds.get(c), STUDENT_IDS[s], date, LocalTime.of(9, 0), present));
+                            if (++n % CORRECT_EVERY == 0) {
+                                db.saveAttendanceRecord(new AttendanceRecord(null, courseIds.get(c), STUDENT_IDS[s], date, LocalTime.of(9, 20), !present));
+                                n++;
+                            }
+                        }
+                    }
+                    day++;
+                }
+                writes.add(n);
+                lastDay.accumulateAndGet(day, Math::max);
+                writerCpu.add(cpu.getCurrentThreadCpuTime() - cpuStart);
+            }));
+        }
+        if (mode == 1) {
+            threads.add(new Thread(() -> {
+                while (!stop.get()) {
+                    try (MvccDatabaseManager.Snapshot snapshot = db.openSnapshot()) {
+                        Thread.sleep(50);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }));
+        } else if (mode == 2) {
+            threads.add(new Thread(() -> {
+                while (!stop.get()) presentCount(db, courseIds);
+            }));
+        } else if (mode == 3) {
+            threads.add(new Thread(() -> {
+                while (!stop.get()) {
+                    try (MvccDatabaseManager.Snapshot snapshot = db.openSnapshot()) {
+                        if (presentCount(snapshot, courseIds) != presentCount(snapshot, courseIds)) torn.incrementAndGet();
+                    }
+                    reports.increment();
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        Thread.sleep(ROUND_MILLIS);
+        stop.set(true);
+        for (Thread thread : threads) thread.join();
+        db.removeAttendanceBetween(roundStart, roundStart.plusDays(lastDay.get()));
+        return new double[] {writes.sum() * 1000.0 / ROUND_MILLIS, writerCpu.sum() / (double) writes.sum()};
+    }
+
+    private static long presentCount(DatabaseManager db, List<String> courseIds) {
+        long present = 0;
+        for (String courseId : courseIds) present += db.streamAttendance(courseId, AttendanceQuery.all().presentOnly()).count();
+        return present;
+    }
+
+    // Median over the measured rounds of mode's value divided by writers-only's
+    private static double pairedRatio(double[][] values, int mode) {
+        double[] ratios = new double[values[mode].length];
+        for (int round = 0; round < ratios.length; round++) ratios[round] = values[mode][round] / values[0][round];
+        return median(ratios);
+    }
+
+    private static double median(double[] values) {
+        double[] sorted = Arrays.copyOfRange(values, 1, values.length); // without the warm-up round
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+}
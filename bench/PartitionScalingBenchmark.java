@@ -0,0 +1,197 @@
+import java.io.IOException;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A sharded campus on one box: every partition is its own JVM on loopback. First the same write
+ * and read load is run against 1, 3, 4 and 5 partitions; then a 3-partition cluster holding a
+ * term of marks grows to 5 while writers keep marking. Checks the ring spreads courses evenly
+ * and moves only the keys the new partition owns, and that nothing is lost or left behind by
+ * the online rebalance.
+ *
+ * Speedup needs a core per partition (plus the router); on a smaller box the scaling numbers are
+ * reported but not checked.
+ *
+ * Usage: java -cp out PartitionScalingBenchmark [seconds] [threads]
+ */
+class PartitionScalingBenchmark {
+    private static final int[] PARTITIONS = {1, 3, 4, 5};
+    private static final int COURSES = 300;
+    private static final int ROSTER = 40;
+    private static final int DAYS = 5;
+    private static final int STUDENTS = 1_000;
+    private static final int BATCH = 50;
+    private static final LocalDate TERM_START = LocalDate.of(2026, 9, 1);
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        Harness.silenceApp();
+        int seconds = Harness.intArg(args, 0, 3);
+        int threads = Harness.intArg(args, 1, 16);
+        int cores = Runtime.getRuntime().availableProcessors();
+
+        List<Course> courses = new ArrayList<>();
+        List<String> courseIds = new ArrayList<>();
+        for (int c = 0; c < COURSES; c++) {
+            Course course = new Course("PS" + (1000 + c), "Course " + c, "instructor-" + (c % 30));
+            for (int s = 0; s < ROSTER; s++) course.addStudent(student(c, s));
+            courses.add(course);
+            courseIds.add(course.getCourseId());
+        }
+        for (int parts : new int[] {3, 4, 5}) {
+            HashRing ring = new HashRing(parts);
+            int[] owned = new int[parts];
+            for (String courseId : courseIds) owned[ring.ownerOf(courseId)]++;
+            int most = 0;
+            for (int n : owned) most = Math.max(most, n);
+            Harness.check(most <= 1.5 * COURSES / parts, parts + " partitions: busiest owns " + most + " of " + COURSES + " courses");
+        }
+
+        double single = 0;
+        for (int parts : PARTITIONS) {
+            try (PartitionedDatabaseManager db = PartitionedDatabaseManager.launchLocal(parts)) {
+                runLoad(db, threads, 1, 0); // warm-up
+                double[] rates = runLoad(db, threads, seconds, 1);
+                if (parts == 1) single = rates[0];
+                Harness.report("%d partition(s): %,.0f marks/s written, %,.0f course reads/s, %.2fx the single-partition write rate",
+                        parts, rates[0], rates[1], rates[0] / single);
+                if (parts > 1 && cores > parts) {
+                    Harness.check(rates[0] >= 0.5 * Math.min(parts, cores - 1) * single, parts + " partitions write at least half of linear speedup");
+                }
+            }
+        }
+        if (cores <= PARTITIONS[PARTITIONS.length - 1]) {
+            Harness.report("speedup not checked: %d CPU(s) for up to %d partition processes and the router", cores, PARTITIONS[PARTITIONS.length - 1]);
+        }
+
+        rebalance(courses, seconds);
+    }
+
+    // Each thread saves batches of marks for its own courses and reads a course back after each.
+    // Returns {marks written per second, course reads per second}.
+    private static double[] runLoad(PartitionedDatabaseManager db, int threads, int seconds, int round) throws InterruptedException {
+        LongAdder marks = new LongAdder();
+        LongAdder reads = new LongAdder();
+        long end = System.nanoTime() + seconds * 1_000_000_000L;
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int id = t;
+            workers.add(new Thread(() -> {
+                for (int i = 0; System.nanoTime() < end; i++) {
+                    String courseId = "LD" + (id * 1000 + i % 1000);
+                    LocalDate day = TERM_START.plusDays(round * 1000 + i / 1000);
+                    List<AttendanceRecord> batch = new ArrayList<>();
+                    for (int s = 0; s < BATCH; s++) batch.add(new AttendanceRecord(null, courseId, "S" + s, day, LocalTime.NOON, true));
+                    db.saveAttendanceRecords(batch);
+                    marks.add(BATCH);
+                    db.getAttendanceRecord(courseId, "S" + (i % BATCH), day);
+                    reads.increment();
+                }
+            }));
+        }
+        workers.forEach(Thread::start);
+        for (Thread worker : workers) worker.join();
+        return new double[] {marks.sum() / (double) seconds, reads.sum() / (double) seconds};
+    }
+
+    private static void rebalance(List<Course> courses, int seconds) throws IOException, InterruptedException {
+        List<String> courseIds = new ArrayList<>();
+        for (Course course : courses) courseIds.add(course.getCourseId());
+        try (PartitionedDatabaseManager db = PartitionedDatabaseManager.launchLocal(3)) {
+            List<User> users = new ArrayList<>();
+            for (int s = 0; s < STUDENTS; s++) {
+                users.add(new User("PU" + s, "ps-student" + s, "ps" + s + "@campus.edu", "h", User.Role.STUDENT, "Student " + s));
+            }
+            db.saveUsers(users);
+            for (int c = 0; c < COURSES; c++) {
+                Course course = courses.get(c);
+                db.saveCourse(course);
+                List<AttendanceRecord> term = new ArrayList<>();
+                for (int d = 0; d < DAYS; d++) {
+                    for (int s = 0; s < ROSTER; s++) {
+                        term.add(new AttendanceRecord(null, course.getCourseId(), student(c, s), TERM_START.plusDays(d), LocalTime.NOON, (s + d) % 5 != 0));
+                    }
+                }
+                db.saveAttendanceRecords(term);
+            }
+
+            // Writers keep adding new marks, one course at a time, all through both moves
+            AtomicBoolean stop = new AtomicBoolean();
+            AtomicIntegerArray added = new AtomicIntegerArray(COURSES);
+            List<Thread> writers = new ArrayList<>();
+            for (int w = 0; w < 4; w++) {
+                int id = w;
+                writers.add(new Thread(() -> {
+                    for (int i = 0; !stop.get(); i++) {
+                        int c = (id + 4 * i) % COURSES;
+                        int round = (id + 4 * i) / COURSES;
+                        db.saveAttendanceRecord(new AttendanceRecord(null, courseIds.get(c), student(c, round % ROSTER),
+                                TERM_START.plusDays(DAYS + round / ROSTER), LocalTime.NOON, true));
+                        added.incrementAndGet(c);
+                    }
+                }));
+            }
+            writers.forEach(Thread::start);
+            for (int parts = 4; parts <= 5; parts++) {
+                HashRing before = new HashRing(parts - 1);
+                HashRing after = new HashRing(parts);
+                int moved = 0;
+                boolean onlyToNew = true;
+                for (String courseId : courseIds) {
+                    if (before.ownerOf(courseId) != after.ownerOf(courseId)) {
+                        moved++;
+                        onlyToNew &= after.ownerOf(courseId) == parts - 1;
+                    }
+                }
+                Thread.sleep(seconds * 200L);
+                long start = System.nanoTime();
+                db.addLocalPartition();
+                Harness.report("grew to %d partitions in %d ms, moving %d of %d courses with their marks",
+                        parts, (System.nanoTime() - start) / 1_000_000, moved, COURSES);
+                Harness.check(onlyToNew && moved <= 1.5 * COURSES / parts, "going to " + parts + " partitions moves only courses the new one owns");
+                Harness.check(!db.isRebalancing() && db.getPartitionCount() == parts, "rebalance onto partition " + parts + " finished");
+            }
+            Thread.sleep(seconds * 200L);
+            stop.set(true);
+            for (Thread writer : writers) writer.join();
+
+            int lost = 0;
+            for (int c = 0; c < COURSES; c++) {
+                if (db.getAttendanceForCourse(courseIds.get(c)).size() != ROSTER * DAYS + added.get(c)) lost++;
+            }
+            int total = 0;
+            for (int c = 0; c < COURSES; c++) total += added.get(c);
+            Harness.report("%,d marks written during the rebalances", total);
+            Harness.check(lost == 0, "every course has all its marks after the rebalance (" + lost + " short)");
+            Harness.check(db.getAllCourses().size() == COURSES, "every course is found once across partitions");
+            Harness.check(db.getAllUsersByRole(User.Role.STUDENT).size() == STUDENTS, "every student is found once across partitions");
+            int wrong = 0;
+            for (int s = 0; s < STUDENTS; s += 7) {
+                if (db.getUser("PU" + s) == null) wrong++;
+                if (db.getCoursesByStudent("PU" + s).size() != expectedCourses("PU" + s)) wrong++;
+            }
+            Harness.check(wrong == 0, "point reads and cross-partition course lookups match after the rebalance");
+        }
+    }
+
+    private static String student(int course, int seat) {
+        return "PU" + ((course * 37 + seat) % STUDENTS);
+    }
+
+    private static int expectedCourses(String studentId) {
+        int n = 0;
+        for (int c = 0; c < COURSES; c++) {
+            for (int s = 0; s < ROSTER; s++) {
+                if (student(c, s).equals(studentId)) {
+                    n++;
+                    break;
+                }
+            }
+        }
+        return n;
+    }
+}
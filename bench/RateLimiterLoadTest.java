@@ -0,0 +1,110 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Credential-stuffing load on LoginRateLimiter: 1M failed attempts spread over 100k usernames and
+ * 10k client addresses from several threads, with the limiter tracking at most 50k keys
+ * individually. Checks that tracked keys stay bounded, no username gets more than its burst, and
+ * that a throttled login through AuthenticationManager costs a small fraction of a real hash.
+ *
+ * Usage: java -cp out RateLimiterLoadTest [attempts] [usernames]
+ */
+class RateLimiterLoadTest {
+    private static final int THREADS = 8;
+    private static final int CLIENTS = 10_000;
+    private static final int CAPACITY = 5;
+    private static final int MAX_KEYS = 50_000;
+
+    public static void main(String[] args) throws InterruptedException {
+        Harness.silenceApp();
+        int attempts = Harness.intArg(args, 0, 1_000_000);
+        int usernames = Harness.intArg(args, 1, 100_000);
+
+        // Refill is slow enough that no bucket earns a token back during the run
+        LoginRateLimiter limiter = new LoginRateLimiter(CAPACITY, 60_000, CAPACITY, 15 * 60_000, MAX_KEYS);
+        AtomicIntegerArray allowedPerUser = new AtomicIntegerArray(usernames);
+        LongAdder allowed = new LongAdder();
+        int perThread = attempts / THREADS;
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            int seed = t;
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < perThread; i++) {
+                    int attempt = seed * perThread + i;
+                    int user = (int) ((attempt * 0x9E3779B1L & 0xFFFFFFFFL) % usernames);
+                    String name = "victim" + user;
+                    if (limiter.tryAcquire(name, "10.0." + (attempt % CLIENTS >> 8) + "." + (attempt % CLIENTS & 0xFF))) {
+                        limiter.recordFailure(name);
+                        allowedPerUser.incrementAndGet(user);
+                        allowed.increment();
+                    }
+                }
+            }));
+        }
+        long t0 = System.nanoTime();
+        threads.forEach(Thread::start);
+        for (Thread thread : threads) thread.join();
+        long nanos = System.nanoTime() - t0;
+        long total = (long) perThread * THREADS;
+        Harness.report("%,d attempts over %,d usernames and %,d clients on %d threads in %d ms: %,.0f attempts/s, %.0f ns each",
+                total, usernames, CLIENTS, THREADS, nanos / 1_000_000, total / (nanos / 1e9), nanos / (double) total);
+        Harness.report("allowed %,d, throttled %,d, tracked keys %,d, heap %,d MB",
+                allowed.sum(), total - allowed.sum(), limiter.getTrackedKeys(), Harness.usedHeap() >> 20);
+        Harness.check(limiter.getTrackedKeys() <= MAX_KEYS, "tracked keys stay within maxKeys");
+        int worst = 0;
+        for (int i = 0; i < usernames; i++) worst = Math.max(worst, allowedPerUser.get(i));
+        Harness.check(worst <= CAPACITY, "no username got more than its burst of " + CAPACITY + " (worst " + worst + ")");
+
+        // Rejection is O(1) per attempt; past the CPU caches its cost should stop growing with the key count
+        long cachedKeys = rejectionNanos(100);
+        long someKeys = rejectionNanos(usernames);
+        long manyKeys = rejectionNanos(usernames * 10);
+        Harness.report("rejection: %d ns with 100 keys, %d ns with %,d keys, %d ns with %,d keys",
+                cachedKeys, someKeys, usernames, manyKeys, usernames * 10);
+        Harness.check(manyKeys < someKeys * 2, "rejection cost stays flat as keys grow tenfold past the caches");
+
+        // A throttled login is refused before the hasher runs
+        Pbkdf2PasswordHasher hasher = Pbkdf2PasswordHasher.calibrated(50);
+        AuthenticationManager auth = new AuthenticationManager(new InMemoryDatabaseManager(), hasher, new LoginRateLimiter(CAPACITY, 60_000, CAPACITY, 15 * 60_000, MAX_KEYS), 2, 64);
+        auth.registerUser("target", "target@campus.edu", "correct horse", User.Role.STUDENT, "Target");
+        long hashed = 0;
+        for (int i = 0; i < CAPACITY; i++) {
+            long start = System.nanoTime();
+            auth.loginUser("target", "guess" + i, "10.1.0.1");
+            hashed += System.nanoTime() - start;
+        }
+        long throttled = Long.MAX_VALUE;
+        for (int round = 0; round < 20; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < 1_000; i++) auth.loginUser("target", "guess", "10.1.0.1");
+            throttled = Math.min(throttled, (System.nanoTime() - start) / 1_000);
+        }
+        Harness.report("login: %.1f ms with the hash, %d ns throttled (%d PBKDF2 iterations)", hashed / (double) CAPACITY / 1e6, throttled, hasher.getIterations());
+        Harness.check(auth.loginUser("target", "correct horse", "10.1.0.2") == null, "a locked-out account refuses even the right password");
+        Harness.check(throttled * 100 < hashed / CAPACITY, "a throttled login costs under 1% of a hashed one");
+    }
+
+    // Average time of one refused attempt once every key's bucket is empty
+    private static long rejectionNanos(int keys) {
+        LoginRateLimiter limiter = new LoginRateLimiter(1, 60_000, Integer.MAX_VALUE, 0, keys);
+        String[] names = new String[keys];
+        for (int i = 0; i < keys; i++) {
+            names[i] = "key" + i;
+            limiter.tryAcquire(names[i], null);
+        }
+        int calls = 2_000_000;
+        long best = Long.MAX_VALUE;
+        for (int round = 0; round < 5; round++) {
+            long start = System.nanoTime();
+            int refused = 0;
+            for (int i = 0; i < calls; i++) {
+                if (!limiter.tryAcquire(names[(int) ((i * 0x9E3779B1L & 0xFFFFFFFFL) % keys)], null)) refused++;
+            }
+            best = Math.min(best, (System.nanoTime() - start) / calls);
+            if (refused != calls) throw new AssertionError("expected every attempt to be refused, got " + refused);
+        }
+        return best;
+    }
+}
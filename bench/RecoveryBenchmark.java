@@ -0,0 +1,120 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * FileDatabaseManager startup recovery: writes a log of attendance marks with background
+ * snapshots off, then times a reopen that replays the whole log, and a reopen from a snapshot.
+ * Marks are logged a class session (200 students) per frame. The default is 1M marks; pass 10 for
+ * the 10M-mark log (java -Xmx2g ...).
+ *
+ * Usage: java -cp out RecoveryBenchmark [millionsOfMarks]
+ */
+class RecoveryBenchmark {
+    private static final int COURSES = 200;
+    private static final int STUDENTS_PER_COURSE = 200;
+    private static final int WRITERS = 20;
+
+    public static void main(String[] args) throws IOException {
+        Harness.silenceApp();
+        long marks = Harness.intArg(args, 0, 1) * 1_000_000L;
+        int days = (int) Math.max(1, marks / ((long) COURSES * STUDENTS_PER_COURSE));
+        long expected = (long) COURSES * STUDENTS_PER_COURSE * days;
+        LocalDate start = LocalDate.of(2024, 1, 1);
+        Path dir = Harness.tempDir("recovery-bench");
+        try {
+            FileDatabaseManager db = open(dir);
+            long t0 = System.nanoTime();
+            List<String> courseIds = new ArrayList<>();
+            for (int c = 0; c < COURSES; c++) {
+                Course course = new Course("CS" + (100 + c), "Course " + c, "instructor-" + (c % 40));
+                db.saveCourse(course);
+                courseIds.add(course.getCourseId());
+            }
+            // Several writers, as at class start, so sessions share group commits
+            List<Thread> writers = new ArrayList<>();
+            FileDatabaseManager target = db;
+            for (int w = 0; w < WRITERS; w++) {
+                int first = w;
+                writers.add(new Thread(() -> {
+                    for (int d = 0; d < days; d++) {
+                        for (int c = first; c < COURSES; c += WRITERS) {
+                            List<AttendanceRecord> session = new ArrayList<>(STUDENTS_PER_COURSE);
+                            for (int s = 0; s < STUDENTS_PER_COURSE; s++) {
+                                session.add(new AttendanceRecord(null, courseIds.get(c), "student-" + ((c * 7 + s) % 20_000), start.plusDays(d), LocalTime.of(9, s % 60), (s + d) % 6 != 0));
+                            }
+                            target.saveAttendanceRecords(session);
+                        }
+                    }
+                }));
+            }
+            writers.forEach(Thread::start);
+            for (Thread writer : writers) {
+                join(writer);
+            }
+            db.close();
+            long writeNanos = System.nanoTime() - t0;
+            Harness.report("logged %,d marks in %.1f s (%,.0f marks/s), log %,d MB",
+                    expected, writeNanos / 1e9, expected / (writeNanos / 1e9), directoryBytes(dir) >> 20);
+
+            System.gc();
+            t0 = System.nanoTime();
+            db = open(dir);
+            long replayNanos = System.nanoTime() - t0;
+            Harness.report("replayed full log in %.2f s (%,.0f marks/s)", replayNanos / 1e9, expected / (replayNanos / 1e9));
+            Harness.check(countMarks(db) == expected, "every logged mark is present after log replay");
+
+            t0 = System.nanoTime();
+            db.snapshot();
+            Harness.report("snapshot written in %.2f s, directory now %,d MB", (System.nanoTime() - t0) / 1e9, directoryBytes(dir) >> 20);
+            db.close();
+
+            db = null;
+            System.gc();
+            t0 = System.nanoTime();
+            db = open(dir);
+            long snapshotNanos = System.nanoTime() - t0;
+            Harness.report("recovered from snapshot in %.2f s (%,.0f marks/s)", snapshotNanos / 1e9, expected / (snapshotNanos / 1e9));
+            Harness.check(countMarks(db) == expected, "every mark is present after snapshot recovery");
+            db.close();
+        } finally {
+            Harness.deleteTree(dir);
+        }
+    }
+
+    // Background snapshots are disabled so the first reopen has the whole log to replay
+    private static FileDatabaseManager open(Path dir) throws IOException {
+        return new FileDatabaseManager(dir, 5, FileDatabaseManager.DEFAULT_SEGMENT_BYTES, Long.MAX_VALUE);
+    }
+
+    private static void join(Thread thread) {
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while loading the log", e);
+        }
+    }
+
+    private static long countMarks(DatabaseManager db) {
+        long count = 0;
+        for (Course course : db.getAllCourses()) {
+            count += db.streamAttendance(course.getCourseId(), AttendanceQuery.all()).count();
+        }
+        return count;
+    }
+
+    private static long directoryBytes(Path dir) {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.mapToLong(file -> file.toFile().length()).sum();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
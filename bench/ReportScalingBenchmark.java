@@ -0,0 +1,66 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * AttendanceReportEngine on 1, 2, 4 and 8 threads over a synthetic campus. The default is 5M
+ * marks; pass 50 for the full 50M-mark run (needs about 2 GB of heap: java -Xmx2g ...).
+ * Speedup is bounded by the cores this machine has, which the report prints first.
+ *
+ * Usage: java -cp out ReportScalingBenchmark [millionsOfMarks]
+ */
+class ReportScalingBenchmark {
+    private static final int COURSES = 500;
+    private static final int STUDENTS_PER_COURSE = 200;
+
+    public static void main(String[] args) throws IOException {
+        long marks = Harness.intArg(args, 0, 5) * 1_000_000L;
+        int days = (int) Math.max(1, marks / ((long) COURSES * STUDENTS_PER_COURSE));
+        LocalDate start = LocalDate.of(2024, 1, 1);
+        InMemoryDatabaseManager db = new InMemoryDatabaseManager();
+        long t0 = System.nanoTime();
+        for (int c = 0; c < COURSES; c++) {
+            String code = (c % 4 == 0 ? "CS" : c % 4 == 1 ? "MA" : c % 4 == 2 ? "PH" : "EN") + (100 + c);
+            Course course = new Course(code, "Course " + c, "instructor-" + (c % 40));
+            db.saveCourse(course);
+            for (int d = 0; d < days; d++) {
+                List<AttendanceRecord> session = new ArrayList<>(STUDENTS_PER_COURSE);
+                for (int s = 0; s < STUDENTS_PER_COURSE; s++) {
+                    session.add(new AttendanceRecord(null, course.getCourseId(), "student-" + ((c * 7 + s) % 20_000), start.plusDays(d), LocalTime.of(9, 0), (s + d) % 6 != 0));
+                }
+                db.saveAttendanceRecords(session);
+            }
+        }
+        long total = (long) COURSES * STUDENTS_PER_COURSE * days;
+        Harness.report("loaded %,d marks in %d s; %d cores available", total, (System.nanoTime() - t0) / 1_000_000_000, Runtime.getRuntime().availableProcessors());
+
+        Path csv = Files.createTempFile("report", ".csv");
+        try {
+            LocalDate to = start.plusDays(days - 1);
+            double single = 0;
+            for (int threads : new int[] {1, 2, 4, 8}) {
+                long best = Long.MAX_VALUE;
+                long counted = 0;
+                for (int run = 0; run < 2; run++) {
+                    t0 = System.nanoTime();
+                    counted = new AttendanceReportEngine(db, threads).writeCsv(start, to, csv);
+                    best = Math.min(best, System.nanoTime() - t0);
+                }
+                if (threads == 1) single = best;
+                Harness.report("threads=%d  %,6d ms  %,.0f marks/s  speedup %.2fx", threads, best / 1_000_000, counted * 1e9 / best, single / best);
+                Harness.check(counted == total, threads + " threads count every mark");
+            }
+            long rows;
+            try (java.util.stream.Stream<String> lines = Files.lines(csv)) {
+                rows = lines.count();
+            }
+            Harness.check(rows == 1 + COURSES + 40 + 4 + 1, "one row per course, instructor and department, plus the campus total and header");
+        } finally {
+            Files.delete(csv);
+        }
+    }
+}